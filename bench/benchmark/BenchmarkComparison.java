@@ -0,0 +1,141 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Compare a JMH result in JSON format with a baseline result and exit with status 1
+ * if a benchmark has regressed by more than the given tolerance. A regression is a
+ * higher time per operation, or a lower throughput, beyond the error margins of both
+ * results. Benchmarks missing in the baseline are reported but never fail. <br>
+ * Usage: BenchmarkComparison result.json baseline.json [tolerance in percent]
+ */
+public class BenchmarkComparison {
+
+	/**
+	 * Compare the result with the baseline.
+	 * 
+	 * @param args	the result file, the baseline file and the optional tolerance
+	 * @throws Exception if a file cannot be read or parsed
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: BenchmarkComparison result.json baseline.json "
+					+ "[tolerance in percent]");
+			System.exit(2);
+		}
+		double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+		Map<String, JSONObject> result = load(new File(args[0]));
+		Map<String, JSONObject> baseline = load(new File(args[1]));
+
+		int regressions = 0;
+		for (Map.Entry<String, JSONObject> e : result.entrySet()) {
+			JSONObject base = baseline.get(e.getKey());
+			if (base == null) {
+				System.out.println(String.format("%-70s new", e.getKey()));
+				continue;
+			}
+			JSONObject metric = e.getValue().getJSONObject("primaryMetric");
+			JSONObject baseMetric = base.getJSONObject("primaryMetric");
+			double score = metric.getDouble("score");
+			double baseScore = baseMetric.getDouble("score");
+			double error = errorOf(metric) + errorOf(baseMetric);
+			boolean lowerIsBetter = !"thrpt".equals(e.getValue().getString("mode"));
+			double change = lowerIsBetter ? score - baseScore : baseScore - score;
+			double percent = baseScore == 0 ? 0 : 100 * change / baseScore;
+			boolean regressed = percent > tolerance && change > error;
+			if (regressed)
+				regressions++;
+			System.out.println(String.format("%-70s %12.3f %12.3f %-8s %+7.1f%%%s",
+					e.getKey(), baseScore, score, metric.getString("scoreUnit"),
+					lowerIsBetter ? percent : -percent, regressed ? "  REGRESSION" : ""));
+		}
+		if (regressions > 0) {
+			System.out.println(regressions + " benchmark(s) regressed by more than "
+					+ tolerance + "%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Load a JMH result file.
+	 * 
+	 * @param file	the result file in JSON format
+	 * @return the benchmark runs by benchmark name and parameters
+	 * @throws IOException if the file cannot be read
+	 * @throws JSONException if the file is not a JMH result
+	 */
+	static Map<String, JSONObject> load(File file) throws IOException, JSONException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		byte[] content;
+		try {
+			content = new byte[(int) raf.length()];
+			raf.readFully(content);
+		} finally {
+			raf.close();
+		}
+		JSONArray runs = new JSONArray(new String(content, "UTF-8"));
+		Map<String, JSONObject> byKey = new LinkedHashMap<String, JSONObject>();
+		for (int i = 0; i < runs.length(); i++) {
+			JSONObject run = runs.getJSONObject(i);
+			byKey.put(keyOf(run), run);
+		}
+		return byKey;
+	}
+
+	/**
+	 * @param run	a benchmark run
+	 * @return the name of the benchmark with its sorted parameters
+	 * @throws JSONException if the run has no name
+	 */
+	static String keyOf(JSONObject run) throws JSONException {
+		StringBuilder key = new StringBuilder(run.getString("benchmark"));
+		JSONObject params = run.optJSONObject("params");
+		if (params != null) {
+			TreeSet<String> names = new TreeSet<String>();
+			for (Iterator<String> it = params.keys(); it.hasNext();)
+				names.add(it.next());
+			for (String name : names)
+				key.append(' ').append(name).append('=').append(params.getString(name));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param metric	a primary metric
+	 * @return the error margin of the score, 0 if unknown
+	 */
+	static double errorOf(JSONObject metric) {
+		double error = metric.optDouble("scoreError");
+		return Double.isNaN(error) ? 0 : error;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.OutputStream;
+
+import icap.IcapServer;
+import icap.services.Cliseau;
+
+/**
+ * The Cliseau ICAP service driven through in-memory streams instead of a client
+ * socket. It gives the benchmarks access to the parser state between the single 
+ * parsing steps.
+ */
+public class BenchmarkService extends Cliseau {
+
+	/**
+	 * The ICAP server shared by all benchmark services, it is never started
+	 */
+	private static IcapServer server;
+
+	/**
+	 * The stream receiving the responses
+	 */
+	private final Sink sink = new Sink();
+
+	/**
+	 * Create a service that is not attached to any stream yet.
+	 */
+	public BenchmarkService() {
+		super(getServer(), null);
+	}
+
+	/**
+	 * @return the ICAP server of the Cliseau service, created on first use
+	 */
+	private static synchronized IcapServer getServer() {
+		if (server == null)
+			server = new IcapServer("Cliseau", "127.0.0.1", 1344, null);
+		return server;
+	}
+
+	/**
+	 * Attach the given bytes as the requests of a new connection.
+	 * 
+	 * @param requests	the requests sent over the connection
+	 * @return the stream to parse the requests from
+	 */
+	public DataInputStream attach(byte[] requests) {
+		return attachStreams(new ByteArrayInputStream(requests), sink);
+	}
+
+	/**
+	 * Create a stream over the given bytes that is not attached to the service.
+	 * 
+	 * @param bytes	the bytes
+	 * @return the stream
+	 */
+	public static DataInputStream stream(byte[] bytes) {
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Clear the parsed ICAP header.
+	 */
+	public void clearIcapHeader() {
+		icapHeader.setLength(0);
+		icapHeaders.clear();
+	}
+
+	/**
+	 * Parse the HTTP request header from the given stream into a cleared header.
+	 * 
+	 * @param in	the stream
+	 * @return the number of parsed header fields
+	 * @throws Exception if the header cannot be parsed
+	 */
+	public int parseHttpRequest(DataInputStream in) throws Exception {
+		reqHeader.setLength(0);
+		httpReqHeaders.clear();
+		parseHttpRequest(in, reqHeader);
+		return httpReqHeaders.size();
+	}
+
+	/**
+	 * Parse the HTTP response header from the given stream into a cleared header.
+	 * 
+	 * @param in	the stream
+	 * @return the number of parsed header fields, -1 if the request has no HTTP 
+	 *         response
+	 * @throws Exception if the header cannot be parsed
+	 */
+	public int parseHttpResponse(DataInputStream in) throws Exception {
+		if (getHttpResponseHeaderSize() == 0)
+			return -1;
+		resHeader.setLength(0);
+		httpRespHeaders.clear();
+		parseHttpResponse(in, resHeader);
+		return httpRespHeaders.size();
+	}
+
+	/**
+	 * Read the complete body of the parsed request, including the preview, and
+	 * uncompress it.
+	 * 
+	 * @return the body, null if there is none
+	 */
+	public String readBody() {
+		return type == TYPE.RESPMOD ? getResponseBody() : getRequestBody();
+	}
+
+	/**
+	 * Clear the bodies read so far.
+	 */
+	public void clearBodies() {
+		reqBody.reset();
+		resBody.reset();
+	}
+
+	/**
+	 * @return the length of the ICAP header parsed last
+	 */
+	public int getIcapHeaderLength() {
+		return icapHeader.length();
+	}
+
+	/**
+	 * @return the size of the encapsulated HTTP request header parsed last
+	 */
+	public int getHttpRequestHeaderSize() {
+		if (type == TYPE.REQMOD)
+			return i_req_body > 0 ? i_req_body : i_null_body;
+		return i_res_hdr;
+	}
+
+	/**
+	 * @return the size of the encapsulated HTTP response header parsed last, 0 if 
+	 *         there is none
+	 */
+	public int getHttpResponseHeaderSize() {
+		if (type != TYPE.RESPMOD)
+			return 0;
+		return (i_res_body > 0 ? i_res_body : i_null_body) - i_res_hdr;
+	}
+
+	/**
+	 * @return the number of response bytes written so far
+	 */
+	public long getWritten() {
+		return sink.count;
+	}
+
+	/**
+	 * An output stream that only counts the written bytes.
+	 */
+	static class Sink extends OutputStream {
+
+		/** The number of written bytes */
+		long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import icap.core.Icap.TYPE;
+
+/**
+ * Benchmarks of the chunked transfer of bodies: reading one chunk of a RESPMOD body
+ * and writing a response body of 16 chunks. The chunks are read from a persistent
+ * in-memory connection carrying 1 MB of chunks, which is attached again when all
+ * chunks are read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkBenchmark {
+
+	/** The size of the chunks in bytes */
+	@Param({ "1024", "4096", "16384" })
+	public int chunkSize;
+
+	/** The service reading and writing the chunks */
+	private BenchmarkService service;
+
+	/** The chunks carried by the connection */
+	private byte[] chunks;
+
+	/** The exact size of every chunk */
+	private int firstChunk;
+
+	/** The size of the next chunk to read, 0 if the connection is exhausted */
+	private int next;
+
+	/** The ICAP and HTTP response header written before the body */
+	private String header;
+
+	/** The body of the response */
+	private ByteArrayOutputStream body;
+
+	/**
+	 * Build the chunks and the response.
+	 */
+	@Setup
+	public void setup() {
+		service = new BenchmarkService();
+		service.type = TYPE.RESPMOD;
+
+		byte[] data = IcapMessages.html(chunkSize);
+		String size = Integer.toHexString(data.length);
+		int count = Math.max(1, (1 << 20) / data.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < count; i++) {
+			out.write(data, 0, data.length);
+			byte[] trailer = (IcapMessages.CRLF + (i < count - 1 ? size : "0") 
+					+ IcapMessages.CRLF).getBytes();
+			out.write(trailer, 0, trailer.length);
+		}
+		chunks = out.toByteArray();
+		firstChunk = data.length;
+
+		byte[] page = IcapMessages.html(16 * chunkSize);
+		String http = IcapMessages.httpResponse(page.length, false);
+		header = "ICAP/1.0 200 OK" + IcapMessages.CRLF
+				+ "ISTag: \"Cliseau-bench\"" + IcapMessages.CRLF
+				+ "Encapsulated: res-hdr=0, res-body=" + http.length() + IcapMessages.CRLF
+				+ IcapMessages.CRLF + http;
+		body = new ByteArrayOutputStream();
+		body.write(page, 0, page.length);
+		service.attach(new byte[0]);
+	}
+
+	/**
+	 * Read the next chunk of the connection.
+	 */
+	@Benchmark
+	public int readChunk() {
+		if (next == 0) {
+			service.attach(chunks);
+			next = firstChunk;
+		}
+		service.clearBodies();
+		next = service.readChunk(next, false);
+		return next;
+	}
+
+	/**
+	 * Write the response with its body in chunks.
+	 */
+	@Benchmark
+	public long writeChunks() throws Exception {
+		service.writeChunks(header, body);
+		return service.getWritten();
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package benchmark;
+
+import java.io.DataInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cliseau.javacor.CriticalEvent;
+import icap.core.Icap.TYPE;
+
+/**
+ * Benchmark of the extraction of the critical event from a REQMOD request: parsing
+ * the request, reading and uncompressing its body and matching it against the 
+ * events of the service automaton. The requests are read from a persistent 
+ * in-memory connection of 256 requests, which is attached again when all requests
+ * are read. Subtracting {@link IcapParserBenchmark#parse()} gives the cost of the 
+ * body and the event extraction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CliseauBenchmark {
+
+	/** The name of the request, see {@link IcapMessages} */
+	@Param({ IcapMessages.REQMOD_GET, IcapMessages.REQMOD_LOGIN, 
+			IcapMessages.REQMOD_LOGIN_GZIP })
+	public String message;
+
+	/** The service extracting the events */
+	private BenchmarkService service;
+
+	/** The requests carried by the connection */
+	private byte[] connection;
+
+	/** The stream of the connection */
+	private DataInputStream in;
+
+	/**
+	 * Build the requests of the connection.
+	 */
+	@Setup
+	public void setup() {
+		service = new BenchmarkService();
+		connection = IcapMessages.repeat(IcapMessages.message(message), 256);
+		in = service.attach(connection);
+	}
+
+	/**
+	 * Parse the next request of the connection and extract its critical event.
+	 */
+	@Benchmark
+	public CriticalEvent getReqModCE() throws Exception {
+		if (service.parse(in) != TYPE.REQMOD) {
+			in = service.attach(connection);
+			service.parse(in);
+		}
+		return service.getReqModCE();
+	}
+}
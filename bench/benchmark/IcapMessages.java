@@ -0,0 +1,266 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Realistic ICAP requests as sent by a proxy for the web shop protected by CliCap:
+ * REQMOD requests with and without body, with plain and gzip encoded bodies, and
+ * RESPMOD requests with preview or with a body in several chunks. The messages are
+ * built once as byte arrays and replayed through in-memory streams.
+ */
+public class IcapMessages {
+
+	static final String CRLF = "\r\n";
+
+	/** Size of the chunks the proxy sends the bodies in */
+	public static final int CHUNK_SIZE = 4096;
+
+	/** The preview size announced by the proxy */
+	public static final int PREVIEW = 4096;
+
+	/** Request for the success page of the checkout, no body */
+	public static final String REQMOD_GET = "reqmod-get";
+
+	/** Login form posted to the shop */
+	public static final String REQMOD_LOGIN = "reqmod-login";
+
+	/** Login form posted to the shop with a gzip encoded body */
+	public static final String REQMOD_LOGIN_GZIP = "reqmod-login-gzip";
+
+	/** Small HTML page sent completely within the preview */
+	public static final String RESPMOD_PREVIEW = "respmod-preview";
+
+	/** Large gzip encoded HTML page sent in several chunks */
+	public static final String RESPMOD_GZIP = "respmod-gzip";
+
+	/** The cookie of the shop session */
+	static final String COOKIE = "Cookie: sid=5f2c3b9a8e7d6c1f0a4b3e2d; language=de; "
+			+ "cart=3" + CRLF;
+
+	/** The form posted by the login */
+	static final String LOGIN_FORM = "email_address=alice%40example.org&password="
+			+ "s3cr3t&action=process&x=23&y=11";
+
+	/**
+	 * Build the named message.
+	 * 
+	 * @param name	one of the message names of this class
+	 * @return the ICAP request
+	 */
+	public static byte[] message(String name) {
+		if (REQMOD_GET.equals(name))
+			return reqmod(httpRequest("GET", "/checkout.php?success", 0, false), null);
+		if (REQMOD_LOGIN.equals(name))
+			return reqmod(httpRequest("POST", "/account.php?login=process", 
+					LOGIN_FORM.length(), false), LOGIN_FORM.getBytes());
+		if (REQMOD_LOGIN_GZIP.equals(name)) {
+			byte[] body = gzip(LOGIN_FORM.getBytes());
+			return reqmod(httpRequest("POST", "/account.php?login=process", 
+					body.length, true), body);
+		}
+		if (RESPMOD_PREVIEW.equals(name)) {
+			byte[] body = html(2048);
+			return respmod(httpResponse(body.length, false), body, PREVIEW);
+		}
+		if (RESPMOD_GZIP.equals(name)) {
+			byte[] body = gzip(html(64 * 1024));
+			return respmod(httpResponse(body.length, true), body, -1);
+		}
+		throw new IllegalArgumentException("Unknown message " + name);
+	}
+
+	/**
+	 * Build a REQMOD request.
+	 * 
+	 * @param httpHeader	the HTTP request header, ending with an empty line
+	 * @param body			the body of the HTTP request, null if there is none
+	 * @return the ICAP request
+	 */
+	public static byte[] reqmod(String httpHeader, byte[] body) {
+		String icap = "REQMOD icap://127.0.0.1:1344/Cliseau ICAP/1.0" + CRLF
+				+ "Host: 127.0.0.1:1344" + CRLF
+				+ "Allow: 204" + CRLF
+				+ "X-Client-IP: 192.168.1.17" + CRLF
+				+ "Encapsulated: req-hdr=0, " + (body == null ? "null-body=" 
+						: "req-body=") + httpHeader.length() + CRLF + CRLF;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, icap + httpHeader);
+		if (body != null)
+			chunked(out, body, -1);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Build a RESPMOD request of the checkout page.
+	 * 
+	 * @param httpHeader	the HTTP response header, ending with an empty line
+	 * @param body			the body of the HTTP response
+	 * @param preview		the preview size, -1 for no preview
+	 * @return the ICAP request
+	 */
+	public static byte[] respmod(String httpHeader, byte[] body, int preview) {
+		String request = httpRequest("GET", "/checkout.php?payment", 0, false);
+		String icap = "RESPMOD icap://127.0.0.1:1344/Cliseau ICAP/1.0" + CRLF
+				+ "Host: 127.0.0.1:1344" + CRLF
+				+ "Allow: 204" + CRLF
+				+ (preview >= 0 ? "Preview: " + preview + CRLF : "")
+				+ "Encapsulated: req-hdr=0, res-hdr=" + request.length() + ", res-body="
+				+ (request.length() + httpHeader.length()) + CRLF + CRLF;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(out, icap + request + httpHeader);
+		chunked(out, body, preview);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Build an HTTP request header as sent by a current browser.
+	 * 
+	 * @param method		the HTTP method
+	 * @param path			the requested path
+	 * @param contentLength	the length of the body, 0 if there is none
+	 * @param gzip			whether the body is gzip encoded
+	 * @return the header, ending with an empty line
+	 */
+	static String httpRequest(String method, String path, int contentLength, 
+			boolean gzip) {
+		return method + " http://shop.example.org" + path + " HTTP/1.1" + CRLF
+				+ "Host: shop.example.org" + CRLF
+				+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:45.0) Gecko/20100101 "
+				+ "Firefox/45.0" + CRLF
+				+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;"
+				+ "q=0.8" + CRLF
+				+ "Accept-Language: de,en-US;q=0.7,en;q=0.3" + CRLF
+				+ "Accept-Encoding: gzip, deflate" + CRLF
+				+ "Referer: http://shop.example.org/account.php" + CRLF
+				+ COOKIE
+				+ "Connection: keep-alive" + CRLF
+				+ (contentLength > 0 ? "Content-Type: application/x-www-form-urlencoded"
+						+ CRLF + "Content-Length: " + contentLength + CRLF : "")
+				+ (gzip ? "Content-Encoding: gzip" + CRLF : "")
+				+ CRLF;
+	}
+
+	/**
+	 * Build an HTTP response header of the shop.
+	 * 
+	 * @param contentLength	the length of the body
+	 * @param gzip			whether the body is gzip encoded
+	 * @return the header, ending with an empty line
+	 */
+	static String httpResponse(int contentLength, boolean gzip) {
+		return "HTTP/1.1 200 OK" + CRLF
+				+ "Date: Mon, 19 Oct 2015 10:12:31 GMT" + CRLF
+				+ "Server: Apache/2.4.7 (Ubuntu)" + CRLF
+				+ "X-Powered-By: PHP/5.5.9-1ubuntu4.14" + CRLF
+				+ "Expires: Thu, 19 Nov 1981 08:52:00 GMT" + CRLF
+				+ "Cache-Control: no-store, no-cache, must-revalidate" + CRLF
+				+ "Set-Cookie: sid=5f2c3b9a8e7d6c1f0a4b3e2d; path=/; HttpOnly" + CRLF
+				+ "Content-Type: text/html; charset=utf-8" + CRLF
+				+ "Content-Length: " + contentLength + CRLF
+				+ (gzip ? "Content-Encoding: gzip" + CRLF : "")
+				+ CRLF;
+	}
+
+	/**
+	 * Build an HTML page listing products, of about the given size.
+	 * 
+	 * @param size	the size in bytes
+	 * @return the page
+	 */
+	public static byte[] html(int size) {
+		StringBuilder sb = new StringBuilder("<!DOCTYPE html><html><head><title>Shop"
+				+ "</title></head><body><table class=\"products\">\n");
+		for (int i = 0; sb.length() < size - 32; i++)
+			sb.append("<tr><td><a href=\"product_info.php?products_id=").append(i)
+					.append("\">Product ").append(i).append("</a></td><td class=\"price\">")
+					.append(i % 97).append(",99 EUR</td></tr>\n");
+		sb.append("</table></body></html>");
+		return sb.toString().getBytes();
+	}
+
+	/**
+	 * Write the given body in chunks of CHUNK_SIZE. With a preview, the body must fit
+	 * into the preview and is terminated by a zero chunk with ieof.
+	 * 
+	 * @param out		the stream to write to
+	 * @param body		the body
+	 * @param preview	the preview size, -1 for no preview
+	 */
+	static void chunked(ByteArrayOutputStream out, byte[] body, int preview) {
+		if (preview >= 0 && body.length > preview)
+			throw new IllegalArgumentException("Body does not fit into the preview");
+		for (int pos = 0; pos < body.length; pos += CHUNK_SIZE) {
+			int len = Math.min(CHUNK_SIZE, body.length - pos);
+			write(out, Integer.toHexString(len) + CRLF);
+			out.write(body, pos, len);
+			write(out, CRLF);
+		}
+		write(out, (preview >= 0 ? "0; ieof" : "0") + CRLF + CRLF);
+	}
+
+	/**
+	 * Compress the given data with gzip.
+	 * 
+	 * @param data	the data
+	 * @return the compressed data
+	 */
+	public static byte[] gzip(byte[] data) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			GZIPOutputStream gz = new GZIPOutputStream(out);
+			gz.write(data);
+			gz.close();
+			return out.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Concatenate the given message the given number of times, as the requests of a
+	 * persistent ICAP connection.
+	 * 
+	 * @param message	the message
+	 * @param times		the number of copies
+	 * @return the concatenated messages
+	 */
+	public static byte[] repeat(byte[] message, int times) {
+		byte[] all = new byte[message.length * times];
+		for (int i = 0; i < times; i++)
+			System.arraycopy(message, 0, all, i * message.length, message.length);
+		return all;
+	}
+
+	/**
+	 * Write the given ASCII text.
+	 * 
+	 * @param out	the stream to write to
+	 * @param text	the text
+	 */
+	private static void write(ByteArrayOutputStream out, String text) {
+		byte[] bytes = text.getBytes();
+		out.write(bytes, 0, bytes.length);
+	}
+}
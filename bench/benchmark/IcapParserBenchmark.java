@@ -0,0 +1,138 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import icap.core.Icap.TYPE;
+
+/**
+ * Benchmarks of the parsing steps of an ICAP request: the complete parsing of the
+ * headers, the single steps ICAP header, HTTP request header and HTTP response 
+ * header, and reading the body including preview, chunks and gzip decoding. Every 
+ * invocation parses a fresh in-memory stream. The HTTP response header is only
+ * parsed for RESPMOD messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IcapParserBenchmark {
+
+	/** The name of the parsed message, see {@link IcapMessages} */
+	@Param({ IcapMessages.REQMOD_GET, IcapMessages.REQMOD_LOGIN, 
+			IcapMessages.REQMOD_LOGIN_GZIP, IcapMessages.RESPMOD_PREVIEW, 
+			IcapMessages.RESPMOD_GZIP })
+	public String message;
+
+	/** The service parsing the message */
+	private BenchmarkService service;
+
+	/** The complete message */
+	private byte[] bytes;
+
+	/** The ICAP header of the message */
+	private byte[] icapHeader;
+
+	/** The encapsulated HTTP request header */
+	private byte[] requestHeader;
+
+	/** The encapsulated HTTP response header, empty for REQMOD */
+	private byte[] responseHeader;
+
+	/**
+	 * Build the message and split it into its headers.
+	 * 
+	 * @throws Exception if the message cannot be parsed
+	 */
+	@Setup
+	public void setup() throws Exception {
+		bytes = IcapMessages.message(message);
+		service = new BenchmarkService();
+		service.parseIcapHeader(BenchmarkService.stream(bytes));
+		int icapEnd = service.getIcapHeaderLength();
+		int requestEnd = icapEnd + service.getHttpRequestHeaderSize();
+		icapHeader = Arrays.copyOfRange(bytes, 0, icapEnd);
+		requestHeader = Arrays.copyOfRange(bytes, icapEnd, requestEnd);
+		responseHeader = Arrays.copyOfRange(bytes, requestEnd, 
+				requestEnd + service.getHttpResponseHeaderSize());
+	}
+
+	/**
+	 * Parse the ICAP header and the encapsulated HTTP headers, as done for every
+	 * request.
+	 */
+	@Benchmark
+	public TYPE parse() throws Exception {
+		return service.parse(BenchmarkService.stream(bytes));
+	}
+
+	/**
+	 * Parse the ICAP header only.
+	 */
+	@Benchmark
+	public TYPE parseIcapHeader() throws Exception {
+		service.clearIcapHeader();
+		return service.parseIcapHeader(BenchmarkService.stream(icapHeader));
+	}
+
+	/**
+	 * Parse the encapsulated HTTP request header only.
+	 */
+	@Benchmark
+	public int parseHttpRequest() throws Exception {
+		return service.parseHttpRequest(BenchmarkService.stream(requestHeader));
+	}
+
+	/**
+	 * Parse the encapsulated HTTP response header only.
+	 */
+	@Benchmark
+	public int parseHttpResponse() throws Exception {
+		return service.parseHttpResponse(BenchmarkService.stream(responseHeader));
+	}
+
+	/**
+	 * Parse the request and read its complete body as a new connection does: the
+	 * streams are attached, the preview and all chunks are read and a gzip body is
+	 * uncompressed.
+	 */
+	@Benchmark
+	public String parseAndReadBody() throws Exception {
+		service.parse(service.attach(bytes));
+		return service.readBody();
+	}
+}
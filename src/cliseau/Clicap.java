@@ -21,19 +21,33 @@ package cliseau;
 
 import icap.IcapServer;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 import cliseau.central.FingerTable;
+import cliseau.central.Topology;
+import cliseau.central.delegation.IcapJoiningNotification;
+import cliseau.central.delegation.Notification;
 import cliseau.central.policy.IcapPolicy;
+import cliseau.central.policy.PriorityClasses;
 import cliseau.central.policy.scaling.LeavingProtocol;
 import cliseau.central.policy.scaling.JoiningProtocol;
+import cliseau.central.policy.scaling.Node;
+import cliseau.central.policy.scaling.PeriodicalChecker;
+import cliseau.central.policy.scaling.StandbyPool;
 import cliseau.javacor.Coordinator;
 import cliseau.javacor.CoordinatorAddressing;
+import cliseau.javacor.FailureDetector;
 import cliseau.javatarget.CoordinatorInterface;
 
 /**
@@ -70,6 +84,18 @@ public class Clicap {
 	public static final String PRE_PORT = "PRE_PORT";
 	public static final String SUC_PORT = "SUC_PORT";
 
+	/**
+	 * First argument given to a CliCap process that is launched as a standby node. 
+	 * Such a process only opens its remote port and waits for its configuration.
+	 */
+	public static final String STANDBY = "standby";
+	
+	/**
+	 * The file (relative to the working directory) storing the optional tuning 
+	 * parameters of this CliCap unit
+	 */
+	public static final String PROPERTIES_FILE = "conf/clicap.properties";
+
 	/**
 	 * The local policy of this CliCap unit
 	 */
@@ -86,10 +112,19 @@ public class Clicap {
 	 * The finger table maintained by this CliCap unit
 	 */
 	public static FingerTable fTable;
+	/**
+	 * The current topology snapshot of this CliCap unit. It is never modified but
+	 * replaced as a whole on every membership change.
+	 */
+	private static volatile Topology topology;
 	/**
 	 * Stores the configuration parameters
 	 */
 	public static Map<String, String> config;
+	/**
+	 * Stores the optional tuning parameters read from {@link #PROPERTIES_FILE}
+	 */
+	public static Properties properties = new Properties();
 
 	/**
 	 * Initialize the finger table and configure the CliCap unit according to the given
@@ -114,12 +149,37 @@ public class Clicap {
 	 *            + Port of the successor <br>
 	 *            + bitLength (number of bits of identifiers)  <br>
 	 *            + Tuples of remote units' id, their domains and ports. <br>
+	 *            If the first argument is "standby", the process is started as a
+	 *            standby node instead (see {@link StandbyPool}).
 	 */
 	public static void main(String[] args) {
 		
+		loadProperties();
+		
+		if (args != null && args.length > 0 && args[0].equals(STANDBY)) 
+			// Start as a standby node and wait to be claimed by a joining process
+			startStandby(args);
+		else
+			start(args, null);
+	}
+	
+	/**
+	 * Configure the CliCap unit according to the given configuration arguments and 
+	 * run it. 
+	 * 
+	 * @param args
+	 * 			The configuration arguments as described in {@link #main(String[])}
+	 * @param remoteServer
+	 * 			The already bound socket for listening to remote CliSeAu units, or null 
+	 * 			if it still has to be opened
+	 */
+	private static void start(String[] args, ServerSocket remoteServer) {
+		
 		ArrayList<Integer> ftEntries;
 		ftEntries = new ArrayList<Integer>();
-		addressing = new CoordinatorAddressing();
+		addressing = new CoordinatorAddressing(new FailureDetector(
+				Double.parseDouble(getProperty("failuredetector.threshold", "8")),
+				getIntProperty("failuredetector.retryafter", 5000)));
 
 		// <----------------------------------------------------------------------------->
 		//						  Read Configuration Parameters
@@ -166,8 +226,13 @@ public class Clicap {
 		// 		   Instantiate Finger Table From the configuration information
 		// <----------------------------------------------------------------------------->
 		
-		fTable = new FingerTable(Integer.parseInt(config.get(ID)),
-				Integer.parseInt(config.get(BIT_LENGTH)), ftEntries);
+		topology = new Topology(0, Integer.parseInt(config.get(ID)),
+				Integer.parseInt(config.get(BIT_LENGTH)),
+				Integer.parseInt(config.get(PREDECESSOR)), config.get(PRE_DOMAIN),
+				Integer.parseInt(config.get(PRE_PORT)),
+				Integer.parseInt(config.get(SUCCESSOR)), config.get(SUC_DOMAIN),
+				Integer.parseInt(config.get(SUC_PORT)), ftEntries);
+		fTable = new FingerTable(topology.id, topology.bitLength, ftEntries);
 
 		// Instantiate Local Policy
 		loc = new IcapPolicy(config.get(ID), config.get(IS_READY).equals("1"));
@@ -175,7 +240,7 @@ public class Clicap {
 		// Initialize joining and leaving protocols
 			JoiningProtocol.init(loc);
 			LeavingProtocol.init(loc);
-		
+			
 		// Initialize Coordination Interface
 		try {
 			CoordinatorInterface.init(new InetSocketAddress(config.get(DOMAIN),
@@ -193,8 +258,26 @@ public class Clicap {
 		if (config.get(IS_CENTRAL).equals("1"))
 			IcapServer.main(null);
 
+		// Bind the remote port before anyone is told about this unit, such that
+		// early messages wait in the backlog instead of being refused
+		if (remoteServer == null) {
+			try {
+				remoteServer = new ServerSocket(Integer.parseInt(config.get(REMOTE_PORT)));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
 		// Fork a thread to run a CliSeAu Unit
-		new Thread(new CliseaulUnit()).start();
+		new Thread(new CliseaulUnit(remoteServer)).start();
+
+		// The central unit keeps a pool of standby nodes for scaling out. They are
+		// launched only now since they report to the remote port of this unit.
+		if (config.get(IS_CENTRAL).equals("1"))
+			StandbyPool.init();
+
+		// Check the successor with an adaptive period
+		PeriodicalChecker.startStabilization();
 
 		// uncomment this to run mapping test
 		/*MappingTest mappingTest = new MappingTest((IcapPolicy) loc);
@@ -206,14 +289,32 @@ public class Clicap {
 	 *
 	 */
 	private static class CliseaulUnit implements Runnable {
+		
+		/**
+		 * The socket for listening to remote units if already bound, otherwise null
+		 */
+		private ServerSocket remoteServer;
+		
+		public CliseaulUnit(ServerSocket remoteServer) {
+			this.remoteServer = remoteServer;
+		}
+		
 		public void run() {
 			// Instantiate and run Coordinator
 			try {
 				System.out.println("Server " + config.get(ID) + " is started \n");
+				if (remoteServer == null)
+					remoteServer = new ServerSocket(
+							Integer.parseInt(config.get(REMOTE_PORT)));
+				int shards = getIntProperty("coordinator.shards", 1);
+				if (shards <= 0)
+					shards = Runtime.getRuntime().availableProcessors();
 				coor = new Coordinator(config.get(ID), new ServerSocket(
 						Integer.parseInt(config.get(COR_PORT))),
-						new ServerSocket(Integer.parseInt(config
-								.get(REMOTE_PORT))), addressing, loc);
+						remoteServer, addressing, loc, shards,
+						getIntProperty("coordinator.decodethreads", 1),
+						getIntProperty("coordinator.queuecapacity", 1024),
+						PriorityClasses.getWeights());
 				// Run the coordinator of this CliSeAu unit
 				coor.run();
 			} catch (IOException e) {
@@ -222,6 +323,142 @@ public class Clicap {
 		}
 	}
 	
+	/**
+	 * Run this process as a standby node. The remote port is opened at once and the 
+	 * major node is told that this node is ready to be claimed. The process then waits
+	 * on the remote port until a joining process sends the configuration arguments,
+	 * starts the CliCap unit with them and confirms the configuration to the major 
+	 * node. This way the costs of launching and warming up a JVM are not paid while a
+	 * joining process is running.
+	 * 
+	 * @param args
+	 * 			The standby arguments: "standby", the host and port of this node, and 
+	 * 			the host and port of the major node
+	 */
+	private static void startStandby(String[] args) {
+		
+		String domain = null;
+		int port = 0;
+		Node majorNode = null;
+		ServerSocket remoteServer = null;
+		try {
+			domain = args[1];
+			port = Integer.parseInt(args[2]);
+			majorNode = new Node(-1, args[3], Integer.parseInt(args[4]));
+			remoteServer = new ServerSocket(port);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.err.println("Wrong arguments!");
+			System.exit(0);
+		}
+		
+		// Load the classes needed on the decision path before being claimed
+		StandbyPool.preloadClasses();
+		
+		// Readiness handshake: tell the major node that this standby node is up. The
+		// major node may still be starting, so failed attempts are retried with an
+		// exponentially growing delay.
+		IcapJoiningNotification ready = 
+				new IcapJoiningNotification(Notification.JOIN_STANDBY_READY);
+		ready.setSource(new Node(-1, domain, port));
+		int attempts = Math.max(1, getIntProperty("standby.readyattempts", 8));
+		long backoff = getIntProperty("standby.readybackoff", 250);
+		for (int attempt = 1; ; attempt++) {
+			try {
+				send(majorNode, ready);
+				break;
+			} catch (IOException e) {
+				if (attempt >= attempts) {
+					e.printStackTrace();
+					System.err.println("Major node unreachable! Standby node stopped");
+					System.exit(0);
+				}
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			backoff *= 2;
+		}
+		System.out.println("Standby node " + domain + ":" + port + " is ready \n");
+		
+		// Wait for the configuration sent by the major node
+		IcapJoiningNotification configuration = null;
+		while (configuration == null) {
+			try {
+				Socket connection = remoteServer.accept();
+				try {
+					ObjectInputStream ois = 
+							new ObjectInputStream(connection.getInputStream());
+					Object obj = ois.readObject();
+					if (obj instanceof IcapJoiningNotification 
+							&& ((IcapJoiningNotification) obj).getType() 
+								== Notification.JOIN_STEP_5A_CONFIGURE_STANDBY)
+						configuration = (IcapJoiningNotification) obj;
+				} finally {
+					connection.close();
+				}
+			} catch (IOException e) {
+				// Ignore connection failures and keep on waiting
+				continue;
+			} catch (ClassNotFoundException e) {
+				continue;
+			}
+		}
+		
+		List<String> arguments = configuration.getArguments();
+		start(arguments.toArray(new String[arguments.size()]), remoteServer);
+		
+		// Confirm the configuration to the major node
+		IcapJoiningNotification configured = 
+				new IcapJoiningNotification(Notification.JOIN_STEP_5B_STANDBY_CONFIGURED);
+		configured.setSource(new Node(getIDnum(), getDomain(), getRemotePort()));
+		configured.setSessionID(configuration.getSessionID());
+		try {
+			send(configuration.getSource(), configured);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Send the given notification directly to the remote port of the given node. This 
+	 * is only used while the coordinator of this unit is not yet running.
+	 * 
+	 * @param dest	the destination node
+	 * @param notif	the notification to be sent
+	 * @throws IOException	if the connection to the destination fails
+	 */
+	private static void send(Node dest, IcapJoiningNotification notif) 
+			throws IOException {
+		Socket connection = new Socket(dest.domain, dest.port);
+		try {
+			ObjectOutputStream oos = 
+					new ObjectOutputStream(connection.getOutputStream());
+			oos.writeObject(notif);
+		} finally {
+			connection.close();
+		}
+	}
+	
+	/**
+	 * Load the optional tuning parameters of this unit from {@link #PROPERTIES_FILE}.
+	 * All parameters have defaults, so a missing file is not an error.
+	 */
+	private static void loadProperties() {
+		try {
+			FileInputStream in = new FileInputStream(PROPERTIES_FILE);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// No properties file => use the defaults
+		}
+	}
+	
 	/**
 	 * Terminate this node. This method is called at in the last step of the leaving 
 	 * process of this node.
@@ -234,12 +471,36 @@ public class Clicap {
 	// 										Getters
 	// <--------------------------------------------------------------------------------->
 	
+	/**
+	 * Obtain the tuning parameter with the given key
+	 * @param key			the key of the parameter
+	 * @param defaultValue	the value to be used if the parameter is not set
+	 * @return	the parameter value
+	 */
+	public static String getProperty(String key, String defaultValue) {
+		return properties.getProperty(key, defaultValue).trim();
+	}
+	
+	/**
+	 * Obtain the numeric tuning parameter with the given key
+	 * @param key			the key of the parameter
+	 * @param defaultValue	the value to be used if the parameter is not set or invalid
+	 * @return	the parameter value
+	 */
+	public static int getIntProperty(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(getProperty(key, Integer.toString(defaultValue)));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+	
 	/**
 	 * Obtain the bit length of the identifiers of the nodes in network 
 	 * @return	the bit length 
 	 */
 	public static int getBitLength(){
-		return Integer.parseInt(config.get(BIT_LENGTH));
+		return topology.bitLength;
 	}
 	
 	/**
@@ -248,7 +509,7 @@ public class Clicap {
 	 * @return	the capacity of the network
 	 */
 	public static int getCapacity(){
-		 return (int) Math.pow(2, Clicap.getBitLength());
+		 return topology.capacity;
 	}
 	
 	/**
@@ -264,7 +525,7 @@ public class Clicap {
 	 * @return the identifier
 	 */
 	public static int getIDnum() {
-		return Integer.parseInt(config.get(ID));
+		return topology.id;
 	}
 	
 	/**
@@ -288,7 +549,7 @@ public class Clicap {
 	 * @return the identifier
 	 */
 	public static String getPredID(){
-		return config.get(PREDECESSOR);
+		return Integer.toString(topology.predID);
 	}
 	
 	/**
@@ -296,7 +557,7 @@ public class Clicap {
 	 * @return the identifier
 	 */
 	public static int getPredIDnum(){
-		return Integer.parseInt(config.get(PREDECESSOR));
+		return topology.predID;
 	}
 	
 	/**
@@ -304,7 +565,7 @@ public class Clicap {
 	 * @return the host
 	 */
 	public static String getPredDomain(){
-		return config.get(PRE_DOMAIN);
+		return topology.predDomain;
 	}
 	
 	/**
@@ -312,7 +573,7 @@ public class Clicap {
 	 * @return the port
 	 */
 	public static int getPredPort(){
-		return Integer.parseInt(config.get(PRE_PORT));
+		return topology.predPort;
 	}
 	
 	/**
@@ -320,7 +581,7 @@ public class Clicap {
 	 * @return the identifier
 	 */
 	public static String getSucID(){
-		return config.get(SUCCESSOR);
+		return Integer.toString(topology.sucID);
 	}
 	
 	/**
@@ -328,7 +589,7 @@ public class Clicap {
 	 * @return the identifier
 	 */
 	public static int getSucIDnum(){
-		return Integer.parseInt(config.get(SUCCESSOR));
+		return topology.sucID;
 	}
 	
 	/**
@@ -336,7 +597,7 @@ public class Clicap {
 	 * @return the host
 	 */
 	public static String getSucDomain(){
-		return config.get(SUC_DOMAIN);
+		return topology.sucDomain;
 	}
 	
 	/**
@@ -344,6 +605,82 @@ public class Clicap {
 	 * @return the port
 	 */
 	public static int getSucPort(){
-		return Integer.parseInt(config.get(SUC_PORT));
+		return topology.sucPort;
+	}
+	
+	/**
+	 * Obtain the local policy of this node, e.g. for monitoring its traces.
+	 * @return the local policy, null if not yet instantiated
+	 */
+	public static IcapPolicy getPolicy(){
+		return loc;
+	}
+	
+	/**
+	 * Obtain the coordinator of this node, e.g. for monitoring its stages.
+	 * @return the coordinator, null if not yet started
+	 */
+	public static Coordinator getCoordinator(){
+		return coor;
+	}
+	
+	/**
+	 * Obtain the current topology snapshot of this node. The returned object is
+	 * immutable, so all values read from it are consistent with each other.
+	 * @return the topology snapshot
+	 */
+	public static Topology getTopology(){
+		return topology;
+	}
+	
+	/**
+	 * Replace the predecessor of this node. A new topology snapshot is published.
+	 * @param id		identifier of the new predecessor
+	 * @param domain	host of the new predecessor
+	 * @param port		remote port of the new predecessor
+	 * @param epoch		ID of the session that causes the change
+	 */
+	public static synchronized void setPredecessor(int id, String domain, int port,
+			long epoch){
+		Topology t = topology;
+		topology = t.next(id, domain, port, t.sucID, t.sucDomain, t.sucPort,
+				fTable.getEntries(), epoch);
+	}
+	
+	/**
+	 * Replace the successor of this node. A new topology snapshot is published.
+	 * @param id		identifier of the new successor
+	 * @param domain	host of the new successor
+	 * @param port		remote port of the new successor
+	 * @param epoch		ID of the session that causes the change
+	 */
+	public static synchronized void setSuccessor(int id, String domain, int port,
+			long epoch){
+		Topology t = topology;
+		topology = t.next(t.predID, t.predDomain, t.predPort, id, domain, port,
+				fTable.getEntries(), epoch);
+	}
+	
+	/**
+	 * Replace the i-th entry of the finger table of this node. A new topology snapshot
+	 * is published.
+	 * @param row	the row of the finger table
+	 * @param id	identifier of the new entry
+	 * @param epoch	ID of the session that causes the change
+	 */
+	public static synchronized void setFinger(int row, int id, long epoch){
+		fTable.setNode(row, id);
+		advanceEpoch(epoch);
+	}
+	
+	/**
+	 * Publish a new topology snapshot with the same neighbours but the given epoch.
+	 * Called by a joining node which has been set up by the given session.
+	 * @param epoch	ID of the session that causes the change
+	 */
+	public static synchronized void advanceEpoch(long epoch){
+		Topology t = topology;
+		topology = t.next(t.predID, t.predDomain, t.predPort, t.sucID, t.sucDomain,
+				t.sucPort, fTable.getEntries(), epoch);
 	}
-}
\ No newline at end of file
+}
@@ -242,6 +242,14 @@ public class FingerTable {
 		return entries.get(i-1);
 	}
 	
+	/**
+	 * Retrieve a copy of all entries of this finger table
+	 * @return the entries, starting with row 1
+	 */
+	public List<Integer> getEntries(){
+		return new ArrayList<Integer>(entries);
+	}
+	
 	/**
 	 * Retrieve the extended version of th it-th node of this finger table
 	 * @param  i 
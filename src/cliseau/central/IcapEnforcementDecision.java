@@ -61,6 +61,13 @@ public class IcapEnforcementDecision implements EnforcementDecision {
 	 */
 	public Type type;
 
+	/**
+	 * The request ID of the event for which this decision is made, 0 if the decision
+	 * is not made for a single event (e.g. the decision about a scaling batch). The 
+	 * ICAP service uses it to hand the decision to the thread awaiting it.
+	 */
+	public long requestID = 0;
+
 	/**
 	 * Construct a new enforcement decision with the given decision and type.
 	 * 
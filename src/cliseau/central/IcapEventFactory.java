@@ -158,6 +158,9 @@ public class IcapEventFactory implements CriticalEventFactory {
 	
 	/**
 	 * Creates an admin event from client side out of the given HTTP header and HTTP body.
+	 * The body of a scaling request may name several nodes (repeated id, domain and
+	 * port parameters for joining, repeated id parameters for leaving), in which case 
+	 * all of them join or leave as one batch.
 	 * 
 	 * @param headers The HTTP header used for the event's creation.
 	 * @param body The HTTP body used for the event's creation.
@@ -165,12 +168,22 @@ public class IcapEventFactory implements CriticalEventFactory {
 	 */
 	public static CriticalEvent adminEvent(String body){
 		try{
-			if(body.contains("join"))
-				return new IcapScaleOutEvent((body.split("&")[1]).split("=")[1], 
-						(body.split("&")[2]).split("=")[1], 
-						Integer.parseInt((body.split("&")[3]).split("=")[1]));
-			else if(body.contains("leave"))
-				return new IcapScaleInEvent((body.split("&")[1]).split("=")[1]);
+			String[] params = body.split("&");
+			if(body.contains("join")){
+				IcapScaleOutEvent ev = new IcapScaleOutEvent(params[1].split("=")[1], 
+						params[2].split("=")[1], 
+						Integer.parseInt(params[3].split("=")[1]));
+				for (int i = 4; i + 2 < params.length; i += 3)
+					ev.addNode(params[i].split("=")[1], params[i + 1].split("=")[1],
+							Integer.parseInt(params[i + 2].split("=")[1]));
+				return ev;
+			}
+			else if(body.contains("leave")){
+				IcapScaleInEvent ev = new IcapScaleInEvent(params[1].split("=")[1]);
+				for (int i = 2; i < params.length; i++)
+					ev.addNode(params[i].split("=")[1]);
+				return ev;
+			}
 			else
 				return new IcapNWMapEvent();
 		}
@@ -0,0 +1,100 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import cliseau.central.policy.scaling.Node;
+
+/**
+ * This class maintains the owner hints a node has learned from redirects. A hint tells
+ * which node is responsible for a key range according to a topology that is newer than
+ * the one of this node. Requests for keys covered by a hint are sent directly to the
+ * owner instead of being routed over the finger table. A hint is dropped as soon as
+ * the topology of this node has caught up with the epoch of the hint.
+ */
+public class RouteHints {
+
+	/**
+	 * The maximal number of hints kept at the same time
+	 */
+	private static final int CAPACITY = 16;
+
+	/**
+	 * The known hints, the most recent one first
+	 */
+	private final LinkedList<Hint> hints = new LinkedList<Hint>();
+
+	/**
+	 * Remember that the given node is responsible for the keys in (ownerPred, owner]
+	 * according to the topology with the given epoch.
+	 * @param owner		the responsible node
+	 * @param ownerPred	identifier of the predecessor of the owner
+	 * @param epoch		the topology epoch of the node that has sent the hint
+	 */
+	public synchronized void add(Node owner, int ownerPred, long epoch) {
+		Iterator<Hint> it = hints.iterator();
+		while (it.hasNext()) {
+			if (it.next().owner.id == owner.id)
+				it.remove();
+		}
+		hints.addFirst(new Hint(owner, ownerPred, epoch));
+		if (hints.size() > CAPACITY)
+			hints.removeLast();
+	}
+
+	/**
+	 * Obtain the owner of the given key if a hint newer than the given topology
+	 * covers it. Hints that are not newer than the given topology are dropped.
+	 * @param key		the given key
+	 * @param topology	the current topology of this node
+	 * @return the owner of the key, or null if no hint covers it
+	 */
+	public synchronized Node get(int key, Topology topology) {
+		if (hints.isEmpty())
+			return null;
+		Iterator<Hint> it = hints.iterator();
+		while (it.hasNext()) {
+			Hint hint = it.next();
+			if (hint.epoch <= topology.epoch)
+				it.remove();
+			else if (Topology.isInRange(key, hint.ownerPred, hint.owner.id))
+				return hint.owner;
+		}
+		return null;
+	}
+
+	/**
+	 * An owner hint
+	 */
+	private static final class Hint {
+		final Node owner;
+		final int ownerPred;
+		final long epoch;
+
+		Hint(Node owner, int ownerPred, long epoch) {
+			this.owner = owner;
+			this.ownerPred = ownerPred;
+			this.epoch = epoch;
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the position of this CliCap node in the identifier circle,
+ * i.e. its own identifier, its predecessor, its successor and its finger table entries.
+ * <br>
+ * The current snapshot is published by {@link cliseau.Clicap#getTopology()} through a
+ * single volatile reference. The joining and leaving protocols never modify a snapshot
+ * but replace it by a new one with an incremented epoch, so a reader always sees a
+ * consistent view of the neighbourhood and never has to parse any identifier.
+ */
+public final class Topology {
+
+	/**
+	 * The version of this snapshot, which is the ID of the most recent joining or
+	 * leaving session that has changed it. Session IDs are issued in ascending order by
+	 * the major node, so epochs of different nodes are comparable: a node with a greater
+	 * epoch has taken part in a more recent membership change.
+	 */
+	public final long epoch;
+
+	/**
+	 * The identifier of this node
+	 */
+	public final int id;
+
+	/**
+	 * The bit length of the identifiers of the nodes in network
+	 */
+	public final int bitLength;
+
+	/**
+	 * The capacity of the network, i.e. 2^bitLength
+	 */
+	public final int capacity;
+
+	/**
+	 * The identifier, host and remote port of the predecessor
+	 */
+	public final int predID;
+	public final String predDomain;
+	public final int predPort;
+
+	/**
+	 * The identifier, host and remote port of the successor
+	 */
+	public final int sucID;
+	public final String sucDomain;
+	public final int sucPort;
+
+	/**
+	 * The finger table entries, row i is stored at index i-1
+	 */
+	private final int[] fingers;
+
+	/**
+	 * The finger table entries plus this node itself, shifted such that this node has
+	 * the smallest identifier, and sorted in ascending order. Used for look-ups.
+	 */
+	private final int[] extendedFingers;
+
+	/**
+	 * The known nodes following this node in clockwise order, starting with the
+	 * successor. Besides the successor only the finger table entries are known.
+	 */
+	private final int[] successors;
+
+	/**
+	 * Construct a topology snapshot.
+	 *
+	 * @param epoch			the version of this snapshot
+	 * @param id			identifier of this node
+	 * @param bitLength		bit length of the identifiers
+	 * @param predID		identifier of the predecessor
+	 * @param predDomain	host of the predecessor
+	 * @param predPort		remote port of the predecessor
+	 * @param sucID			identifier of the successor
+	 * @param sucDomain		host of the successor
+	 * @param sucPort		remote port of the successor
+	 * @param entries		the finger table entries, starting with row 1
+	 */
+	public Topology(long epoch, int id, int bitLength, int predID, String predDomain,
+			int predPort, int sucID, String sucDomain, int sucPort, List<Integer> entries) {
+		this.epoch = epoch;
+		this.id = id;
+		this.bitLength = bitLength;
+		this.capacity = 1 << bitLength;
+		this.predID = predID;
+		this.predDomain = predDomain;
+		this.predPort = predPort;
+		this.sucID = sucID;
+		this.sucDomain = sucDomain;
+		this.sucPort = sucPort;
+
+		this.fingers = new int[entries.size()];
+		this.extendedFingers = new int[entries.size() + 1];
+		for (int i = 0; i < fingers.length; i++) {
+			fingers[i] = entries.get(i);
+			extendedFingers[i] = fingers[i] <= id ? fingers[i] + capacity : fingers[i];
+		}
+		extendedFingers[fingers.length] = id;
+		Arrays.sort(extendedFingers);
+
+		ArrayList<Integer> following = new ArrayList<Integer>();
+		if (sucID != id)
+			following.add(sucID);
+		for (int i = 1; i < extendedFingers.length; i++) {
+			int node = extendedFingers[i] % capacity;
+			if (node != id && !following.contains(node))
+				following.add(node);
+		}
+		this.successors = new int[following.size()];
+		for (int i = 0; i < successors.length; i++)
+			successors[i] = following.get(i);
+	}
+
+	/**
+	 * Create the next version of this snapshot with the given neighbours and finger
+	 * table entries.
+	 *
+	 * @param epoch	the ID of the session that causes the change
+	 * @return a new snapshot whose epoch is the greater one of the given epoch and the
+	 * 			epoch of this snapshot
+	 */
+	public Topology next(int predID, String predDomain, int predPort, int sucID,
+			String sucDomain, int sucPort, List<Integer> entries, long epoch) {
+		return new Topology(Math.max(this.epoch, epoch), id, bitLength, predID,
+				predDomain, predPort, sucID, sucDomain, sucPort, entries);
+	}
+
+	/**
+	 * Check if this node is responsible for the given key
+	 *
+	 * @param key	the given key
+	 * @return True if responsible, otherwise False
+	 */
+	public boolean isResponsible(int key) {
+		return isResponsible(key, predID);
+	}
+
+	/**
+	 * Check if this node would be responsible for the given key if the given node
+	 * was its predecessor
+	 *
+	 * @param key	the given key
+	 * @param pred	identifier of the predecessor to consider
+	 * @return True if responsible, otherwise False
+	 */
+	public boolean isResponsible(int key, int pred) {
+		return isInRange(key, pred, id);
+	}
+
+	/**
+	 * Check if the given key lies in the key range (pred, node] of the identifier
+	 * circle
+	 *
+	 * @param key	the given key
+	 * @param pred	the exclusive start of the range
+	 * @param node	the inclusive end of the range
+	 * @return True if the key lies in the range, otherwise False
+	 */
+	public static boolean isInRange(int key, int pred, int node) {
+		if (pred < node)
+			return pred < key && key <= node;
+		else
+			return pred < key || key <= node;
+	}
+
+	/**
+	 * Determine the next node in the routing path. The given key must already be
+	 * checked not to be in the responsible key range of this node.
+	 *
+	 * @param k	the key of the data to be searched for
+	 * @return the identifier of the closest preceding node of the given key
+	 */
+	public int lookUp(int k) {
+		int key = k % capacity;
+		if (key < id)
+			key += capacity;
+
+		// extendedFingers[0] is this node itself
+		int nextUnit = extendedFingers[extendedFingers.length - 1];
+		for (int i = 1; i < extendedFingers.length; i++) {
+			if (extendedFingers[i] >= key) {
+				nextUnit = extendedFingers[i - 1];
+				break;
+			}
+		}
+
+		if (nextUnit == id)
+			// The successor is the responsible one
+			return getFTSuccessor();
+		return nextUnit % capacity;
+	}
+
+	/**
+	 * Determine the candidates for the next node in the routing path in the order of
+	 * preference. The first candidate is the result of {@link #lookUp(int)}, the
+	 * following ones are the preceding finger table entries down to the successor.
+	 * If the successor is the responsible one, the candidates are the first r nodes
+	 * of the successor list instead. A candidate is used if all the preceding ones
+	 * are suspected to be dead.
+	 *
+	 * @param k	the key of the data to be searched for
+	 * @param r	the maximal number of successors to be considered
+	 * @return the identifiers of the candidates
+	 */
+	public int[] getRoute(int k, int r) {
+		int key = k % capacity;
+		if (key < id)
+			key += capacity;
+
+		// Index of the closest preceding entry, extendedFingers[0] is this node itself
+		int last = extendedFingers.length - 1;
+		for (int i = 1; i < extendedFingers.length; i++) {
+			if (extendedFingers[i] >= key) {
+				last = i - 1;
+				break;
+			}
+		}
+
+		if (last == 0)
+			// The successor is the responsible one
+			return getSuccessors(r);
+
+		ArrayList<Integer> route = new ArrayList<Integer>();
+		for (int i = last; i > 0; i--) {
+			int node = extendedFingers[i] % capacity;
+			if (!route.contains(node))
+				route.add(node);
+		}
+		int[] result = new int[route.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = route.get(i);
+		return result;
+	}
+
+	/**
+	 * Retrieve the successor list, i.e. the first r known nodes following this node
+	 *
+	 * @param r	the maximal length of the list
+	 * @return the identifiers of the successors, starting with the successor
+	 */
+	public int[] getSuccessors(int r) {
+		return Arrays.copyOf(successors, Math.min(r, successors.length));
+	}
+
+	/**
+	 * Retrieve the i-th node stored in the finger table
+	 *
+	 * @param i	the given row, starting with 1
+	 * @return identifier of the node at the given row
+	 */
+	public int getNode(int i) {
+		return fingers[i - 1];
+	}
+
+	/**
+	 * Retrieve the number of rows of the finger table
+	 *
+	 * @return the number of rows
+	 */
+	public int getRows() {
+		return fingers.length;
+	}
+
+	/**
+	 * Retrieve the successor as known by the finger table, i.e. the closest
+	 * following entry
+	 *
+	 * @return identifier of the successor
+	 */
+	private int getFTSuccessor() {
+		for (int i = 0; i < extendedFingers.length; i++) {
+			if (extendedFingers[i] > id)
+				return extendedFingers[i] % capacity;
+		}
+		return id;
+	}
+
+	@Override
+	public String toString() {
+		return "Topology [epoch=" + epoch + ", id=" + id + ", pred=" + predID
+				+ ", suc=" + sucID + ", fingers=" + Arrays.toString(fingers) + "]";
+	}
+}
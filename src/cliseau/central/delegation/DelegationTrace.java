@@ -0,0 +1,207 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.delegation;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compact trace of the route of a delegation request. The trace travels with the
+ * request and is echoed back in the delegation response, such that the origin learns
+ * through which nodes the decision went. Every node that handles the request appends
+ * a hop with the time the request was received (read from the connection) and the
+ * time it was processed by the local policy. The timestamps are wall-clock times in
+ * milliseconds of the respective node, so differences between hops are only as 
+ * precise as the clocks of the nodes are synchronized. At most MAX_HOPS hops are 
+ * recorded.
+ */
+public class DelegationTrace implements Serializable {
+
+	/**
+	 * The serial version id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The maximal number of recorded hops
+	 */
+	public static final int MAX_HOPS = 32;
+
+	/**
+	 * The ID of the traced request
+	 */
+	private final long requestID;
+
+	/**
+	 * The time in milliseconds at which the origin has issued the request
+	 */
+	private final long issued;
+
+	/**
+	 * The number of recorded hops
+	 */
+	private int hops;
+
+	/**
+	 * The identifiers of the nodes of the hops
+	 */
+	private int[] nodes = new int[4];
+
+	/**
+	 * The times in milliseconds at which the nodes have received the request
+	 */
+	private long[] received = new long[4];
+
+	/**
+	 * The times in milliseconds at which the nodes have processed the request
+	 */
+	private long[] processed = new long[4];
+
+	/**
+	 * The time in milliseconds at which this copy of the trace has been read from
+	 * a connection, 0 if it has not been received yet
+	 */
+	private transient long arrival;
+
+	/**
+	 * Create an empty trace for the request with the given ID.
+	 * 
+	 * @param requestID	the ID of the request
+	 */
+	public DelegationTrace(long requestID) {
+		this.requestID = requestID;
+		this.issued = System.currentTimeMillis();
+	}
+
+	/**
+	 * Remember the time of arrival when the trace is read from a connection.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		arrival = System.currentTimeMillis();
+	}
+
+	/**
+	 * Append a hop for the given node, which is processing the request now.
+	 * 
+	 * @param node	the identifier of the node
+	 */
+	public void addHop(int node) {
+		if (hops == MAX_HOPS)
+			return;
+		if (hops == nodes.length) {
+			nodes = Arrays.copyOf(nodes, hops * 2);
+			received = Arrays.copyOf(received, hops * 2);
+			processed = Arrays.copyOf(processed, hops * 2);
+		}
+		long now = System.currentTimeMillis();
+		nodes[hops] = node;
+		received[hops] = arrival > 0 ? arrival : now;
+		processed[hops] = now;
+		hops++;
+	}
+
+	/**
+	 * Count the recorded hops of the given node.
+	 * 
+	 * @param node	the identifier of the node
+	 * @return the number of times the request went through the node
+	 */
+	public int getVisits(int node) {
+		int visits = 0;
+		for (int i = 0; i < hops; i++)
+			if (nodes[i] == node)
+				visits++;
+		return visits;
+	}
+
+	/**
+	 * @return the ID of the traced request
+	 */
+	public long getRequestID() {
+		return requestID;
+	}
+
+	/**
+	 * @return the time in milliseconds at which the origin has issued the request
+	 */
+	public long getIssued() {
+		return issued;
+	}
+
+	/**
+	 * @return the number of recorded hops
+	 */
+	public int getHopCount() {
+		return hops;
+	}
+
+	/**
+	 * @param hop	the index of the hop
+	 * @return the identifier of the node of the given hop
+	 */
+	public int getNode(int hop) {
+		return nodes[hop];
+	}
+
+	/**
+	 * @param hop	the index of the hop
+	 * @return the time in milliseconds at which the node of the given hop has
+	 *         received the request
+	 */
+	public long getReceived(int hop) {
+		return received[hop];
+	}
+
+	/**
+	 * @param hop	the index of the hop
+	 * @return the time in milliseconds at which the node of the given hop has
+	 *         processed the request
+	 */
+	public long getProcessed(int hop) {
+		return processed[hop];
+	}
+
+	/**
+	 * @param hop	the index of the hop
+	 * @return the time in milliseconds the request has waited at the node of the
+	 *         given hop before it was processed
+	 */
+	public long getQueueing(int hop) {
+		return processed[hop] - received[hop];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("#").append(requestID).append(':');
+		long last = issued;
+		for (int i = 0; i < hops; i++) {
+			sb.append(" -> ").append(nodes[i]).append(" (+")
+					.append(received[i] - last).append("ms, queued ")
+					.append(getQueueing(i)).append("ms)");
+			last = processed[i];
+		}
+		return sb.toString();
+	}
+}
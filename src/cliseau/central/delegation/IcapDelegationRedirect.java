@@ -0,0 +1,106 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.delegation;
+
+import cliseau.central.policy.scaling.Node;
+
+/**
+ * Class represent redirect objects. A node that receives a delegation request routed
+ * with a topology older than its own one and that knows the responsible node for the
+ * carried event sends the request back to its source together with the fresh owner 
+ * hint instead of forwarding it. The source then sends the request directly to the
+ * owner and remembers the hint for the subsequent requests.
+ */
+public class IcapDelegationRedirect extends IcapDelegationReqResp {
+
+	/**
+	 * The serial version id.
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The redirected request.
+	 */
+	private final IcapDelegationReq request;
+	
+	/**
+	 * The node which is responsible for the event of the request.
+	 */
+	private final Node owner;
+	
+	/**
+	 * The identifier of the predecessor of the owner, i.e. the owner is responsible
+	 * for all keys in (ownerPred, owner]
+	 */
+	private final int ownerPred;
+	
+	/**
+	 * The topology epoch of the redirecting node.
+	 */
+	private final long epoch;
+	
+	/**
+	 * Constructs a new redirect.
+	 * @param request	the redirected request
+	 * @param owner		the node which is responsible for the event of the request
+	 * @param ownerPred	the identifier of the predecessor of the owner
+	 * @param epoch		the topology epoch of the redirecting node
+	 */
+	public IcapDelegationRedirect(IcapDelegationReq request, Node owner, int ownerPred,
+			long epoch){
+		this.request = request;
+		this.owner = owner;
+		this.ownerPred = ownerPred;
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * Returns the redirected request.
+	 * @return The redirected request.
+	 */
+	public IcapDelegationReq getRequest(){
+		return this.request;
+	}
+	
+	/**
+	 * Returns the node which is responsible for the event of the request.
+	 * @return The owner hint.
+	 */
+	public Node getOwner(){
+		return this.owner;
+	}
+	
+	/**
+	 * Returns the identifier of the predecessor of the owner.
+	 * @return The identifier of the predecessor of the owner.
+	 */
+	public int getOwnerPred(){
+		return this.ownerPred;
+	}
+	
+	/**
+	 * Returns the topology epoch of the redirecting node.
+	 * @return The topology epoch.
+	 */
+	public long getEpoch(){
+		return this.epoch;
+	}
+}
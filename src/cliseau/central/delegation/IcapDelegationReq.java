@@ -25,7 +25,11 @@ import cliseau.central.event.IcapEvent;
  * Class represent standard delegation request objects. A standard delegation request 
  * carries a critical event for which enforcement decision is requested. It also contains
  * the host and port of the source server such that  receiver of this request is able
- * to reply directly.
+ * to reply directly. Each request is tagged with the topology epoch of the node that
+ * routes it, such that a receiver with a newer topology can detect stale routes.
+ * The request carries a {@link DelegationTrace} of the nodes it went through and
+ * counts its forwardings, such that a routing loop is cut off when the request comes
+ * back to a node on its path or exceeds the hop budget.
  * @author Hoang-Duong Nguyen
  */
 public class IcapDelegationReq extends IcapDelegationReqResp {
@@ -50,16 +54,42 @@ public class IcapDelegationReq extends IcapDelegationReqResp {
 	 */
 	private final IcapEvent ce;
 	
+	/**
+	 * The topology epoch of the node that has routed this request the last time
+	 */
+	private long epoch;
+	
+	/**
+	 * True if this request has been sent to an owner hint, it will then not be 
+	 * redirected again
+	 */
+	private boolean redirected;
+	
+	/**
+	 * The trace of the nodes this request went through
+	 */
+	private final DelegationTrace trace;
+	
+	/**
+	 * The number of times this request has been forwarded by a node that is not
+	 * responsible for it
+	 */
+	private int hops;
+	
 	/**
 	 * Create a standard delegation request object that carries the critical event e sent
 	 * from the server with host sourceDomain and port sourcePort
 	 * @param s the source node of the request
 	 * @param e the critical event that this request carries
+	 * @param epoch the topology epoch of the source node
 	 */
-	public IcapDelegationReq(String sourceDomain, int sourcePort, IcapEvent e){
+	public IcapDelegationReq(String sourceDomain, int sourcePort, IcapEvent e,
+			long epoch){
 		this.sourceDomain = sourceDomain;
 		this.sourcePort = sourcePort;
 		this.ce = e;
+		this.epoch = epoch;
+		this.trace = new DelegationTrace(e.eventID);
 	}
 	
 	/**
@@ -85,4 +115,68 @@ public class IcapDelegationReq extends IcapDelegationReqResp {
 	public IcapEvent getEvent(){
 		return this.ce;
 	}
+	
+	/**
+	 * Returns the time in milliseconds until which the source waits for the decision,
+	 * translated to the clock of this node when the request was received.
+	 * @return The deadline, 0 if the source waits without limit.
+	 */
+	public long getDeadline(){
+		return this.ce.deadline;
+	}
+	
+	/**
+	 * Check whether the source has already stopped waiting for the decision.
+	 * @return True if the deadline has passed, otherwise false.
+	 */
+	public boolean isExpired(){
+		return this.ce.isExpired();
+	}
+	
+	/**
+	 * Returns the topology epoch of the node that has routed this request the last time.
+	 * @return The topology epoch.
+	 */
+	public long getEpoch(){
+		return this.epoch;
+	}
+	
+	/**
+	 * Sets the topology epoch of the node that routes this request.
+	 * @param epoch The topology epoch.
+	 */
+	public void setEpoch(long epoch){
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * Returns true if this request has been sent to an owner hint.
+	 * @return True if this request has been redirected, otherwise false.
+	 */
+	public boolean isRedirected(){
+		return this.redirected;
+	}
+	
+	/**
+	 * Marks this request as sent to an owner hint.
+	 */
+	public void setRedirected(){
+		this.redirected = true;
+	}
+	
+	/**
+	 * Counts one more forwarding of this request.
+	 * @return The number of forwardings including this one.
+	 */
+	public int forwarded(){
+		return ++this.hops;
+	}
+	
+	/**
+	 * Returns the trace of the nodes this request went through.
+	 * @return The trace.
+	 */
+	public DelegationTrace getTrace(){
+		return this.trace;
+	}
 }
\ No newline at end of file
@@ -24,6 +24,8 @@ import cliseau.central.IcapEnforcementDecision;
 /**
  * Class represent standard delegation response objects. A standard delegation response 
  * carries a enforcement decision for a critical event the node has received. 
+ * A response to a delegation request echoes the trace of the request back to the
+ * source.
  * @author Hoang-Duong Nguyen
  */
 public class IcapDelegationResp extends IcapDelegationReqResp{
@@ -38,12 +40,46 @@ public class IcapDelegationResp extends IcapDelegationReqResp{
 	 */
 	private final IcapEnforcementDecision ed ;
 	
+	/**
+	 * The ID of the delegated event, 0 if unknown.
+	 */
+	private final long eventID;
+	
+	/**
+	 * The trace of the answered request, null if unknown.
+	 */
+	private final DelegationTrace trace;
+	
 	/**
 	 * Constructs a new IcapDelegationResp with the given enforcement decision.
 	 * @param ed the enforcement decision that this response carries
 	 */
 	public IcapDelegationResp(IcapEnforcementDecision ed){
+		this(ed, 0);
+	}
+	
+	/**
+	 * Constructs a new IcapDelegationResp with the given enforcement decision for the
+	 * delegated event with the given ID.
+	 * @param ed the enforcement decision that this response carries
+	 * @param eventID the ID of the delegated event
+	 */
+	public IcapDelegationResp(IcapEnforcementDecision ed, long eventID){
+		this(ed, eventID, null);
+	}
+	
+	/**
+	 * Constructs a new IcapDelegationResp with the given enforcement decision for the
+	 * delegated event with the given ID, echoing the trace of the request.
+	 * @param ed the enforcement decision that this response carries
+	 * @param eventID the ID of the delegated event
+	 * @param trace the trace of the answered request
+	 */
+	public IcapDelegationResp(IcapEnforcementDecision ed, long eventID,
+			DelegationTrace trace){
 		this.ed = ed;
+		this.eventID = eventID;
+		this.trace = trace;
 	}
 	
 	/**
@@ -53,4 +89,20 @@ public class IcapDelegationResp extends IcapDelegationReqResp{
 	public IcapEnforcementDecision getED(){
 		return this.ed;
 	}
+	
+	/**
+	 * Returns the ID of the delegated event.
+	 * @return The ID of the delegated event, 0 if unknown.
+	 */
+	public long getEventID(){
+		return this.eventID;
+	}
+	
+	/**
+	 * Returns the trace of the answered request.
+	 * @return The trace, null if unknown.
+	 */
+	public DelegationTrace getTrace(){
+		return this.trace;
+	}
 }
\ No newline at end of file
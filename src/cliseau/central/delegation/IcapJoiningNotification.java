@@ -19,8 +19,9 @@
  */
 package cliseau.central.delegation;
 
-import java.util.Set;
+import java.util.List;
 
+import cliseau.central.policy.PolicyData;
 import cliseau.central.policy.scaling.Node;
 
 /**
@@ -85,9 +86,14 @@ public class IcapJoiningNotification extends IcapDelegationReqResp {
 	protected int key;
 
 	/**
-	 * A row number.
+	 * The ID of the scaling session this message belongs to.
 	 */
-	protected int rowNumber;
+	protected int sessionID;
+
+	/**
+	 * The finger table rows to be updated by this message.
+	 */
+	protected List<Integer> rows;
 
 	/**
 	 * The target of this message.
@@ -95,9 +101,14 @@ public class IcapJoiningNotification extends IcapDelegationReqResp {
 	protected int target;
 
 	/**
-	 * A set of exchanged data items (i.e. tokens).
+	 * The exchanged data items (i.e. tokens, token states and sessions).
+	 */
+	protected PolicyData data;
+
+	/**
+	 * The arguments used to configure a standby node as the joining node.
 	 */
-	protected Set<String> data;
+	protected List<String> arguments;
 
 	/**
 	 * Constructor of a notification of the given type. The type of a
@@ -246,35 +257,67 @@ public class IcapJoiningNotification extends IcapDelegationReqResp {
 	}
 
 	/**
-	 * The stored set of data items that shall be exchanged.
+	 * The stored data items that shall be exchanged.
 	 * @return The exchanged data items.
 	 */
-	public Set<String> getData() {
+	public PolicyData getData() {
 		return data;
 	}
 
 	/**
-	 * Sets the set of data items that shall be exchanged.
+	 * Sets the data items that shall be exchanged.
 	 * @param data The new set of exchanged data items. 
 	 */
-	public void setData(Set<String> data) {
+	public void setData(PolicyData data) {
 		this.data = data;
 	}
 
 	/**
-	 * Returns the row number.
-	 * @return The row number.
+	 * Returns the arguments used to configure a standby node.
+	 * @return The configuration arguments.
+	 */
+	public List<String> getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * Sets the arguments used to configure a standby node.
+	 * @param arguments The new configuration arguments.
+	 */
+	public void setArguments(List<String> arguments) {
+		this.arguments = arguments;
+	}
+
+	/**
+	 * Returns the ID of the scaling session this message belongs to.
+	 * @return The session ID.
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * Sets the ID of the scaling session this message belongs to.
+	 * @param sessionID The new session ID.
+	 */
+	public void setSessionID(int sessionID) {
+		this.sessionID = sessionID;
+	}
+
+	/**
+	 * Returns the finger table rows to be updated.
+	 * @return The row numbers.
 	 */
-	public int getRowNumber() {
-		return rowNumber;
+	public List<Integer> getRows() {
+		return rows;
 	}
 
 	/**
-	 * Sets the row number.
-	 * @param num The new row number.
+	 * Sets the finger table rows to be updated.
+	 * @param rows The new row numbers.
 	 */
-	public void setRowNumber(int num) {
-		this.rowNumber = num;
+	public void setRows(List<Integer> rows) {
+		this.rows = rows;
 	}
 
 	/**
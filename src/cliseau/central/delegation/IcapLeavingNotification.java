@@ -19,7 +19,9 @@
  */
 package cliseau.central.delegation;
 
-import java.util.Set;
+import java.util.List;
+
+import cliseau.central.policy.PolicyData;
 
 /**
  * Class represent notification objects for security-irrelevant communications
@@ -96,11 +98,16 @@ public class IcapLeavingNotification extends IcapDelegationReqResp {
 	/**
 	 * The exchanged data.
 	 */
-	private Set<String> data;
+	private PolicyData data;
+	/**
+	 * The ID of the scaling session this message belongs to.
+	 */
+	private int sessionID;
+
 	/**
-	 * The row number.
+	 * The finger table rows to be updated by this message.
 	 */
-	private int rowNumber;
+	private List<Integer> rows;
 	/**
 	 * The target of this notification.
 	 */
@@ -138,18 +145,18 @@ public class IcapLeavingNotification extends IcapDelegationReqResp {
 	 * @param data
 	 *            The new data items.
 	 */
-	public void setData(Set<String> data) {
+	public void setData(PolicyData data) {
 		this.data = data;
 	}
 
 	/**
-	 * Sets the row number
+	 * Sets the finger table rows to be updated
 	 * 
-	 * @param row
-	 *            The row number.
+	 * @param rows
+	 *            The row numbers.
 	 */
-	public void setRowNumber(int row) {
-		this.rowNumber = row;
+	public void setRows(List<Integer> rows) {
+		this.rows = rows;
 	}
 
 	/**
@@ -288,7 +295,7 @@ public class IcapLeavingNotification extends IcapDelegationReqResp {
 	 * Returns the data
 	 * @return The data to be exchanged.
 	 */
-	public Set<String> getData() {
+	public PolicyData getData() {
 		return this.data;
 	}
 
@@ -300,12 +307,28 @@ public class IcapLeavingNotification extends IcapDelegationReqResp {
 		return this.type;
 	}
 
-/**
- * Returns the row number
- * @return The row number
- */
-	public int getRowNumber() {
-		return this.rowNumber;
+	/**
+	 * Returns the ID of the scaling session this message belongs to.
+	 * @return The session ID.
+	 */
+	public int getSessionID() {
+		return sessionID;
+	}
+
+	/**
+	 * Sets the ID of the scaling session this message belongs to.
+	 * @param sessionID The new session ID.
+	 */
+	public void setSessionID(int sessionID) {
+		this.sessionID = sessionID;
+	}
+
+	/**
+	 * Returns the finger table rows to be updated
+	 * @return The row numbers
+	 */
+	public List<Integer> getRows() {
+		return this.rows;
 	}
 
 	/**
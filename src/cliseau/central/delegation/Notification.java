@@ -90,6 +90,15 @@ public enum Notification {
 	LEAVE_STEP_2B_QUERY_REQ,			
 	LEAVE_STEP_3_SEND_DATA_TO_SUC,			
 	LEAVE_STEP_4_SUC_RESP,		
+	/**
+	 * Sent by the successor of the leaving node if it is involved in another leaving
+	 * process.
+	 */
+	LEAVE_STEP_4_SUC_BUSY,
+	/**
+	 * Sent by the leaving node to the central node if it cannot leave now.
+	 */
+	LEAVE_STEP_3_RETRY,
 
 	LEAVE_STEP_5A_PRED_QUERY,
 	LEAVE_STEP_5B_PRED_FOUND,
@@ -111,6 +120,8 @@ public enum Notification {
 	JOIN_STEP_2B_FT_ENTRY_RESP,
 	JOIN_STEP_3_SUC_QUERY,
 	JOIN_STEP_4_SUC_RESP,
+	JOIN_STEP_5A_CONFIGURE_STANDBY,
+	JOIN_STEP_5B_STANDBY_CONFIGURED,
 	JOIN_STEP_6_SUC_NOTIFY_INSTANTIATED,
 	JOIN_STEP_7_SUC_SEND_DATA,
 	JOIN_STEP_8_PRED_NOTIFY,
@@ -121,5 +132,11 @@ public enum Notification {
 	JOIN_STEP_10C_UPDATE_FT,
 	JOIN_STEP_10D_BRANCH_TERMINATED,
 
-	JOIN_STEP_11_N_READY	
+	JOIN_STEP_11_N_READY,
+	
+	/**
+	 * Sent by a freshly launched standby node to the major node as soon as it is able
+	 * to receive its configuration.
+	 */
+	JOIN_STANDBY_READY
 }
\ No newline at end of file
@@ -19,6 +19,10 @@
  */
 package cliseau.central.event;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import cliseau.javacor.CriticalEvent;
 
 /**
@@ -61,6 +65,27 @@ public class IcapEvent implements CriticalEvent {
 	 */
 	public IcapEventType type;
 	
+	/**
+	 * The time in milliseconds until which the ICAP service waits for the decision 
+	 * about this event, 0 if it waits without limit. The time refers to the clock of
+	 * the node holding the event: the event is serialized with the remaining time, 
+	 * which the receiving node adds to its own clock. The time in transit is thus 
+	 * not subtracted, but the nodes need no synchronized clocks.
+	 */
+	public transient long deadline = 0;
+	
+	/**
+	 * The ID given to this event by the ICAP service awaiting the decision, such that
+	 * the decision can be handed to the right ICAP thread; 0 if not set.
+	 */
+	public long requestID = 0;
+	
+	/**
+	 * The network-wide unique ID given to this event by the node delegating it, 0 
+	 * if the event has not been delegated.
+	 */
+	public long eventID = 0;
+	
 	/**
 	 * Constructs a event with the given type, session id, email address, order id, token and payer id
 	 * @param type The type of this event.
@@ -82,6 +107,46 @@ public class IcapEvent implements CriticalEvent {
 	}
 	
 	
+	/**
+	 * Check whether the ICAP service has already stopped waiting for the decision
+	 * about this event.
+	 * @return true if the deadline has passed, otherwise false
+	 */
+	public boolean isExpired(){
+		return deadline > 0 && System.currentTimeMillis() > deadline;
+	}
+	
+	/**
+	 * Write this event with the time remaining until its deadline instead of the 
+	 * deadline itself.
+	 * @param out the stream to write to
+	 * @throws IOException if writing fails
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		long remaining = 0;
+		if (deadline > 0) {
+			remaining = deadline - System.currentTimeMillis();
+			if (remaining == 0)
+				// 0 means no deadline, the event has just expired
+				remaining = -1;
+		}
+		out.writeLong(remaining);
+	}
+	
+	/**
+	 * Read an event and translate its remaining time to a deadline of this node.
+	 * @param in the stream to read from
+	 * @throws IOException if reading fails
+	 * @throws ClassNotFoundException if a class of the event is unknown
+	 */
+	private void readObject(ObjectInputStream in) 
+			throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		long remaining = in.readLong();
+		deadline = remaining == 0 ? 0 : System.currentTimeMillis() + remaining;
+	}
+	
 	/**
 	 * Return the string that denotes the respective abstract event in the formalization
 	 * @return the formal name of the event
@@ -19,6 +19,9 @@
  */
 package cliseau.central.event;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import cliseau.javacor.CriticalEvent;
 
 /**
@@ -33,24 +36,50 @@ public class IcapScaleInEvent implements CriticalEvent {
 	private static final long serialVersionUID = 1L;
 
 	/**
-	 * The id of the new node.
+	 * The ids of the leaving nodes.
 	 */
-	private String newNodeID;
+	private List<String> nodeIDs = new ArrayList<String>();
 	
 	/**
-	 * Constructs an event containing the specified id as the id for the new node.
-	 * @param newNodeID The id that shall be assigned to the new node.
+	 * Constructs an event containing the specified id as the id for the leaving node.
+	 * @param nodeID The id of the leaving node.
 	 */
-	public IcapScaleInEvent(String newNodeID){
-		this.newNodeID = newNodeID;
+	public IcapScaleInEvent(String nodeID){
+		addNode(nodeID);
 	}
 	
 	/**
-	 * Returns the id of the new node.
-	 * @return
+	 * Adds a further leaving node to this event, such that several nodes leave as one
+	 * batch.
+	 * @param nodeID The id of the leaving node.
+	 */
+	public void addNode(String nodeID){
+		this.nodeIDs.add(nodeID);
+	}
+	
+	/**
+	 * Returns the number of leaving nodes.
+	 * @return The number of leaving nodes.
+	 */
+	public int size(){
+		return this.nodeIDs.size();
+	}
+	
+	/**
+	 * Returns the id of the first leaving node.
+	 * @return The id of the leaving node.
 	 */
 	public String getID(){
-		return this.newNodeID;
+		return getID(0);
+	}
+	
+	/**
+	 * Returns the id of the i-th leaving node.
+	 * @param i The index of the leaving node.
+	 * @return The id of the leaving node.
+	 */
+	public String getID(int i){
+		return this.nodeIDs.get(i);
 	}
 	
 	/**
@@ -58,6 +87,6 @@ public class IcapScaleInEvent implements CriticalEvent {
 	 * @return the formal name of the event
 	 */
 	public String toString(){
-		return "SCALE_IN("+newNodeID+")";
+		return "SCALE_IN("+nodeIDs+")";
 	}
 }
\ No newline at end of file
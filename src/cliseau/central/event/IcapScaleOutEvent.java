@@ -19,6 +19,9 @@
  */
 package cliseau.central.event;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import cliseau.javacor.CriticalEvent;
 
 /**
@@ -33,48 +36,94 @@ public class IcapScaleOutEvent implements CriticalEvent {
 	private static final long serialVersionUID = 1L;
 
 	/**
-	 * The id of the new node.
+	 * The ids of the new nodes.
 	 */
-	public String newNodeID;
+	public List<String> newNodeIDs = new ArrayList<String>();
 	
 	/**
-	 * The new node's domain
+	 * The new nodes' domains
 	 */
-	public String newNodeDomain;
+	public List<String> newNodeDomains = new ArrayList<String>();
 	
 	/**
-	 * The new node's port.
+	 * The new nodes' ports.
 	 */
-	public int newNodePort;
+	public List<Integer> newNodePorts = new ArrayList<Integer>();
 	
 	public IcapScaleOutEvent(String newNodeID, String newNodeDomain, int newNodePort){
-		this.newNodeID = newNodeID;
-		this.newNodeDomain = newNodeDomain;
-		this.newNodePort = newNodePort;
+		addNode(newNodeID, newNodeDomain, newNodePort);
+	}
+	
+	/**
+	 * Adds a further new node to this event, such that several nodes join as one
+	 * batch.
+	 * @param newNodeID The id of the new node.
+	 * @param newNodeDomain The new node's domain.
+	 * @param newNodePort The port of the new node.
+	 */
+	public void addNode(String newNodeID, String newNodeDomain, int newNodePort){
+		this.newNodeIDs.add(newNodeID);
+		this.newNodeDomains.add(newNodeDomain);
+		this.newNodePorts.add(newNodePort);
+	}
+	
+	/**
+	 * Returns the number of new nodes.
+	 * @return The number of new nodes.
+	 */
+	public int size(){
+		return this.newNodeIDs.size();
 	}
 	
 	/**
-	 * Returns the id of the new node.
+	 * Returns the id of the first new node.
 	 * @return The id of the new node.
 	 */
 	public String getID(){
-		return this.newNodeID;
+		return getID(0);
+	}
+	
+	/**
+	 * Returns the id of the i-th new node.
+	 * @param i The index of the new node.
+	 * @return The id of the new node.
+	 */
+	public String getID(int i){
+		return this.newNodeIDs.get(i);
 	}
 	
 	/**
-	 * Returns the new node's domain.
+	 * Returns the first new node's domain.
 	 * @return The new node's domain.
 	 */
 	public String getDomain(){
-		return this.newNodeDomain;
+		return getDomain(0);
+	}
+	
+	/**
+	 * Returns the i-th new node's domain.
+	 * @param i The index of the new node.
+	 * @return The new node's domain.
+	 */
+	public String getDomain(int i){
+		return this.newNodeDomains.get(i);
 	}
 	
 	/**
-	 * Returns the port of the new node.
+	 * Returns the port of the first new node.
 	 * @return The port of the new node.
 	 */
 	public int getPort(){
-		return this.newNodePort;
+		return getPort(0);
+	}
+	
+	/**
+	 * Returns the port of the i-th new node.
+	 * @param i The index of the new node.
+	 * @return The port of the new node.
+	 */
+	public int getPort(int i){
+		return this.newNodePorts.get(i);
 	}
 	
 	/**
@@ -82,6 +131,12 @@ public class IcapScaleOutEvent implements CriticalEvent {
 	 * @return the formal name of the event
 	 */
 	public String toString(){
-		return "SCALE_OUT("+newNodeID+", "+newNodeDomain+", "+newNodePort+")";
+		StringBuilder sb = new StringBuilder("SCALE_OUT(");
+		for (int i = 0; i < size(); i++) {
+			if (i > 0)
+				sb.append("; ");
+			sb.append(getID(i) + ", " + getDomain(i) + ", " + getPort(i));
+		}
+		return sb.append(")").toString();
 	}
 }
\ No newline at end of file
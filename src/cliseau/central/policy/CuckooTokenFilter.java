@@ -0,0 +1,530 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A compact set of tokens that stores short fingerprints in cuckoo filters instead of
+ * the tokens themselves. Membership tests may yield false positives at a configured 
+ * rate, i.e. a token that has never been added or has already been removed may be 
+ * considered as contained. In return, a token costs only one fingerprint of a few 
+ * bits. <br>
+ * A fingerprint is stored for every added token, even if an equal fingerprint is 
+ * already stored, so removing a token never removes the fingerprint of another one.
+ * Only removing a token that is not contained can hit a colliding fingerprint. <br>
+ * The fingerprints are grouped by the key of their token in the Chord identifier 
+ * circle. Each key has a chain of equally sized cuckoo filters; a new filter is 
+ * started when the last one is full. Since all filters of a chain place a fingerprint
+ * in the same pair of buckets, tokens with equal fingerprints in equal buckets are 
+ * interchangeable no matter which filter holds them. The false-positive rate of a key 
+ * grows with the length of its chain, so the filters should be sized for the 
+ * expected number of tokens per key. <br>
+ * The elements returned by the iterator are the encoded filters of one key each (see
+ * {@link #isFilter(String)}). Adding such an element merges its filters into the 
+ * filters of its key, removing it removes the key with all its tokens, so the 
+ * elements can be handed over to another node or written to the token log. Tokens 
+ * must therefore not start with {@value #FILTER_PREFIX}. The set is synchronized.
+ */
+public class CuckooTokenFilter extends AbstractSet<String> implements KeyedTokenSet {
+
+	/**
+	 * Prefix of the encoded filters
+	 */
+	public static final String FILTER_PREFIX = "%";
+
+	/**
+	 * Number of fingerprints per bucket
+	 */
+	private static final int BUCKET_SIZE = 4;
+
+	/**
+	 * Maximal number of relocations when inserting a fingerprint
+	 */
+	private static final int MAX_KICKS = 500;
+
+	/**
+	 * The character set of the tokens
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The key function of the tokens
+	 */
+	private final KeyFunction keyFunction;
+
+	/**
+	 * The number of bits of a fingerprint, at most 16
+	 */
+	private final int bits;
+
+	/**
+	 * The number of buckets of a filter, a power of two
+	 */
+	private final int buckets;
+
+	/**
+	 * The filter chains by key
+	 */
+	private final TreeMap<Integer, List<Filter>> chains = new TreeMap<Integer, List<Filter>>();
+
+	/**
+	 * The number of stored fingerprints
+	 */
+	private int size;
+
+	/**
+	 * Create an empty set with the given false-positive rate per filter.
+	 * 
+	 * @param keyFunction			the key function of the tokens
+	 * @param falsePositiveRate		the false-positive rate of a single filter
+	 * @param filterCapacity		the number of tokens a filter should hold, rounded 
+	 * 								up such that the filter is at most 95% full
+	 */
+	public CuckooTokenFilter(KeyFunction keyFunction, double falsePositiveRate,
+			int filterCapacity) {
+		this.keyFunction = keyFunction;
+		this.bits = fingerprintBits(falsePositiveRate);
+		int b = 1;
+		while (b * BUCKET_SIZE * 0.95 < filterCapacity)
+			b <<= 1;
+		this.buckets = b;
+	}
+
+	/**
+	 * Compute the number of fingerprint bits needed for the given false-positive 
+	 * rate: a lookup compares 2 * BUCKET_SIZE fingerprints, each matching with 
+	 * probability 2^-bits.
+	 * 
+	 * @param falsePositiveRate	the false-positive rate
+	 * @return the number of bits between 4 and 16
+	 */
+	public static int fingerprintBits(double falsePositiveRate) {
+		int bits = (int) Math.ceil(Math.log(2 * BUCKET_SIZE / falsePositiveRate) 
+				/ Math.log(2));
+		return Math.min(16, Math.max(4, bits));
+	}
+
+	/**
+	 * Check whether the given element is an encoded filter rather than a token.
+	 * 
+	 * @param element	the element
+	 * @return true if the element is an encoded filter
+	 */
+	public static boolean isFilter(String element) {
+		return element.startsWith(FILTER_PREFIX);
+	}
+
+	/**
+	 * Get the number of bits of a fingerprint.
+	 * 
+	 * @return the number of bits
+	 */
+	public int getFingerprintBits() {
+		return bits;
+	}
+
+	/**
+	 * Get the false-positive rate of a single filter.
+	 * 
+	 * @return the upper bound of the probability that a lookup in a filter yields
+	 * 			a false positive
+	 */
+	public double getFalsePositiveRate() {
+		return 2.0 * BUCKET_SIZE / (1 << bits);
+	}
+
+	/**
+	 * Get the current false-positive rate, which is the rate of a single filter
+	 * times the average length of the filter chains.
+	 * 
+	 * @return the expected probability that a lookup yields a false positive
+	 */
+	public synchronized double getEffectiveFalsePositiveRate() {
+		if (chains.isEmpty())
+			return 0;
+		int filters = 0;
+		for (List<Filter> chain : chains.values())
+			filters += chain.size();
+		return getFalsePositiveRate() * filters / chains.size();
+	}
+
+	/**
+	 * Get the number of bytes occupied by the fingerprints.
+	 * 
+	 * @return the size of all filters in bytes
+	 */
+	public synchronized long getBytes() {
+		long bytes = 0;
+		for (List<Filter> chain : chains.values())
+			for (Filter f : chain)
+				bytes += 2L * f.slots.length;
+		return bytes;
+	}
+
+	@Override
+	public int keyOf(String element) {
+		if (isFilter(element))
+			return Integer.parseInt(element.substring(FILTER_PREFIX.length(), 
+					element.indexOf(':')));
+		return keyFunction.keyOf(element);
+	}
+
+	/**
+	 * Adds the fingerprint of the given token, or merges the given encoded filters.
+	 * A token that is added twice has to be removed twice.
+	 */
+	@Override
+	public synchronized boolean add(String element) {
+		if (isFilter(element))
+			return merge(element);
+		long hash = hash(element);
+		int key = keyFunction.keyOf(element);
+		List<Filter> chain = chains.get(key);
+		if (chain == null) {
+			chain = new ArrayList<Filter>();
+			chain.add(new Filter(buckets));
+			chains.put(key, chain);
+		}
+		short fp = fingerprint(hash);
+		if (!chain.get(chain.size() - 1).insert(fp, hash)) {
+			Filter next = new Filter(buckets);
+			next.insert(fp, hash);
+			chain.add(next);
+		}
+		size++;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean contains(Object o) {
+		if (!(o instanceof String))
+			return false;
+		String element = (String) o;
+		if (isFilter(element))
+			return chains.containsKey(keyOf(element));
+		return contains(keyFunction.keyOf(element), hash(element));
+	}
+
+	/**
+	 * Check whether the filters of the given key contain the fingerprint of the
+	 * given hash.
+	 * 
+	 * @param key	the key
+	 * @param hash	the hash of the token
+	 * @return true if the fingerprint is contained
+	 */
+	private boolean contains(int key, long hash) {
+		List<Filter> chain = chains.get(key);
+		if (chain == null)
+			return false;
+		short fp = fingerprint(hash);
+		for (Filter f : chain)
+			if (f.contains(fp, hash))
+				return true;
+		return false;
+	}
+
+	@Override
+	public synchronized boolean remove(Object o) {
+		if (!(o instanceof String))
+			return false;
+		String element = (String) o;
+		if (isFilter(element))
+			return removeKey(keyOf(element));
+		int key = keyFunction.keyOf(element);
+		List<Filter> chain = chains.get(key);
+		if (chain == null)
+			return false;
+		long hash = hash(element);
+		short fp = fingerprint(hash);
+		for (Filter f : chain) {
+			if (f.delete(fp, hash)) {
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all fingerprints of the given key.
+	 * 
+	 * @param key	the key
+	 * @return true if there were fingerprints of the key
+	 */
+	private boolean removeKey(int key) {
+		List<Filter> chain = chains.remove(key);
+		if (chain == null)
+			return false;
+		for (Filter f : chain)
+			size -= f.count;
+		return true;
+	}
+
+	/**
+	 * Returns the number of stored fingerprints, which is the number of added tokens 
+	 * unless removals of tokens that were not contained have hit colliding ones. Note that the iterator returns
+	 * one element per key instead.
+	 */
+	@Override
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized void clear() {
+		chains.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns an iterator over the encoded filters of the keys. The filters are
+	 * encoded when the iterator is created. The iterator supports removal.
+	 */
+	@Override
+	public synchronized Iterator<String> iterator() {
+		final List<String> elements = new ArrayList<String>(chains.size());
+		for (Map.Entry<Integer, List<Filter>> e : chains.entrySet())
+			elements.add(encode(e.getKey(), e.getValue()));
+		return new Iterator<String>() {
+			private final Iterator<String> it = elements.iterator();
+			private String last = null;
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public String next() {
+				return last = it.next();
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				CuckooTokenFilter.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * Encode the filters of the given key as "%key:bits:filter,filter,...", each 
+	 * filter in Base64.
+	 * 
+	 * @param key	the key
+	 * @param chain	the filters of the key
+	 * @return the encoded filters
+	 */
+	private String encode(int key, List<Filter> chain) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(FILTER_PREFIX).append(key).append(':').append(bits).append(':');
+		for (int i = 0; i < chain.size(); i++) {
+			if (i > 0)
+				sb.append(',');
+			short[] slots = chain.get(i).slots;
+			ByteBuffer b = ByteBuffer.allocate(2 * slots.length);
+			b.asShortBuffer().put(slots);
+			sb.append(DatatypeConverter.printBase64Binary(b.array()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Append the encoded filters to the filters of their key.
+	 * 
+	 * @param element	the encoded filters
+	 * @return true if fingerprints have been added
+	 */
+	private boolean merge(String element) {
+		String[] parts = element.substring(FILTER_PREFIX.length()).split(":", 3);
+		int key = Integer.parseInt(parts[0]);
+		if (Integer.parseInt(parts[1]) != bits)
+			throw new IllegalArgumentException("Filter with " + parts[1] 
+					+ "-bit fingerprints cannot be merged into " + bits + "-bit filters");
+		List<Filter> filters = new ArrayList<Filter>();
+		for (String encoded : parts[2].split(",")) {
+			byte[] bytes = DatatypeConverter.parseBase64Binary(encoded);
+			if (bytes.length != 2 * BUCKET_SIZE * buckets)
+				throw new IllegalArgumentException("Filter of a different size cannot be"
+						+ " merged into filters with " + buckets + " buckets");
+			short[] slots = new short[bytes.length / 2];
+			ByteBuffer.wrap(bytes).asShortBuffer().get(slots);
+			filters.add(new Filter(slots));
+		}
+		List<Filter> chain = chains.get(key);
+		if (chain == null) {
+			chain = new ArrayList<Filter>();
+			chains.put(key, chain);
+		}
+		int added = 0;
+		for (Filter f : filters) {
+			chain.add(f);
+			added += f.count;
+		}
+		size += added;
+		return added > 0;
+	}
+
+	/**
+	 * Compute the 64-bit hash of the given token (FNV-1a with a final mix), which is
+	 * independent from the key of the token.
+	 * 
+	 * @param token	the token
+	 * @return the hash
+	 */
+	private static long hash(String token) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : token.getBytes(UTF8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Derive the fingerprint from the given hash, never 0 since 0 marks a free slot.
+	 * 
+	 * @param hash	the hash of the token
+	 * @return the fingerprint
+	 */
+	private short fingerprint(long hash) {
+		int fp = (int) (hash >>> (64 - bits));
+		return (short) (fp == 0 ? 1 : fp);
+	}
+
+	/**
+	 * A cuckoo filter with a power-of-two number of buckets. All filters of a chain
+	 * have the same number of buckets.
+	 */
+	private static final class Filter {
+
+		/** The fingerprints, BUCKET_SIZE per bucket, 0 for a free slot */
+		final short[] slots;
+
+		/** The number of buckets */
+		final int buckets;
+
+		/** The number of stored fingerprints */
+		int count;
+
+		/** Victim selection for relocations */
+		private int victim;
+
+		Filter(int buckets) {
+			this.buckets = buckets;
+			this.slots = new short[buckets * BUCKET_SIZE];
+		}
+
+		Filter(short[] slots) {
+			this.slots = slots;
+			this.buckets = slots.length / BUCKET_SIZE;
+			for (short s : slots)
+				if (s != 0)
+					count++;
+		}
+
+		/** The first bucket of a fingerprint */
+		private int index1(long hash) {
+			return (int) hash & (buckets - 1);
+		}
+
+		/** The alternative bucket of a fingerprint in the given bucket */
+		private int alternate(int index, short fp) {
+			return (index ^ (int) ((fp & 0xffff) * 0x5bd1e995L)) & (buckets - 1);
+		}
+
+		boolean contains(short fp, long hash) {
+			int i1 = index1(hash);
+			return find(i1, fp) >= 0 || find(alternate(i1, fp), fp) >= 0;
+		}
+
+		private int find(int bucket, short fp) {
+			for (int i = bucket * BUCKET_SIZE; i < (bucket + 1) * BUCKET_SIZE; i++)
+				if (slots[i] == fp)
+					return i;
+			return -1;
+		}
+
+		private boolean put(int bucket, short fp) {
+			int slot = find(bucket, (short) 0);
+			if (slot < 0)
+				return false;
+			slots[slot] = fp;
+			count++;
+			return true;
+		}
+
+		boolean insert(short fp, long hash) {
+			int i1 = index1(hash);
+			int i2 = alternate(i1, fp);
+			if (put(i1, fp) || put(i2, fp))
+				return true;
+
+			// Relocate fingerprints along the cuckoo path, undo if it is too long
+			int[] path = new int[MAX_KICKS];
+			int bucket = (victim++ & 1) == 0 ? i1 : i2;
+			for (int n = 0; n < MAX_KICKS; n++) {
+				int slot = bucket * BUCKET_SIZE + (victim++ & (BUCKET_SIZE - 1));
+				path[n] = slot;
+				short kicked = slots[slot];
+				slots[slot] = fp;
+				fp = kicked;
+				bucket = alternate(bucket, fp);
+				if (put(bucket, fp))
+					return true;
+			}
+			for (int n = MAX_KICKS - 1; n >= 0; n--) {
+				short kicked = slots[path[n]];
+				slots[path[n]] = fp;
+				fp = kicked;
+			}
+			return false;
+		}
+
+		boolean delete(short fp, long hash) {
+			int i1 = index1(hash);
+			int slot = find(i1, fp);
+			if (slot < 0)
+				slot = find(alternate(i1, fp), fp);
+			if (slot < 0)
+				return false;
+			slots[slot] = 0;
+			count--;
+			return true;
+		}
+	}
+}
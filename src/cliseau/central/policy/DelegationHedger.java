@@ -0,0 +1,307 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cliseau.Clicap;
+import cliseau.central.Topology;
+import cliseau.central.delegation.IcapDelegationReq;
+import cliseau.javacor.Coordinator;
+import cliseau.javacor.DelegationLocPolReturn;
+
+/**
+ * This class hedges the delegation requests sent by the origin node. If no response
+ * has arrived for a request within a delay derived from a percentile of the recently
+ * observed response times, a duplicate of the request is sent over an alternative
+ * first hop preceding the key. The first response wins, later ones are dropped. The
+ * responsible node remembers its decisions per event ID, so a duplicate request gets
+ * the same decision and does not change the policy state again. The duplicate is
+ * passed on through the coordinator like any other message of this node. Requests
+ * that are never answered are forgotten by a periodic sweep. <br>
+ * Hedging is configured by the following parameters of the properties file:
+ * <ul>
+ * <li>hedging.enabled : whether duplicates are sent at all (default false)</li>
+ * <li>hedging.percentile : percentile of the response times used as delay 
+ * (default 95)</li>
+ * <li>hedging.mindelay : minimal delay in milliseconds (default 20)</li>
+ * </ul>
+ */
+public class DelegationHedger {
+
+	/**
+	 * Number of response times kept for the estimation of the delay
+	 */
+	private static final int WINDOW = 256;
+
+	/**
+	 * Time in milliseconds after which an unanswered request is forgotten
+	 */
+	private static final long TIMEOUT = 60000;
+
+	/**
+	 * Time in milliseconds between two sweeps of the unanswered requests
+	 */
+	private static final long SWEEP_PERIOD = 10000;
+
+	/**
+	 * Whether duplicates are sent
+	 */
+	private final boolean enabled;
+
+	/**
+	 * Percentile of the response times used as delay
+	 */
+	private final int percentile;
+
+	/**
+	 * Minimal delay in milliseconds
+	 */
+	private final long minDelay;
+
+	/**
+	 * Number of successors considered on the routing path
+	 */
+	private final int successorListSize;
+
+	/**
+	 * Counter for the event IDs issued by this node
+	 */
+	private final AtomicLong eventCounter = new AtomicLong();
+
+	/**
+	 * The requests that have not been answered yet, by event ID
+	 */
+	private final ConcurrentHashMap<Long, Pending> pending = 
+			new ConcurrentHashMap<Long, Pending>();
+
+	/**
+	 * Ring buffer of the recent response times in milliseconds
+	 */
+	private final long[] samples = new long[WINDOW];
+
+	/**
+	 * Number of valid response times
+	 */
+	private int sampleCount;
+
+	/**
+	 * Next position in the ring buffer
+	 */
+	private int nextSample;
+
+	/**
+	 * The current delay in milliseconds
+	 */
+	private volatile long delay;
+
+	/**
+	 * The thread sending the duplicates and sweeping the unanswered requests
+	 */
+	private ScheduledThreadPoolExecutor timer;
+
+	/**
+	 * A request that has not been answered yet
+	 */
+	private static class Pending {
+
+		/**
+		 * The sending time in milliseconds
+		 */
+		final long sendingTime;
+
+		/**
+		 * The scheduled duplicate, null until it has been scheduled
+		 */
+		volatile ScheduledFuture<?> duplicate;
+
+		Pending(long sendingTime) {
+			this.sendingTime = sendingTime;
+		}
+
+		/**
+		 * Cancel the duplicate if it has not been sent yet.
+		 */
+		void cancel() {
+			ScheduledFuture<?> f = duplicate;
+			if (f != null)
+				f.cancel(false);
+		}
+	}
+
+	/**
+	 * Create a hedger configured by the properties file.
+	 * 
+	 * @param successorListSize	number of successors considered on the routing path
+	 */
+	public DelegationHedger(int successorListSize) {
+		this.successorListSize = successorListSize;
+		enabled = Boolean.parseBoolean(Clicap.getProperty("hedging.enabled", "false"));
+		percentile = Math.min(99, Math.max(1, 
+				Clicap.getIntProperty("hedging.percentile", 95)));
+		minDelay = Clicap.getIntProperty("hedging.mindelay", 20);
+		delay = minDelay;
+		if (enabled) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "hedging");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			// Answered requests must not leave their duplicate in the queue
+			timer.setRemoveOnCancelPolicy(true);
+			timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sweep();
+				}
+			}, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Issue a new event ID. The ID contains the identifier of this node, so it is
+	 * unique in the whole network.
+	 * 
+	 * @param topology	the topology of this node
+	 * @return the event ID
+	 */
+	public long nextEventID(Topology topology) {
+		return ((long) topology.id << 40) | eventCounter.incrementAndGet();
+	}
+
+	/**
+	 * Called when the given request is about to be sent to the given first hop. A
+	 * duplicate is scheduled if hedging is enabled.
+	 * 
+	 * @param req		the delegation request
+	 * @param key		the key of the event of the request
+	 * @param firstHop	the identifier of the first hop of the request
+	 */
+	public void sent(final IcapDelegationReq req, final int key, final int firstHop) {
+		if (!enabled)
+			return;
+		final long eventID = req.getEvent().eventID;
+		Pending p = new Pending(System.currentTimeMillis());
+		pending.put(eventID, p);
+		p.duplicate = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (pending.containsKey(eventID) && !req.isExpired())
+					hedge(req, key, firstHop);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		// The response may have arrived before the duplicate was scheduled
+		if (!pending.containsKey(eventID))
+			p.cancel();
+	}
+
+	/**
+	 * Called when a response for the event with the given ID has arrived.
+	 * 
+	 * @param eventID	the event ID, 0 if the response is not correlated
+	 * @return true if this is the first response, false if the event has already
+	 * 			been answered
+	 */
+	public boolean answered(long eventID) {
+		if (!enabled || eventID == 0)
+			return true;
+		Pending p = pending.remove(eventID);
+		if (p == null)
+			return false;
+		p.cancel();
+		addSample(System.currentTimeMillis() - p.sendingTime);
+		return true;
+	}
+
+	/**
+	 * Forget the requests that have not been answered within {@link #TIMEOUT}.
+	 */
+	private void sweep() {
+		long oldest = System.currentTimeMillis() - TIMEOUT;
+		for (Iterator<Pending> it = pending.values().iterator(); it.hasNext();) {
+			Pending p = it.next();
+			if (p.sendingTime < oldest) {
+				it.remove();
+				p.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Send a duplicate of the given request to the first candidate of the routing 
+	 * path that differs from the given first hop, is not suspected and lies between
+	 * this node and the key. The duplicate is passed on through the coordinator, so
+	 * it is sent by the sending stage of the candidate and rerouted by 
+	 * {@link IcapPolicy#unreachable(String, cliseau.javacor.DelegationReqResp)} if the
+	 * candidate turns out to be dead. Such a node reaches the responsible node over its
+	 * own fingers and successor, whereas a node following the key would route the 
+	 * duplicate back over this node. If the successor is responsible and has been the
+	 * first hop, there is no alternative path and no duplicate is sent.
+	 * 
+	 * @param req		the delegation request
+	 * @param key		the key of the event of the request
+	 * @param firstHop	the identifier of the first hop of the original request
+	 */
+	private void hedge(IcapDelegationReq req, int key, int firstHop) {
+		Coordinator coordinator = Clicap.getCoordinator();
+		if (coordinator == null)
+			return;
+		Topology topology = Clicap.getTopology();
+		for (int node : topology.getRoute(key, successorListSize)) {
+			String id = Integer.toString(node);
+			if (node == firstHop || !Topology.isInRange(node, topology.id, key)
+					|| Clicap.addressing.isSuspected(id))
+				continue;
+			coordinator.send(new DelegationLocPolReturn(id, req));
+			return;
+		}
+	}
+
+	/**
+	 * Add a response time and update the delay
+	 * 
+	 * @param rtt	the response time in milliseconds
+	 */
+	private synchronized void addSample(long rtt) {
+		samples[nextSample] = rtt;
+		nextSample = (nextSample + 1) % WINDOW;
+		if (sampleCount < WINDOW)
+			sampleCount++;
+
+		// Recompute the percentile every now and then only
+		if (nextSample % 16 == 0) {
+			long[] sorted = Arrays.copyOf(samples, sampleCount);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+			delay = Math.max(minDelay, sorted[Math.max(0, index)]);
+		}
+	}
+}
@@ -19,13 +19,26 @@
  */
 package cliseau.central.policy;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import cliseau.Clicap;
 import cliseau.central.IcapEnforcementDecision;
+import cliseau.central.RouteHints;
+import cliseau.central.Topology;
+import cliseau.central.delegation.IcapDelegationRedirect;
 import cliseau.central.delegation.IcapDelegationReq;
 import cliseau.central.delegation.IcapDelegationResp;
 import cliseau.central.delegation.IcapJoiningNotification;
@@ -34,21 +47,24 @@ import cliseau.central.delegation.IcapLocalNotification;
 import cliseau.central.delegation.IcapNWMNotification;
 import cliseau.central.delegation.Notification;
 import cliseau.central.event.IcapEvent;
-import cliseau.central.event.IcapEventType;
 import cliseau.central.event.IcapNWMapEvent;
 import cliseau.central.event.IcapScaleInEvent;
 import cliseau.central.event.IcapScaleOutEvent;
 import cliseau.central.policy.nwmap.MapGenerator;
 import cliseau.central.policy.scaling.LeavingProtocol;
 import cliseau.central.policy.scaling.Node;
+import cliseau.central.policy.scaling.ScalingBatch;
 import cliseau.central.policy.scaling.JoiningProtocol;
 import cliseau.javacor.CriticalEvent;
 import cliseau.javacor.DelegationLocPolDirectReturn;
 import cliseau.javacor.DelegationLocPolDummyReturn;
+import cliseau.javacor.DelegationLocPolMultiReturn;
 import cliseau.javacor.DelegationLocPolReturn;
 import cliseau.javacor.DelegationReqResp;
 import cliseau.javacor.LocalPolicy;
 import cliseau.javacor.LocalPolicyResponse;
+import cliseau.javacor.Priority;
+import tools.monitor.FlightEvents;
 
 /**
  * This class implements a CliSeAu policy forbidding pay-for-less attacks that
@@ -76,10 +92,90 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	/**
 	 * Stores exactly those tokens that have been generated by the web shop so
 	 * far but which have not been used for the confirmation of some client's
-	 * order, yet.
+	 * order, yet. The set is concurrent since it is shared by the shards of the
+	 * coordinator and the control plane. It is either kept on the heap or, for 
+	 * large token populations, off the heap as digests (see {@link OffHeapTokenSet})
+	 * or as fingerprints in cuckoo filters (see {@link CuckooTokenFilter}).
 	 */
 	protected Set<String> validTokens;
 
+	/**
+	 * The service automaton instantiated per token. A token is in state 1 if it is
+	 * contained in validTokens, in state s > 1 if it is mapped to s by tokenStates,
+	 * and in state 0 otherwise.
+	 */
+	private final TableAutomaton automaton;
+
+	/**
+	 * The tokens in a state above 1, only used by automata with more than two 
+	 * states. The states are kept on the heap whatever the token store is.
+	 */
+	private final ConcurrentHashMap<String, Integer> tokenStates = 
+			new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * The service automaton instantiated per session, null if sessions are not
+	 * tracked. An event is decided by the session automaton if its type is relevant
+	 * for it but not for the token automaton; such an event is keyed by its session
+	 * ID instead of its token.
+	 */
+	private final TableAutomaton sessionAutomaton;
+
+	/**
+	 * The states of the sessions this node is responsible for
+	 */
+	private final SessionTable sessions;
+
+	/**
+	 * The write-ahead log of the valid tokens, null if disabled
+	 */
+	private final TokenLog tokenLog;
+
+	/**
+	 * The owner hints learned from redirects of other nodes
+	 */
+	private final RouteHints routeHints = new RouteHints();
+
+	/**
+	 * The number of successors considered when the successor is suspected to be dead
+	 */
+	private final int successorListSize = Clicap.getIntProperty("successorlist.size", 3);
+
+	/**
+	 * The hedger sending duplicates of slow delegation requests
+	 */
+	private final DelegationHedger hedger = new DelegationHedger(successorListSize);
+
+	/**
+	 * The collector of the traces of the delegation requests sent by this node
+	 */
+	private final TraceCollector traces = new TraceCollector();
+
+	/**
+	 * The most recent decisions made for delegated events, by event ID. A duplicate
+	 * of a hedged request gets the remembered decision instead of changing the
+	 * policy state a second time. A decision is entered before it is made, such that
+	 * a concurrent duplicate waits for it.
+	 */
+	private final ConcurrentHashMap<Long, FutureTask<Boolean>> decisions = 
+			new ConcurrentHashMap<Long, FutureTask<Boolean>>();
+
+	/**
+	 * The event IDs of the remembered decisions, the oldest first
+	 */
+	private final ConcurrentLinkedQueue<Long> decisionOrder = 
+			new ConcurrentLinkedQueue<Long>();
+
+	/**
+	 * The number of entries of {@link #decisionOrder}
+	 */
+	private final AtomicInteger decisionCount = new AtomicInteger();
+
+	/**
+	 * The number of remembered decisions
+	 */
+	private static final int DECISION_MEMORY = 4096;
+
 	/**
 	 * Creates an IcapPolicy with the given identifier. The identifier should be
 	 * unique.
@@ -94,7 +190,71 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 		super(identifier);
 
 		this.queuedJoiningRequests = new LinkedList<IcapEvent>();
-		this.validTokens = new HashSet<String>();
+		String store = Clicap.getProperty("tokenstore", "heap");
+		KeyedTokenSet.KeyFunction keyFunction = new KeyedTokenSet.KeyFunction() {
+			@Override
+			public int keyOf(String token) {
+				return tokenKey(token, Clicap.getBitLength());
+			}
+		};
+		if (store.equalsIgnoreCase("offheap"))
+			this.validTokens = new OffHeapTokenSet(keyFunction,
+					Runtime.getRuntime().availableProcessors() * 4,
+					Clicap.getIntProperty("tokenstore.capacity", 1 << 16));
+		else if (store.equalsIgnoreCase("filter")) {
+			CuckooTokenFilter filter = new CuckooTokenFilter(keyFunction, 
+					Double.parseDouble(Clicap.getProperty("tokenstore.fprate", "0.001")),
+					Math.max(1, Clicap.getIntProperty("tokenstore.capacity", 1 << 16) 
+							/ Clicap.getCapacity()));
+			System.out.println("» Server " + identifier + " :: Token filter with "
+					+ filter.getFingerprintBits() + "-bit fingerprints, false-positive"
+					+ " rate <= " + filter.getFalsePositiveRate() + " per filter");
+			this.validTokens = filter;
+		} else
+			this.validTokens = Collections.newSetFromMap(
+					new ConcurrentHashMap<String, Boolean>());
+
+		// Compile the configured automaton, the pay-for-less automaton by default
+		TableAutomaton table = TABLE;
+		String spec = Clicap.getProperty("policy.automaton", "");
+		if (!spec.isEmpty()) {
+			try {
+				table = TableAutomaton.load(spec);
+			} catch (IOException e) {
+				System.err.println("» Server " + identifier + " :: Automaton " + spec 
+						+ " not loaded, using " + table + ": " + e.getMessage());
+			}
+		}
+		this.automaton = table;
+
+		// Sessions are only tracked if a session automaton is configured
+		TableAutomaton sessionTable = null;
+		spec = Clicap.getProperty("policy.sessionautomaton", "");
+		if (!spec.isEmpty()) {
+			try {
+				sessionTable = TableAutomaton.load(spec);
+			} catch (IOException e) {
+				System.err.println("» Server " + identifier + " :: Session automaton " 
+						+ spec + " not loaded: " + e.getMessage());
+			}
+		}
+		this.sessionAutomaton = sessionTable;
+		this.sessions = new SessionTable(keyFunction, 
+				Clicap.getIntProperty("sessions.capacity", 1 << 16),
+				Clicap.getIntProperty("sessions.idletimeout", 1800000),
+				Runtime.getRuntime().availableProcessors() * 4);
+
+		// Reload the tokens of this node from its log after a restart
+		this.tokenLog = TokenLog.open();
+		if (tokenLog != null) {
+			try {
+				System.out.println("» Server " + identifier + " :: "
+						+ tokenLog.recover(validTokens, tokenStates) + " tokens recovered");
+			} catch (IOException e) {
+				System.err.println("» Server " + identifier + " :: Tokens not "
+						+ "recovered: " + e.getMessage());
+			}
+		}
 	}
 
 	// <--------------------------------------------------------------------------------->
@@ -135,6 +295,10 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 */
 	private LocalPolicyResponse localSecRequest(IcapEvent iEv) {
 
+		if (iEv.isExpired())
+			// The ICAP service has already given up waiting for the decision
+			return new DelegationLocPolDummyReturn();
+
 		int hashValue = hash(iEv, Clicap.getBitLength());
 		if (hashValue >= 0)
 			System.out.println("» Server " + this.getIdentifier()
@@ -145,17 +309,33 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 					+ " :: Decision made locally");
 			// Case this unit is responsible for the given event
 			boolean isLegalEvent = acceptEvent(iEv);
-			return makeDecision(isLegalEvent);
+			return makeDecision(isLegalEvent, iEv);
 		} else {
 			System.out.println("» Server " + this.getIdentifier()
 					+ " :: Request sent.");
-			// Finger table look-up
-			int nextUnit = Clicap.fTable
-					.lookUp(hash(iEv, Clicap.getBitLength()));
+			Topology topology = Clicap.getTopology();
+			int key = hash(iEv, topology.bitLength);
+			iEv.eventID = hedger.nextEventID(topology);
+			IcapDelegationReq req = new IcapDelegationReq(Clicap.getDomain(),
+					Clicap.getRemotePort(), iEv, topology.epoch);
+
+			// A fresh owner hint saves routing over a possibly stale finger table
+			Node owner = routeHints.get(key, topology);
+			if (owner != null) {
+				req.setRedirected();
+				hedger.sent(req, key, owner.id);
+				return new DelegationLocPolDirectReturn(owner.domain, owner.port, req);
+			}
 
-			return new DelegationLocPolReturn(Integer.toString(nextUnit),
-					new IcapDelegationReq(Clicap.getDomain(),
-							Clicap.getRemotePort(), iEv));
+			// Finger table look-up
+			int nextUnit = nextHop(key, topology);
+			if (nextUnit < 0) {
+				System.out.println("» Server " + this.getIdentifier()
+						+ " :: No live route, request rejected");
+				return makeDecision(false, iEv);
+			}
+			hedger.sent(req, key, nextUnit);
+			return new DelegationLocPolReturn(Integer.toString(nextUnit), req);
 		}
 	}
 
@@ -171,42 +351,36 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 */
 	private LocalPolicyResponse localScalingRequest(CriticalEvent ev) {
 
+		if (ScalingBatch.isRunning()) {
+			// Reject the scaling request
+			System.out
+					.println("\n» ERROR: Scaling process is still running! \n");
+			IcapEnforcementDecision ed = new IcapEnforcementDecision(
+					IcapEnforcementDecision.Decision.REJECT,
+					IcapEnforcementDecision.Type.SCALE);
+			return ed;
+		}
+		
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
 		if (ev instanceof IcapScaleOutEvent) {
 			IcapScaleOutEvent sEv = (IcapScaleOutEvent) ev;
-
-			if (JoiningProtocol.isJoining) {
-				// Reject the joining request
-				System.out
-						.println("\n» ERROR: Joining process is still running! \n");
-				IcapEnforcementDecision ed = new IcapEnforcementDecision(
-						IcapEnforcementDecision.Decision.REJECT,
-						IcapEnforcementDecision.Type.SCALE);
-				return ed;
-			} else {
-				JoiningProtocol.isJoining = true;
-				// Trigger the leaving protocol
-				return JoiningProtocol.startGeneratingFT(
-						Integer.parseInt(sEv.getID()), sEv.getDomain(),
-						sEv.getPort());
-			}
+			
+			// Trigger a joining session for every new node
+			ScalingBatch.start(sEv.size());
+			for (int i = 0; i < sEv.size(); i++)
+				resp.add(JoiningProtocol.startGeneratingFT(
+						Integer.parseInt(sEv.getID(i)), sEv.getDomain(i),
+						sEv.getPort(i)));
 		} else {
 			// Leaving - STEP 1
 			IcapScaleInEvent sEv = (IcapScaleInEvent) ev;
 
-			if (LeavingProtocol.isLeaving) {
-				// Reject the leaving request
-				System.out
-						.println("\n» ERROR: Leaving process is still running! \n");
-				IcapEnforcementDecision ed = new IcapEnforcementDecision(
-						IcapEnforcementDecision.Decision.REJECT,
-						IcapEnforcementDecision.Type.SCALE);
-				return ed;
-			} else {
-				// Trigger the leaving protocol
-				return LeavingProtocol
-						.startQuery(Integer.parseInt(sEv.getID()));
-			}
+			// Trigger a leaving session for every leaving node
+			ScalingBatch.start(sEv.size());
+			for (int i = 0; i < sEv.size(); i++)
+				resp.add(LeavingProtocol.startQuery(Integer.parseInt(sEv.getID(i))));
 		}
+		return resp;
 	}
 
 	/**
@@ -253,6 +427,85 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	// Handle Remote Requests
 	// <--------------------------------------------------------------------------------->
 
+	/**
+	 * Scaling and network-map requests belong to the control plane.
+	 */
+	@Override
+	public boolean isControlEvent(CriticalEvent ev) {
+		return ev instanceof IcapScaleOutEvent || ev instanceof IcapScaleInEvent
+				|| ev instanceof IcapNWMapEvent;
+	}
+
+	/**
+	 * Joining, leaving and network-map notifications belong to the control plane.
+	 */
+	@Override
+	public boolean isControlMessage(DelegationReqResp dr) {
+		return dr instanceof IcapJoiningNotification
+				|| dr instanceof IcapLeavingNotification
+				|| dr instanceof IcapNWMNotification;
+	}
+
+	/**
+	 * Security-relevant events are sharded by their token, such that all decisions
+	 * about a token are made by the same shard in the order of their arrival.
+	 */
+	@Override
+	public int getShardKey(CriticalEvent ev) {
+		if (!(ev instanceof IcapEvent))
+			return -1;
+		IcapEvent iEv = (IcapEvent) ev;
+		if (isSessionEvent(iEv))
+			return iEv.sid.hashCode() & Integer.MAX_VALUE;
+		if (iEv.token != null)
+			return iEv.token.hashCode() & Integer.MAX_VALUE;
+		return -1;
+	}
+
+	/**
+	 * Delegation requests are sharded like their events, delegation responses by
+	 * their event ID.
+	 */
+	@Override
+	public int getShardKey(DelegationReqResp dr) {
+		if (dr instanceof IcapDelegationReq)
+			return getShardKey(((IcapDelegationReq) dr).getEvent());
+		if (dr instanceof IcapDelegationResp)
+			return (int) (((IcapDelegationResp) dr).getEventID() & Integer.MAX_VALUE);
+		return -1;
+	}
+
+	/**
+	 * Security-relevant events have the priority class of their type, the network map
+	 * is of low priority.
+	 */
+	@Override
+	public Priority getPriority(CriticalEvent ev) {
+		if (ev instanceof IcapEvent)
+			return PriorityClasses.of(((IcapEvent) ev).type);
+		if (ev instanceof IcapNWMapEvent)
+			return Priority.LOW;
+		return Priority.NORMAL;
+	}
+
+	/**
+	 * Delegation requests and redirects have the priority class of their event.
+	 * Delegation responses are of high priority since they only release a waiting 
+	 * request. Network-map notifications are of low priority.
+	 */
+	@Override
+	public Priority getPriority(DelegationReqResp dr) {
+		if (dr instanceof IcapDelegationReq)
+			return getPriority(((IcapDelegationReq) dr).getEvent());
+		if (dr instanceof IcapDelegationRedirect)
+			return getPriority(((IcapDelegationRedirect) dr).getRequest().getEvent());
+		if (dr instanceof IcapDelegationResp)
+			return Priority.HIGH;
+		if (dr instanceof IcapNWMNotification)
+			return Priority.LOW;
+		return Priority.NORMAL;
+	}
+
 	@Override
 	/**
 	 * Upon receiving a delegation request from a remote server, this node determines how
@@ -268,20 +521,37 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 			throws IllegalArgumentException {
 
 		if (dr instanceof IcapDelegationReq) {
-			if (LeavingProtocol.isLeavingNode()) {
-				// If this is the leaving node,
-				// so forward every delegation request to the successor
-				return new DelegationLocPolReturn(Clicap.getSucID(), dr);
-			} else
+			((IcapDelegationReq) dr).getTrace().addHop(Clicap.getTopology().id);
+			if (((IcapDelegationReq) dr).isExpired()) {
+				// The source has already given up waiting for the decision
+				System.out.println("» Server " + this.getIdentifier()
+						+ " :: Expired request dropped");
+				return new DelegationLocPolDummyReturn();
+			} else if (LeavingProtocol.isLeavingNode())
+				return leavingNodeDelRequest((IcapDelegationReq) dr);
+			else
 				// Note: the case that this is the successor of the leaving
 				// node is handled in the method isResponsible()
 				return remoteDelRequest((IcapDelegationReq) dr);
 		} else if (dr instanceof IcapDelegationResp)
 			return remoteDelResponse((IcapDelegationResp) dr);
-		else if (dr instanceof IcapJoiningNotification)
-			return joiningNotification((IcapJoiningNotification) dr);
-		else if (dr instanceof IcapLeavingNotification)
-			return leavingNotification((IcapLeavingNotification) dr);
+		else if (dr instanceof IcapDelegationRedirect)
+			return remoteRedirect((IcapDelegationRedirect) dr);
+		else if (dr instanceof IcapJoiningNotification) {
+			Object event = FlightEvents.SCALING_STEP.begin();
+			LocalPolicyResponse resp = joiningNotification((IcapJoiningNotification) dr);
+			if (event != null)
+				FlightEvents.SCALING_STEP.commit(event, "join",
+						((IcapJoiningNotification) dr).getType().name());
+			return resp;
+		} else if (dr instanceof IcapLeavingNotification) {
+			Object event = FlightEvents.SCALING_STEP.begin();
+			LocalPolicyResponse resp = leavingNotification((IcapLeavingNotification) dr);
+			if (event != null)
+				FlightEvents.SCALING_STEP.commit(event, "leave",
+						((IcapLeavingNotification) dr).getType().name());
+			return resp;
+		}
 		else if (dr instanceof IcapNWMNotification)
 			return nwMapNotification((IcapNWMNotification) dr);
 		else
@@ -307,20 +577,191 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 					+ " :: Decision made.");
 			// Case this unit is responsible for the event carried by the
 			// given delegation request
-			boolean isLegalEvent = acceptEvent(ev);
+			boolean isLegalEvent = acceptOnce(ev);
 			return new DelegationLocPolDirectReturn(dr.getSourceDomain(),
 					dr.getSourcePort(), new IcapDelegationResp(
-							makeDecision(isLegalEvent)));
+							makeDecision(isLegalEvent, ev), ev.eventID, dr.getTrace()));
 		} else {
 
+			Topology topology = Clicap.getTopology();
+			int key = hash(ev, topology.bitLength);
+
+			// The request was routed with an older topology and the successor is
+			// responsible => Redirect the source to the successor
+			if (isStale(dr, topology)
+					&& Topology.isInRange(key, topology.id, topology.sucID))
+				return redirect(dr, topology.id, topology);
+
 			// Not responsible => Finger table look-up
 			// then forward to the next unit
-			int nextUnit = Clicap.fTable
-					.lookUp(hash(ev, Clicap.getBitLength()));
+			return forward(dr, key, topology);
+		}
+	}
+
+	/**
+	 * Forward the given delegation request to the next live node on the routing path.
+	 * If there is no such node, the request is rejected such that the source does not
+	 * wait for a decision forever. The same holds for a request that has come back to
+	 * this node: while a dead node is bypassed, nodes with different views of the 
+	 * suspected nodes may route the keys of its range to each other, since none of 
+	 * them considers itself responsible. Since the trace only records a bounded number
+	 * of hops, a request that has been forwarded more often than any route of the
+	 * network is long is rejected as well.
+	 * 
+	 * @param dr
+	 *            the delegation request to be forwarded
+	 * @param key
+	 *            the key of the event of the request
+	 * @param topology
+	 *            the topology of this node
+	 * @return the forwarding to the next node or the rejection to the source
+	 */
+	private LocalPolicyResponse forward(IcapDelegationReq dr, int key,
+			Topology topology) {
+		boolean looping = dr.getTrace().getVisits(topology.id) > 1;
+		int nextUnit = dr.forwarded() > maxHops(topology) || looping ? -1 
+				: nextHop(key, topology);
+		if (nextUnit < 0) {
 			System.out.println("» Server " + this.getIdentifier()
-					+ " :: Request forwarded to SERVER " + nextUnit);
-			return new DelegationLocPolReturn(Integer.toString(nextUnit), dr);
+					+ " :: No live route, request rejected");
+			return new DelegationLocPolDirectReturn(dr.getSourceDomain(),
+					dr.getSourcePort(), new IcapDelegationResp(makeDecision(false,
+							dr.getEvent()), dr.getEvent().eventID, dr.getTrace()));
+		}
+		System.out.println("» Server " + this.getIdentifier()
+				+ " :: Request forwarded to SERVER " + nextUnit);
+		dr.setEpoch(topology.epoch);
+		return new DelegationLocPolReturn(Integer.toString(nextUnit), dr);
+	}
+
+	/**
+	 * Determine the next node on the routing path of the given key that is not
+	 * suspected to be dead by the failure detector.
+	 * 
+	 * @param key
+	 *            the given key
+	 * @param topology
+	 *            the topology of this node
+	 * @return the identifier of the next node, or -1 if all candidates are suspected
+	 */
+	private int nextHop(int key, Topology topology) {
+		for (int node : topology.getRoute(key, successorListSize)) {
+			if (!Clicap.addressing.isSuspected(Integer.toString(node)))
+				return node;
 		}
+		return -1;
+	}
+
+	/**
+	 * Determine the maximal number of forwardings of a delegation request. A route 
+	 * takes at most one hop per bit of the identifiers, every detour around a dead 
+	 * node at most one more.
+	 * 
+	 * @param topology
+	 *            the topology of this node
+	 * @return the maximal number of forwardings
+	 */
+	private int maxHops(Topology topology) {
+		return 2 * topology.bitLength + successorListSize;
+	}
+
+	/**
+	 * A delegation request that could not be delivered is routed to the next live
+	 * node, the unreachable node is already suspected by the failure detector. Other
+	 * messages are dropped.
+	 */
+	@Override
+	public LocalPolicyResponse unreachable(String destinationID,
+			DelegationReqResp dr) {
+		if (!(dr instanceof IcapDelegationReq))
+			return null;
+		System.out.println("» Server " + this.getIdentifier() + " :: SERVER "
+				+ destinationID + " unreachable, rerouting");
+		IcapDelegationReq req = (IcapDelegationReq) dr;
+		Topology topology = Clicap.getTopology();
+		return forward(req, hash(req.getEvent(), topology.bitLength), topology);
+	}
+
+	/**
+	 * Handling remote delegation requests received by a leaving node. The successor
+	 * takes over the key range of this node, so requests for this range are 
+	 * redirected to the successor if they were routed with an older topology. All 
+	 * other requests are forwarded to the successor.
+	 * 
+	 * @param dr
+	 *            the received delegation request
+	 * @return the redirect to the source or the forwarding to the successor
+	 */
+	private LocalPolicyResponse leavingNodeDelRequest(IcapDelegationReq dr) {
+
+		Topology topology = Clicap.getTopology();
+		int key = hash(dr.getEvent(), topology.bitLength);
+
+		if (key >= 0 && isStale(dr, topology) && topology.isResponsible(key))
+			return redirect(dr, topology.predID, topology);
+
+		dr.setEpoch(topology.epoch);
+		return new DelegationLocPolReturn(Integer.toString(topology.sucID), dr);
+	}
+
+	/**
+	 * Check if the given delegation request was routed with a topology older than
+	 * the given one. Requests that have already been redirected once are never
+	 * considered as stale.
+	 * 
+	 * @param dr
+	 *            the received delegation request
+	 * @param topology
+	 *            the topology of this node
+	 * @return True if the request should be redirected, otherwise False
+	 */
+	private boolean isStale(IcapDelegationReq dr, Topology topology) {
+		return !dr.isRedirected() && dr.getEpoch() < topology.epoch;
+	}
+
+	/**
+	 * Send the given delegation request back to its source together with the
+	 * successor of this node as owner hint.
+	 * 
+	 * @param dr
+	 *            the received delegation request
+	 * @param ownerPred
+	 *            identifier of the node after which the key range of the
+	 *            successor starts
+	 * @param topology
+	 *            the topology of this node
+	 * @return the local policy direct return to the source of the request
+	 */
+	private LocalPolicyResponse redirect(IcapDelegationReq dr, int ownerPred,
+			Topology topology) {
+		System.out.println("» Server " + this.getIdentifier()
+				+ " :: Request redirected to SERVER " + topology.sucID);
+		Node owner = new Node(topology.sucID, topology.sucDomain, topology.sucPort);
+		return new DelegationLocPolDirectReturn(dr.getSourceDomain(),
+				dr.getSourcePort(), new IcapDelegationRedirect(dr, owner, ownerPred,
+						topology.epoch));
+	}
+
+	/**
+	 * Handling redirects of delegation requests sent by this node. The owner hint
+	 * is remembered and the request is sent directly to the owner.
+	 * 
+	 * @param redirect
+	 *            the received redirect
+	 * @return the local policy direct return to the owner
+	 */
+	private LocalPolicyResponse remoteRedirect(IcapDelegationRedirect redirect) {
+
+		Node owner = redirect.getOwner();
+		routeHints.add(owner, redirect.getOwnerPred(), redirect.getEpoch());
+
+		IcapDelegationReq req = redirect.getRequest();
+		req.getTrace().addHop(Clicap.getTopology().id);
+		if (req.isExpired())
+			return new DelegationLocPolDummyReturn();
+		req.setRedirected();
+		req.setEpoch(Clicap.getTopology().epoch);
+		return new DelegationLocPolDirectReturn(owner.domain, owner.port, req);
 	}
 
 	/**
@@ -334,8 +775,16 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 */
 	private LocalPolicyResponse remoteDelResponse(IcapDelegationResp dr) {
 
+		if (!hedger.answered(dr.getEventID())) {
+			// The decision of a hedged duplicate has already been passed on
+			System.out.println("» Server " + this.getIdentifier()
+					+ " :: Duplicate decision dropped.");
+			return new DelegationLocPolDummyReturn();
+		}
+
 		System.out.println("» Server " + this.getIdentifier()
 				+ " :: Decision received.");
+		traces.record(dr.getTrace());
 		// Response is sent directly from the responsible unit to the
 		// source unit => Just extract and return the decision
 		return dr.getED();
@@ -372,6 +821,12 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 		case JOIN_STEP_4_SUC_RESP:
 			return JoiningProtocol.instantiateNode(notification);
 
+		case JOIN_STEP_5B_STANDBY_CONFIGURED:
+			return JoiningProtocol.notifySuccessor(notification);
+
+		case JOIN_STANDBY_READY:
+			return JoiningProtocol.standbyReady(notification);
+
 		case JOIN_STEP_6_SUC_NOTIFY_INSTANTIATED:
 			return JoiningProtocol.deliverData(notification);
 
@@ -381,8 +836,6 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 			return JoiningProtocol.predecessorReady(notification);
 
 		case JOIN_STEP_9_PRED_READY:
-			// Reset row number
-			JoiningProtocol.rowNumber = 1;
 			return JoiningProtocol.triggerUpdating();
 
 		case JOIN_STEP_10A_PRED_QUERY:
@@ -395,7 +848,7 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 			return JoiningProtocol.updateCounterClockwise(notification);
 
 		case JOIN_STEP_10D_BRANCH_TERMINATED:
-			return JoiningProtocol.receiveUpdateConfirmation();
+			return JoiningProtocol.receiveUpdateConfirmation(notification);
 
 		case JOIN_STEP_11_N_READY:
 			return JoiningProtocol.finishJoining(notification);
@@ -427,9 +880,13 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 		case LEAVE_STEP_3_SEND_DATA_TO_SUC:
 			return LeavingProtocol.notifyLeavingNode(notification);
 
+		case LEAVE_STEP_3_RETRY:
+			return LeavingProtocol.deferSession(notification);
+
+		case LEAVE_STEP_4_SUC_BUSY:
+			return LeavingProtocol.sucBusy(notification);
+
 		case LEAVE_STEP_4_SUC_RESP:
-			// Reset row number
-			LeavingProtocol.rowNumber = 1;
 			return LeavingProtocol.triggerUpdating();
 
 		case LEAVE_STEP_5A_PRED_QUERY:
@@ -442,7 +899,7 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 			return LeavingProtocol.updateCounterClockwise(notification);
 
 		case LEAVE_STEP_5D_BRANCH_TERMINATED:
-			return LeavingProtocol.receiveUpdateConfirmation();
+			return LeavingProtocol.receiveUpdateConfirmation(notification);
 
 		case LEAVE_STEP_6_NOTIFY_PRED:
 			return LeavingProtocol.notifyPredecessor(notification);
@@ -520,36 +977,15 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 */
 	@Override
 	public boolean isLegalEvent(IcapEvent ce) {
-		if (ce.type != IcapEventType.TOKEN_ESTABLISH_S
-				&& ce.type != IcapEventType.RECEIVE_PAYER_ID_C) {
-			return true;
-		}
-
-		switch (ce.type) {
-		case TOKEN_ESTABLISH_S: {
+		if (isSessionEvent(ce))
+			return sessionAutomaton.next(sessions.stateOf(ce.sid), ce.type) 
+					!= TableAutomaton.REJECT;
+		if (!automaton.isRelevant(ce.type))
 			return true;
-			/*
-			 * We assume that this token has been generated by the web store.
-			 * Thus if it is not currently used for some checkout, it may not be
-			 * a reused token.
-			 */
-		}
-
-		case RECEIVE_PAYER_ID_C: {
-			boolean check = isValidToken(ce.token);
-			System.out.println("----->  Valid Token : " + check);
-			return check;
-			/*
-			 * Checks if the token has been generated by the web store and if
-			 * the web store is currently waiting for some payment confirmation
-			 * involving this token.
-			 */
-		}
-		default: {
-			// signaleUnimplementatedCase(ce.type, "isLegalEvent(IcapEvent");
-			return true;
-		}
-		}
+		boolean check = automaton.next(stateOf(ce.token), ce.type) 
+				!= TableAutomaton.REJECT;
+		System.out.println("----->  Legal " + ce.type + " : " + check);
+		return check;
 	}
 
 	/**
@@ -569,26 +1005,124 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 */
 	@Override
 	public boolean acceptEvent(IcapEvent ce) {
-		if (!isLegalEvent(ce)) {
-			return false;
-		}
-
-		// We know that ce is of type TOKEN_ESTABLISH_S or RECEIVE_PAYER_ID_C.
-
-		switch (ce.type) {
-		case TOKEN_ESTABLISH_S: {
-			markTokenAsValid(ce.token);
+		if (isSessionEvent(ce)) {
+			int state = sessions.stateOf(ce.sid);
+			int next = sessionAutomaton.next(state, ce.type);
+			if (next == TableAutomaton.REJECT)
+				return false;
+			if (next != state)
+				sessions.setState(ce.sid, next);
 			return true;
 		}
-		case RECEIVE_PAYER_ID_C: {
-			markTokenAsInvalid(ce.token);
+		if (!automaton.isRelevant(ce.type))
 			return true;
+		int state = stateOf(ce.token);
+		int next = automaton.next(state, ce.type);
+		if (next == TableAutomaton.REJECT)
+			return false;
+		if (next != state) {
+			if (state == 1)
+				markTokenAsInvalid(ce.token);
+			else if (state > 1)
+				setTokenState(ce.token, 0);
+			if (next == 1)
+				markTokenAsValid(ce.token);
+			else if (next > 1)
+				setTokenState(ce.token, next);
 		}
+		return true;
+	}
 
-		default: {
-			// signaleUnimplementatedCase(ce.type, "acceptEvent(IcapEvent)");
-			return true;
+	/**
+	 * Check whether the given event is decided by the session automaton, i.e. 
+	 * whether it is keyed by its session ID.
+	 * 
+	 * @param ce
+	 *            The event
+	 * @return True if the event is a session event
+	 */
+	private boolean isSessionEvent(IcapEvent ce) {
+		return sessionAutomaton != null && ce.sid != null 
+				&& sessionAutomaton.isRelevant(ce.type) 
+				&& (ce.token == null || !automaton.isRelevant(ce.type));
+	}
+
+	/**
+	 * Obtain the state of the automaton of the given token.
+	 * 
+	 * @param token
+	 *            The token, may be null
+	 * @return The state, 0 for an unknown token or no token
+	 */
+	private int stateOf(String token) {
+		if (token == null)
+			return 0;
+		if (validTokens.contains(token))
+			return 1;
+		if (tokenStates.isEmpty())
+			return 0;
+		Integer state = tokenStates.get(token);
+		return state == null ? 0 : state;
+	}
+
+	/**
+	 * Set the state above 1 of the given token.
+	 * 
+	 * @param token
+	 *            The token
+	 * @param state
+	 *            The state above 1, or 0 if the token leaves these states
+	 */
+	private void setTokenState(String token, int state) {
+		if (state == 0)
+			tokenStates.remove(token);
+		else
+			tokenStates.put(token, state);
+		if (tokenLog != null)
+			tokenLog.logState(token, state);
+	}
+
+	/**
+	 * Accept the given delegated event at most once. If a decision has already been
+	 * made for the event ID of the given event, e.g. because the source has hedged
+	 * its request, the same decision is returned without changing the policy state.
+	 * 
+	 * @param ce
+	 *            The delegated event
+	 * @return The result of acceptEvent(ce) for the first request of the event
+	 */
+	private boolean acceptOnce(final IcapEvent ce) {
+		if (ce.eventID == 0)
+			return acceptEvent(ce);
+		FutureTask<Boolean> decision = new FutureTask<Boolean>(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return acceptEvent(ce);
+			}
+		});
+		FutureTask<Boolean> first = decisions.putIfAbsent(ce.eventID, decision);
+		if (first == null) {
+			// Forget the oldest decision if the memory is full
+			decisionOrder.add(ce.eventID);
+			if (decisionCount.incrementAndGet() > DECISION_MEMORY) {
+				Long eldest = decisionOrder.poll();
+				if (eldest != null) {
+					decisions.remove(eldest);
+					decisionCount.decrementAndGet();
+				}
+			}
+			decision.run();
+			first = decision;
 		}
+		try {
+			return first.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
 		}
 	}
 
@@ -604,7 +1138,8 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 */
 	public boolean isResponsible(IcapEvent ce) {
 
-		int hashVal = hash(ce, Clicap.getBitLength());
+		Topology topology = Clicap.getTopology();
+		int hashVal = hash(ce, topology.bitLength);
 
 		if (hashVal < 0)
 			return true;
@@ -614,21 +1149,9 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 			// so this node has to consider tmpPred instead of
 			// the leaving node when checking for responsibility.
 			int pred = LeavingProtocol.isSuccessor() ? LeavingProtocol.tmpPred
-					: Integer.parseInt(Clicap.getPredID());
-
-			if (pred < Integer.parseInt(getIdentifier())) {
-				if (hashVal <= Integer.parseInt(getIdentifier())
-						&& hashVal > pred)
-					return true;
-				else
-					return false;
-			} else {
-				if (hashVal <= Integer.parseInt(getIdentifier())
-						|| hashVal > pred)
-					return true;
-				else
-					return false;
-			}
+					: topology.predID;
+
+			return topology.isResponsible(hashVal, pred);
 		}
 	}
 
@@ -641,20 +1164,7 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 * @author Hoang-Duong Nguyen
 	 */
 	public boolean isResponsible(int key) {
-		int localID = Integer.parseInt(getIdentifier());
-		int predID = Integer.parseInt(Clicap.getPredID());
-
-		if (predID < localID) {
-			if (predID < key && key <= localID)
-				return true;
-			else
-				return false;
-		} else {
-			if (predID < key || key <= localID)
-				return true;
-			else
-				return false;
-		}
+		return Clicap.getTopology().isResponsible(key);
 	}
 
 	/**
@@ -693,7 +1203,9 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	public boolean markTokenAsValid(String token) {
 		System.out.println("----->  " + token + " added");
 		boolean tmp = validTokens.add(token);
-		System.out.println("----->  Valid Tokens :  " + validTokens.toString());
+		if (tmp && tokenLog != null)
+			tokenLog.logAdd(token);
+		System.out.println("----->  Valid Tokens :  " + validTokens.size());
 		return tmp;
 	}
 
@@ -719,13 +1231,17 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	public boolean markTokenAsInvalid(String token) {
 		System.out.println("----->  " + token + " removed");
 		boolean tmp = validTokens.remove(token);
-		System.out.println("----->  Valid Tokens :  " + validTokens.toString());
+		if (tmp && tokenLog != null)
+			tokenLog.logRemove(token);
+		System.out.println("----->  Valid Tokens :  " + validTokens.size());
 		return tmp;
 	}
 
 	@Override
 	public int hash(IcapEvent ev, int capacity) {
-		// relevant data of IcapEvent: token
+		// relevant data of IcapEvent: session ID for session events, otherwise token
+		if (isSessionEvent(ev))
+			return hashToken(ev.sid, capacity);
 		if (ev.token == null)
 			return -1;
 
@@ -739,14 +1255,27 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 	 * @param token
 	 *            The token to be mapped to its key.
 	 * @param capacity
-	 *            The capacity of the Chord identifier circle.
+	 *            The bit length of the identifiers of the Chord identifier circle.
 	 * @return The key of the given token.
 	 */
 	public int hashToken(String token, int capacity) {
+		return tokenKey(token, capacity);
+	}
 
+	/**
+	 * Maps a token to its key in a Chord identifier circle with identifiers of the
+	 * given bit length.
+	 * 
+	 * @param token
+	 *            The token to be mapped to its key.
+	 * @param bitLength
+	 *            The bit length of the identifiers.
+	 * @return The key of the given token.
+	 */
+	public static int tokenKey(String token, int bitLength) {
 		int tokenHash = token.hashCode();
 		tokenHash = Math.abs(tokenHash); // just for safety: make it positive.
-		final int strictUpperBound = (int) Math.pow(2, capacity); // 2^capacity
+		final int strictUpperBound = (int) Math.pow(2, bitLength); // 2^bitLength
 		int hash = tokenHash % strictUpperBound;
 
 		return hash;
@@ -773,6 +1302,23 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 				IcapEnforcementDecision.Type.SEC);
 	}
 
+	/**
+	 * Translates the given boolean into an IcapEnforcementDecision for the given
+	 * event. The decision carries the request ID of the event.
+	 * 
+	 * @param permit
+	 *            The information whether the decision should be PERMIT or not.
+	 * @param ev
+	 *            The event for which the decision is made.
+	 * @return An permitting IcapEnforcementDecision if the given boolean
+	 *         parameter was true and a rejecting one otherwise.
+	 */
+	public IcapEnforcementDecision makeDecision(boolean permit, IcapEvent ev) {
+		IcapEnforcementDecision ed = makeDecision(permit);
+		ed.requestID = ev.requestID;
+		return ed;
+	}
+
 	/**
 	 * Prints out an error message to the standard error stream saying that a
 	 * case distinction for the given value is missing in a method of this class
@@ -795,47 +1341,154 @@ public class IcapPolicy extends LocalPolicy implements PayForLessAutomaton {
 		System.err.println(errorMessage);
 	}
 
+	/**
+	 * Obtain the collector of the traces of the delegation requests sent by this
+	 * node.
+	 * 
+	 * @return the trace collector
+	 */
+	public TraceCollector getTraces() {
+		return traces;
+	}
+
 	/**
 	 * Obtain the set of tokens that have been generated by the web shop so far
 	 * but which have not been used for the confirmation of some client's order,
-	 * yet.
+	 * yet, together with the states of the tokens and of the sessions.
 	 * 
-	 * @return the set of valid tokens
+	 * @return the valid tokens, token states and sessions
 	 */
-	public Set<String> getData() {
-		return this.validTokens;
+	public PolicyData getData() {
+		PolicyData data = new PolicyData();
+		data.tokens.addAll(this.validTokens);
+		data.tokenStates.putAll(this.tokenStates);
+		sessions.getSessions(data);
+		return data;
 	}
 
 	/**
 	 * Obtain a sub set of the set of tokens that have been generated by the web
 	 * shop so far but which have not been used for the confirmation of some
-	 * client's order, yet. This subset contains all requests that are less or
-	 * equal than the given key. The subset then will be removed from the token
-	 * set maintained by this node.
+	 * client's order, yet. This subset contains all tokens whose key lies in the
+	 * given key range. The subset then will be removed from the token set 
+	 * maintained by this node. The token states and the sessions of the key range 
+	 * are handed over the same way.
 	 * 
-	 * @param key
-	 *            The given key
-	 * @return the set of valid tokens
+	 * @param pred
+	 *            The exclusive start of the key range
+	 * @param node
+	 *            The inclusive end of the key range
+	 * @return the valid tokens, token states and sessions of the key range
+	 */
+	public PolicyData getPartialData(int pred, int node) {
+		PolicyData data = new PolicyData();
+		data.tokens.addAll(removeRange(validTokens, new KeyedTokenSet.KeyFunction() {
+			@Override
+			public int keyOf(String token) {
+				return IcapPolicy.this.keyOf(token);
+			}
+		}, pred, node));
+		Iterator<Map.Entry<String, Integer>> it = tokenStates.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Integer> e = it.next();
+			if (Topology.isInRange(hashToken(e.getKey(), Clicap.getBitLength()), 
+					pred, node)) {
+				data.tokenStates.put(e.getKey(), e.getValue());
+				it.remove();
+			}
+		}
+		if (tokenLog != null) {
+			tokenLog.logRemoveAll(data.tokens);
+			tokenLog.logRemoveStates(data.tokenStates.keySet());
+		}
+		sessions.removeSessions(pred, node, data);
+		return data;
+	}
+
+	/**
+	 * Remove the elements whose key lies in the range (pred, node] of the identifier
+	 * circle from the given set.
+	 * 
+	 * @param elements
+	 *            The set of elements
+	 * @param keys
+	 *            The key function of the elements
+	 * @param pred
+	 *            The exclusive start of the key range
+	 * @param node
+	 *            The inclusive end of the key range
+	 * @return the removed elements
 	 */
-	public Set<String> getPartialData(int key) {
+	public static Set<String> removeRange(Set<String> elements,
+			KeyedTokenSet.KeyFunction keys, int pred, int node) {
 		Set<String> result = new HashSet<String>();
-		for (String token : validTokens) {
-			if (hashToken(token, Clicap.getCapacity()) <= key) {
-				result.add(token);
-				validTokens.remove(token);
+		Iterator<String> it = elements.iterator();
+		while (it.hasNext()) {
+			String element = it.next();
+			if (Topology.isInRange(keys.keyOf(element), pred, node)) {
+				result.add(element);
+				it.remove();
 			}
 		}
 		return result;
 	}
 
+	/**
+	 * Obtain the key of the given element of the token set, which is either a token
+	 * or, for the compact stores, an element of a {@link KeyedTokenSet}.
+	 * 
+	 * @param token
+	 *            The element of the token set
+	 * @return the key of the token
+	 */
+	private int keyOf(String token) {
+		if (validTokens instanceof KeyedTokenSet)
+			return ((KeyedTokenSet) validTokens).keyOf(token);
+		return hashToken(token, Clicap.getBitLength());
+	}
+
 	/**
 	 * Update the set of valid tokens
 	 * 
 	 * @param data
-	 *            the given set of tokens for which this policy is now als
-	 *            responsible for
+	 *            the given tokens, token states and sessions for which this policy 
+	 *            is now als responsible for
+	 */
+	public void addData(PolicyData data) {
+		this.validTokens.addAll(data.tokens);
+		this.tokenStates.putAll(data.tokenStates);
+		sessions.addSessions(data);
+		if (tokenLog != null) {
+			tokenLog.logAddAll(data.tokens);
+			tokenLog.logStates(data.tokenStates);
+		}
+	}
+
+	/**
+	 * Replace the tokens of a joining node by the ones handed over to it. Tokens 
+	 * recovered from the log of an earlier node with the same identifier are dropped
+	 * together with that log, the node which has taken them over may have used them
+	 * since.
+	 * 
+	 * @param data
+	 *            the given tokens, token states and sessions for which this policy 
+	 *            is now responsible
+	 */
+	public void takeOverData(PolicyData data) {
+		this.validTokens.clear();
+		this.tokenStates.clear();
+		if (tokenLog != null)
+			tokenLog.reset();
+		addData(data);
+	}
+
+	/**
+	 * Drop the log of the tokens of a leaving node once its successor has taken them
+	 * over, so that they are not recovered if a node rejoins with the same 
+	 * identifier.
 	 */
-	public void addData(Set<String> data) {
-		this.validTokens.addAll(data);
+	public void discardTokenLog() {
+		if (tokenLog != null)
+			tokenLog.discard();
 	}
 }
\ No newline at end of file
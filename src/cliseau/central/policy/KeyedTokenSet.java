@@ -0,0 +1,55 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.util.Set;
+
+/**
+ * A set of tokens whose elements are not necessarily the tokens themselves but 
+ * compact representations of them, e.g. digests. Such a set accepts both tokens and
+ * its own elements, and it knows the key in the Chord identifier circle of each
+ * element, such that its elements can be handed over by key range and added to the 
+ * set of another node.
+ */
+public interface KeyedTokenSet extends Set<String> {
+
+	/**
+	 * Computes the key of a token in the Chord identifier circle
+	 */
+	public interface KeyFunction {
+
+		/**
+		 * Compute the key of the given token
+		 * 
+		 * @param token	the token
+		 * @return the key
+		 */
+		int keyOf(String token);
+	}
+
+	/**
+	 * Obtain the key of the given element.
+	 * 
+	 * @param element	a token or an element of this set
+	 * @return the key in the Chord identifier circle
+	 */
+	public int keyOf(String element);
+}
@@ -0,0 +1,412 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of tokens stored outside of the Java heap. Instead of the token itself, each 
+ * entry holds a fixed-width 128-bit digest of the token and its key in the Chord 
+ * identifier circle, such that millions of tokens neither cost heap objects nor 
+ * prolong garbage collection. The entries are kept in direct byte buffers with open
+ * addressing and linear probing. The set is split into independently locked segments
+ * to be shared by concurrent threads. <br>
+ * Since the tokens themselves are not stored, the elements returned by the iterator
+ * are encoded digests (see {@link #isDigest(String)}). All methods accept both tokens
+ * and encoded digests, so the elements can be handed over to another node or written
+ * to the token log and added again. Tokens must therefore not start with 
+ * {@value #DIGEST_PREFIX}.
+ */
+public class OffHeapTokenSet extends AbstractSet<String> implements KeyedTokenSet {
+
+	/**
+	 * Prefix of the encoded digests
+	 */
+	public static final String DIGEST_PREFIX = "#";
+
+	/**
+	 * Size of an entry: two longs for the digest, the key and the state
+	 */
+	private static final int ENTRY_SIZE = 24;
+
+	/**
+	 * State of a free entry
+	 */
+	private static final int FREE = 0;
+
+	/**
+	 * State of an occupied entry
+	 */
+	private static final int USED = 1;
+
+	/**
+	 * State of a removed entry, which does not stop the probing
+	 */
+	private static final int REMOVED = 2;
+
+	/**
+	 * Maximal fraction of used and removed entries before a segment grows
+	 */
+	private static final double LOAD_FACTOR = 0.75;
+
+	/**
+	 * The character set of the tokens
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The digest algorithm per thread
+	 */
+	private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	/**
+	 * The key function of the tokens
+	 */
+	private final KeyFunction keyFunction;
+
+	/**
+	 * The segments
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Create an empty set.
+	 * 
+	 * @param keyFunction	the key function of the tokens
+	 * @param segments		the number of segments, rounded up to a power of two
+	 * @param capacity		the expected number of tokens
+	 */
+	public OffHeapTokenSet(KeyFunction keyFunction, int segments, int capacity) {
+		this.keyFunction = keyFunction;
+		int n = 1;
+		while (n < segments)
+			n <<= 1;
+		this.segments = new Segment[n];
+		int slots = tableSize((int) (capacity / n / LOAD_FACTOR) + 1);
+		for (int i = 0; i < n; i++)
+			this.segments[i] = new Segment(slots);
+	}
+
+	/**
+	 * Round the given number of entries up to a power of two, at least 16.
+	 * 
+	 * @param entries	the number of entries
+	 * @return the table size
+	 */
+	private static int tableSize(int entries) {
+		return Math.max(16, Integer.highestOneBit(Math.max(1, entries - 1)) << 1);
+	}
+
+	/**
+	 * Check whether the given element is an encoded digest rather than a token.
+	 * 
+	 * @param element	the element
+	 * @return true if the element is an encoded digest
+	 */
+	public static boolean isDigest(String element) {
+		return element.startsWith(DIGEST_PREFIX);
+	}
+
+	@Override
+	public int keyOf(String element) {
+		if (isDigest(element))
+			return Integer.parseInt(element.substring(DIGEST_PREFIX.length(), 
+					element.indexOf(':')));
+		return keyFunction.keyOf(element);
+	}
+
+	@Override
+	public boolean add(String element) {
+		Entry e = entry(element, true);
+		return segment(e).add(e);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof String))
+			return false;
+		Entry e = entry((String) o, false);
+		return segment(e).contains(e);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof String))
+			return false;
+		Entry e = entry((String) o, false);
+		return segment(e).remove(e);
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (Segment s : segments)
+			size += s.size();
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment s : segments)
+			s.clear();
+	}
+
+	/**
+	 * Returns an iterator over the encoded digests. Each segment is copied when the
+	 * iterator reaches it, the iterator thus reflects concurrent changes only 
+	 * partially. The iterator supports removal.
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private int next = 0;
+			private Iterator<Entry> current = null;
+			private Entry last = null;
+
+			@Override
+			public boolean hasNext() {
+				while ((current == null || !current.hasNext()) && next < segments.length)
+					current = segments[next++].entries().iterator();
+				return current != null && current.hasNext();
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				last = current.next();
+				return last.toString();
+			}
+
+			@Override
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				segment(last).remove(last);
+				last = null;
+			}
+		};
+	}
+
+	/**
+	 * Obtain the segment of the given entry
+	 * 
+	 * @param e	the entry
+	 * @return the segment
+	 */
+	private Segment segment(Entry e) {
+		return segments[(int) (e.d1 >>> 32) & (segments.length - 1)];
+	}
+
+	/**
+	 * Compute the entry of the given element
+	 * 
+	 * @param element	a token or an encoded digest
+	 * @param withKey	whether the key is needed, i.e. the entry is to be stored
+	 * @return the entry
+	 */
+	private Entry entry(String element, boolean withKey) {
+		if (isDigest(element)) {
+			int colon = element.indexOf(':');
+			int key = Integer.parseInt(element.substring(DIGEST_PREFIX.length(), colon));
+			String hex = element.substring(colon + 1);
+			return new Entry(parseHex(hex, 0), parseHex(hex, 16), key);
+		}
+		byte[] d = MD5.get().digest(element.getBytes(UTF8));
+		ByteBuffer b = ByteBuffer.wrap(d);
+		return new Entry(b.getLong(), b.getLong(), 
+				withKey ? keyFunction.keyOf(element) : 0);
+	}
+
+	/**
+	 * Parse 16 hexadecimal digits starting at the given index
+	 * 
+	 * @param hex	the digits
+	 * @param start	the index of the first digit
+	 * @return the parsed value
+	 */
+	private static long parseHex(String hex, int start) {
+		long value = 0;
+		for (int i = start; i < start + 16; i++)
+			value = (value << 4) | Character.digit(hex.charAt(i), 16);
+		return value;
+	}
+
+	/**
+	 * The digest and the key of a token
+	 */
+	private static final class Entry {
+		final long d0, d1;
+		final int key;
+
+		Entry(long d0, long d1, int key) {
+			this.d0 = d0;
+			this.d1 = d1;
+			this.key = key;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s%d:%016x%016x", DIGEST_PREFIX, key, d0, d1);
+		}
+	}
+
+	/**
+	 * A segment of the set, an open-addressing table in a direct byte buffer
+	 */
+	private static final class Segment {
+
+		/** The entries */
+		private ByteBuffer table;
+
+		/** The number of entries of the table, a power of two */
+		private int slots;
+
+		/** The number of used entries */
+		private int used;
+
+		/** The number of removed entries */
+		private int removed;
+
+		Segment(int slots) {
+			allocate(slots);
+		}
+
+		private void allocate(int slots) {
+			this.slots = slots;
+			this.table = ByteBuffer.allocateDirect(slots * ENTRY_SIZE);
+			this.used = 0;
+			this.removed = 0;
+		}
+
+		/**
+		 * Find the slot of the given entry or the slot where it would be inserted
+		 * 
+		 * @param e	the entry
+		 * @return the slot of the entry if present, otherwise minus one minus the
+		 * 			first free or removed slot on the probing sequence
+		 */
+		private int find(Entry e) {
+			int slot = (int) e.d0 & (slots - 1);
+			int insert = -1;
+			while (true) {
+				int base = slot * ENTRY_SIZE;
+				int state = table.getInt(base + 20);
+				if (state == FREE)
+					return -1 - (insert >= 0 ? insert : slot);
+				if (state == USED) {
+					if (table.getLong(base) == e.d0 && table.getLong(base + 8) == e.d1)
+						return slot;
+				} else if (insert < 0)
+					insert = slot;
+				slot = (slot + 1) & (slots - 1);
+			}
+		}
+
+		synchronized boolean add(Entry e) {
+			int slot = find(e);
+			if (slot >= 0)
+				return false;
+			slot = -1 - slot;
+			int base = slot * ENTRY_SIZE;
+			if (table.getInt(base + 20) == REMOVED)
+				removed--;
+			write(base, e);
+			used++;
+			if (used + removed > slots * LOAD_FACTOR)
+				rehash(tableSize((int) (used / LOAD_FACTOR * 2)));
+			return true;
+		}
+
+		synchronized boolean contains(Entry e) {
+			return find(e) >= 0;
+		}
+
+		synchronized boolean remove(Entry e) {
+			int slot = find(e);
+			if (slot < 0)
+				return false;
+			table.putInt(slot * ENTRY_SIZE + 20, REMOVED);
+			used--;
+			removed++;
+			return true;
+		}
+
+		synchronized int size() {
+			return used;
+		}
+
+		synchronized void clear() {
+			allocate(16);
+		}
+
+		synchronized List<Entry> entries() {
+			List<Entry> result = new ArrayList<Entry>(used);
+			for (int slot = 0; slot < slots; slot++) {
+				int base = slot * ENTRY_SIZE;
+				if (table.getInt(base + 20) == USED)
+					result.add(new Entry(table.getLong(base), table.getLong(base + 8),
+							table.getInt(base + 16)));
+			}
+			return result;
+		}
+
+		private void write(int base, Entry e) {
+			table.putLong(base, e.d0);
+			table.putLong(base + 8, e.d1);
+			table.putInt(base + 16, e.key);
+			table.putInt(base + 20, USED);
+		}
+
+		/**
+		 * Move all used entries into a new table of the given size, dropping the
+		 * removed ones
+		 * 
+		 * @param newSlots	the size of the new table
+		 */
+		private void rehash(int newSlots) {
+			List<Entry> entries = entries();
+			allocate(newSlots);
+			for (Entry e : entries) {
+				int slot = -1 - find(e);
+				write(slot * ENTRY_SIZE, e);
+				used++;
+			}
+		}
+	}
+}
@@ -34,6 +34,22 @@ import cliseau.central.event.IcapEvent;
  *
  */
 public interface PayForLessAutomaton extends IcapServiceAutomaton {
+	/**
+	 * Specification of the pay-for-less automaton of a token: an established 
+	 * token becomes valid, and only a valid token may confirm a payment, which
+	 * makes it unused again. All other event types are irrelevant.
+	 */
+	public static final String SPEC = 
+			  "name=PayForLess\n"
+			+ "states=UNUSED,VALID\n"
+			+ "TOKEN_ESTABLISH_S=*>VALID\n"
+			+ "RECEIVE_PAYER_ID_C=VALID>UNUSED\n";
+
+	/**
+	 * The compiled pay-for-less automaton, in which state 1 is the valid state
+	 */
+	public static final TableAutomaton TABLE = TableAutomaton.compile(SPEC);
+
 	/**
 	 * Checks if the given token is valid i.e., checks if this token has been
 	 * established by the web shop but has not been used for some client's
@@ -0,0 +1,62 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The policy state of a key range, as handed over between nodes when a node joins or
+ * leaves. The valid tokens are the elements of the token store of the sending node, 
+ * i.e. tokens, digests or encoded filters; the states of the tokens of automata with
+ * more than two states and the states of the sessions are kept apart from them.
+ */
+public class PolicyData implements Serializable {
+
+	/**
+	 * The serial version id.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The elements of the token store, i.e. the tokens in state 1
+	 */
+	public final Set<String> tokens = new HashSet<String>();
+
+	/**
+	 * The tokens in a state above 1, with their state
+	 */
+	public final Map<String, Integer> tokenStates = new HashMap<String, Integer>();
+
+	/**
+	 * The sessions, with their state
+	 */
+	public final Map<String, Integer> sessions = new HashMap<String, Integer>();
+
+	@Override
+	public String toString() {
+		return "PolicyData [tokens=" + tokens + ", tokenStates=" + tokenStates 
+				+ ", sessions=" + sessions + "]";
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.util.EnumMap;
+
+import cliseau.Clicap;
+import cliseau.central.event.IcapEventType;
+import cliseau.javacor.Priority;
+
+/**
+ * This class maps the event types to their priority classes. The classes are shared 
+ * by the coordinator, which serves them with different weights, and the Cliseau ICAP
+ * service, which sheds lower classes first under overload. By default the payment 
+ * events TOKEN_ESTABLISH_S and RECEIVE_PAYER_ID_C are of high priority, all other 
+ * event types of normal priority. <br>
+ * The classes are configured by the following parameters of the properties file:
+ * <ul>
+ * <li>priority.&lt;event type&gt; : class of the event type, one of high, normal and
+ * low</li>
+ * <li>priority.weights : weights of the high, normal and low class (default 8,4,1)
+ * </li>
+ * </ul>
+ */
+public class PriorityClasses {
+
+	/**
+	 * The priority class of each event type
+	 */
+	private static final EnumMap<IcapEventType, Priority> classes = 
+			new EnumMap<IcapEventType, Priority>(IcapEventType.class);
+
+	/**
+	 * Obtain the priority class of the given event type.
+	 * 
+	 * @param type	the event type
+	 * @return the priority class
+	 */
+	public static synchronized Priority of(IcapEventType type) {
+		if (type == null)
+			return Priority.NORMAL;
+		Priority p = classes.get(type);
+		if (p == null) {
+			Priority defaultValue = type == IcapEventType.TOKEN_ESTABLISH_S 
+					|| type == IcapEventType.RECEIVE_PAYER_ID_C 
+					? Priority.HIGH : Priority.NORMAL;
+			p = Priority.parse(Clicap.getProperty("priority." + type, 
+					defaultValue.name()), defaultValue);
+			classes.put(type, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Obtain the configured weights of the priority classes.
+	 * 
+	 * @return the weights, ordered by class
+	 */
+	public static int[] getWeights() {
+		int[] weights = Priority.defaultWeights();
+		String[] values = Clicap.getProperty("priority.weights", "").split(",");
+		for (int i = 0; i < weights.length && i < values.length; i++) {
+			try {
+				weights[i] = Math.max(1, Integer.parseInt(values[i].trim()));
+			} catch (NumberFormatException e) {
+				// Keep the default weight
+			}
+		}
+		return weights;
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cliseau.central.Topology;
+
+/**
+ * The automaton states of the sessions this node is responsible for, keyed like
+ * tokens by the key of their session ID in the Chord identifier circle. The table
+ * is bounded: a session that has been idle for longer than the idle timeout is 
+ * forgotten, and when a segment is full, its least recently used session is evicted.
+ * A forgotten session is in the initial state 0 again. <br>
+ * The table is split into segments by session ID, each with its own lock, such that
+ * the shards of the coordinator rarely contend. Sessions are handed over by key range
+ * together with the tokens, see {@link PolicyData}.
+ */
+public class SessionTable {
+
+	/**
+	 * The key function of the session IDs
+	 */
+	private final KeyedTokenSet.KeyFunction keyFunction;
+
+	/**
+	 * The segments, each in access order
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Time in milliseconds after which an idle session is forgotten
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * Create an empty table.
+	 * 
+	 * @param keyFunction	the key function of the session IDs
+	 * @param capacity		the maximal number of sessions
+	 * @param idleTimeout	time in milliseconds after which an idle session is 
+	 * 						forgotten
+	 * @param segments		the number of segments, rounded up to a power of two
+	 */
+	public SessionTable(KeyedTokenSet.KeyFunction keyFunction, int capacity, 
+			long idleTimeout, int segments) {
+		int n = 1;
+		while (n < segments)
+			n <<= 1;
+		this.keyFunction = keyFunction;
+		this.idleTimeout = idleTimeout;
+		this.segments = new Segment[n];
+		for (int i = 0; i < n; i++)
+			this.segments[i] = new Segment(Math.max(1, capacity / n));
+	}
+
+	/**
+	 * Obtain the segment of the given session ID.
+	 */
+	private Segment segmentOf(String sid) {
+		return segments[sid.hashCode() & (segments.length - 1)];
+	}
+
+	/**
+	 * Obtain the state of the given session.
+	 * 
+	 * @param sid	the session ID
+	 * @return the state, 0 for an unknown or forgotten session
+	 */
+	public int stateOf(String sid) {
+		Segment segment = segmentOf(sid);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			segment.evictIdle(now);
+			Session session = segment.get(sid);
+			if (session == null)
+				return 0;
+			session.lastAccess = now;
+			return session.state;
+		}
+	}
+
+	/**
+	 * Set the state of the given session. State 0 removes the session.
+	 * 
+	 * @param sid	the session ID
+	 * @param state	the new state
+	 */
+	public void setState(String sid, int state) {
+		Segment segment = segmentOf(sid);
+		long now = System.currentTimeMillis();
+		synchronized (segment) {
+			segment.evictIdle(now);
+			if (state == 0) {
+				segment.remove(sid);
+				return;
+			}
+			Session session = segment.get(sid);
+			if (session == null) {
+				session = new Session();
+				segment.put(sid, session);
+			}
+			session.state = (byte) state;
+			session.lastAccess = now;
+		}
+	}
+
+	/**
+	 * Get the states of all sessions.
+	 * 
+	 * @param data	the data to which the sessions are added
+	 */
+	public void getSessions(PolicyData data) {
+		// The range (0, 0] is the whole identifier circle
+		removeSessions(0, 0, data, false);
+	}
+
+	/**
+	 * Remove all sessions whose key lies in the range (pred, node] of the identifier
+	 * circle.
+	 * 
+	 * @param pred	the exclusive start of the key range
+	 * @param node	the inclusive end of the key range
+	 * @param data	the data to which the removed sessions are added
+	 */
+	public void removeSessions(int pred, int node, PolicyData data) {
+		removeSessions(pred, node, data, true);
+	}
+
+	/**
+	 * Get and optionally remove the sessions of the given key range.
+	 */
+	private void removeSessions(int pred, int node, PolicyData data, boolean remove) {
+		long now = System.currentTimeMillis();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.evictIdle(now);
+				Iterator<Map.Entry<String, Session>> it = segment.entrySet().iterator();
+				while (it.hasNext()) {
+					Map.Entry<String, Session> e = it.next();
+					if (Topology.isInRange(keyFunction.keyOf(e.getKey()), pred, node)) {
+						data.sessions.put(e.getKey(), (int) e.getValue().state);
+						if (remove)
+							it.remove();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the sessions that have been handed over by another node.
+	 * 
+	 * @param data	the handed-over data
+	 */
+	public void addSessions(PolicyData data) {
+		for (Map.Entry<String, Integer> e : data.sessions.entrySet())
+			setState(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Get the number of sessions, including idle ones not yet forgotten.
+	 * 
+	 * @return the number of sessions
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments)
+			synchronized (segment) {
+				size += segment.size();
+			}
+		return size;
+	}
+
+	/**
+	 * The state of a session
+	 */
+	private static final class Session {
+
+		/** The automaton state */
+		byte state;
+
+		/** Time of the last event of the session */
+		long lastAccess;
+	}
+
+	/**
+	 * A segment of the table in access order, evicting the least recently used 
+	 * session when it is full
+	 */
+	private final class Segment extends LinkedHashMap<String, Session> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The maximal number of sessions of the segment */
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+			return size() > capacity;
+		}
+
+		/**
+		 * Forget the sessions that have been idle for longer than the idle timeout,
+		 * which are the least recently used ones.
+		 */
+		void evictIdle(long now) {
+			Iterator<Session> it = values().iterator();
+			while (it.hasNext() && now - it.next().lastAccess > idleTimeout)
+				it.remove();
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import cliseau.central.event.IcapEventType;
+
+/**
+ * A service automaton compiled from a declarative specification into a dense 
+ * transition table indexed by state and event type. The automaton is instantiated
+ * per key, i.e. per token, and the state of a key is a small integer; state 0 is 
+ * the initial state of every key. Evaluating an event is a single table lookup 
+ * and allocates nothing. <br>
+ * A specification is a properties file with the following entries:
+ * <ul>
+ * <li>name : the name of the automaton</li>
+ * <li>states : comma-separated names of the states, the initial one first</li>
+ * <li>&lt;event type&gt; : comma-separated transitions "from&gt;to" on the event 
+ * type, where "*" as source state stands for all states</li>
+ * </ul>
+ * Event types without an entry are irrelevant: they are permitted in every state 
+ * and leave the state unchanged. On a relevant event type, a state without a 
+ * transition rejects the event. 
+ */
+public final class TableAutomaton {
+
+	/**
+	 * Result of {@link #next(int, IcapEventType)} for a rejected event
+	 */
+	public static final int REJECT = -1;
+
+	/**
+	 * Maximal number of states
+	 */
+	private static final int MAX_STATES = Byte.MAX_VALUE;
+
+	/**
+	 * Number of event types, the row length of the table
+	 */
+	private static final int EVENT_TYPES = IcapEventType.values().length;
+
+	/**
+	 * The name of the automaton
+	 */
+	private final String name;
+
+	/**
+	 * The names of the states, indexed by state
+	 */
+	private final String[] states;
+
+	/**
+	 * The successor states, indexed by state * EVENT_TYPES + event type, or REJECT
+	 */
+	private final byte[] table;
+
+	/**
+	 * Whether an event type has transitions, indexed by event type
+	 */
+	private final boolean[] relevant;
+
+	/**
+	 * Create an automaton from its compiled table.
+	 */
+	private TableAutomaton(String name, String[] states, byte[] table, 
+			boolean[] relevant) {
+		this.name = name;
+		this.states = states;
+		this.table = table;
+		this.relevant = relevant;
+	}
+
+	/**
+	 * Compile the given specification.
+	 * 
+	 * @param spec	the specification
+	 * @return the automaton
+	 * @throws IllegalArgumentException if the specification is malformed
+	 */
+	public static TableAutomaton compile(Properties spec) {
+		String name = spec.getProperty("name", "unnamed").trim();
+		String[] states = split(spec.getProperty("states", ""));
+		if (states.length == 0 || states.length > MAX_STATES)
+			throw new IllegalArgumentException("Automaton " + name + " must have "
+					+ "between 1 and " + MAX_STATES + " states");
+		List<String> stateList = Arrays.asList(states);
+
+		byte[] table = new byte[states.length * EVENT_TYPES];
+		boolean[] relevant = new boolean[EVENT_TYPES];
+		for (int s = 0; s < states.length; s++)
+			for (int t = 0; t < EVENT_TYPES; t++)
+				table[s * EVENT_TYPES + t] = (byte) s;
+
+		for (String key : spec.stringPropertyNames()) {
+			if (key.equals("name") || key.equals("states"))
+				continue;
+			IcapEventType type;
+			try {
+				type = IcapEventType.valueOf(key);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Automaton " + name 
+						+ ": unknown event type " + key);
+			}
+			int t = type.ordinal();
+			relevant[t] = true;
+			for (int s = 0; s < states.length; s++)
+				table[s * EVENT_TYPES + t] = REJECT;
+			for (String transition : split(spec.getProperty(key))) {
+				int arrow = transition.indexOf('>');
+				if (arrow < 0)
+					throw new IllegalArgumentException("Automaton " + name 
+							+ ": malformed transition " + transition + " on " + key);
+				String from = transition.substring(0, arrow).trim();
+				int to = indexOf(stateList, transition.substring(arrow + 1).trim(), name);
+				if (from.equals("*"))
+					for (int s = 0; s < states.length; s++)
+						table[s * EVENT_TYPES + t] = (byte) to;
+				else
+					table[indexOf(stateList, from, name) * EVENT_TYPES + t] = (byte) to;
+			}
+		}
+		return new TableAutomaton(name, states, table, relevant);
+	}
+
+	/**
+	 * Compile the specification in the given text.
+	 * 
+	 * @param text	the specification in properties format
+	 * @return the automaton
+	 * @throws IllegalArgumentException if the specification is malformed
+	 */
+	public static TableAutomaton compile(String text) {
+		Properties spec = new Properties();
+		try {
+			spec.load(new StringReader(text));
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+		return compile(spec);
+	}
+
+	/**
+	 * Compile the specification in the given file.
+	 * 
+	 * @param path	the path of the specification
+	 * @return the automaton
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the specification is malformed
+	 */
+	public static TableAutomaton load(String path) throws IOException {
+		Properties spec = new Properties();
+		InputStream in = new FileInputStream(path);
+		try {
+			spec.load(in);
+		} finally {
+			in.close();
+		}
+		return compile(spec);
+	}
+
+	/**
+	 * Split a comma-separated list into its trimmed, non-empty items.
+	 */
+	private static String[] split(String list) {
+		List<String> items = new ArrayList<String>();
+		for (String item : list.split(","))
+			if (!item.trim().isEmpty())
+				items.add(item.trim());
+		return items.toArray(new String[items.size()]);
+	}
+
+	/**
+	 * Look up the index of the given state name.
+	 */
+	private static int indexOf(List<String> states, String state, String name) {
+		int s = states.indexOf(state);
+		if (s < 0)
+			throw new IllegalArgumentException("Automaton " + name 
+					+ ": unknown state " + state);
+		return s;
+	}
+
+	/**
+	 * Check whether the given event type has transitions. Irrelevant events are 
+	 * permitted without looking up the state of their key.
+	 * 
+	 * @param type	the event type
+	 * @return true if the event type is relevant
+	 */
+	public boolean isRelevant(IcapEventType type) {
+		return relevant[type.ordinal()];
+	}
+
+	/**
+	 * Obtain the successor of the given state on the given event type.
+	 * 
+	 * @param state	the current state
+	 * @param type	the event type
+	 * @return the successor state, or REJECT if the event is not legal
+	 */
+	public int next(int state, IcapEventType type) {
+		return table[state * EVENT_TYPES + type.ordinal()];
+	}
+
+	/**
+	 * Get the number of states.
+	 * 
+	 * @return the number of states
+	 */
+	public int getStateCount() {
+		return states.length;
+	}
+
+	/**
+	 * Get the name of the given state.
+	 * 
+	 * @param state	the state
+	 * @return the name of the state
+	 */
+	public String getStateName(int state) {
+		return states[state];
+	}
+
+	/**
+	 * Get the name of the automaton.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + states.length + " states)";
+	}
+}
@@ -0,0 +1,720 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import cliseau.Clicap;
+
+/**
+ * This class makes the token state of the policy durable. Every change of the set of
+ * valid tokens and of the states of the tokens of automata with more than two states
+ * is appended to a memory-mapped write-ahead log. A compact snapshot of both is 
+ * written periodically and whenever the log is three quarters full, after which the
+ * log only keeps the records appended since. The snapshots are written by the timer
+ * thread, an append only waits for one if the log is full. A restarted node loads 
+ * the snapshot and replays the log. <br>
+ * A log record consists of the operation (+, - or =), the length and the UTF-8 bytes
+ * of the token, the new state for the operation = (state 0 removes the token) and a
+ * CRC32 checksum; the replay stops at the first invalid record. Every append also
+ * writes a terminating zero byte which is overwritten by the next record.
+ * <br>
+ * When the log is flushed to the disk depends on the sync mode:
+ * <ul>
+ * <li>always : an append returns only after the log has been flushed. Concurrent 
+ * appends are flushed together (group commit).</li>
+ * <li>interval : the log is flushed periodically.</li>
+ * <li>none : flushing is left to the operating system.</li>
+ * </ul>
+ * The log is configured by the following parameters of the properties file:
+ * <ul>
+ * <li>wal.dir : directory of the log and snapshot files, the log is disabled if not 
+ * set</li>
+ * <li>wal.sync : sync mode (default interval)</li>
+ * <li>wal.syncinterval : flush period in milliseconds of the interval mode 
+ * (default 100)</li>
+ * <li>wal.snapshotinterval : snapshot period in milliseconds (default 60000)</li>
+ * <li>wal.size : size of the log in megabytes (default 16)</li>
+ * </ul>
+ */
+public class TokenLog {
+
+	/**
+	 * The sync modes of the log
+	 */
+	public enum SyncMode {
+		ALWAYS, INTERVAL, NONE
+	}
+
+	/**
+	 * Operation of a record adding a token
+	 */
+	private static final byte ADD = '+';
+
+	/**
+	 * Operation of a record removing a token
+	 */
+	private static final byte REMOVE = '-';
+
+	/**
+	 * Operation of a record setting the state of a token
+	 */
+	private static final byte STATE = '=';
+
+	/**
+	 * Identifies a snapshot file
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x434c5453;
+
+	/**
+	 * The character set of the tokens
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The log file
+	 */
+	private final File logFile;
+
+	/**
+	 * The snapshot file
+	 */
+	private final File snapshotFile;
+
+	/**
+	 * The sync mode
+	 */
+	private final SyncMode syncMode;
+
+	/**
+	 * The mapped log
+	 */
+	private final MappedByteBuffer log;
+
+	/**
+	 * The channel of the log file, kept open while the log is mapped
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of records appended so far, guarded by the log
+	 */
+	private long appended;
+
+	/**
+	 * The number of records flushed so far, guarded by syncLock
+	 */
+	private long synced;
+
+	/**
+	 * Lock of the flushing of the log
+	 */
+	private final Object syncLock = new Object();
+
+	/**
+	 * Lock of the writing of snapshots, acquired before the log itself
+	 */
+	private final Object snapshotLock = new Object();
+
+	/**
+	 * The number of snapshots attempted so far, guarded by the log
+	 */
+	private long snapshots;
+
+	/**
+	 * Whether the last snapshot has failed, guarded by the log
+	 */
+	private boolean snapshotFailed;
+
+	/**
+	 * Whether a snapshot has been handed to the timer thread and not started yet,
+	 * guarded by the log
+	 */
+	private boolean snapshotPending;
+
+	/**
+	 * Whether the log has been closed or discarded, guarded by the log. Records 
+	 * appended afterwards are dropped.
+	 */
+	private boolean closed;
+
+	/**
+	 * The live set of valid tokens, written by the snapshots
+	 */
+	private Set<String> tokens;
+
+	/**
+	 * The live states above 1 of the tokens, written by the snapshots
+	 */
+	private Map<String, Integer> states;
+
+	/**
+	 * The thread flushing the log and writing the snapshots
+	 */
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Open the log configured by the properties file for this node.
+	 * 
+	 * @return the log, or null if the log is disabled or cannot be opened
+	 */
+	public static TokenLog open() {
+		String dir = Clicap.getProperty("wal.dir", "");
+		if (dir.isEmpty())
+			return null;
+		try {
+			final TokenLog log = new TokenLog(new File(dir), 
+					"node-" + Clicap.getIDnum(),
+					SyncMode.valueOf(Clicap.getProperty("wal.sync", "interval")
+							.toUpperCase()),
+					Clicap.getIntProperty("wal.size", 16) << 20);
+			log.schedule(Clicap.getIntProperty("wal.syncinterval", 100),
+					Clicap.getIntProperty("wal.snapshotinterval", 60000));
+			// Flush the last records when the node exits, Clicap.kill() included
+			Runtime.getRuntime().addShutdownHook(new Thread("token-log-close") {
+				@Override
+				public void run() {
+					log.close();
+				}
+			});
+			return log;
+		} catch (IOException e) {
+			System.err.println("» Token log in " + dir + " cannot be opened: " 
+					+ e.getMessage());
+			return null;
+		} catch (IllegalArgumentException e) {
+			System.err.println("» Unknown sync mode of the token log: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Open the log with the given name in the given directory.
+	 * 
+	 * @param dir		the directory of the log and snapshot files
+	 * @param name		the name of the log and snapshot files
+	 * @param syncMode	the sync mode
+	 * @param size		the size of the log in bytes
+	 * @throws IOException if the log file cannot be mapped
+	 */
+	public TokenLog(File dir, String name, SyncMode syncMode, int size) 
+			throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("cannot create " + dir);
+		this.logFile = new File(dir, name + ".wal");
+		this.snapshotFile = new File(dir, name + ".snap");
+		this.syncMode = syncMode;
+		RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+		this.channel = file.getChannel();
+		this.log = channel.map(FileChannel.MapMode.READ_WRITE, 0, 
+				Math.max(size, channel.size()));
+	}
+
+	/**
+	 * Start flushing the log and writing snapshots periodically.
+	 * 
+	 * @param syncInterval		the flush period in milliseconds of the interval mode
+	 * @param snapshotInterval	the snapshot period in milliseconds
+	 */
+	private void schedule(long syncInterval, long snapshotInterval) {
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "token-log");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		if (syncMode == SyncMode.INTERVAL)
+			timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					sync(Long.MAX_VALUE);
+				}
+			}, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+		timer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					snapshot();
+				} catch (IOException e) {
+					System.err.println("» Token snapshot failed: " + e.getMessage());
+				}
+			}
+		}, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Load the snapshot and replay the log, then attach the given live set of tokens
+	 * and states, which are written by all following snapshots.
+	 * 
+	 * @param tokens	the live set of valid tokens, filled with the recovered tokens
+	 * @param states	the live states above 1 of the tokens, filled with the 
+	 * 					recovered states
+	 * @return the number of recovered tokens
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public synchronized int recover(Set<String> tokens, Map<String, Integer> states) 
+			throws IOException {
+		Set<String> recovered = new HashSet<String>();
+		Map<String, Integer> recoveredStates = new HashMap<String, Integer>();
+		if (snapshotFile.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(snapshotFile)));
+			try {
+				if (in.readInt() != SNAPSHOT_MAGIC)
+					throw new IOException("invalid snapshot " + snapshotFile);
+				int count = in.readInt();
+				for (int i = 0; i < count; i++)
+					recovered.add(in.readUTF());
+				count = in.readInt();
+				for (int i = 0; i < count; i++)
+					recoveredStates.put(in.readUTF(), in.readInt());
+			} finally {
+				in.close();
+			}
+		}
+
+		// Replay the log up to the first invalid record
+		log.position(0);
+		while (log.remaining() >= 7) {
+			int start = log.position();
+			byte op = log.get();
+			int length = log.getShort() & 0xffff;
+			int stateLength = op == STATE ? 4 : 0;
+			if ((op != ADD && op != REMOVE && op != STATE) 
+					|| log.remaining() < length + stateLength + 4) {
+				log.position(start);
+				break;
+			}
+			byte[] bytes = new byte[length];
+			log.get(bytes);
+			int state = op == STATE ? log.getInt() : 0;
+			if (log.getInt() != checksum(op, bytes, state)) {
+				log.position(start);
+				break;
+			}
+			String token = new String(bytes, UTF8);
+			if (op == ADD)
+				recovered.add(token);
+			else if (op == REMOVE)
+				recovered.remove(token);
+			else if (state == 0)
+				recoveredStates.remove(token);
+			else
+				recoveredStates.put(token, state);
+		}
+		// Terminate the log before a torn record
+		if (log.remaining() > 0)
+			log.put(log.position(), (byte) 0);
+
+		tokens.addAll(recovered);
+		states.putAll(recoveredStates);
+		this.tokens = tokens;
+		this.states = states;
+		return recovered.size() + recoveredStates.size();
+	}
+
+	/**
+	 * Append an operation adding the given token.
+	 * 
+	 * @param token	the token
+	 */
+	public void logAdd(String token) {
+		sync(append(ADD, Collections.singleton(token), 0));
+	}
+
+	/**
+	 * Append an operation removing the given token.
+	 * 
+	 * @param token	the token
+	 */
+	public void logRemove(String token) {
+		sync(append(REMOVE, Collections.singleton(token), 0));
+	}
+
+	/**
+	 * Append an operation setting the state of the given token.
+	 * 
+	 * @param token	the token
+	 * @param state	the new state above 1, or 0 if the token has left these states
+	 */
+	public void logState(String token, int state) {
+		sync(append(STATE, Collections.singleton(token), state));
+	}
+
+	/**
+	 * Append operations removing the states of the given tokens.
+	 * 
+	 * @param tokens	the tokens
+	 */
+	public void logRemoveStates(Collection<String> tokens) {
+		sync(append(STATE, tokens, 0));
+	}
+
+	/**
+	 * Append operations setting the given states of tokens.
+	 * 
+	 * @param states	the tokens with their state above 1
+	 */
+	public void logStates(Map<String, Integer> states) {
+		long record = 0;
+		for (Map.Entry<String, Integer> e : states.entrySet())
+			record = append(STATE, Collections.singleton(e.getKey()), e.getValue());
+		if (!states.isEmpty())
+			sync(record);
+	}
+
+	/**
+	 * Append operations adding the given tokens.
+	 * 
+	 * @param tokens	the tokens
+	 */
+	public void logAddAll(Collection<String> tokens) {
+		sync(append(ADD, tokens, 0));
+	}
+
+	/**
+	 * Append operations removing the given tokens.
+	 * 
+	 * @param tokens	the tokens
+	 */
+	public void logRemoveAll(Collection<String> tokens) {
+		sync(append(REMOVE, tokens, 0));
+	}
+
+	/**
+	 * Append records of the given operation for the given tokens. If the log is full,
+	 * the caller waits for a snapshot to make room.
+	 * 
+	 * @param op		the operation
+	 * @param tokens	the tokens
+	 * @param state		the state of the operation =, ignored otherwise
+	 * @return the number of records appended so far
+	 */
+	private long append(byte op, Collection<String> tokens, int state) {
+		for (String token : tokens) {
+			byte[] bytes = token.getBytes(UTF8);
+			if (bytes.length > 0xffff)
+				throw new IllegalArgumentException("token too long");
+			int checksum = checksum(op, bytes, state);
+			while (!put(op, bytes, state, checksum)) {
+				if (!awaitSnapshot()) {
+					System.err.println("» Token log full, record dropped");
+					break;
+				}
+			}
+		}
+		synchronized (this) {
+			return appended;
+		}
+	}
+
+	/**
+	 * Wait for a snapshot to make room in the full log. Without the timer thread the
+	 * snapshot is written by the caller.
+	 * 
+	 * @return true if a snapshot has been written, false if it has failed or the log
+	 * 		   is closed
+	 */
+	private boolean awaitSnapshot() {
+		if (timer == null) {
+			try {
+				snapshot();
+				return true;
+			} catch (IOException e) {
+				System.err.println("» Token snapshot failed: " + e.getMessage());
+				return false;
+			}
+		}
+		synchronized (this) {
+			long generation = snapshots;
+			if (!requestSnapshot())
+				return false;
+			boolean interrupted = false;
+			while (snapshots == generation && !closed) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			return !snapshotFailed && !closed;
+		}
+	}
+
+	/**
+	 * Hand a snapshot to the timer thread unless one is pending already. The caller
+	 * holds the log.
+	 * 
+	 * @return false if the timer thread has been stopped
+	 */
+	private boolean requestSnapshot() {
+		if (snapshotPending)
+			return true;
+		try {
+			timer.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snapshot();
+					} catch (IOException e) {
+						System.err.println("» Token snapshot failed: " + e.getMessage());
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+		snapshotPending = true;
+		return true;
+	}
+
+	/**
+	 * Compute the checksum of a record.
+	 * 
+	 * @param op		the operation
+	 * @param bytes		the bytes of the token
+	 * @param state		the state of the operation =, ignored otherwise
+	 * @return the checksum
+	 */
+	private static int checksum(byte op, byte[] bytes, int state) {
+		CRC32 crc = new CRC32();
+		crc.update(op);
+		crc.update(bytes);
+		if (op == STATE)
+			crc.update(ByteBuffer.allocate(4).putInt(0, state).array());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Write a record if it fits into the log.
+	 * 
+	 * @param op		the operation
+	 * @param bytes		the bytes of the token
+	 * @param state		the state of the operation =, ignored otherwise
+	 * @param checksum	the checksum of the record
+	 * @return true if the record has been written or dropped by the closed log, false
+	 * 		   if the log is full
+	 */
+	private synchronized boolean put(byte op, byte[] bytes, int state, int checksum) {
+		if (closed)
+			return true;
+		if (log.remaining() < bytes.length + (op == STATE ? 12 : 8))
+			return false;
+		log.put(op);
+		log.putShort((short) bytes.length);
+		log.put(bytes);
+		if (op == STATE)
+			log.putInt(state);
+		log.putInt(checksum);
+		log.put(log.position(), (byte) 0);
+		appended++;
+		// Make room in time, so that appends rarely wait for a snapshot
+		if (timer != null && log.position() > log.capacity() / 4 * 3)
+			requestSnapshot();
+		return true;
+	}
+
+	/**
+	 * Flush the log to the disk if the sync mode is always or if called by the timer.
+	 * The caller waiting for the given record may find it flushed by another caller.
+	 * 
+	 * @param record	the number of the record that has to be flushed
+	 */
+	private void sync(long record) {
+		if (syncMode != SyncMode.ALWAYS && record != Long.MAX_VALUE)
+			return;
+		synchronized (syncLock) {
+			if (synced >= record)
+				return;
+			long target;
+			synchronized (this) {
+				target = appended;
+			}
+			log.force();
+			synced = target;
+		}
+	}
+
+	/**
+	 * Write a snapshot of the live set of tokens and their states and drop the 
+	 * records preceding it from the log. Only the position of the log is taken with 
+	 * the log locked, appends go on while the live set is copied. A change is applied
+	 * to the live set before its record is appended, so every record before that 
+	 * position is contained in the snapshot. The records appended since are kept and
+	 * moved to the start of the log; replaying them is correct even if the copy has
+	 * seen some of their changes.
+	 * 
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			boolean written = false;
+			try {
+				int mark;
+				synchronized (this) {
+					snapshotPending = false;
+					if (tokens == null)
+						return;
+					mark = log.position();
+				}
+				Set<String> copy = new HashSet<String>(tokens);
+				Map<String, Integer> stateCopy = new HashMap<String, Integer>(states);
+
+				File tmp = new File(snapshotFile.getPath() + ".tmp");
+				FileOutputStream fos = new FileOutputStream(tmp);
+				try {
+					DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(fos));
+					out.writeInt(SNAPSHOT_MAGIC);
+					out.writeInt(copy.size());
+					for (String token : copy)
+						out.writeUTF(token);
+					out.writeInt(stateCopy.size());
+					for (Map.Entry<String, Integer> e : stateCopy.entrySet()) {
+						out.writeUTF(e.getKey());
+						out.writeInt(e.getValue());
+					}
+					out.flush();
+					fos.getFD().sync();
+				} finally {
+					fos.close();
+				}
+				if (!tmp.renameTo(snapshotFile)) {
+					// Windows does not replace existing files by renaming
+					snapshotFile.delete();
+					if (!tmp.renameTo(snapshotFile))
+						throw new IOException("cannot replace " + snapshotFile);
+				}
+
+				synchronized (this) {
+					byte[] tail = new byte[log.position() - mark];
+					ByteBuffer source = log.duplicate();
+					source.position(mark);
+					source.get(tail);
+					log.position(0);
+					log.put(tail);
+					log.put(log.position(), (byte) 0);
+					log.force();
+				}
+				written = true;
+			} finally {
+				synchronized (this) {
+					snapshots++;
+					snapshotFailed = !written;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop all records and the snapshot, the log goes on with the following records.
+	 * Used by a node which takes over the tokens of others, so that the log of an
+	 * earlier node with the same identifier is ignored.
+	 */
+	public void reset() {
+		synchronized (snapshotLock) {
+			synchronized (this) {
+				log.position(0);
+				log.put(0, (byte) 0);
+				log.force();
+			}
+			snapshotFile.delete();
+		}
+	}
+
+	/**
+	 * Drop all records and the snapshot and close the log. Used by a node which has 
+	 * handed its tokens over, so that they are not recovered if a node rejoins with 
+	 * the same identifier.
+	 */
+	public void discard() {
+		if (timer != null)
+			timer.shutdown();
+		synchronized (snapshotLock) {
+			reset();
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("» Token log not closed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Write a final snapshot, which also flushes the log, and close the log.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+		}
+		if (timer != null)
+			timer.shutdown();
+		try {
+			snapshot();
+		} catch (IOException e) {
+			System.err.println("» Token snapshot failed: " + e.getMessage());
+			log.force();
+		}
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("» Token log not closed: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cliseau.Clicap;
+import cliseau.central.delegation.DelegationTrace;
+import tools.monitor.Latencies;
+import tools.monitor.LatencyHistogram;
+
+/**
+ * This class aggregates the traces echoed back in the delegation responses received
+ * by the origin node: the distribution of the number of hops, the queueing latency
+ * per node and the round trip time of the requests. The full traces of the requests
+ * slower than a threshold are kept as samples. The latencies are registered as
+ * histograms in {@link Latencies}. <br>
+ * Tracing is configured by the following parameters of the properties file:
+ * <ul>
+ * <li>trace.slowthreshold : round trip time in milliseconds above which a trace is
+ * sampled (default 100)</li>
+ * <li>trace.samples : number of sampled traces kept (default 32)</li>
+ * </ul>
+ */
+public class TraceCollector {
+
+	/**
+	 * The number of requests per hop count
+	 */
+	private final AtomicLongArray hopCounts = 
+			new AtomicLongArray(DelegationTrace.MAX_HOPS + 1);
+
+	/**
+	 * The queueing latencies per node
+	 */
+	private final ConcurrentMap<Integer, LatencyHistogram> nodeLatencies = 
+			new ConcurrentHashMap<Integer, LatencyHistogram>();
+
+	/**
+	 * The round trip times of the traced requests
+	 */
+	private final LatencyHistogram roundTrip = Latencies.register("delegation_round_trip");
+
+	/**
+	 * Round trip time in milliseconds above which a trace is sampled
+	 */
+	private final long slowThreshold;
+
+	/**
+	 * The number of sampled traces kept
+	 */
+	private final int sampleSize;
+
+	/**
+	 * The most recent traces of slow requests
+	 */
+	private final ArrayDeque<DelegationTrace> slowTraces = 
+			new ArrayDeque<DelegationTrace>();
+
+	/**
+	 * Create a collector configured by the properties file.
+	 */
+	public TraceCollector() {
+		slowThreshold = Clicap.getIntProperty("trace.slowthreshold", 100);
+		sampleSize = Math.max(0, Clicap.getIntProperty("trace.samples", 32));
+	}
+
+	/**
+	 * Aggregate the given trace of an answered request.
+	 * 
+	 * @param trace	the trace echoed back in the response, may be null
+	 */
+	public void record(DelegationTrace trace) {
+		if (trace == null)
+			return;
+		long roundTripTime = System.currentTimeMillis() - trace.getIssued();
+		roundTrip.record(roundTripTime * 1000000);
+		hopCounts.incrementAndGet(trace.getHopCount());
+		for (int i = 0; i < trace.getHopCount(); i++)
+			getNodeLatency(trace.getNode(i)).record(trace.getQueueing(i) * 1000000);
+
+		if (roundTripTime > slowThreshold && sampleSize > 0) {
+			synchronized (slowTraces) {
+				if (slowTraces.size() == sampleSize)
+					slowTraces.poll();
+				slowTraces.add(trace);
+			}
+		}
+	}
+
+	/**
+	 * Get the queueing latency histogram of the given node, create it if necessary.
+	 * 
+	 * @param node	the identifier of the node
+	 * @return the histogram
+	 */
+	private LatencyHistogram getNodeLatency(int node) {
+		LatencyHistogram histogram = nodeLatencies.get(node);
+		if (histogram == null) {
+			histogram = Latencies.register("delegation_queueing_node_" + node);
+			nodeLatencies.put(node, histogram);
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return the number of traced requests per hop count, indexed by hop count
+	 */
+	public long[] getHopCounts() {
+		long[] counts = new long[hopCounts.length()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = hopCounts.get(i);
+		return counts;
+	}
+
+	/**
+	 * @return the queueing latency histograms by node identifier
+	 */
+	public Map<Integer, LatencyHistogram> getNodeLatencies() {
+		return nodeLatencies;
+	}
+
+	/**
+	 * @return the round trip time histogram of the traced requests
+	 */
+	public LatencyHistogram getRoundTrip() {
+		return roundTrip;
+	}
+
+	/**
+	 * @return the sampled traces of slow requests, oldest first
+	 */
+	public List<DelegationTrace> getSlowTraces() {
+		synchronized (slowTraces) {
+			return new ArrayList<DelegationTrace>(slowTraces);
+		}
+	}
+}
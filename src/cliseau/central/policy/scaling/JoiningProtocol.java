@@ -20,19 +20,20 @@
 
 package cliseau.central.policy.scaling;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import cliseau.Clicap;
-import cliseau.central.IcapEnforcementDecision;
-import cliseau.central.delegation.IcapDelegationResp;
 import cliseau.central.delegation.IcapJoiningNotification;
 import cliseau.central.delegation.Notification;
 import cliseau.central.policy.IcapPolicy;
 import cliseau.javacor.DelegationLocPolDirectReturn;
+import cliseau.javacor.DelegationLocPolDummyReturn;
+import cliseau.javacor.DelegationLocPolMultiReturn;
 import cliseau.javacor.DelegationLocPolReturn;
 import cliseau.javacor.LocalPolicy;
 import cliseau.javacor.LocalPolicyResponse;
@@ -43,7 +44,10 @@ import cliseau.javacor.LocalPolicyResponse;
  * is trigger by the notification message sent from the node on the previous step. The 
  * first step is triggered by the local policy of the major node according to the scaling-
  * out request of the administrator. The last step sends back a scaling-decision to the
- * local policy of major node and the protocol terminates. 
+ * local policy of major node and the protocol terminates. <br>
+ * The state of the major node is kept per joining session (see {@link JoiningSession}),
+ * such that several nodes of a scaling batch join concurrently. Sessions whose joining
+ * nodes share the same successor are serialized. 
  * 
  * @author Hoang-Duong Nguyen, Tobias Reinhard
  *
@@ -56,24 +60,22 @@ public class JoiningProtocol {
 	protected static IcapPolicy policy;
 	
 	/**
-	 * Used by the major node to store the current finger table entry number to be 
-	 * generated for the new node.
-	 * 
+	 * Used by the major node to store the running joining sessions by their IDs
 	 */
-	protected static int entryNumber;
-	
+	private static HashMap<Integer, JoiningSession> sessions;
 	
 	/**
-	 * Used by the major node to store the to be generated finger table for the new node
-	 * 
+	 * Used by the major node to store the joining sessions that have to wait until a
+	 * session with the same successor is finished
 	 */
-	private static ArrayList<Node> fingerTable;
-	
+	private static LinkedList<JoiningSession> deferredSessions;
 	
 	/**
-	 * Used by the major node to maintain information about the new node to be added
+	 * Used by the joining node to maintain the ID of the session it joins in. This 
+	 * allows the joining node to report the end of the joining process to the major 
+	 * node.
 	 */
-	protected static Node joiningNode;
+	static int sessionID;
 	
 	/**
 	 * Used to maintain the fact if this node is the joining node. Set to True if this is
@@ -82,11 +84,11 @@ public class JoiningProtocol {
 	static boolean isJoiningNode;
 	
 	/**
-	 * Finger table row number to be updated. This attribute is used only by the joining 
-	 * node in order to itemize the updating process of every finger table that contains
-	 * the identifier of this node.
+	 * Number of finger table rows whose updating branch has not yet terminated. This 
+	 * attribute is used only by the joining node in order to detect when every finger 
+	 * table that contains the identifier of this node is updated.
 	 */
-	public static int rowNumber;
+	public static int pendingRows;
 	
 	/**
 	 * The temporal predecessor of this node, used by the successor of the joining node.
@@ -95,7 +97,7 @@ public class JoiningProtocol {
 	 * while the routing algorithm still works as the joining node has not yet fully 
 	 * joined.
 	 */
-	public static Node tmpPred;
+	public static volatile Node tmpPred;
 	
 	/**
 	 * Node object storing information of the major node. This attribute is used by the 
@@ -104,23 +106,17 @@ public class JoiningProtocol {
 	 */
 	static Node majorNode;
 
-	/**
-	 * Used by the major node to state if the joining protocol is processing
-	 */
-	public static boolean isJoining = false;
-
 	/**
 	 * Initialize the joining protocol. By default there is no finger table row to be 
 	 * updated nor temporal predecessor to be stored, so set to -1.
 	 * @param pol	The local policy of the corresponding CliSeAu  unit
 	 */
 	public static void init(LocalPolicy pol) {
-		fingerTable = new ArrayList<Node>();
-		isJoining = false;
+		sessions = new HashMap<Integer, JoiningSession>();
+		deferredSessions = new LinkedList<JoiningSession>();
 		policy = (IcapPolicy) pol;
-		rowNumber = 1;
+		pendingRows = 0;
 		tmpPred = null;
-		entryNumber = -1;
 		isJoiningNode = false;
 	}
 	
@@ -129,8 +125,10 @@ public class JoiningProtocol {
 	 * The major node has just received a scaling-out request from the administrator, it
 	 * now start collecting all data needed in order to instantiate the new node with 
 	 * the given ID, host and port. The first required data is the finger table. This 
-	 * method trigger the data collecting process to generate the finger table for the 
-	 * joining node.
+	 * method triggers the lookups of all finger table entries of the joining node at 
+	 * once. Every lookup carries the index of its entry so that the responses can be
+	 * matched in any order. Entries for which the major node is responsible itself are
+	 * resolved without any lookup.
 	 * 
 	 * <br><br>
 	 * Occurred in : The major node <br>
@@ -143,38 +141,72 @@ public class JoiningProtocol {
 	 * @param joiningPort
 	 * 					The port of the joining node
 	 * @return
-	 * 			a delegation return that encapsulates the id of the next unit on the 
-	 * 			the routing part and a notification for the finger table generating
-	 * 			request
+	 * 			a bundle of delegation returns, each encapsulates the id of the next 
+	 * 			unit on the routing path and a notification for the finger table 
+	 * 			generating request of one entry
 	 * @author Hoang-Duong Nguyen
 	 */
 	public static LocalPolicyResponse startGeneratingFT(int joiningID, 
 			String joiningDomain, int joiningPort){
 		
+		// Reject a second joining node with the same ID
+		for (JoiningSession session : sessions.values())
+			if (session.joiningNode.id == joiningID) {
+				System.out.println("\n» ERROR: Node " + joiningID 
+						+ " is already joining! \n");
+				return ScalingBatch.finishSession(false);
+			}
+		
 		// Store information of the joining node for later use
-		joiningNode = new Node(joiningID, joiningDomain, joiningPort);
+		JoiningSession session = new JoiningSession(ScalingBatch.nextSessionID(),
+				new Node(joiningID, joiningDomain, joiningPort));
+		sessions.put(session.id, session);
+		return startGeneratingFT(session);
+	}
+	
+	/**
+	 * (Re)start generating the finger table of the joining node of the given session.
+	 * 
+	 * @param session
+	 * 					The joining session
+	 * @return	a bundle of the finger table generating requests
+	 */
+	private static LocalPolicyResponse startGeneratingFT(JoiningSession session){
 		
-		// reset the entry number to be generate and compute the first target
-		entryNumber = 0;
-		int target = (int) ((joiningID +
-				Math.pow(2, entryNumber)) % Clicap.getCapacity());
+		// Reset the finger table to be generated
+		int ftSize = Clicap.getBitLength();
+		session.fingerTable.clear();
+		for (int i = 0; i < ftSize; i++)
+			session.fingerTable.add(null);
+		session.entryNumber = ftSize;
 		
-		// Find out the next destination 
-		int nextUnit;
-		if(policy.isResponsible(target))
-			nextUnit = Clicap.getIDnum();
-		else
-			nextUnit = Clicap.fTable.lookUp(target);
-		
-		// Pack all needed information into the notification
-		IcapJoiningNotification notif = 
-				new IcapJoiningNotification(Notification.JOIN_STEP_2A_FT_ENTRY_REQ);
-		setSrcInfo(notif);
-		System.out.println(Clicap.getID() + " : Target = " + target);
-		notif.setKey(target);
-
-		return new DelegationLocPolReturn(Integer.toString(nextUnit), notif);
+		// Resolve the entries this node is responsible for locally
+		resolveEntries(session, new Node(Clicap.getPredIDnum(), Clicap.getPredDomain(), 
+				Clicap.getPredPort()), new Node(Clicap.getIDnum(), Clicap.getDomain(),
+						Clicap.getRemotePort()));
+		if (session.entryNumber == 0)
+			return triggerSuccessorQuery(session);
 		
+		// Query all remaining entries at once
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		for (int i = 0; i < ftSize; i++) {
+			if (session.fingerTable.get(i) != null)
+				continue;
+			
+			int target = getTarget(session, i);
+			
+			// Pack all needed information into the notification
+			IcapJoiningNotification notif = 
+					new IcapJoiningNotification(Notification.JOIN_STEP_2A_FT_ENTRY_REQ);
+			setSrcInfo(notif);
+			notif.setSessionID(session.id);
+			notif.setKey(target);
+			notif.setFingerTableIndex(i);
+			
+			resp.add(new DelegationLocPolReturn(
+					Integer.toString(Clicap.fTable.lookUp(target)), notif));
+		}
+		return resp;
 	}
 	
 	/**
@@ -182,7 +214,9 @@ public class JoiningProtocol {
 	 * This node has received a a notification for the finger table generating request 
 	 * which is originally sent from the major node. It then determine if it is the one 
 	 * who is responsible for the given key. If yes, it reply the major node directly, 
-	 * otherwise it forwards the request to the next node on the routing path. 
+	 * otherwise it forwards the request to the next node on the routing path. The reply
+	 * carries the predecessor of this node as well, such that the major node knows all
+	 * keys this node is responsible for.
 	 * <br><br>
 	 * Occurred in : Nodes on the querying path for finger table entries <br>
 	 * Triggered by: JOIN_STEP_2A_FT_ENTRY_REQ<br><br>
@@ -210,6 +244,10 @@ public class JoiningProtocol {
 			IcapJoiningNotification notif = 
 					new IcapJoiningNotification(Notification.JOIN_STEP_2B_FT_ENTRY_RESP);
 			setSrcInfo(notif);
+			setPreInfo(notif);
+			notif.setSessionID(notification.getSessionID());
+			notif.setKey(notification.getKey());
+			notif.setFingerTableIndex(notification.getFingerTableIndex());
 			notif.setFingerTableEntry(new Node(Clicap.getIDnum(),
 					Clicap.getDomain(), Clicap.getRemotePort()));
 			return new DelegationLocPolDirectReturn(notification.getSource().domain,
@@ -218,10 +256,12 @@ public class JoiningProtocol {
 	
 	/**
 	 * Continue STEP 2 or Trigger STEP 3
-	 * The major node has just received a response for its finger table generating 
-	 * request and has to determine if the collected data is already adequate. If yes, it 
-	 * trigger the next step of the joining protocol, otherwise it sends further finger
-	 * table generating request.
+	 * The major node has just received a response for one of its finger table 
+	 * generating requests. Since neighboring entries often resolve to the same node, 
+	 * the responding node is stored for every unresolved entry whose target lies 
+	 * between the predecessor of the responding node and the responding node itself. 
+	 * Responses for entries that are already resolved are ignored. If all entries are
+	 * resolved, the next step of the joining protocol is triggered.
 	 * 
 	 * <br><br>
 	 * Occurred in : The major node  <br>
@@ -230,63 +270,115 @@ public class JoiningProtocol {
 	 * @param notification
 	 * 				The response for the finger table generating request of the major node
 	 * @return a delegation to the next unit of the next step if collected data is 
-	 * 	adequate, otherwise a delegation that carries the finger table generating request
+	 * 	adequate, otherwise a dummy return to wait for the remaining responses
 	 * 
 	 * @author Hoang-Duong Nguyen
 	 */
 	public static LocalPolicyResponse checkFTEntries(
 			IcapJoiningNotification notification){
 		
-		if(entryNumber < (Clicap.getBitLength())){
+		JoiningSession session = sessions.get(notification.getSessionID());
+		if (session == null || session.entryNumber <= 0)
+			// Late response, the finger table is already complete
+			return new DelegationLocPolDummyReturn();
+		
+		int index = notification.getFingerTableIndex();
+		if (session.fingerTable.get(index) == null) {
+			session.fingerTable.set(index, notification.getFingerTableEntry());
+			session.entryNumber--;
+		}
+		resolveEntries(session, notification.getPredecessor(), 
+				notification.getFingerTableEntry());
+		
+		if (session.entryNumber > 0)
 			// Continue STEP 2
-			// There are still remaining finger table entries to be generated
-			// => send further finger table entry query notification
-						
-			// Store collected entry
-			fingerTable.add(notification.getFingerTableEntry());
-			
-			// Increase entry number to be generate by 1
-			entryNumber ++;
-			// Compute the next target
-			int target = (int) ((joiningNode.id + Math.pow(2, entryNumber))
-					% Clicap.getCapacity());
-						
-			// Find out the next destination 
-			int nextUnit;
-			if(policy.isResponsible(target))
-				nextUnit = Clicap.getIDnum();
-			else
-				nextUnit = Clicap.fTable.lookUp(target);
-				
-			// Pack all needed information into the notification
-			IcapJoiningNotification notif = 
-				new IcapJoiningNotification(Notification.JOIN_STEP_2A_FT_ENTRY_REQ);
-			setSrcInfo(notif);
-			notif.setKey(target);
-
-			// Forward
-			return new DelegationLocPolReturn(Integer.toString(nextUnit), notif);	
+			// There are still remaining finger table entries to be resolved
+			// => wait for further responses
+			return new DelegationLocPolDummyReturn();
+		
+		// Trigger STEP 3
+		// All finger table entries are collected
+		return triggerSuccessorQuery(session);
+	}
+	
+	/**
+	 * Trigger STEP 3 by sending the first query notification for the successor of the
+	 * joining node.
+	 * 
+	 * @param session
+	 * 				The joining session
+	 * @return a delegation to the next unit on the routing path to the successor of 
+	 * 			the joining node
+	 */
+	private static LocalPolicyResponse triggerSuccessorQuery(JoiningSession session){
+		
+		int joiningID = session.joiningNode.id;
+		
+		// Find out the next destination 
+		int nextUnit;
+		if(policy.isResponsible(joiningID))
+			nextUnit = Clicap.getIDnum();
+		else
+			nextUnit = Clicap.fTable.lookUp(joiningID);
+		
+		// Pack all needed information into the notification
+		IcapJoiningNotification notif = 
+				new IcapJoiningNotification(Notification.JOIN_STEP_3_SUC_QUERY);
+		setSrcInfo(notif);
+		notif.setSessionID(session.id);
+		notif.setKey(joiningID);
+		// Query the successor of the joining node 
+		return new DelegationLocPolReturn(Integer.toString(nextUnit), notif);
+	}
+	
+	/**
+	 * Store the given node for every unresolved finger table entry of the joining node
+	 * whose target the given node is responsible for.
+	 * 
+	 * @param session
+	 * 				The joining session
+	 * @param pred
+	 * 				The predecessor of the given node
+	 * @param node
+	 * 				The node that is responsible for all keys in (pred, node]
+	 */
+	private static void resolveEntries(JoiningSession session, Node pred, Node node){
+		for (int i = 0; i < session.fingerTable.size(); i++) {
+			if (session.fingerTable.get(i) == null 
+					&& isBetween(getTarget(session, i), pred.id, node.id)){
+				session.fingerTable.set(i, node);
+				session.entryNumber--;
+			}
 		}
-		else{
-			// Trigger STEP 3
-			// All finger table entries are collected
-			// => Trigger STEP 3 by sending first query notification
-			
-			// Find out the next destination 
-			int nextUnit;
-			if(policy.isResponsible(joiningNode.id))
-				nextUnit = Clicap.getIDnum();
-			else
-				nextUnit = Clicap.fTable.lookUp(joiningNode.id);
-			
-			// Pack all needed information into the notification
-			IcapJoiningNotification notif = 
-					new IcapJoiningNotification(Notification.JOIN_STEP_3_SUC_QUERY);
-			setSrcInfo(notif);
-			notif.setKey(joiningNode.id);
-				// Query the successor of the joining node 
-			return new DelegationLocPolReturn(Integer.toString(nextUnit), notif);
-		}	
+	}
+	
+	/**
+	 * Returns the target key of the given finger table entry of the joining node.
+	 * 
+	 * @param session
+	 * 				The joining session
+	 * @param index
+	 * 				The index of the finger table entry
+	 * @return	(id + 2^index) mod 2^m, where id is the ID of the joining node
+	 */
+	private static int getTarget(JoiningSession session, int index){
+		return (int) ((session.joiningNode.id + Math.pow(2, index)) 
+				% Clicap.getCapacity());
+	}
+	
+	/**
+	 * Checks if the given key lies in the interval (from, to] on the identifier circle.
+	 * 
+	 * @param key	The key to be checked
+	 * @param from	The exclusive lower bound
+	 * @param to	The inclusive upper bound
+	 * @return true if the key lies in the interval, otherwise false
+	 */
+	private static boolean isBetween(int key, int from, int to){
+		if (from < to)
+			return from < key && key <= to;
+		else
+			return from < key || key <= to;
 	}
 	
 	/**
@@ -331,6 +423,7 @@ public class JoiningProtocol {
 					new IcapJoiningNotification(Notification.JOIN_STEP_4_SUC_RESP);
 			setSrcInfo(notif);
 			setPreInfo(notif);
+			notif.setSessionID(notification.getSessionID());
 			// Send the notification to the major node directly
 			return new DelegationLocPolDirectReturn(notification.getSource().domain,
 					notification.getSource().port, notif);
@@ -338,10 +431,13 @@ public class JoiningProtocol {
 	}
 		
 	/**
-	 * STEP 5 and STEP 6
+	 * STEP 5
 	 * The major node has received the reply from the successor of the joining node. It
-	 * now has all needed data to instantiate the new node. After instantiating the new 
-	 * node it will signal the successor of the new node.
+	 * now has all needed data to instantiate the new node. It claims a standby node 
+	 * from the pool and configures it as the new node. If no standby node is ready, a 
+	 * standby node is launched for the joining node and configured as soon as it
+	 * signals readiness. If another running session has the same successor, this 
+	 * session is deferred until the other one is finished.
 	 * 
 	 * <br><br>
 	 * Occurred in : The major node  <br>
@@ -349,59 +445,135 @@ public class JoiningProtocol {
 	 * 
 	 * @param notification
 	 * 					Reply of the successor of the joining node from the previous step
-	 * @return the delegation to the successor of the joining node which carries 
-	 * 			information of the major node and the new node
+	 * @return the configuration for the claimed standby node, or a dummy return if
+	 * 			the major node has to wait for a standby node or the session is deferred
 	 * 
 	 * @author Tobias Reinhard, Hoang-Duong Nguyen
 	 */
 	public static LocalPolicyResponse instantiateNode(
 			IcapJoiningNotification notification){
 		
-		// STEP 5
-		// Instantiate the new node
+		JoiningSession session = sessions.get(notification.getSessionID());
+		if (session == null)
+			return new DelegationLocPolDummyReturn();
+		
+		// Serialize sessions whose joining nodes are placed in the same region
+		for (JoiningSession other : sessions.values())
+			if (other != session && other.joiningSuc != null 
+					&& other.joiningSuc.id == notification.getSource().id) {
+				deferredSessions.add(session);
+				return new DelegationLocPolDummyReturn();
+			}
+		
+		// Store the neighbors of the new node until it is configured
+		session.joiningPred = notification.getPredecessor();
+		session.joiningSuc = notification.getSource();
+		
+		Node standby = StandbyPool.claim();
+		if (standby != null)
+			return configureStandby(session, standby);
+		
+		// No standby node is ready => launch one for the joining node and wait for
+		// its readiness signal
+		System.out.println("» No standby node ready, launching " + session.joiningNode);
+		session.awaitingStandby = true;
+		StandbyPool.launchStandby(session.joiningNode.domain, session.joiningNode.port);
+		return new DelegationLocPolDummyReturn();
+	}
+	
+	/**
+	 * A standby node has signaled that it is ready. If a session is waiting for 
+	 * exactly this node, the node is configured as the joining node of that session.
+	 * Otherwise it is added to the standby pool.
+	 * 
+	 * <br><br>
+	 * Occurred in : The major node  <br>
+	 * Triggered by: JOIN_STANDBY_READY notification <br><br>
+	 * 
+	 * @param notification
+	 * 					The readiness signal of the standby node
+	 * @return the configuration for the standby node if it was awaited, otherwise a
+	 * 			dummy return
+	 */
+	public static LocalPolicyResponse standbyReady(
+			IcapJoiningNotification notification){
+		
+		Node standby = notification.getSource();
+		for (JoiningSession session : sessions.values())
+			if (session.awaitingStandby && session.joiningNode.port == standby.port
+					&& session.joiningNode.domain.equals(standby.domain)) {
+				session.awaitingStandby = false;
+				return configureStandby(session, standby);
+			}
+		StandbyPool.register(standby);
+		return new DelegationLocPolDummyReturn();
+	}
+	
+	/**
+	 * STEP 5A
+	 * Send the configuration of the joining node to the given standby node. The 
+	 * joining node takes over the host and port of the standby node.
+	 * 
+	 * @param session
+	 * 				The joining session
+	 * @param standby
+	 * 				The standby node to be configured as the joining node
+	 * @return the direct delegation of the configuration to the standby node
+	 */
+	private static LocalPolicyResponse configureStandby(JoiningSession session, 
+			Node standby){
+		
+		session.joiningNode = new Node(session.joiningNode.id, standby.domain, 
+				standby.port);
 		
 		// Correct the collected finger table
-		correctFT();
+		correctFT(session);
+		
+		IcapJoiningNotification notif = 
+				new IcapJoiningNotification(Notification.JOIN_STEP_5A_CONFIGURE_STANDBY);
+		setSrcInfo(notif);
+		notif.setSessionID(session.id);
+		notif.setArguments(getNewNodeArguments(session));
+		
+		return new DelegationLocPolDirectReturn(standby.domain, standby.port, notif);
+	}
+	
+	/**
+	 * STEP 6
+	 * The claimed standby node has confirmed that it is configured as the new node. 
+	 * The major node now signals the successor of the new node.
+	 * 
+	 * <br><br>
+	 * Occurred in : The major node  <br>
+	 * Triggered by: JOIN_STEP_5B_STANDBY_CONFIGURED notification <br><br>
+	 * 
+	 * @param notification
+	 * 					The confirmation of the new node
+	 * @return the delegation to the successor of the joining node which carries 
+	 * 			information of the major node and the new node
+	 * 
+	 * @author Tobias Reinhard, Hoang-Duong Nguyen
+	 */
+	public static LocalPolicyResponse notifySuccessor(
+			IcapJoiningNotification notification){
+		
+		JoiningSession session = sessions.get(notification.getSessionID());
+		if (session == null)
+			return new DelegationLocPolDummyReturn();
 		
-		List<String> cmd = getNewNodeLaunchingCommand(
-				joiningNode, notification.getPredecessor(), notification.getSource());
-
-		ProcessBuilder pb = new ProcessBuilder(cmd);
-		pb.inheritIO();
-
-		try {
-			@SuppressWarnings("unused")
-			Process p = pb.start();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// clear finger table for future joining
-		fingerTable.clear();
-
-		// Sleep shortly to ensure that the new node is instantiated completely
-		// Bad programming practice, could be replaced by additional communications
-		System.out.println("Major Node sleeping");
-		try {
-			Thread.sleep(5000);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		System.out.println("Major Node awake, again");
-
-		// STEP 6
 		// Notify the successor of the new node after the instantiation
 		// Pack all needed information into the notification
 		IcapJoiningNotification notif = 
 				new IcapJoiningNotification(
 						Notification.JOIN_STEP_6_SUC_NOTIFY_INSTANTIATED);
-		notif.setNewNode(joiningNode);
+		notif.setSessionID(session.id);
+		notif.setNewNode(session.joiningNode);
 		notif.setMajorNode(
 				new Node(Clicap.getIDnum(), Clicap.getDomain(), Clicap.getRemotePort()));
 		
 		// Send the notification to the successor of the new node directly
-		return new DelegationLocPolDirectReturn(notification.getSource().domain,
-				notification.getSource().port, notif);		
+		return new DelegationLocPolDirectReturn(session.joiningSuc.domain,
+				session.joiningSuc.port, notif);		
 	}
 	
 	
@@ -430,9 +602,8 @@ public class JoiningProtocol {
 		Node newNode = notification.getNewNode();
 		
 		// Update predecessor pointer
-		Clicap.config.put(Clicap.PREDECESSOR, Integer.toString(newNode.id));
-		Clicap.config.put(Clicap.PRE_DOMAIN, newNode.domain);
-		Clicap.config.put(Clicap.PRE_PORT, Integer.toString(newNode.port));						
+		Clicap.setPredecessor(newNode.id, newNode.domain, newNode.port,
+				notification.getSessionID());
 		
 		// Also update addressing
 		Clicap.addressing.setAddress(Clicap.getPredID(), 
@@ -452,8 +623,9 @@ public class JoiningProtocol {
 		// responsible (Those requests that sastify pred < req <= tmpPred) as long as
 		// tmpPred is not null.
 		
-		notif.setData(policy.getPartialData(newNode.id));
+		notif.setData(policy.getPartialData(tmpPred.id, newNode.id));
 		notif.setMajorNode(notification.getMajorNode());
+		notif.setSessionID(notification.getSessionID());
 		
 		// Send the notification to the new node directly to inform him that this node
 		// is ready!
@@ -478,9 +650,11 @@ public class JoiningProtocol {
 	public static LocalPolicyResponse notifyPredecessor(
 			IcapJoiningNotification notification){
 		
-		// Update the data with the one given by the successor
-		policy.addData(notification.getData());
+		// Replace the data with the one given by the successor
+		policy.takeOverData(notification.getData());
 		majorNode = notification.getMajorNode();
+		sessionID = notification.getSessionID();
+		Clicap.advanceEpoch(sessionID);
 		
 		// Tell the predecessor that it should update its successor pointer 
 		IcapJoiningNotification notif = 
@@ -488,6 +662,7 @@ public class JoiningProtocol {
 						Notification.JOIN_STEP_8_PRED_NOTIFY);
 		notif.setNewNode(new Node(Clicap.getIDnum(), 
 				Clicap.getDomain(), Clicap.getRemotePort()));
+		notif.setSessionID(sessionID);
 		return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
 				Clicap.getPredPort(), notif);	
 	}
@@ -509,9 +684,8 @@ public class JoiningProtocol {
 			IcapJoiningNotification notification){
 		// Update predecessor pointer
 		Node newNode = notification.getNewNode();
-		Clicap.config.put(Clicap.SUCCESSOR, Integer.toString(newNode.id));
-		Clicap.config.put(Clicap.SUC_DOMAIN, newNode.domain);
-		Clicap.config.put(Clicap.SUC_PORT, Integer.toString(newNode.port));		
+		Clicap.setSuccessor(newNode.id, newNode.domain, newNode.port,
+				notification.getSessionID());
 		
 		// Also update addressing
 		Clicap.addressing.setAddress(Clicap.getSucID(), 
@@ -532,17 +706,17 @@ public class JoiningProtocol {
 
 	/**
 	 * Starting STEP 10  <br>
-	 * The new node has just received confirmation from its predecessor or a notification
-	 * that an updating branch has just terminated. It now starts/continues updating 
-	 * the finger tables that contains its identifier. This method triggers
-	 * the process by generating the first request message for updating.<br>
+	 * The new node has just received confirmation from its predecessor. It now starts 
+	 * updating the finger tables that contain its identifier. The updating branches of 
+	 * all rows are started at once, rows whose targets are routed the same way are sent
+	 * in one combined message. The number of rows whose branch has not yet terminated 
+	 * is counted in order to detect the end of the updating process.<br>
 	 * <br>
 	 * Occurred in  : The joining node <br>
-	 * Triggered by : JOIN_STEP_9_PRED_READY notification or 
-	 * 									receiveUpdateConfirmation()<br><br>
+	 * Triggered by : JOIN_STEP_9_PRED_READY notification<br><br>
 	 *
-	 * @return		The local policy return that carries the finger table row number to
-	 * 				be updated
+	 * @return		The local policy return that carries the finger table rows to be 
+	 * 				updated
 	 * @author Hoang-Duong Nguyen
 	 */
 	public static LocalPolicyResponse triggerUpdating() {
@@ -550,50 +724,33 @@ public class JoiningProtocol {
 		// This node now knows that it is the current joining node
 		isJoiningNode = true;
 		
-		// Create query request
+		// Create query request for all rows
 		IcapJoiningNotification notif = new IcapJoiningNotification(
 				Notification.JOIN_STEP_10A_PRED_QUERY);
 
 		// Pack all the needed information required by the Finger Table updating process
 		setSrcInfo(notif);
 		setSucInfo(notif);	
-		notif.setNewNode(joiningNode);
-		notif.setRowNumber(rowNumber);
-
-		// Compute target = N - 2^(i-1) = ID - 1
-		int target = Clicap.getIDnum() - (int) Math.pow(2, rowNumber - 1);
 		
-		// Make target positive
-		if (target < 0)
-			target = target	+ Clicap.getCapacity();
-
-		notif.setTarget(target);
-		
-		// Determine the next destination
-		String nextUnit;
-		if(policy.isResponsible(target)){
-			// Trigger STEP 10B
-			// The joining node is already responsible for the target
-			// Note: target != ID of joining node
-			// Joining node's predecessor is the right one!
-			notif.setType(Notification.JOIN_STEP_10B_PRED_FOUND);
-			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),								
-					Clicap.getPredPort(), notif);
-		}
-		else
-			// Look up the next unit on the routing path
-			nextUnit = Integer.toString(Clicap.fTable.lookUp(target));
+		List<Integer> rows = new ArrayList<Integer>();
+		for (int row = 1; row <= Clicap.getBitLength(); row++)
+			rows.add(row);
+		notif.setRows(rows);
+		notif.setSessionID(sessionID);
+		pendingRows = rows.size();
 		
-		// Send query notification to the next unit
-		return new DelegationLocPolReturn(nextUnit, notif);
+		// Note: no target equals the ID of the joining node
+		return checkPredecessor(notif);
 	}
 
 	/**
 	 * STEP 10A and 10B <br>
-	 * Successively search for the predecessor of the given target. This method handles
-	 * messages sent to the nodes on the routing path from the joining node to the 
-	 * successor of the last node whose finger table possibly contains joining node'ID at
-	 * the given row. <br> <br>
+	 * Successively search for the predecessor of the targets of the given rows, where 
+	 * the target of row i is N - 2^(i-1) and N is the ID of the joining node. This 
+	 * method handles messages sent to the nodes on the routing paths from the joining 
+	 * node to the successors of the last nodes whose finger tables possibly contain 
+	 * joining node'ID at the given rows. The rows are split according to their next 
+	 * destination, rows with the same destination stay in one message. <br> <br>
 	 * 
 	 * Occurred in  : Nodes whose finger tables possibly contain the joining node's ID<br>
 	 * Triggered by : JOIN_STEP_10A_PRED_QUERY notification<br>
@@ -601,111 +758,138 @@ public class JoiningProtocol {
 	 * @param notification 
 	 * 				The notification sent from the successor to trigger the updating 
 	 * 				process
-	 * @return		The local policy return that carries the finger table row number to
-	 * 				be updated
+	 * @return		The local policy return that carries the finger table rows to be 
+	 * 				updated
 	 * @author Hoang-Duong Nguyen
 	 */
 	public static LocalPolicyResponse checkPredecessor(
 			IcapJoiningNotification notification) {
 
-		if(!policy.isResponsible(notification.getTarget())){		
-			// Continue STEP 10A
-			// This node is not yet the requested one
-			// => forward the notification to the next node
-			
-			// Find out the next destination 
-			int nextUnit = Clicap.fTable.lookUp(notification.getTarget());
+		HashMap<Integer, List<Integer>> forwardRows = 
+				new HashMap<Integer, List<Integer>>();
+		List<Integer> predRows = new ArrayList<Integer>();
+		List<Integer> localRows = new ArrayList<Integer>();
+		
+		for (int row : notification.getRows()) {
+			int target = getUpdateTarget(notification.getSource().id, row);
 			
-			// Forward the notification
-			return new DelegationLocPolReturn(Integer.toString(nextUnit), notification);					
-		}
-		else{
-			// STEP 10B
-			// This node is the direct successor of the joining node
-			if(notification.getTarget() == Clicap.getIDnum()){
-				// and it is equal to the target
-				// => also the predecessor of the target
+			if(!policy.isResponsible(target)){		
+				// Continue STEP 10A
+				// This node is not yet the requested one
+				// => forward the row to the next node
+				int nextUnit = Clicap.fTable.lookUp(target);
+				if (!forwardRows.containsKey(nextUnit))
+					forwardRows.put(nextUnit, new ArrayList<Integer>());
+				forwardRows.get(nextUnit).add(row);
+			}
+			else if(target == Clicap.getIDnum())
+				// STEP 10B
+				// This node is the direct successor of the target and it is equal to 
+				// the target => also the predecessor of the target
 				// => STEP 10C
-				return updateCounterClockwise(notification);						
-			}			
-			// Otherwise forward the query to the predecessor directly
-			// Adapt the type of the notification accordingly
-			notification.setType(Notification.JOIN_STEP_10B_PRED_FOUND);
-				
-			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
-				Clicap.getPredPort(), notification);																	
-		}	
+				localRows.add(row);
+			else
+				// STEP 10B
+				// Otherwise forward the query to the predecessor directly
+				predRows.add(row);
+		}
+		
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		for (Map.Entry<Integer, List<Integer>> e : forwardRows.entrySet()) 
+			resp.add(new DelegationLocPolReturn(Integer.toString(e.getKey()), 
+					copy(notification, Notification.JOIN_STEP_10A_PRED_QUERY, 
+							e.getValue())));
+		if (!predRows.isEmpty())
+			resp.add(new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
+					Clicap.getPredPort(), 
+					copy(notification, Notification.JOIN_STEP_10B_PRED_FOUND, 
+							predRows)));
+		if (!localRows.isEmpty())
+			resp.add(updateCounterClockwise(copy(notification, 
+					Notification.JOIN_STEP_10C_UPDATE_FT, localRows)));
+		return resp;
 	}
 
 	/**
 	 * STEP 10C and 10D <br>
-	 * This node could possibly update his finger table according to the given target. 
-	 * After successful updating he will forward the updating request to his predecessor.
-	 * Otherwise he notify the joining node that this updating branch is finished <br>
+	 * This node could possibly update his finger table at the given rows. The rows at 
+	 * which the finger table was updated are forwarded to his predecessor in one 
+	 * message. For the remaining rows he notifies the joining node that these updating
+	 * branches are finished <br>
 	 * <br>
 	 * Occurred in  : The direct or "further" predecessor of a particular target 	<br>
 	 * Triggered by : JOIN_STEP_10B_PRED_FOUND  or  JOIN_STEP_10C_UPDATE_FT	<br>
 	 * <br>
 	 * @param notification 
 	 * 				The notification sent from the previous node on the routing path
-	 * @return		The local policy direct return that carries the host and port of the
-	 * 				predecessor of this node and the finger table row number to be updated 
+	 * @return		The local policy direct returns that carry the rows to be updated 
+	 * 				by the predecessor of this node and the terminated rows
 	 * @author Hoang-Duong Nguyen
 	 */
 	public static LocalPolicyResponse updateCounterClockwise(															
 			IcapJoiningNotification notification) {
 		
-		if (updateFingerTable(notification)) {
-			// continue STEP 10C
+		List<Integer> updatedRows = new ArrayList<Integer>();
+		List<Integer> terminatedRows = new ArrayList<Integer>();
+		for (int row : notification.getRows()) {
+			if (updateFingerTable(notification, row))
+				// continue STEP 10C
+				updatedRows.add(row);
+			else
+				// STEP 10D
+				// No need to update finger table
+				// => This branch is finished at this node
+				terminatedRows.add(row);
+		}
+		
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		if (!updatedRows.isEmpty())
 			// Updated finger table successfully
 			// => forward to its predecessor
-			notification.setType(Notification.JOIN_STEP_10C_UPDATE_FT); 
-			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
-					Clicap.getPredPort(), notification);
-		} else {
-			// STEP 10D
-			// No need to update finger table
-			// => This branch is finished at this node
-			// => direct reply to source node (joining node)
-			
-			// Adapt the type of notification accordingly
-			notification.setType(Notification.JOIN_STEP_10D_BRANCH_TERMINATED);
-
-			// Tell the joining node that this updating "branch" has terminated
-			return new DelegationLocPolDirectReturn(notification.getSource().domain,
-					notification.getSource().port, notification);
-		}
+			resp.add(new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
+					Clicap.getPredPort(), copy(notification, 
+							Notification.JOIN_STEP_10C_UPDATE_FT, updatedRows)));
+		if (!terminatedRows.isEmpty())
+			// Tell the joining node that these updating "branches" have terminated
+			resp.add(new DelegationLocPolDirectReturn(notification.getSource().domain,
+					notification.getSource().port, copy(notification, 
+							Notification.JOIN_STEP_10D_BRANCH_TERMINATED, 
+							terminatedRows)));
+		return resp;
 	}
 
 	/**
 	 * Continue STEP 10 and STEP 11  <br> 
-	 * A updating "branch" has just been finished and the last node on the branch sends 
-	 * this reply back to the joining node. This joining node has to decide whether or
-	 * not to send further updating request. If not, it must trigger the next step by 
-	 * notifying the predecessor<br><br>
+	 * Updating "branches" have just been finished and the last node on the branches 
+	 * sends this reply back to the joining node. If the branches of all rows are 
+	 * finished, the joining node triggers the next step by notifying the major node<br>
+	 * <br>
 	 * 
 	 * Occurred in  : The joining node <br>
 	 * Triggered by : JOIN_STEP_10D_BRANCH_TERMINATED notification <br>
 	 * 
+	 * @param notification 
+	 * 				The notification that carries the terminated rows
 	 * @return	The local policy return that signal the major node if finished
 	 * @author Hoang-Duong Nguyen
 	 */
-	public static LocalPolicyResponse receiveUpdateConfirmation() {
+	public static LocalPolicyResponse receiveUpdateConfirmation(
+			IcapJoiningNotification notification) {
 
-		if (rowNumber < Clicap.getBitLength()) {
+		pendingRows -= notification.getRows().size();
+		if (pendingRows > 0) {
 			// Continue STEP 10
-			// There are still further row(s) to be updated
-			rowNumber++;
-			// Create query request
-			return triggerUpdating();
+			// There are still further row(s) being updated
+			return new DelegationLocPolDummyReturn();
 		} 
 		else {
 			// STEP 11 - All rows are updated
 			// => Notify the major node
 			IcapJoiningNotification notif = new IcapJoiningNotification(
 					Notification.JOIN_STEP_11_N_READY);
-			// Reset row number
-			rowNumber = 1;
+			notif.setSessionID(sessionID);
+			// Reset counter
+			pendingRows = 0;
 			
 			// No more a joining node
 			isJoiningNode = false;
@@ -723,8 +907,9 @@ public class JoiningProtocol {
 	/**
 	 * STEP 12 <br>
 	 * The major node has received the confirmation of the joining node that the joining
-	 * process has been finished. It resets flags and return a decision to the local
-	 * policy.<br> <br>
+	 * process has been finished. It closes the session and returns a decision to the 
+	 * local policy if the whole scaling batch is finished. Deferred sessions are
+	 * restarted.<br> <br>
 	 * 
 	 * Occurred in  : The major node 	<br>
 	 * Triggered by : JOIN_STEP_11_N_READY notification	<br>
@@ -737,19 +922,18 @@ public class JoiningProtocol {
 	public static LocalPolicyResponse finishJoining(
 			IcapJoiningNotification notification) {
 		
-		// Reset flag
-		isJoining = false;
-		joiningNode = null;
+		// This session is finished
+		if (sessions.remove(notification.getSessionID()) == null)
+			return new DelegationLocPolDummyReturn();
 		
-		// Return decision
-		IcapEnforcementDecision ed = new IcapEnforcementDecision(
-				IcapEnforcementDecision.Decision.PERMIT,
-				IcapEnforcementDecision.Type.SCALE);
-
-		// Return a decision to itself
-		// Bad programming practice !
-		return new DelegationLocPolDirectReturn(
-				Clicap.getDomain(), Clicap.getRemotePort(),	new IcapDelegationResp(ed));
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		resp.add(ScalingBatch.finishSession(true));
+		
+		// Restart the deferred sessions, their finger tables and successors might have 
+		// changed by the new node
+		while (!deferredSessions.isEmpty())
+			resp.add(startGeneratingFT(deferredSessions.poll()));
+		return resp;
 	}
 	
 	
@@ -765,13 +949,16 @@ public class JoiningProtocol {
 	 * 	
 	 * @param notification 
 	 * 				The notification sent from the previous node on the routing path
+	 * @param row
+	 * 				The finger table row to be checked
 	 * @return		true if finger table is updated, otherwise false
 	 * @author Hoang-Duong Nguyen
 	 */
-	private static boolean updateFingerTable(IcapJoiningNotification notification) {
+	private static boolean updateFingerTable(IcapJoiningNotification notification,
+			int row) {
 	
 		int n = Clicap.getIDnum();
-		int currentFinger =  Clicap.fTable.getExtendedNode(notification.getRowNumber());
+		int currentFinger =  Clicap.fTable.getExtendedNode(row);
 		int newNode = notification.getSource().id;
 		// 	Make the joining node greater than this node
 		if(newNode <= n)
@@ -780,8 +967,8 @@ public class JoiningProtocol {
 		if (newNode < currentFinger){
 			// The joining node should be at the i-th row of the finger table
 			// Update finger table and return true
-			Clicap.fTable.setNode(notification.getRowNumber(),
-					newNode % Clicap.getCapacity());
+			Clicap.setFinger(row, newNode % Clicap.getCapacity(),
+					notification.getSessionID());
 
 			// Update Address of the newly added node
 			Clicap.addressing.setAddress(Integer.toString(newNode % Clicap.getCapacity()), 
@@ -792,14 +979,60 @@ public class JoiningProtocol {
 			// No need to update
 			return false;
 	}
+	
+	/**
+	 * Returns the target of the given finger table row of the updating process, i.e.,
+	 * the ID of the last node whose finger table possibly contains the given node at
+	 * the given row.
+	 * 
+	 * @param id
+	 * 				The ID of the joining node
+	 * @param row
+	 * 				The finger table row
+	 * @return	id - 2^(row-1) mod 2^m
+	 */
+	private static int getUpdateTarget(int id, int row){
+		int target = id - (int) Math.pow(2, row - 1);
+		// Make target positive
+		if (target < 0)
+			target = target	+ Clicap.getCapacity();
+		return target;
+	}
+	
+	/**
+	 * Creates a copy of the given updating notification for the given rows.
+	 * 
+	 * @param notification
+	 * 				The notification to be copied
+	 * @param type
+	 * 				The type of the copy
+	 * @param rows
+	 * 				The finger table rows to be updated by the copy
+	 * @return	the copy of the notification
+	 */
+	private static IcapJoiningNotification copy(IcapJoiningNotification notification,
+			Notification type, List<Integer> rows){
+		IcapJoiningNotification notif = new IcapJoiningNotification(type);
+		notif.setSource(notification.getSource());
+		notif.setSuccessor(notification.getSuccessor());
+		notif.setNewNode(notification.getNewNode());
+		notif.setRows(rows);
+		notif.setSessionID(notification.getSessionID());
+		return notif;
+	}
 
 	/**
 	 * Called in the major node in order to correct the collected finger table for the
 	 * joining node
 	 * 
+	 * @param session
+	 * 				The joining session
 	 * @author Hoang-Duong Nguyen
 	 */
-	private static void correctFT(){
+	private static void correctFT(JoiningSession session){
+		
+		ArrayList<Node> fingerTable = session.fingerTable;
+		Node joiningNode = session.joiningNode;
 	  
 		// Traverse backwards the extended finger table and check for invalid entry
 		for (int i = fingerTable.size()-1; i >= 0; i--){
@@ -878,40 +1111,24 @@ public class JoiningProtocol {
 	
 	/**
 	 * Assumes that all needed information is available.
-	 * Returns a list containing all parameters that have been passed to the
-	 * java command in order to start the new node. Expects the variables
-	 * cmd to contain all parameters independent of the concrete node e.g.,
-	 * the path to the jar file.
-	 * 
-	 * @param newNode
-	 * 				The node object that represents the joining node
-	 * @param nnPred
-	 * 				The node object that represents the predecessor of the joining node
-	 * @param nnSuc
-	 * 				The node object that represents the successor of the joining node
+	 * Returns a list containing all configuration arguments for the new node, in the
+	 * order expected by {@link Clicap#main(String[])}.
+	 * 
+	 * @param session
+	 * 				The joining session that holds the joining node, its predecessor,
+	 * 				its successor and its finger table
 	 * @return
-	 * 		a list of arguments for the instantiating command
+	 * 		a list of configuration arguments for the new node
 	 * 
 	 * @author Tobias Reinhard
 	 */
-	protected static List<String> getNewNodeLaunchingCommand(
-			Node newNode, Node nnPred, Node nnSuc) {
+	protected static List<String> getNewNodeArguments(JoiningSession session) {
 		
-		LinkedList<String> cmd = new LinkedList<String>();
-
-		// absolute path to the CliCap jar file
-		String clicapJarPath = Clicap.class.getProtectionDomain().getCodeSource()
-				.getLocation().getFile();
-
-		cmd.add(Clicap.JAVA_EXECUTABLE_PATH);
-
-		cmd.add("-server");
-		cmd.add("-Xms256m");
-		cmd.add("-Xmx256m");
-		cmd.add("-Djava.awt.headless=true");
-		cmd.add("-Djava.net.preferIPv4Stack=true");
-		cmd.add("-jar");
-		cmd.add(clicapJarPath);
+		Node newNode = session.joiningNode;
+		Node nnPred = session.joiningPred;
+		Node nnSuc = session.joiningSuc;
+		
+		ArrayList<String> cmd = new ArrayList<String>();
 
 		cmd.add("0"); // is central node
 		cmd.add("1"); // is ready
@@ -939,7 +1156,7 @@ public class JoiningProtocol {
 
 		int ftSize = Clicap.getBitLength();
 		for (int i = 0; i < ftSize; i++) {
-			Node ftEntry = fingerTable.get(i);
+			Node ftEntry = session.fingerTable.get(i);
 
 			cmd.add(Integer.toString(ftEntry.id));
 			cmd.add(ftEntry.domain);
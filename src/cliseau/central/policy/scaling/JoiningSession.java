@@ -0,0 +1,79 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy.scaling;
+
+import java.util.ArrayList;
+
+/**
+ * State of one joining session kept by the major node. Every node that joins the 
+ * network is handled by its own session, such that several nodes are able to join
+ * concurrently. All notifications of a session carry its ID.
+ */
+public class JoiningSession {
+
+	/**
+	 * The ID of this session
+	 */
+	final int id;
+	
+	/**
+	 * Information about the new node to be added
+	 */
+	Node joiningNode;
+	
+	/**
+	 * The to be generated finger table for the new node. An entry is null as long as 
+	 * it is not resolved.
+	 */
+	final ArrayList<Node> fingerTable = new ArrayList<Node>();
+	
+	/**
+	 * The number of finger table entries of the new node that are not yet resolved
+	 */
+	int entryNumber;
+	
+	/**
+	 * The predecessor of the joining node, known after its successor has replied
+	 */
+	Node joiningPred;
+	
+	/**
+	 * The successor of the joining node, known after it has replied
+	 */
+	Node joiningSuc;
+	
+	/**
+	 * Set to true if no standby node was ready when the joining node had to be 
+	 * instantiated and the session waits for the readiness signal of the standby node 
+	 * launched for it.
+	 */
+	boolean awaitingStandby = false;
+	
+	/**
+	 * Constructs a new session for the given joining node.
+	 * @param id			The ID of the session
+	 * @param joiningNode	The node to be added
+	 */
+	JoiningSession(int id, Node joiningNode) {
+		this.id = id;
+		this.joiningNode = joiningNode;
+	}
+}
@@ -20,17 +20,22 @@
 package cliseau.central.policy.scaling;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import cliseau.Clicap;
-import cliseau.central.IcapEnforcementDecision;
-import cliseau.central.delegation.IcapDelegationResp;
 import cliseau.central.delegation.IcapLeavingNotification;
 import cliseau.central.delegation.Notification;
 import cliseau.central.policy.IcapPolicy;
 import cliseau.javacor.DelegationLocPolDirectReturn;
+import cliseau.javacor.DelegationLocPolDummyReturn;
+import cliseau.javacor.DelegationLocPolMultiReturn;
 import cliseau.javacor.DelegationLocPolReturn;
 import cliseau.javacor.LocalPolicy;
 import cliseau.javacor.LocalPolicyResponse;
@@ -62,11 +67,11 @@ public class LeavingProtocol {
 	protected static IcapPolicy policy;
 	
 	/**
-	 * Finger table row number to be updated. This attribute is used only by the leaving 
-	 * node in order to itemize the updating process of every finger table that contains
-	 * the identifier of this node.
+	 * Number of finger table rows whose updating branch has not yet terminated. This 
+	 * attribute is used only by the leaving node in order to detect when every finger 
+	 * table that contains the identifier of this node is updated.
 	 */
-	public static int rowNumber;
+	public static int pendingRows;
 	
 	/**
 	 * The temporal predecessor of this node, used by the successor of the leaving node.
@@ -76,19 +81,19 @@ public class LeavingProtocol {
 	 * while the routing algorithm still works as the leaving node is still there (until
 	 * it is indeed terminated).
 	 */
-	public static int tmpPred;
+	public static volatile int tmpPred;
 	
 	/**
 	 * The host of the temporal predecessor. This attribute is used by the successor of 
 	 * the leaving node.
 	 */
-	public static String tmpPredDomain;
+	public static volatile String tmpPredDomain;
 	
 	/**
 	 * The port of the temporal predecessor. This attribute is used by the successor of 
 	 * the leaving node.
 	 */
-	public static int tmpPredPort;
+	public static volatile int tmpPredPort;
 
 	/**
 	 * The host of the central unit. This attribute is used by the leaving node in order
@@ -105,12 +110,24 @@ public class LeavingProtocol {
 	/**
 	 * This attribute is used to state the fact if this node is being moved.
 	 */
-	private static boolean beingMoved = false;
+	private static volatile boolean beingMoved = false;
 
 	/**
-	 * Used by the major node to state if the leaving protocol is processing
+	 * Used by the central node to store the running leaving sessions. Maps the session
+	 * ID to the ID of the leaving node.
 	 */
-	public static boolean isLeaving = false;
+	private static HashMap<Integer, Integer> sessions = new HashMap<Integer, Integer>();
+	
+	/**
+	 * Used by the central node to store the leaving sessions that have to wait until 
+	 * another leaving session in the same region is finished
+	 */
+	private static LinkedList<Integer> deferredSessions = new LinkedList<Integer>();
+	
+	/**
+	 * Used by the leaving node to maintain the ID of the session it leaves in
+	 */
+	private static int sessionID;
 
 	/**
 	 * Initialize the leaving protocol. By default there is no finger table row to be 
@@ -119,7 +136,7 @@ public class LeavingProtocol {
 	 */
 	public static void init(LocalPolicy pol) {
 		policy = (IcapPolicy) pol;
-		rowNumber = -1;
+		pendingRows = 0;
 		tmpPred = -1;
 	}
 
@@ -141,13 +158,33 @@ public class LeavingProtocol {
 	 */
 	public static LocalPolicyResponse startQuery(int id) {
 
+		// Reject a second leaving request for the same node
+		if (sessions.containsValue(id)) {
+			System.out.println("\n» ERROR: Node " + id + " is already leaving! \n");
+			return ScalingBatch.finishSession(false);
+		}
+		
 		// The leaving process begins
-		LeavingProtocol.isLeaving = true;
-
+		int session = ScalingBatch.nextSessionID();
+		sessions.put(session, id);
+		return query(session, id);
+	}
+	
+	/**
+	 * Creates the query request for the leaving node of the given session.
+	 * 
+	 * @param session	The ID of the leaving session
+	 * @param id		The identifier of the leaving node
+	 * @return	  The local policy return that carries the id of the next node on the 
+	 * 			  routing path and the notification for querying
+	 */
+	private static LocalPolicyResponse query(int session, int id) {
+		
 		// Create query request
 		IcapLeavingNotification notif = 
 				new IcapLeavingNotification(Notification.LEAVE_STEP_2B_QUERY_REQ);
 		setSrcInfo(notif);
+		notif.setSessionID(session);
 		notif.setLeavingNodeID(Integer.toString(id));
 
 		String nextUnit = Integer.toString(Clicap.fTable.lookUp(id));
@@ -189,7 +226,9 @@ public class LeavingProtocol {
 	 * STEP 3
 	 * Finally the query routing process has reached the node that is responsible for the
 	 * key carried by the leaving request which means it should be removed. This leaving
-	 * node will now trigger the next step by notifying its successor. <br><br>
+	 * node will now trigger the next step by notifying its successor. If this node is
+	 * currently involved in another leaving process, it cannot leave now and asks the 
+	 * central node to retry later. <br><br>
 	 * 
 	 * Occurred in  : The leaving node  <br>
 	 * Triggered by : query(IcapLeavingNotification)
@@ -202,6 +241,15 @@ public class LeavingProtocol {
 	private static LocalPolicyResponse notifySuccessor(
 			IcapLeavingNotification notification){
 	
+		// Save the Host and Port of the central node in order to contact it at the end
+		centralDomain = notification.getSourceDomain();
+		centralPort = notification.getSourcePort();
+		sessionID = notification.getSessionID();
+		
+		if (tmpPred != -1 || beingMoved)
+			// Another leaving process involves this node
+			return retry();
+		
 		// Set state flag
 		beingMoved = true;
 
@@ -214,11 +262,7 @@ public class LeavingProtocol {
 		// Also send information of the predecessor of the leaving node
 		setPreInfo(notif);
 		
-		// Save the Host and Port of the central node in order to contact it at the end
-		centralDomain = notification.getSourceDomain();
-	
-		centralPort = notification.getSourcePort();
-			return new DelegationLocPolDirectReturn(Clicap.getSucDomain(),
+		return new DelegationLocPolDirectReturn(Clicap.getSucDomain(),
 				Clicap.getSucPort(), notif);
 	}	
 
@@ -228,7 +272,9 @@ public class LeavingProtocol {
 	 * After receiving notification about the leaving process from its predecessor, the 
 	 * successor of the leaving node consider the predecessor of the leaving node as its 
 	 * temporal predecessor and update the valid token set by the set carried by the
-	 * notification message.<br><br>
+	 * notification message. If this node is itself leaving or already the successor of
+	 * another leaving node, it refuses the data and tells the leaving node to retry
+	 * later.<br><br>
 	 * 
 	 * Occurred in  : The Successor of the leaving node<br>
 	 * Triggered by : LEAVE_STEP_3_SEND_DATA_TO_SUC<br><br>
@@ -241,6 +287,12 @@ public class LeavingProtocol {
 	public static LocalPolicyResponse notifyLeavingNode(
 			IcapLeavingNotification notification) {
 
+		if (tmpPred != -1 || beingMoved)
+			// Another leaving process involves this node
+			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
+					Clicap.getPredPort(), new IcapLeavingNotification(
+							Notification.LEAVE_STEP_4_SUC_BUSY));
+		
 		IcapLeavingNotification notif = new IcapLeavingNotification(
 				Notification.LEAVE_STEP_4_SUC_RESP);
 		// Update data
@@ -256,6 +308,67 @@ public class LeavingProtocol {
 	}
 
 	
+	/**
+	 * STEP 4 (busy) <br>
+	 * The successor of the leaving node is involved in another leaving process. The
+	 * leaving node stays in the network and asks the central node to retry later.
+	 * <br><br>
+	 * 
+	 * Occurred in  : The leaving node<br>
+	 * Triggered by : LEAVE_STEP_4_SUC_BUSY<br><br>
+	 * 
+	 * @param notification 
+	 * 				The notification sent from the successor
+	 * @return		The local policy direct return to the central node
+	 */
+	public static LocalPolicyResponse sucBusy(IcapLeavingNotification notification) {
+		beingMoved = false;
+		return retry();
+	}
+	
+	/**
+	 * Returns the notification to the central node that the leaving node cannot leave
+	 * now.
+	 * 
+	 * @return		The local policy direct return to the central node
+	 */
+	private static LocalPolicyResponse retry() {
+		IcapLeavingNotification notif = new IcapLeavingNotification(
+				Notification.LEAVE_STEP_3_RETRY);
+		setSrcInfo(notif);
+		notif.setSessionID(sessionID);
+		return new DelegationLocPolDirectReturn(centralDomain, centralPort, notif);
+	}
+	
+	/**
+	 * The leaving node of the given session cannot leave now, since a neighboring node 
+	 * is involved in another leaving process. The session is deferred until another 
+	 * session is finished. If no other session is running, the query is retried 
+	 * immediately.<br><br>
+	 * 
+	 * Occurred in  : The central node<br>
+	 * Triggered by : LEAVE_STEP_3_RETRY<br><br>
+	 * 
+	 * @param notification 
+	 * 				The notification sent from the leaving node
+	 * @return		The local policy return that carries the repeated query, or a dummy
+	 * 				return if the session is deferred
+	 */
+	public static LocalPolicyResponse deferSession(
+			IcapLeavingNotification notification) {
+		
+		int session = notification.getSessionID();
+		if (!sessions.containsKey(session))
+			return new DelegationLocPolDummyReturn();
+		
+		if (sessions.size() - deferredSessions.size() <= 1)
+			// No other session is running that would restart this one
+			return query(session, sessions.get(session));
+		
+		deferredSessions.add(session);
+		return new DelegationLocPolDummyReturn();
+	}
+
 	// <--------------------------------------------------------------------------------->
 	// 				UPDATE ALL FINGER TABLES THAT CONTAIN THE LEAVING NODE
 	// <--------------------------------------------------------------------------------->
@@ -263,174 +376,185 @@ public class LeavingProtocol {
 
 	/**
 	 * Starting STEP 5  <br>
-	 * The new node has just received confirmation from its predecessor or a notification
-	 * that an updating branch has just terminated. It now starts/continues updating 
-	 * the finger tables that contains its identifier. This method triggers
-	 * the process by generating the first request message for updating.<br>
+	 * The leaving node has just received the response of its successor. It now starts 
+	 * updating the finger tables that contain its identifier. The updating branches of 
+	 * all rows are started at once, rows whose targets are routed the same way are sent
+	 * in one combined message. The number of rows whose branch has not yet terminated 
+	 * is counted in order to detect the end of the updating process.<br>
 	 * <br>
 	 * Occurred in  : The leaving node <br>
-	 * Triggered by : LEAVE_STEP_4_SUC_RESP notification or 
-	 * 									receiveUpdateConfirmation()<br>
+	 * Triggered by : LEAVE_STEP_4_SUC_RESP notification<br>
 	 * <br>
 	 *
-	 * @return		The local policy return that carries the finger table row number to
-	 * 				be updated
+	 * @return		The local policy return that carries the finger table rows to be 
+	 * 				updated
 	 */
 	public static LocalPolicyResponse triggerUpdating() {
 		
-		// Create query request
+		// The successor owns the tokens now
+		policy.discardTokenLog();
+
+		// Create query request for all rows
 		IcapLeavingNotification notif = new IcapLeavingNotification(
 				Notification.LEAVE_STEP_5A_PRED_QUERY);
 
 		// Pack all the needed information required by the Finger Table updating process
 		setSrcInfo(notif);
 		setSucInfo(notif);	
-		notif.setRowNumber(rowNumber);
-
-		// Compute target = N - 2^(i-1) = ID - 1
-		int target = Clicap.getIDnum() - (int) Math.pow(2, rowNumber - 1);
 		
-	
-		// Make target positive
-		if (target < 0)
-			target = target	+ Clicap.getCapacity();
-	
-		notif.setTarget(target);
+		List<Integer> rows = new ArrayList<Integer>();
+		for (int row = 1; row <= Clicap.getBitLength(); row++)
+			rows.add(row);
+		notif.setRows(rows);
+		notif.setSessionID(sessionID);
+		pendingRows = rows.size();
 		
-		// Determine the next destination
-		String nextUnit;
-		if(policy.isResponsible(target)){
-			// Trigger STEP 5B
-			// The leaving node is already responsible for the target
-			// Note: target != ID of leaving node
-			// Leaving node's predecessor is the right one!
-			notif.setType(Notification.LEAVE_STEP_5B_PRED_FOUND);
-			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),	
-					Clicap.getPredPort(), notif);
-		}
-		else
-			// Look up the next unit on the routing path
-			nextUnit = Integer.toString(Clicap.fTable.lookUp(target));
-		
-		// Send query notification to the next unit
-		return new DelegationLocPolReturn(nextUnit, notif);		
+		// Note: no target equals the ID of the leaving node
+		return checkPredecessor(notif);
 	}
 
 	/**
 	 * STEP 5A and 5B <br>
-	 * Successively search for the predecessor of the given target. This method handles
-	 * messages sent to the nodes on the routing path from the leaving node to the 
-	 * successor of the last node whose finger table possibly contains joining node'ID at
-	 * the given row. <br> <br>
+	 * Successively search for the predecessor of the targets of the given rows, where 
+	 * the target of row i is N - 2^(i-1) and N is the ID of the leaving node. This 
+	 * method handles messages sent to the nodes on the routing paths from the leaving 
+	 * node to the successors of the last nodes whose finger tables possibly contain 
+	 * leaving node'ID at the given rows. The rows are split according to their next 
+	 * destination, rows with the same destination stay in one message. <br> <br>
 	 * 
 	 * Occurred in  : Nodes whose finger tables possibly contain the leaving node's ID<br>
-	 * Triggered by : JOIN_STEP_5A_PRED_QUERY notification<br>
+	 * Triggered by : LEAVE_STEP_5A_PRED_QUERY notification<br>
 	 * <br>
 	 * @param notification 
 	 * 				The notification sent from the successor to trigger the updating 
 	 * 				process
-	 * @return		The local policy return that carries the finger table row number to
-	 * 				be updated
-	 * @return		
+	 * @return		The local policy return that carries the finger table rows to be 
+	 * 				updated
 	 */
 	public static LocalPolicyResponse checkPredecessor(
 			IcapLeavingNotification notification) {
 		
-		if(!policy.isResponsible(notification.getTarget())){
-			// Continue STEP 5A
-			// This node is not yet the requested one
-			// => forward the notification to the next node
-			
-			// Find out the next destination 
-			int nextUnit = Clicap.fTable.lookUp(notification.getTarget());
-			
-			// Forward the notification	
-			return new DelegationLocPolReturn(Integer.toString(nextUnit), notification);
-		}
-		else{			
-			// STEP 5B
-			// This node is the direct successor of the leaving node
+		HashMap<Integer, List<Integer>> forwardRows = 
+				new HashMap<Integer, List<Integer>>();
+		List<Integer> predRows = new ArrayList<Integer>();
+		List<Integer> localRows = new ArrayList<Integer>();
+		
+		for (int row : notification.getRows()) {
+			int target = getUpdateTarget(
+					Integer.parseInt(notification.getSourceID()), row);
 			
-			if(notification.getTarget() == Clicap.getIDnum()){
-				// and it is equal to the target
-				// => also the predecessor of the target
-				// => STEP 5C
-				return updateCounterClockwise(notification);				
+			if(!policy.isResponsible(target)){
+				// Continue STEP 5A
+				// This node is not yet the requested one
+				// => forward the row to the next node
+				int nextUnit = Clicap.fTable.lookUp(target);
+				if (!forwardRows.containsKey(nextUnit))
+					forwardRows.put(nextUnit, new ArrayList<Integer>());
+				forwardRows.get(nextUnit).add(row);
 			}
-				
-			// Otherwise forward the query to the predecessor directly
-			// Adapt the type of the notification accordingly
-			notification.setType(Notification.LEAVE_STEP_5B_PRED_FOUND);
-				
-			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
-				Clicap.getPredPort(), notification);							
-		}	
+			else if(target == Clicap.getIDnum())
+				// STEP 5B
+				// This node is the direct successor of the target and it is equal to 
+				// the target => also the predecessor of the target
+				// => STEP 5C
+				localRows.add(row);
+			else
+				// STEP 5B
+				// Otherwise forward the query to the predecessor directly
+				predRows.add(row);
+		}
+		
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		for (Map.Entry<Integer, List<Integer>> e : forwardRows.entrySet()) 
+			resp.add(new DelegationLocPolReturn(Integer.toString(e.getKey()), 
+					copy(notification, Notification.LEAVE_STEP_5A_PRED_QUERY, 
+							e.getValue())));
+		if (!predRows.isEmpty())
+			resp.add(new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
+					Clicap.getPredPort(), 
+					copy(notification, Notification.LEAVE_STEP_5B_PRED_FOUND, 
+							predRows)));
+		if (!localRows.isEmpty())
+			resp.add(updateCounterClockwise(copy(notification, 
+					Notification.LEAVE_STEP_5C_UPDATE_FT, localRows)));
+		return resp;
 	}
 
 	/**
 	 * STEP 5C and 5D <br>
-	 * This node could possibly update his finger table according to the given target. 
-	 * After successful updating he will forward the updating request to his predecessor.
-	 * Otherwise he notifies the leaving node that this updating branch is finished <br>
+	 * This node could possibly update his finger table at the given rows. The rows at 
+	 * which the finger table was updated are forwarded to his predecessor in one 
+	 * message. For the remaining rows he notifies the leaving node that these updating
+	 * branches are finished <br>
 	 * <br>
 	 * Occurred in  : The direct or "further" predecessor of a particular target 	<br>
 	 * Triggered by : LEAVE_STEP_5B_PRED_FOUND  or  LEAVE_STEP_5C_UPDATE_FT	<br>
 	 * <br>
 	 * @param notification 
 	 * 				The notification sent from the previous node on the routing path
-	 * @return		The local policy direct return that carries the host and port of the
-	 * 				predecessor of this node and the finger table row number to be updated 
+	 * @return		The local policy direct returns that carry the rows to be updated 
+	 * 				by the predecessor of this node and the terminated rows
 	 */
 	public static LocalPolicyResponse updateCounterClockwise(
 			IcapLeavingNotification notification) {
 
-		if (updateFingerTable(notification)) {
-			// continue STEP 5C
+		List<Integer> updatedRows = new ArrayList<Integer>();
+		List<Integer> terminatedRows = new ArrayList<Integer>();
+		for (int row : notification.getRows()) {
+			if (updateFingerTable(notification, row))
+				// continue STEP 5C
+				updatedRows.add(row);
+			else
+				// STEP 5D
+				// No need to update finger table
+				// => This branch is finished at this node
+				terminatedRows.add(row);
+		}
+		
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		if (!updatedRows.isEmpty())
 			// Updated finger table successfully
 			// => forward to its predecessor
-			notification.setType(Notification.LEAVE_STEP_5C_UPDATE_FT); 
-			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
-					Clicap.getPredPort(), notification);
-		} else {
-			// STEP 5D
-			// No need to update finger table
-			// => This branch is finished at this node
-			// => direct reply to source node (leaving node)
-			
-			// Adapt the type of notification accordingly
-			notification.setType(Notification.LEAVE_STEP_5D_BRANCH_TERMINATED);
-
-			// Tell the leaving node that this updating "branch" has terminated
-			return new DelegationLocPolDirectReturn(notification.getSourceDomain(),
-					notification.getSourcePort(), notification);
-		}
+			resp.add(new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
+					Clicap.getPredPort(), copy(notification, 
+							Notification.LEAVE_STEP_5C_UPDATE_FT, updatedRows)));
+		if (!terminatedRows.isEmpty())
+			// Tell the leaving node that these updating "branches" have terminated
+			resp.add(new DelegationLocPolDirectReturn(notification.getSourceDomain(),
+					notification.getSourcePort(), copy(notification, 
+							Notification.LEAVE_STEP_5D_BRANCH_TERMINATED, 
+							terminatedRows)));
+		return resp;
 	}
 
 	/**
 	 * Continue STEP 5 and STEP 6  <br> 
-	 * A updating "branch" has just been finished and the last node on the branch sends 
-	 * this reply back to the leaving node. This leaving node has to decide whether or
-	 * not to send further updating request. If not, it must trigger the next step by 
-	 * notifying the predecessor<br><br>
+	 * Updating "branches" have just been finished and the last node on the branches 
+	 * sends this reply back to the leaving node. If the branches of all rows are 
+	 * finished, the leaving node triggers the next step by notifying the predecessor
+	 * <br><br>
 	 * 
-	 * Occurred in  : The joining node <br>
-	 * Triggered by : JOIN_STEP_10D_BRANCH_TERMINATED notification <br>
+	 * Occurred in  : The leaving node <br>
+	 * Triggered by : LEAVE_STEP_5D_BRANCH_TERMINATED notification <br>
 	 * 
-	 * @return	The local policy return that signal the major node if finished
+	 * @param notification 
+	 * 				The notification that carries the terminated rows
+	 * @return	The local policy return that notifies the predecessor if finished
 	 */
-	public static LocalPolicyResponse receiveUpdateConfirmation() {
+	public static LocalPolicyResponse receiveUpdateConfirmation(
+			IcapLeavingNotification notification) {
 
-		if (rowNumber < Clicap.getBitLength()) {
-			// Continue STEP 10
-			// There are still further row(s) to be updated
-			rowNumber++;
-			// Create query request
-			return triggerUpdating();
+		pendingRows -= notification.getRows().size();
+		if (pendingRows > 0) {
+			// Continue STEP 5
+			// There are still further row(s) being updated
+			return new DelegationLocPolDummyReturn();
 		} 
 		else {
 			// STEP 6 - All rows are updated
 			// => Notify the predecessor
 			// => Trigger STEP 7
+			pendingRows = 0;
 			IcapLeavingNotification notif = new IcapLeavingNotification(
 					Notification.LEAVE_STEP_6_NOTIFY_PRED);
 
@@ -438,6 +562,7 @@ public class LeavingProtocol {
 			// the notification
 			setSrcInfo(notif);
 			setSucInfo(notif);
+			notif.setSessionID(sessionID);
 
 			// Notify the predecessor
 			return new DelegationLocPolDirectReturn(Clicap.getPredDomain(),
@@ -471,9 +596,9 @@ public class LeavingProtocol {
 
 		// Update Successor Pointer
 
-		Clicap.config.put(Clicap.SUCCESSOR, notification.getSucID());
-		Clicap.config.put(Clicap.SUC_DOMAIN, notification.getSucDomain());
-		Clicap.config.put(Clicap.SUC_PORT, Integer.toString(notification.getSucPort()));
+		Clicap.setSuccessor(Integer.parseInt(notification.getSucID()),
+				notification.getSucDomain(), notification.getSucPort(),
+				notification.getSessionID());
 		
 		// Also update addressing
 		Clicap.addressing.setAddress(Clicap.getSucID(), 
@@ -504,6 +629,7 @@ public class LeavingProtocol {
 
 		// Pack needed information to communicate with this leaving node
 		setSrcInfo(notif);
+		notif.setSessionID(sessionID);
 
 		// Say good bye to the successor
 		return new DelegationLocPolDirectReturn(Clicap.getSucDomain(),
@@ -528,9 +654,8 @@ public class LeavingProtocol {
 			IcapLeavingNotification notification) {
 
 		// Update predecessor
-		Clicap.config.put(Clicap.PREDECESSOR, Integer.toString(tmpPred));
-		Clicap.config.put(Clicap.PRE_DOMAIN, tmpPredDomain);
-		Clicap.config.put(Clicap.PRE_PORT, Integer.toString(tmpPredPort));
+		Clicap.setPredecessor(tmpPred, tmpPredDomain, tmpPredPort,
+				notification.getSessionID());
 		
 		// Also update addressing (though this might be unnecessary)
 		Clicap.addressing.setAddress(Clicap.getPredID(), 
@@ -578,6 +703,7 @@ public class LeavingProtocol {
 
 		// Pack information about this leaving node into the notification
 		setSrcInfo(notif);
+		notif.setSessionID(sessionID);
 
 		// Notify the central node that every node is ready
 		return new DelegationLocPolDirectReturn(centralDomain, centralPort, notif);
@@ -588,7 +714,8 @@ public class LeavingProtocol {
 	 * The central node receives the confirmation of the leaving node that it is ready
 	 * to leave, which means all other nodes are also ready for the leaving of that node.
 	 * The central node will then send a command to the leaving node to confirm that
-	 * it can leave and after that the central node will accept further scaling request.
+	 * it can leave, closes the session and returns a decision to the local policy if 
+	 * the whole scaling batch is finished. Deferred sessions are restarted.
 	 * <br><br>
 	 * 
 	 * Occurred in  : Central node  <br>
@@ -600,36 +727,35 @@ public class LeavingProtocol {
 	 */
 	public static LocalPolicyResponse killNode(IcapLeavingNotification notification) {
 
-		// The leaving process terminates
-		// For testing purpose
-		// Execute after a delay
-		final ScheduledExecutorService setIsLeaving = Executors.newScheduledThreadPool(1);
-		setIsLeaving.schedule(new Runnable() {
-			@Override
-			public void run() {
-				LeavingProtocol.isLeaving = false;
-			}
-		}, DELAY, TimeUnit.MILLISECONDS);
-
-		return new DelegationLocPolDirectReturn(notification.getSourceDomain(),
+		DelegationLocPolMultiReturn resp = new DelegationLocPolMultiReturn();
+		resp.add(new DelegationLocPolDirectReturn(notification.getSourceDomain(),
 				notification.getSourcePort(), new IcapLeavingNotification(
-						Notification.LEAVE_STEP_11_KILL));
+						Notification.LEAVE_STEP_11_KILL)));
+		
+		// The leaving session terminates
+		if (sessions.remove(notification.getSessionID()) != null)
+			resp.add(ScalingBatch.finishSession(true));
+		
+		// Restart the deferred sessions
+		while (!deferredSessions.isEmpty()) {
+			int session = deferredSessions.poll();
+			resp.add(query(session, sessions.get(session)));
+		}
+		return resp;
 	}
 
 	/**
 	 * STEP 12  <br>
 	 * The leaving node receives the confirmation of the central node that it can now
-	 * leave. It will set up a "leaving schedule" to terminate after a short delay. This
-	 * allows the leaving node still be able to send back a decision for the leaving 
-	 * request back to the major node.<br><br>
+	 * leave. It will set up a "leaving schedule" to terminate after a short delay. The
+	 * decision for the leaving request is returned by the central node itself.<br><br>
 	 * 
 	 * Occurred in : The leaving node  <br>
 	 * Triggered by : LEAVE_STEP_11_KILL notification <br>
 	 * 
 	 * @param notification 
 	 * 				The notification sent from the central node
-	 * @return		The local policy direct return to the central node that carries the 
-	 * 				decision for the leaving request
+	 * @return		a dummy return
 	 */
 	public static LocalPolicyResponse leave(IcapLeavingNotification notification) {
 
@@ -648,13 +774,7 @@ public class LeavingProtocol {
 			}
 		}, DELAY + 1000, TimeUnit.MILLISECONDS);
 
-		IcapEnforcementDecision ed = new IcapEnforcementDecision(
-				IcapEnforcementDecision.Decision.PERMIT,
-				IcapEnforcementDecision.Type.SCALE);
-
-		// Return a decision to the central node
-		return new DelegationLocPolDirectReturn(centralDomain, centralPort,
-				new IcapDelegationResp(ed));
+		return new DelegationLocPolDummyReturn();
 	}
 
 	// <--------------------------------------------------------------------------------->
@@ -669,16 +789,19 @@ public class LeavingProtocol {
 	 * 
 	 * @param notification 
 	 * 				The notification sent from the previous node on the routing path
+	 * @param row
+	 * 				The finger table row to be checked
 	 * @return		true if finger table is updated, otherwise false
 	 */
-	private static boolean updateFingerTable(IcapLeavingNotification notification) {
+	private static boolean updateFingerTable(IcapLeavingNotification notification,
+			int row) {
 
-		if (Clicap.fTable.getNode(notification.getRowNumber()) == Integer
+		if (Clicap.fTable.getNode(row) == Integer
 				.parseInt(notification.getSourceID())) {
 			// The leaving node is at the i-th row of the finger table
 			// Update finger table and return true
-			Clicap.fTable.setNode(notification.getRowNumber(),
-					Integer.parseInt(notification.getSucID()));
+			Clicap.setFinger(row, Integer.parseInt(notification.getSucID()),
+					notification.getSessionID());
 			// Also update addressing
 			Clicap.addressing.setAddress(notification.getSucID(), 
 					new InetSocketAddress(notification.getSucDomain(), 
@@ -689,6 +812,50 @@ public class LeavingProtocol {
 			return false;
 	}
 	
+	/**
+	 * Returns the target of the given finger table row of the updating process, i.e.,
+	 * the ID of the last node whose finger table possibly contains the given node at
+	 * the given row.
+	 * 
+	 * @param id
+	 * 				The ID of the leaving node
+	 * @param row
+	 * 				The finger table row
+	 * @return	id - 2^(row-1) mod 2^m
+	 */
+	private static int getUpdateTarget(int id, int row){
+		int target = id - (int) Math.pow(2, row - 1);
+		// Make target positive
+		if (target < 0)
+			target = target	+ Clicap.getCapacity();
+		return target;
+	}
+	
+	/**
+	 * Creates a copy of the given updating notification for the given rows.
+	 * 
+	 * @param notification
+	 * 				The notification to be copied
+	 * @param type
+	 * 				The type of the copy
+	 * @param rows
+	 * 				The finger table rows to be updated by the copy
+	 * @return	the copy of the notification
+	 */
+	private static IcapLeavingNotification copy(IcapLeavingNotification notification,
+			Notification type, List<Integer> rows){
+		IcapLeavingNotification notif = new IcapLeavingNotification(type);
+		notif.setSourceID(notification.getSourceID());
+		notif.setSourceDomain(notification.getSourceDomain());
+		notif.setSourcePort(notification.getSourcePort());
+		notif.setSucID(notification.getSucID());
+		notif.setSucDomain(notification.getSucDomain());
+		notif.setSucPort(notification.getSucPort());
+		notif.setRows(rows);
+		notif.setSessionID(notification.getSessionID());
+		return notif;
+	}
+	
 	/**
 	 * Pack information of the predecessor of this node into the given leaving 
 	 * notification. The information to be packed are the ID, host and port of the 
@@ -1,18 +1,33 @@
 package cliseau.central.policy.scaling;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 
 import cliseau.Clicap;
-import cliseau.central.delegation.IcapLocalNotification;
-import cliseau.javatarget.CoordinatorInterface;
+import cliseau.central.Topology;
+import cliseau.javacor.FailureDetector;
 import static java.util.concurrent.TimeUnit.*;
 
 /**
  * This class maintains a scheduled service for the stabilization which
- * periodically checks for possible update of the successor pointer.
+ * periodically checks whether the successor is still alive. <br>
+ * The period adapts to the state of the ring: right after the topology of this node
+ * has changed it is reset to the minimal period and it is doubled after every quiet
+ * check up to the maximal period. Every check monitors the successor list and feeds
+ * the failure detector of the addressing with one heartbeat per successor. No probe
+ * is sent if delegation traffic to a successor within the current period has already
+ * shown that it is alive. A probe is a bare connection to the remote port of the 
+ * successor, it does not pass through the local coordinator. <br>
+ * The periods are configured by the following parameters of the properties file:
+ * <ul>
+ * <li>stabilization.minperiod : minimal period in milliseconds (default 500)</li>
+ * <li>stabilization.maxperiod : maximal period in milliseconds (default 30000)</li>
+ * <li>successorlist.size : number of successors to be monitored (default 3)</li>
+ * </ul>
  * 
  * @author Hoang-Duong Nguyen
  * 
@@ -20,18 +35,50 @@ import static java.util.concurrent.TimeUnit.*;
 public class PeriodicalChecker {
 
 	/**
-	 * Delay between two checks
+	 * Minimal delay between two checks in milliseconds
 	 */
-	private static final int STABILIZATION_PERIOD = 2;// + Clicap.getIDnum() ;
+	private static int minPeriod;
+
+	/**
+	 * Maximal delay between two checks in milliseconds
+	 */
+	private static int maxPeriod;
+
+	/**
+	 * The current delay between two checks in milliseconds
+	 */
+	private static int period;
+
+	/**
+	 * The topology seen by the last check
+	 */
+	private static Topology lastTopology;
+
+	/**
+	 * The number of successors to be monitored
+	 */
+	private static int successorListSize;
+
+	/**
+	 * Whether the stabilization is running
+	 */
+	private static volatile boolean running;
 
 	/**
 	 * The thread used to invoke the periodical stabilization process.
 	 */
 	private static final ScheduledExecutorService stabilization = Executors
-			.newScheduledThreadPool(1);
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "stabilization");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 
 	/**
-	 * The handler for the periodical successor check.
+	 * The handler for the next successor check.
 	 */
 	private static ScheduledFuture<?> sucCheckerHandle;
 
@@ -42,31 +89,88 @@ public class PeriodicalChecker {
 
 		@Override
 		public void run() {
-			try {
+			Topology topology = Clicap.getTopology();
 
-				CoordinatorInterface
-						.sendLocalNotification(new IcapLocalNotification(
-								Clicap.fTable.getSuccessor()));
-			} catch (IOException e) {
-				e.printStackTrace();
+			if (lastTopology == null || topology.epoch != lastTopology.epoch
+					|| topology.sucID != lastTopology.sucID)
+				// The ring has changed => react quickly
+				period = minPeriod;
+			else
+				// The ring is quiet => back off
+				period = Math.min(2 * period, maxPeriod);
+			lastTopology = topology;
+
+			FailureDetector detector = Clicap.addressing.getFailureDetector();
+			for (int node : topology.getSuccessors(successorListSize)) {
+				String id = Integer.toString(node);
+				if (System.currentTimeMillis() - detector.getLastContact(id) < period) {
+					// Delegation traffic has already shown that the node is alive
+					detector.heartbeat(id);
+					continue;
+				}
+				try {
+					probe(id);
+					detector.heartbeat(id);
+				} catch (IllegalArgumentException e) {
+					// The address of the node is not known (yet)
+				} catch (IOException e) {
+					System.err.println("» Server " + topology.id + " :: Successor "
+							+ id + " did not respond to probe");
+					detector.failure(id);
+					period = minPeriod;
+				}
 			}
+
+			schedule();
 		}
 	};
 
 	/**
 	 * Start checking successor pointer periodically
 	 */
-	public static void startStabilization() {
-
-		sucCheckerHandle = stabilization.scheduleAtFixedRate(sucChecker,
-				STABILIZATION_PERIOD, STABILIZATION_PERIOD, SECONDS);
+	public static synchronized void startStabilization() {
+		minPeriod = Clicap.getIntProperty("stabilization.minperiod", 500);
+		maxPeriod = Math.max(minPeriod,
+				Clicap.getIntProperty("stabilization.maxperiod", 30000));
+		successorListSize = Clicap.getIntProperty("successorlist.size", 3);
+		period = minPeriod;
+		lastTopology = null;
+		running = true;
+		schedule();
 	}
 
 	/**
 	 * Stop checking successor pointer periodically
 	 */
-	public static void stopStabilization() {
-		sucCheckerHandle.cancel(true);
+	public static synchronized void stopStabilization() {
+		running = false;
+		if (sucCheckerHandle != null)
+			sucCheckerHandle.cancel(true);
+	}
 
+	/**
+	 * Schedule the next check after the current period
+	 */
+	private static synchronized void schedule() {
+		if (running)
+			sucCheckerHandle = stabilization.schedule(sucChecker, period, MILLISECONDS);
+	}
+
+	/**
+	 * Connect to the remote port of the given node and close the connection again
+	 * without sending anything. The coordinator of the node ignores such
+	 * connections.
+	 * 
+	 * @param id	the identifier of the node
+	 * @throws IOException if the node can not be reached
+	 * @throws IllegalArgumentException if the address of the node is unknown
+	 */
+	private static void probe(String id) throws IOException {
+		Socket connection = new Socket();
+		try {
+			connection.connect(Clicap.addressing.getAddress(id), Math.min(period, 1000));
+		} finally {
+			connection.close();
+		}
 	}
 }
@@ -0,0 +1,103 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy.scaling;
+
+import cliseau.Clicap;
+import cliseau.central.IcapEnforcementDecision;
+import cliseau.central.delegation.IcapDelegationResp;
+import cliseau.javacor.DelegationLocPolDirectReturn;
+import cliseau.javacor.DelegationLocPolDummyReturn;
+import cliseau.javacor.LocalPolicyResponse;
+
+/**
+ * This class keeps track of the scaling batch processed by the major node. A scaling 
+ * request may add or remove several nodes at once. Each of these nodes is handled by
+ * its own joining or leaving session and all sessions of the batch run concurrently. 
+ * A single scaling decision is returned when the last session of the batch has 
+ * finished, since the enforcer waits for exactly one decision per request.
+ */
+public class ScalingBatch {
+
+	/**
+	 * The number of sessions of the current batch that are not yet finished
+	 */
+	private static int pendingSessions = 0;
+	
+	/**
+	 * Set to true if any session of the current batch was rejected
+	 */
+	private static boolean rejected = false;
+	
+	/**
+	 * The ID of the next session to be started
+	 */
+	private static int nextSessionID = 1;
+	
+	/**
+	 * Checks if a batch is being processed.
+	 * @return true if there are unfinished sessions, otherwise false
+	 */
+	public static boolean isRunning() {
+		return pendingSessions > 0;
+	}
+	
+	/**
+	 * Start a new batch with the given number of sessions.
+	 * @param sessions	The number of sessions of the batch
+	 */
+	public static void start(int sessions) {
+		pendingSessions = sessions;
+		rejected = false;
+	}
+	
+	/**
+	 * Returns a fresh session ID.
+	 * @return the ID of the next session
+	 */
+	static int nextSessionID() {
+		return nextSessionID++;
+	}
+	
+	/**
+	 * Called when a session of the current batch has finished. If this was the last
+	 * session, the scaling decision for the whole batch is returned.
+	 * 
+	 * @param permitted	false if the session was rejected, otherwise true
+	 * @return	a decision to the major node itself if the batch is finished, otherwise
+	 * 			a dummy return
+	 */
+	static LocalPolicyResponse finishSession(boolean permitted) {
+		if (!permitted)
+			rejected = true;
+		if (--pendingSessions > 0)
+			return new DelegationLocPolDummyReturn();
+		
+		// Return decision
+		IcapEnforcementDecision ed = new IcapEnforcementDecision(
+				rejected ? IcapEnforcementDecision.Decision.REJECT
+						: IcapEnforcementDecision.Decision.PERMIT,
+				IcapEnforcementDecision.Type.SCALE);
+
+		// Return a decision to itself
+		return new DelegationLocPolDirectReturn(
+				Clicap.getDomain(), Clicap.getRemotePort(),	new IcapDelegationResp(ed));
+	}
+}
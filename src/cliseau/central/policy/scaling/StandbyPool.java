@@ -0,0 +1,199 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.central.policy.scaling;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+import cliseau.Clicap;
+
+/**
+ * This class maintains the pool of standby nodes of the major node. A standby node is
+ * a CliCap process that is already launched and has its classes loaded, but is not
+ * yet part of the network. When a node joins, the joining protocol claims one of
+ * them and configures it over its remote port instead of launching a new JVM. A standby node is only
+ * added to the pool after it has signaled that it is ready, so no joining process
+ * has to wait for a blind delay. <br>
+ * The pool is configured by the following parameters of the properties file:
+ * <ul>
+ * <li>standby.poolsize : number of standby nodes to keep ready (default 1). Every
+ * standby node is an idle JVM with its own heap and three reserved ports; 0 disables
+ * the pool, joins then launch a new JVM.</li>
+ * <li>standby.domain : host on which the standby nodes are launched</li>
+ * <li>standby.baseport : remote port of the first standby node</li>
+ * <li>standby.readyattempts, standby.readybackoff : retries of the readiness
+ * signal of a standby node</li>
+ * </ul>
+ */
+public class StandbyPool {
+
+	/**
+	 * The standby nodes that have signaled readiness and can be claimed
+	 */
+	private static final LinkedList<Node> readyNodes = new LinkedList<Node>();
+
+	/**
+	 * The number of standby nodes to keep ready
+	 */
+	private static int poolSize;
+
+	/**
+	 * The host on which standby nodes are launched
+	 */
+	private static String domain;
+
+	/**
+	 * The remote port to be used by the next launched standby node. Every node
+	 * occupies three consecutive ports (coordinator, enforcer and remote port).
+	 */
+	private static int nextPort;
+
+	/**
+	 * Initialize the pool with the configured parameters and launch the standby nodes.
+	 * This method is only called in the major node.
+	 */
+	public static void init() {
+		poolSize = Clicap.getIntProperty("standby.poolsize", 1);
+		domain = Clicap.getProperty("standby.domain", Clicap.getDomain());
+		nextPort = Clicap.getIntProperty("standby.baseport", 20002);
+
+		for (int i = 0; i < poolSize; i++)
+			launchStandby();
+	}
+
+	/**
+	 * Add the given standby node to the pool. Called when the node has signaled that
+	 * it is ready.
+	 *
+	 * @param node	The standby node
+	 */
+	public static synchronized void register(Node node) {
+		readyNodes.add(node);
+		System.out.println("» Standby node " + node.domain + ":" + node.port
+				+ " registered (" + readyNodes.size() + " ready)");
+	}
+
+	/**
+	 * Claim a ready standby node and launch a replacement for it.
+	 *
+	 * @return a ready standby node, or null if the pool is empty
+	 */
+	public static synchronized Node claim() {
+		Node node = readyNodes.poll();
+		if (node != null)
+			launchStandby();
+		return node;
+	}
+
+	/**
+	 * Launch a standby node on the next free ports of the standby host.
+	 */
+	private static void launchStandby() {
+		launchStandby(domain, nextPort);
+		nextPort += 3;
+	}
+
+	/**
+	 * Launch a standby node with the given remote port. The node signals the major
+	 * node as soon as it is ready.
+	 *
+	 * @param standbyDomain	the host of the standby node
+	 * @param standbyPort	the remote port of the standby node
+	 */
+	public static void launchStandby(String standbyDomain, int standbyPort) {
+
+		List<String> cmd = getStandbyLaunchingCommand(standbyDomain, standbyPort);
+
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.inheritIO();
+
+		try {
+			@SuppressWarnings("unused")
+			Process p = pb.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Load and initialize the classes used on the decision path and by the joining
+	 * protocol, such that a claimed standby node does not pay for class loading on
+	 * its first requests. The code itself is still compiled by the JIT once the node
+	 * serves requests.
+	 */
+	public static void preloadClasses() {
+		String[] classes = {
+				"cliseau.javacor.Coordinator",
+				"cliseau.central.FingerTable",
+				"cliseau.central.policy.IcapPolicy",
+				"cliseau.central.IcapEnforcementDecision",
+				"cliseau.central.delegation.IcapDelegationReq",
+				"cliseau.central.delegation.IcapDelegationResp",
+				"cliseau.central.delegation.IcapLeavingNotification",
+				"cliseau.central.event.IcapEvent",
+				"cliseau.javacor.DelegationLocPolReturn",
+				"cliseau.javacor.DelegationLocPolDirectReturn" };
+		for (String c : classes) {
+			try {
+				Class.forName(c);
+			} catch (Throwable t) {
+				// Warming up is best effort only
+			}
+		}
+	}
+
+	/**
+	 * Returns a list containing all parameters that have to be passed to the java
+	 * command in order to start a standby node.
+	 *
+	 * @param standbyDomain	the host of the standby node
+	 * @param standbyPort	the remote port of the standby node
+	 * @return a list of arguments for the launching command
+	 */
+	private static List<String> getStandbyLaunchingCommand(
+			String standbyDomain, int standbyPort) {
+
+		LinkedList<String> cmd = new LinkedList<String>();
+
+		// absolute path to the CliCap jar file
+		String clicapJarPath = Clicap.class.getProtectionDomain().getCodeSource()
+				.getLocation().getFile();
+
+		cmd.add(Clicap.JAVA_EXECUTABLE_PATH);
+
+		cmd.add("-server");
+		cmd.add("-Xms256m");
+		cmd.add("-Xmx256m");
+		cmd.add("-Djava.awt.headless=true");
+		cmd.add("-Djava.net.preferIPv4Stack=true");
+		cmd.add("-jar");
+		cmd.add(clicapJarPath);
+
+		cmd.add(Clicap.STANDBY);
+		cmd.add(standbyDomain);
+		cmd.add(Integer.toString(standbyPort));
+		cmd.add(Clicap.getDomain());
+		cmd.add(Integer.toString(Clicap.getRemotePort()));
+
+		return cmd;
+	}
+}
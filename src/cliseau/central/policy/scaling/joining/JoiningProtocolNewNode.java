@@ -119,7 +119,7 @@ public class JoiningProtocolNewNode extends JoinintProtocolBase {
 				Notification.DATA_EXCHANGE);
 		JoiningProtocolAuxiliary.printStep(9);
 
-		policy.addData(exchangeDataMsg.getData());
+		policy.takeOverData(exchangeDataMsg.getData());
 		majorNode = exchangeDataMsg.getMajorNode();
 
 		return new DelegationLocPolDummyReturn();
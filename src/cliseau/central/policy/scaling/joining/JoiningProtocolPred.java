@@ -193,9 +193,8 @@ public class JoiningProtocolPred extends JoinintProtocolBase {
 				+ newSuccessor);
 		
 		Clicap.fTable.updateSuccessor(newSuccessor.id);
-		Clicap.config.put(Clicap.SUCCESSOR, Integer.toString(newSuccessor.id));
-		Clicap.config.put(Clicap.SUC_DOMAIN, newSuccessor.domain);
-		Clicap.config.put(Clicap.SUC_PORT, Integer.toString(newSuccessor.port));
+		Clicap.setSuccessor(newSuccessor.id, newSuccessor.domain, newSuccessor.port,
+				Clicap.getTopology().epoch);
 
 		Clicap.addressing.setAddress(Integer.toString(newSuccessor.id),
 				new InetSocketAddress(newSuccessor.domain, newSuccessor.port));
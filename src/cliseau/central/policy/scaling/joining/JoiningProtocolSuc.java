@@ -1,14 +1,11 @@
 package cliseau.central.policy.scaling.joining;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-
 import sun.font.CreatedFontTracker;
 import cliseau.Clicap;
 import cliseau.central.delegation.IcapJoiningNotification;
 import cliseau.central.delegation.Notification;
 import cliseau.central.policy.IcapPolicy;
+import cliseau.central.policy.PolicyData;
 import cliseau.central.policy.scaling.LeavingProtocol;
 import cliseau.central.policy.scaling.Node;
 import cliseau.javacor.DelegationLocPolDirectReturn;
@@ -342,44 +339,10 @@ public class JoiningProtocolSuc extends JoinintProtocolBase {
 	 * @return A set of exactly those data items that should be shared with the
 	 *         temporal predecessor i.e., the new node.
 	 */
-	protected Set<String> determineExchangeData() {
-		Set<String> exchangeData = new HashSet<String>();
-		Iterator<String> it = policy.getData().iterator();
-
-		while (it.hasNext()) {
-			String token = it.next();
-			if (shouldBeExchanged(token)) {
-				exchangeData.add(token);
-				it.remove();
-			}
-		}
-
-		return exchangeData;
-	}
-
-	/**
-	 * Checks if the given token should be exchanged with the temporal
-	 * predecessor (i.e. the new node). Therefore it is assumed that the given
-	 * token stems from the data set of this node.
-	 * 
-	 * @param token
-	 *            The token for which it is to be determined if it should be
-	 *            exchanged with the temporal predecessor (i.e. new node) or
-	 *            not.
-	 * @return True iff the given token should be exchanged with the temporal
-	 *         predecessor (i.e. new node). Thus it checks if after the temporal
-	 *         predecessor / new node joined, the given token does not lie in
-	 *         the responsibility of this node anymore.
-	 */
-	protected boolean shouldBeExchanged(String token) {
-		int key = policy.hashToken(token, Clicap.getBitLength());
+	protected PolicyData determineExchangeData() {
+		// Exactly the keys outside of (old predecessor, this node] are exchanged
 		int oldPredID = Integer.parseInt(Clicap.getPredID());
-
-		if (oldPredID < localNode.id) {
-			return (key <= oldPredID);
-		} else {
-			return !(oldPredID < key || key <= localNode.id);
-		}
+		return policy.getPartialData(localNode.id, oldPredID);
 	}
 
 	protected IcapJoiningNotification createDataExchangeMsg(Node majorNode) {
@@ -414,9 +377,8 @@ public class JoiningProtocolSuc extends JoinintProtocolBase {
 
 		Node newPred = sucStatusReq.getNewNode();
 
-		Clicap.config.put(Clicap.PREDECESSOR, Integer.toString(newPred.id));
-		Clicap.config.put(Clicap.PRE_DOMAIN, newPred.domain);
-		Clicap.config.put(Clicap.PRE_PORT, Integer.toString(newPred.port));
+		Clicap.setPredecessor(newPred.id, newPred.domain, newPred.port,
+				Clicap.getTopology().epoch);
 
 		Clicap.fTable.log();
 		Clicap.fTable.log("new Predecessor " + Clicap.getPredID());
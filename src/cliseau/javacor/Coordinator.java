@@ -26,6 +26,16 @@ import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cliseau.Clicap;
 import cliseau.central.delegation.IcapLocalNotification;
@@ -34,6 +44,8 @@ import cliseau.javacor.CriticalEvent;
 import cliseau.javacor.DelegationLocPolReturn;
 import cliseau.javacor.EnforcementDecision;
 import cliseau.javacor.LocalPolicy;
+import tools.monitor.FlightEvents;
+import tools.monitor.Latencies;
 
 /**
  * Coordinator component of CliSeAu units.
@@ -60,6 +72,51 @@ public class Coordinator implements Runnable {
 	/** The local policy object for making local decisions */
 	private LocalPolicy localPolicy;
 
+	/**
+	 * Lock of the control plane. Control-plane messages (see 
+	 * {@link LocalPolicy#isControlEvent(CriticalEvent)} and
+	 * {@link LocalPolicy#isControlMessage(DelegationReqResp)}) are handled with this 
+	 * lock instead of the local policy lock, such that they never block security 
+	 * decisions.
+	 */
+	private final Object controlLock = new Object();
+
+	/** Stage that handles the control-plane messages one after another */
+	private final Stage controlStage;
+
+	/** Stages decoding the messages accepted on the local and the remote socket */
+	private final Stage localDecodeStage, remoteDecodeStage;
+
+	/**
+	 * Stages evaluating the data-plane messages with the local policy, one per shard.
+	 * Each shard handles the messages of its shard keys (see 
+	 * {@link LocalPolicy#getShardKey(CriticalEvent)}) one after another without the
+	 * local policy lock. All other messages are handled by the first stage with the
+	 * lock. Every stage has one lane per {@link Priority priority class}.
+	 */
+	private final Stage[] evaluationStages;
+
+	/**
+	 * Stages sending the responses of the local policy, one per destination, such
+	 * that a slow destination only fills its own queue. A stage is retired after it
+	 * has been idle for {@link #EGRESS_IDLE_TIMEOUT}, e.g. since its destination has
+	 * left the network, and created again on demand.
+	 */
+	private final ConcurrentHashMap<String, Stage> egressStages = 
+			new ConcurrentHashMap<String, Stage>();
+
+	/** Time in milliseconds after which an idle sending stage is retired */
+	private static final long EGRESS_IDLE_TIMEOUT = 60000;
+
+	/** The thread retiring idle sending stages */
+	private final ScheduledExecutorService egressSweeper;
+
+	/** The number of messages to remote units dropped since their stage was full */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** The capacity of the queue of every stage */
+	private final int queueCapacity;
+
 	/** Indicates whether the coordinator shall continue operating */
 	private boolean canContinue;
 
@@ -83,11 +140,68 @@ public class Coordinator implements Runnable {
 			ServerSocket remoteServer,
 			CoordinatorAddressing addressing,
 			LocalPolicy localPolicy) {
+		this(identifier, localServer, remoteServer, addressing, localPolicy, 1, 1, 1024,
+				Priority.defaultWeights());
+	}
+
+	/**
+	 * Create a coordinator object that handles the messages in a pipeline of bounded
+	 * stages: decoding, evaluation with the given number of shards and sending. With
+	 * a single shard, all data-plane messages are evaluated with the local policy 
+	 * lock. Several decoding threads may reorder messages that arrive at the same 
+	 * time over different connections. The evaluation and control stages serve the
+	 * priority classes of the messages with the given weights.
+	 *
+	 * @param identifier Identifier name of the coordinator
+	 * @param localServer The socket for listening for connections from the local interceptor
+	 * @param remoteServer The socket for listening for connections from remote CliSeAu units
+	 * @param addressing Object allowing the coordinator to address remote coordinators and the local enforcer
+	 * @param localPolicy The local policy object for making local decisions
+	 * @param shards The number of shards
+	 * @param decodeThreads The number of decoding threads per socket
+	 * @param queueCapacity The capacity of the queue of every stage
+	 * @param weights The weights of the priority classes, ordered by class
+	 */
+	public Coordinator(
+			String identifier,
+			ServerSocket localServer,
+			ServerSocket remoteServer,
+			CoordinatorAddressing addressing,
+			LocalPolicy localPolicy,
+			int shards,
+			int decodeThreads,
+			int queueCapacity,
+			int[] weights) {
 		this.identifier   = identifier;
 		this.localServer  = localServer;
 		this.remoteServer = remoteServer;
 		this.addressing   = addressing;
 		this.localPolicy  = localPolicy;
+		this.queueCapacity = queueCapacity;
+		this.localDecodeStage = new Stage("coordinator-decode-local", 
+				decodeThreads, queueCapacity);
+		this.remoteDecodeStage = new Stage("coordinator-decode-remote", 
+				decodeThreads, queueCapacity);
+		this.evaluationStages = new Stage[Math.max(1, shards)];
+		for (int i = 0; i < evaluationStages.length; i++)
+			evaluationStages[i] = new Stage("coordinator-shard-" + i, 1, queueCapacity,
+					weights);
+		this.controlStage = new Stage("coordinator-control", 1, queueCapacity, weights);
+		this.egressSweeper = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "coordinator-egress-sweeper");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		egressSweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				retireIdleEgressStages();
+			}
+		}, EGRESS_IDLE_TIMEOUT, EGRESS_IDLE_TIMEOUT / 2, TimeUnit.MILLISECONDS);
 		canContinue = true;
 	}
 
@@ -142,11 +256,9 @@ public class Coordinator implements Runnable {
 		//logger.setLevel(logLevel);
 
 		// now operate in an infinite loop (until 'stop()' is called)
+		final Stage decodeStage = bLocal ? localDecodeStage : remoteDecodeStage;
 		while (canContinue) {
-			IcapLocalNotification notif = null; 	// @NHD: for receiving local notification (not sec-relative) 
-			CriticalEvent ev = null;     			// for receiving local requests
-			DelegationReqResp dr = null; 			// for receiving remote requests
-			Socket connection;
+			final Socket connection;
 			try {
 				// Step 2: wait for local requests
 				connection = socket.accept();
@@ -163,186 +275,186 @@ public class Coordinator implements Runnable {
 				continue; // ignore timeouts or connection failures
 			}
 
-			try {
-				// Step 3: read the incoming (local/remote) message
-				//logger.debug("reading from stream");
-				ObjectInputStream ois = null;
-				try {
-					ois = new ObjectInputStream(connection.getInputStream());
-				} catch (java.io.EOFException eofe) {
-					//TODO: this exception is currently caused, e.g,. by the
-					// StartupBarrier, which establishes a connection but does not
-					// send anything. That's why we don't do anything special here.
-					// However, in the future, this hack should be avoided by a less
-					// hackish StartupBarrier implementation.
-					continue;
+			// Step 3-5: decode and evaluate the message in the following stages,
+			// waiting while the decode stage is full
+			decodeStage.put(new Runnable() {
+				@Override
+				public void run() {
+					decode(connection, bLocal);
 				}
-				try {
+			});
+		}
+	}
+
+	/**
+	 * Read a message from the given connection and hand it over to the evaluation.
+	 *
+	 * @param connection The accepted connection
+	 * @param bLocal Whether or not the connection was accepted on the local server socket
+	 */
+	private void decode(final Socket connection, final boolean bLocal) {
+		IcapLocalNotification notif = null; 	// @NHD: for receiving local notification (not sec-relative) 
+		CriticalEvent ev = null;     			// for receiving local requests
+		DelegationReqResp dr = null; 			// for receiving remote requests
+
+		try {
+			// Step 3: read the incoming (local/remote) message
+			//logger.debug("reading from stream");
+			ObjectInputStream ois = null;
+			try {
+				ois = new ObjectInputStream(connection.getInputStream());
+			} catch (java.io.EOFException eofe) {
+				//TODO: this exception is currently caused, e.g,. by the
+				// StartupBarrier, which establishes a connection but does not
+				// send anything. That's why we don't do anything special here.
+				// However, in the future, this hack should be avoided by a less
+				// hackish StartupBarrier implementation.
+				return;
+			}
+			try {
+				
+				/** @NHD the type of the incoming object depends on blocal*/ 
+				
+				if (bLocal) {
 					
-					/** @NHD the type of the incoming object depends on blocal*/ 
+					// @NHD: In order to use the coordinator for other purposes...
+					Object obj = ois.readObject();
+					if(obj instanceof CriticalEvent)
+						ev = (CriticalEvent) obj;
+					else if (obj instanceof IcapLocalNotification)
+						notif = (IcapLocalNotification) obj;
 					
-					if (bLocal) {
-						
-						// @NHD: In order to use the coordinator for other purposes...
-						Object obj = ois.readObject();
-						if(obj instanceof CriticalEvent)
-							ev = (CriticalEvent) obj;
-						else if (obj instanceof IcapLocalNotification)
-							notif = (IcapLocalNotification) obj;
 						
-							
-						//logger.info("read critical event");
-					} else {
-						dr = (DelegationReqResp) ois.readObject();
-						//logger.info("read delegation request/response");
-					}
-				} catch (ClassNotFoundException cnfe) {
-					// Unknown class received. Could be caused by different CliSeAu
-					// versions in the same system or by a message from something
-					// else than a CliSeAu unit. We currently simply ignore
-					// this issue here with a warning.
-					//logger.warn("class not found (" + cnfe.getMessage() + ")");
-					continue;
-				} catch (ClassCastException cce) {
-					// Unexpected class received. Could be caused by different CliSeAu
-					// versions in the same system, by different versions of
-					// Coordinator and Interceptor, or by a message from something
-					// else than a CliSeAu component. We currently simply
-					// ignore this issue here with a warning.
-					//logger.warn("request of invalid type (" + cce.getMessage() + ")");
-					continue;
-				}
-			} catch (IOException e) {
-				//logger.warn("failed to 'readObject()' [" + e.getClass().getName() + ": " + e.getMessage() + "]");
-				//TODO: rethrow exception? use counter and exit after 3 times?
-				continue;
-			} finally {
-				try {
-					// Step 4: close the connection.
-					//logger.debug("closing connection");
-					connection.close();
-				} catch (IOException e) {
-					// Failing to close the connection is unproblematic; well, actually only
-					// if it does not occur very frequently since this might end up in OOM.
-					//logger.warn("failed to close the connection.");
-				}
-			}
-
-			/** @NHD Now we have received the object of either type    CriticalEvent   or   DelegationReqResp  */
-			
-			// Step 5: handle input with local policy
-			final LocalPolicyResponse resp;
-			synchronized(localPolicy) {
-				if (bLocal) {
-					//@NHD also handle local notifications
-					if(notif == null && ev != null)
-						resp = localPolicy.localRequest(ev);
-					else
-						resp = localPolicy.localNotify(notif);
+					//logger.info("read critical event");
 				} else {
-					resp = localPolicy.remoteRequest(dr);
+					dr = (DelegationReqResp) ois.readObject();
+					//logger.info("read delegation request/response");
 				}
+			} catch (ClassNotFoundException cnfe) {
+				// Unknown class received. Could be caused by different CliSeAu
+				// versions in the same system or by a message from something
+				// else than a CliSeAu unit. We currently simply ignore
+				// this issue here with a warning.
+				//logger.warn("class not found (" + cnfe.getMessage() + ")");
+				return;
+			} catch (ClassCastException cce) {
+				// Unexpected class received. Could be caused by different CliSeAu
+				// versions in the same system, by different versions of
+				// Coordinator and Interceptor, or by a message from something
+				// else than a CliSeAu component. We currently simply
+				// ignore this issue here with a warning.
+				//logger.warn("request of invalid type (" + cce.getMessage() + ")");
+				return;
 			}
+		} catch (IOException e) {
+			//logger.warn("failed to 'readObject()' [" + e.getClass().getName() + ": " + e.getMessage() + "]");
+			//TODO: rethrow exception? use counter and exit after 3 times?
+			return;
+		} finally {
+			try {
+				// Step 4: close the connection.
+				//logger.debug("closing connection");
+				connection.close();
+			} catch (IOException e) {
+				// Failing to close the connection is unproblematic; well, actually only
+				// if it does not occur very frequently since this might end up in OOM.
+				//logger.warn("failed to close the connection.");
+			}
+		}
 
-			/** @NHD Now we have response object */
-			
-			// Step 6: pass on the result - locally or remotely
-			/** @NHD Bad programming practice !
-			 * 	 NO NEED to consider this case  ;) */
-			if (resp instanceof EnforcementDecision) {
+		/** @NHD Now we have received the object of either type    CriticalEvent   or   DelegationReqResp  */
+		if (notif == null && ev == null && dr == null)
+			return;
+		Object received = FlightEvents.MESSAGE_RECEIVED.begin();
+		if (received != null)
+			FlightEvents.MESSAGE_RECEIVED.commit(received, bLocal ? "local" : "remote",
+					messageName(notif != null ? notif : ev != null ? ev : dr));
 		
-				//logger.info("sending local decision");
+		// Step 5': hand control-plane messages over to the control stage
+		if (notif != null || (ev != null && localPolicy.isControlEvent(ev))
+				|| (dr != null && localPolicy.isControlMessage(dr))) {
+			handleControl(notif, ev, dr, null);
+			return;
+		}
 
-				// Step 7a: connect to local enforcer
-				try {
-					Socket out_connection = addressing.connectLocalEnforcer();
-					try {
-						// Step 8a: send serialized enforcement decision
-						ObjectOutputStream oos = new ObjectOutputStream(out_connection.getOutputStream());
-						oos.writeObject(resp);
-					} finally {
-						// Step 9a: close connection to local enforcer
-						out_connection.close();
-					}
-				} catch (IOException e) {
-					// Currently, retransmissions or other means of recovering from
-					// the error are not intended but should be added later to
-					// increase the rebustness of the Coordinator.
-					//logger.warn("failed to send enforcemend decision to local enforcer (" + e.getMessage() + ")");
-					continue;
-				}	
-			} else if (resp instanceof DelegationLocPolReturn) {
-				DelegationLocPolReturn del = (DelegationLocPolReturn)resp;
-				
-				final String dest = del.getDestinationID();
-				//logger.info("sending delegation request/response to CliSeAu unit \"" + dest + "\"");
+		evaluate(ev, dr, null);
+	}
 
-				// Step 7b: connect to the remote CliSeAu unit
-				try {
-					Socket out_connection = addressing.connectRemote(dest);
-					try {
-						// Step 8b: send serialized delegation req/resp
-						final DelegationReqResp drPrime = del.getDR();
-						ObjectOutputStream oos = new ObjectOutputStream(out_connection.getOutputStream());
-						oos.writeObject(drPrime);
-						
-						// TODO debug - remove me !
-						sent("DEL REQ/RES", dest);
-						
-					} finally {
-						// Step 9b: close connection to remote CliSeAu unit
-						out_connection.close();
-					}
-				} catch (IOException e) {
-					
-					// Currently, retransmissions or other means of recovering from
-					// the error are not intended but should be added later to
-					// increase the rebustness of the Coordinator.
-					//logger.warn("failed to send delegation request/response to CliSeAu unit \""+dest+"\" (" + e.getMessage() + ")");
-					continue;
+	/**
+	 * Hand a data-plane message over to its evaluation stage. Messages with a shard
+	 * key are handled by the stage of their shard without the local policy lock if
+	 * the coordinator is sharded. All other messages are handled by the first stage 
+	 * with the local policy lock.
+	 *
+	 * @param ev Received critical event, or null
+	 * @param dr Received delegation request/response, or null
+	 * @param unreachable Identifier of the unit to which dr could not be sent, or null
+	 * 		  if dr has been received
+	 */
+	private void evaluate(final CriticalEvent ev, final DelegationReqResp dr,
+			final String unreachable) {
+		int key = ev != null ? localPolicy.getShardKey(ev) : localPolicy.getShardKey(dr);
+		int lane = (ev != null ? localPolicy.getPriority(ev) 
+				: localPolicy.getPriority(dr)).ordinal();
+		if (evaluationStages.length > 1 && key >= 0) {
+			// Step 5'': handle keyed messages on their shard
+			evaluationStages[key % evaluationStages.length].put(new Runnable() {
+				@Override
+				public void run() {
+					Object event = FlightEvents.POLICY_EVALUATION.begin();
+					long start = System.nanoTime();
+					LocalPolicyResponse resp = handle(ev, dr, unreachable);
+					Latencies.POLICY_EVALUATION.recordSince(start);
+					if (event != null)
+						FlightEvents.POLICY_EVALUATION.commit(event, 
+								messageName(ev != null ? ev : dr), messageName(resp));
+					if (resp != null)
+						passOn(resp);
 				}
-			} else {
-				
-				//	<------------------------------------------------------------------------------------------>
-				//					Handle the case the unit send the decision directly 
-				//					 to the unit that initially requested the decision
-				//	<------------------------------------------------------------------------------------------>
-				if(resp instanceof DelegationLocPolDirectReturn){
-					// @NHD  Direct connection => does not require addressing.
-					//		   The subclass of LocalPolicyResponse must contain Domain & Port of destination ;)
-					DelegationLocPolDirectReturn del = (DelegationLocPolDirectReturn)resp;
-					// Step 7c: directly connect to the remote CliSeAu unit
-					try {
-						Socket out_connection = new Socket(del.getDestinationDomain(), del.getDestinationPort());
-						try {
-							// Step 8c: send serialized delegation resp (This must be a response according to the DHT Algorithm!)
-							final DelegationReqResp drPrime = del.getDR();
-							ObjectOutputStream oos = new ObjectOutputStream(out_connection.getOutputStream());
-							oos.writeObject(drPrime);
-							
-							// TODO debug - remove me !
-							sent("DIRECT RETURN", "...");
-							
-						} finally {
-							// Step 9c: close connection to remote CliSeAu unit
-							out_connection.close();
-						}
-					} catch (IOException e) {
-						continue;
-					}
-				} else{
-					if(resp instanceof DelegationLocPolDummyReturn)
-						continue;
-					else
-						// This case can only occur if some extension to the original
-						// CliSeAu implementation derived additional classes
-						// immediately from LocalPolicyResponse - and forgot to handle this
-						// here.
-						throw new RuntimeException("Unexpected subclass of LocalPolicyResponse returned by LocalPolicy.");
+			}, lane);
+			return;
+		}
+
+		evaluationStages[0].put(new Runnable() {
+			@Override
+			public void run() {
+				// Step 5: handle input with local policy
+				final LocalPolicyResponse resp;
+				Object event = FlightEvents.POLICY_EVALUATION.begin();
+				synchronized(localPolicy) {
+					long start = System.nanoTime();
+					resp = handle(ev, dr, unreachable);
+					Latencies.POLICY_EVALUATION.recordSince(start);
 				}
-				// done.
+				if (event != null)
+					FlightEvents.POLICY_EVALUATION.commit(event, 
+							messageName(ev != null ? ev : dr), messageName(resp));
+
+				/** @NHD Now we have response object */
+				
+				if (resp != null)
+					passOn(resp);
 			}
-		}
+		}, lane);
+	}
+
+	/**
+	 * Handle a data-plane or control-plane message with the local policy. The caller
+	 * holds the lock required for the message.
+	 *
+	 * @param ev Received critical event, or null
+	 * @param dr Received delegation request/response, or null
+	 * @param unreachable Identifier of the unit to which dr could not be sent, or null
+	 * 		  if dr has been received
+	 * @return the response of the local policy, null if there is nothing to pass on
+	 */
+	private LocalPolicyResponse handle(CriticalEvent ev, DelegationReqResp dr,
+			String unreachable) {
+		if (ev != null)
+			return localPolicy.localRequest(ev);
+		if (unreachable != null)
+			return localPolicy.unreachable(unreachable, dr);
+		return localPolicy.remoteRequest(dr);
 	}
 
 	/**
@@ -378,8 +490,302 @@ public class Coordinator implements Runnable {
 	 */
 	public void stop() {
 		canContinue = false;
+		egressSweeper.shutdownNow();
+		for (Stage stage : getStages())
+			stage.stop();
+	}
+
+	/**
+	 * Get all stages of the pipeline, e.g. for monitoring their queue depths.
+	 *
+	 * @return the decoding, evaluation, control and sending stages
+	 */
+	public List<Stage> getStages() {
+		List<Stage> stages = new ArrayList<Stage>();
+		stages.add(localDecodeStage);
+		stages.add(remoteDecodeStage);
+		stages.addAll(Arrays.asList(evaluationStages));
+		stages.add(controlStage);
+		stages.addAll(egressStages.values());
+		return stages;
+	}
+
+	/**
+	 * Get the number of messages to remote units that have been dropped since the
+	 * sending stage of their destination was full.
+	 *
+	 * @return the number of dropped messages
+	 */
+	public long getDropped() {
+		return dropped.get();
 	}
 	
+	/**
+	 * Handle a control-plane message with the local policy on the control stage and
+	 * pass on the result.
+	 * 
+	 * @param notif Received local notification, or null
+	 * @param ev Received critical event, or null
+	 * @param dr Received delegation request/response, or null
+	 * @param unreachable Identifier of the unit to which dr could not be sent, or null
+	 * 		  if dr has been received
+	 */
+	private void handleControl(final IcapLocalNotification notif, 
+			final CriticalEvent ev, final DelegationReqResp dr, final String unreachable) {
+		Priority priority = notif != null ? Priority.NORMAL : ev != null 
+				? localPolicy.getPriority(ev) : localPolicy.getPriority(dr);
+		controlStage.put(new Runnable() {
+			@Override
+			public void run() {
+				final LocalPolicyResponse resp;
+				synchronized (controlLock) {
+					if (notif != null)
+						resp = localPolicy.localNotify(notif);
+					else
+						resp = handle(ev, dr, unreachable);
+				}
+				if (resp != null)
+					passOn(resp);
+			}
+		}, priority.ordinal());
+	}
+
+	/**
+	 * Pass on the response of the local policy - locally or remotely. The response is
+	 * handed over to the sending stage of its destination. Decisions for the local 
+	 * enforcer wait while the stage is full, messages for a remote unit are dropped
+	 * and counted if its stage is full.
+	 * @param resp Response of the local policy
+	 */
+	private void passOn(final LocalPolicyResponse resp) {
+		// Step 6: pass on the result - locally or remotely
+		/** @NHD Bad programming practice !
+		 * 	 NO NEED to consider this case  ;) */
+		if (resp instanceof EnforcementDecision) {
+			toEgressStage("enforcer", new Runnable() {
+				@Override
+				public void run() {
+					sendLocal(resp);
+				}
+			}, true);
+		} else if (resp instanceof DelegationLocPolReturn) {
+			final DelegationLocPolReturn del = (DelegationLocPolReturn)resp;
+			if (!toEgressStage(del.getDestinationID(), new Runnable() {
+				@Override
+				public void run() {
+					sendRemote(del);
+				}
+			}, false))
+				dropped.incrementAndGet();
+		} else {
+			
+			//	<------------------------------------------------------------------------------------------>
+			//					Handle the case the unit send the decision directly 
+			//					 to the unit that initially requested the decision
+			//	<------------------------------------------------------------------------------------------>
+			if(resp instanceof DelegationLocPolDirectReturn){
+				final DelegationLocPolDirectReturn del = (DelegationLocPolDirectReturn)resp;
+				String dest = del.getDestinationDomain() + ":" + del.getDestinationPort();
+				if (!toEgressStage(dest, new Runnable() {
+					@Override
+					public void run() {
+						sendDirect(del);
+					}
+				}, false))
+					dropped.incrementAndGet();
+			} else{
+				if(resp instanceof DelegationLocPolDummyReturn)
+					return;
+				else if(resp instanceof DelegationLocPolMultiReturn) {
+					// @NHD pass on every bundled response
+					for (LocalPolicyResponse r : 
+							((DelegationLocPolMultiReturn) resp).getResponses())
+						passOn(r);
+				}
+				else
+					// This case can only occur if some extension to the original
+					// CliSeAu implementation derived additional classes
+					// immediately from LocalPolicyResponse - and forgot to handle this
+					// here.
+					throw new RuntimeException("Unexpected subclass of LocalPolicyResponse returned by LocalPolicy.");
+			}
+			// done.
+		}
+	}
+
+	/**
+	 * Pass on a response that the local policy has produced outside of the handling
+	 * of a message, e.g. a duplicate of a delegation request.
+	 * @param resp Response of the local policy
+	 */
+	public void send(LocalPolicyResponse resp) {
+		passOn(resp);
+	}
+
+	/**
+	 * Get the sending stage of the given destination, create it if necessary.
+	 * @param dest The destination
+	 * @return the sending stage
+	 */
+	private Stage getEgressStage(String dest) {
+		Stage stage = egressStages.get(dest);
+		if (stage == null) {
+			synchronized (egressStages) {
+				stage = egressStages.get(dest);
+				if (stage == null) {
+					stage = new Stage("coordinator-egress-" + dest, 1, queueCapacity);
+					egressStages.put(dest, stage);
+				}
+			}
+		}
+		return stage;
+	}
+
+	/**
+	 * Hand the given task over to the sending stage of the given destination. If the
+	 * stage has been retired meanwhile, a new one is created.
+	 * @param dest The destination
+	 * @param task The task sending to the destination
+	 * @param wait Whether to wait while the stage is full
+	 * @return true if the task was enqueued, false if the stage is full
+	 */
+	private boolean toEgressStage(String dest, Runnable task, boolean wait) {
+		while (true) {
+			Stage stage = getEgressStage(dest);
+			if (wait ? stage.put(task) : stage.offer(task))
+				return true;
+			if (!stage.isRetired())
+				return false;
+			egressStages.remove(dest, stage);
+		}
+	}
+
+	/**
+	 * Retire the sending stages that have been idle for 
+	 * {@link #EGRESS_IDLE_TIMEOUT}.
+	 */
+	private void retireIdleEgressStages() {
+		long idle = TimeUnit.MILLISECONDS.toNanos(EGRESS_IDLE_TIMEOUT);
+		for (Map.Entry<String, Stage> e : egressStages.entrySet())
+			if (e.getValue().retireIfIdle(idle))
+				egressStages.remove(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Send the given enforcement decision to the local enforcer.
+	 * @param resp The enforcement decision
+	 */
+	private void sendLocal(LocalPolicyResponse resp) {
+		//logger.info("sending local decision");
+
+		// Step 7a: connect to local enforcer
+		try {
+			Socket out_connection = addressing.connectLocalEnforcer();
+			try {
+				// Step 8a: send serialized enforcement decision
+				ObjectOutputStream oos = new ObjectOutputStream(out_connection.getOutputStream());
+				oos.writeObject(resp);
+			} finally {
+				// Step 9a: close connection to local enforcer
+				out_connection.close();
+			}
+		} catch (IOException e) {
+			// Currently, retransmissions or other means of recovering from
+			// the error are not intended but should be added later to
+			// increase the rebustness of the Coordinator.
+			//logger.warn("failed to send enforcemend decision to local enforcer (" + e.getMessage() + ")");
+			return;
+		}	
+	}
+
+	/**
+	 * Send the given delegation request/response to the remote CliSeAu unit given by
+	 * its identifier.
+	 * @param del The delegation request/response and its destination
+	 */
+	private void sendRemote(DelegationLocPolReturn del) {
+		final String dest = del.getDestinationID();
+		//logger.info("sending delegation request/response to CliSeAu unit \"" + dest + "\"");
+
+		// Step 7b: connect to the remote CliSeAu unit
+		Object event = FlightEvents.MESSAGE_FORWARDED.begin();
+		long start = System.nanoTime();
+		try {
+			Socket out_connection = addressing.connectRemote(dest);
+			try {
+				// Step 8b: send serialized delegation req/resp
+				final DelegationReqResp drPrime = del.getDR();
+				ObjectOutputStream oos = new ObjectOutputStream(out_connection.getOutputStream());
+				oos.writeObject(drPrime);
+				
+				// TODO debug - remove me !
+				sent("DEL REQ/RES", dest);
+				
+			} finally {
+				// Step 9b: close connection to remote CliSeAu unit
+				out_connection.close();
+			}
+			Latencies.DELEGATION_HOP.recordSince(start);
+			if (event != null)
+				FlightEvents.MESSAGE_FORWARDED.commit(event, dest, messageName(del.getDR()));
+		} catch (IOException e) {
+			
+			// @NHD The unit is now suspected by the failure detector of the
+			// addressing, let the local policy route around it on the stage and
+			// with the lock it uses for the message
+			//logger.warn("failed to send delegation request/response to CliSeAu unit \""+dest+"\" (" + e.getMessage() + ")");
+			if (localPolicy.isControlMessage(del.getDR()))
+				handleControl(null, null, del.getDR(), dest);
+			else
+				evaluate(null, del.getDR(), dest);
+			return;
+		}
+	}
+
+	/**
+	 * Send the given delegation request/response directly to the given domain and
+	 * port.
+	 * @param del The delegation request/response and its destination
+	 */
+	private void sendDirect(DelegationLocPolDirectReturn del) {
+		// @NHD  Direct connection => does not require addressing.
+		//		   The subclass of LocalPolicyResponse must contain Domain & Port of destination ;)
+		// Step 7c: directly connect to the remote CliSeAu unit
+		Object event = FlightEvents.MESSAGE_FORWARDED.begin();
+		long start = System.nanoTime();
+		try {
+			Socket out_connection = new Socket(del.getDestinationDomain(), del.getDestinationPort());
+			try {
+				// Step 8c: send serialized delegation resp (This must be a response according to the DHT Algorithm!)
+				final DelegationReqResp drPrime = del.getDR();
+				ObjectOutputStream oos = new ObjectOutputStream(out_connection.getOutputStream());
+				oos.writeObject(drPrime);
+				
+				// TODO debug - remove me !
+				sent("DIRECT RETURN", "...");
+				
+			} finally {
+				// Step 9c: close connection to remote CliSeAu unit
+				out_connection.close();
+			}
+			Latencies.DELEGATION_HOP.recordSince(start);
+			if (event != null)
+				FlightEvents.MESSAGE_FORWARDED.commit(event, del.getDestinationDomain() + ":"
+						+ del.getDestinationPort(), messageName(del.getDR()));
+		} catch (IOException e) {
+			return;
+		}
+	}
+
+	/**
+	 * Name a message for the flight recorder events.
+	 * @param message The message, may be null
+	 * @return the simple class name of the message
+	 */
+	private static String messageName(Object message) {
+		return message == null ? "none" : message.getClass().getSimpleName();
+	}
+
 	// TODO Debugging  @NHD
 	private void sent(String msg, String dest){
 		//System.out.println("* canContinued = " + canContinue);
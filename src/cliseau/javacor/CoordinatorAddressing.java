@@ -20,9 +20,9 @@
  */
 package cliseau.javacor;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -59,7 +59,9 @@ public class CoordinatorAddressing {
 	// @NHD This has to be instantiated during the start-up phase
 	
 	/** Addresses for contacting the other CliSeAu units in the system (one for each identifier). */ 
-	private HashMap<String, SocketAddress> addresses;
+	private ConcurrentHashMap<String, SocketAddress> addresses;
+	/** Failure detector fed with the results of the connections to the other units. */
+	private FailureDetector failureDetector;
 	/** Address for contacting the local enforcer. */
 	private SocketAddress localEnforcerAddress;
 	/** Address for being contacted by the local interceptor. */
@@ -69,7 +71,19 @@ public class CoordinatorAddressing {
 	 * Create an addressing object with an empty list of known external addresses.
 	 */
 	public CoordinatorAddressing() {
-		addresses = new HashMap<String, SocketAddress>();
+		addresses = new ConcurrentHashMap<String, SocketAddress>();
+		failureDetector = new FailureDetector(8.0, 5000);
+	}
+
+	/**
+	 * Create an addressing object with an empty list of known external addresses and
+	 * the given failure detector.
+	 *
+	 * @param failureDetector The failure detector to be fed with connection results.
+	 */
+	public CoordinatorAddressing(final FailureDetector failureDetector) {
+		addresses = new ConcurrentHashMap<String, SocketAddress>();
+		this.failureDetector = failureDetector;
 	}
 
 	/**
@@ -126,10 +140,36 @@ public class CoordinatorAddressing {
 			throw new IllegalArgumentException("Destination identifier unknown");
 		}
 		Socket result = new Socket();
-		result.connect(destAddr);
+		try {
+			result.connect(destAddr);
+		} catch (IOException e) {
+			failureDetector.failure(destinationID);
+			result.close();
+			throw e;
+		}
+		failureDetector.contact(destinationID);
 		return result;
 	}
 
+	/**
+	 * Return the failure detector fed with the results of the connections.
+	 *
+	 * @return The failure detector.
+	 */
+	public FailureDetector getFailureDetector() {
+		return failureDetector;
+	}
+
+	/**
+	 * Decide whether the CliSeAu unit with the given identifier is suspected to be dead.
+	 *
+	 * @param identifier The identifier of the unit.
+	 * @return true if the unit is suspected.
+	 */
+	public boolean isSuspected(final String identifier) {
+		return failureDetector.isSuspected(identifier);
+	}
+
 	/**
 	 * Establishes a connection to the local enforcer.
 	 *
@@ -0,0 +1,55 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cliseau.javacor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local policy response that bundles several responses. Upon receiving this response
+ * the coordinator passes on every contained response in the given order. This allows
+ * the local policy to issue several delegation requests at once, e.g., all finger
+ * table lookups for a joining node.
+ */
+public final class DelegationLocPolMultiReturn implements LocalPolicyResponse {
+	
+	/** The bundled responses */
+	private final List<LocalPolicyResponse> responses = 
+			new ArrayList<LocalPolicyResponse>();
+	
+	public DelegationLocPolMultiReturn() {
+	}
+	
+	/**
+	 * Add a response to the bundle.
+	 * @param resp	The response to be passed on by the coordinator
+	 */
+	public void add(LocalPolicyResponse resp) {
+		responses.add(resp);
+	}
+	
+	/**
+	 * Obtain the bundled responses.
+	 * @return	The bundled responses in the order they were added
+	 */
+	public List<LocalPolicyResponse> getResponses() {
+		return responses;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package cliseau.javacor;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Phi accrual failure detector for the other CliSeAu units.
+ *
+ * The detector is fed with the results of the connections of the coordinator and
+ * with the heartbeats of the stabilization. For every monitored unit it keeps a
+ * window of the intervals between heartbeats and derives the suspicion level phi
+ * from the time elapsed since the last sign of life, assuming exponentially
+ * distributed intervals. A unit is suspected if phi exceeds the threshold, or if
+ * the last connection to it failed and no sign of life has been seen since. Such a
+ * direct suspicion expires after a while, so that a recovered unit is tried again.
+ */
+public class FailureDetector {
+
+	/** Number of intervals kept per unit */
+	private static final int WINDOW = 100;
+	/** log10(e) */
+	private static final double LOG10_E = Math.log10(Math.E);
+
+	/** Phi above which a unit is suspected */
+	private final double threshold;
+	/** Time in milliseconds after which a direct suspicion expires */
+	private final long retryAfter;
+	/** The histories of the known units */
+	private final ConcurrentHashMap<String, History> histories;
+
+	/**
+	 * Create a failure detector.
+	 *
+	 * @param threshold Phi above which a unit is suspected.
+	 * @param retryAfter Time in milliseconds after which a failed connection does not
+	 *        lead to suspicion anymore.
+	 */
+	public FailureDetector(final double threshold, final long retryAfter) {
+		this.threshold = threshold;
+		this.retryAfter = retryAfter;
+		this.histories = new ConcurrentHashMap<String, History>();
+	}
+
+	/**
+	 * Record a heartbeat of the unit with the given identifier, i.e. a sign of life
+	 * that arrives at a regular schedule.
+	 *
+	 * @param identifier The identifier of the unit.
+	 */
+	public void heartbeat(final String identifier) {
+		history(identifier).heartbeat(System.currentTimeMillis());
+	}
+
+	/**
+	 * Record a successful connection to the unit with the given identifier.
+	 *
+	 * @param identifier The identifier of the unit.
+	 */
+	public void contact(final String identifier) {
+		history(identifier).contact(System.currentTimeMillis());
+	}
+
+	/**
+	 * Record a failed connection to the unit with the given identifier.
+	 *
+	 * @param identifier The identifier of the unit.
+	 */
+	public void failure(final String identifier) {
+		history(identifier).failure(System.currentTimeMillis());
+	}
+
+	/**
+	 * Return the time of the last sign of life of the unit with the given identifier.
+	 *
+	 * @param identifier The identifier of the unit.
+	 * @return The time in milliseconds, or 0 if the unit has never been reached.
+	 */
+	public long getLastContact(final String identifier) {
+		History h = histories.get(identifier);
+		return h == null ? 0 : h.lastAlive();
+	}
+
+	/**
+	 * Return the suspicion level of the unit with the given identifier.
+	 *
+	 * @param identifier The identifier of the unit.
+	 * @return phi, 0 if there are not enough heartbeats for an estimation.
+	 */
+	public double phi(final String identifier) {
+		History h = histories.get(identifier);
+		return h == null ? 0 : h.phi(System.currentTimeMillis());
+	}
+
+	/**
+	 * Decide whether the unit with the given identifier is suspected to be dead.
+	 *
+	 * @param identifier The identifier of the unit.
+	 * @return true if the unit is suspected.
+	 */
+	public boolean isSuspected(final String identifier) {
+		History h = histories.get(identifier);
+		if (h == null)
+			return false;
+		long now = System.currentTimeMillis();
+		return h.hasFailedSince(now - retryAfter) || h.phi(now) > threshold;
+	}
+
+	/**
+	 * Return the history of the given unit, create it if necessary.
+	 */
+	private History history(final String identifier) {
+		History h = histories.get(identifier);
+		if (h == null) {
+			History created = new History();
+			h = histories.putIfAbsent(identifier, created);
+			if (h == null)
+				h = created;
+		}
+		return h;
+	}
+
+	/**
+	 * The observations made for one unit.
+	 */
+	private static final class History {
+		/** Ring buffer of heartbeat intervals */
+		private final long[] intervals = new long[WINDOW];
+		/** Number of valid intervals */
+		private int count;
+		/** Next position in the ring buffer */
+		private int next;
+		/** Sum of the valid intervals */
+		private long sum;
+		/** Time of the last heartbeat, 0 if none */
+		private long lastHeartbeat;
+		/** Time of the last successful connection, 0 if none */
+		private long lastContact;
+		/** Time of the last failed connection, 0 if none */
+		private long lastFailure;
+
+		synchronized void heartbeat(long now) {
+			if (lastHeartbeat > 0) {
+				long interval = now - lastHeartbeat;
+				if (count == WINDOW)
+					sum -= intervals[next];
+				else
+					count++;
+				intervals[next] = interval;
+				sum += interval;
+				next = (next + 1) % WINDOW;
+			}
+			lastHeartbeat = now;
+		}
+
+		synchronized void contact(long now) {
+			lastContact = now;
+		}
+
+		synchronized void failure(long now) {
+			lastFailure = now;
+		}
+
+		synchronized long lastAlive() {
+			return Math.max(lastHeartbeat, lastContact);
+		}
+
+		synchronized boolean hasFailedSince(long time) {
+			return lastFailure > time && lastFailure > lastAlive();
+		}
+
+		synchronized double phi(long now) {
+			if (count == 0)
+				return 0;
+			double mean = Math.max(1.0, (double) sum / count);
+			return (now - lastAlive()) / mean * LOG10_E;
+		}
+	}
+}
@@ -115,6 +115,96 @@ public abstract class LocalPolicy {
 	public abstract LocalPolicyResponse remoteRequest(DelegationReqResp dr)
 			throws IllegalArgumentException;
 
+	/**
+	 * Decide whether the given local request belongs to the control plane, e.g.,
+	 * a change of the network membership. Control-plane requests are handled by the
+	 * coordinator on a separate executor with a separate lock, such that they do not
+	 * delay security decisions. By default no request belongs to the control plane.
+	 *
+	 * @param ev The local request
+	 * @return true if the request belongs to the control plane
+	 */
+	public boolean isControlEvent(CriticalEvent ev) {
+		return false;
+	}
+
+	/**
+	 * Decide whether the given remote message belongs to the control plane.
+	 * By default no message belongs to the control plane.
+	 *
+	 * @param dr The remote message
+	 * @return true if the message belongs to the control plane
+	 * @see #isControlEvent(CriticalEvent)
+	 */
+	public boolean isControlMessage(DelegationReqResp dr) {
+		return false;
+	}
+
+	/**
+	 * Determine the shard key of the given local request. If the coordinator runs
+	 * with several shards, requests with the same non-negative key are handled one
+	 * after another by the same shard thread, while requests with different keys may
+	 * be handled concurrently and without the lock of the local policy. A policy
+	 * returning shard keys must therefore only share state between different keys 
+	 * in a thread-safe way. By default all requests are handled with the lock.
+	 *
+	 * @param ev The local request
+	 * @return the shard key, or a negative value to handle the request with the lock
+	 */
+	public int getShardKey(CriticalEvent ev) {
+		return -1;
+	}
+
+	/**
+	 * Determine the shard key of the given remote message.
+	 *
+	 * @param dr The remote message
+	 * @return the shard key, or a negative value to handle the message with the lock
+	 * @see #getShardKey(CriticalEvent)
+	 */
+	public int getShardKey(DelegationReqResp dr) {
+		return -1;
+	}
+
+	/**
+	 * Determine the priority class of the given local request. The coordinator serves
+	 * the classes with different weights, such that important requests do not wait
+	 * behind bursts of less important ones. By default all requests are of normal
+	 * priority.
+	 *
+	 * @param ev The local request
+	 * @return the priority class
+	 */
+	public Priority getPriority(CriticalEvent ev) {
+		return Priority.NORMAL;
+	}
+
+	/**
+	 * Determine the priority class of the given remote message.
+	 *
+	 * @param dr The remote message
+	 * @return the priority class
+	 * @see #getPriority(CriticalEvent)
+	 */
+	public Priority getPriority(DelegationReqResp dr) {
+		return Priority.NORMAL;
+	}
+
+	/**
+	 * Decide how to proceed with a message that could not be sent to the unit with
+	 * the given identifier, e.g., route it to another unit. The coordinator calls the
+	 * method on the stage and with the lock it uses for a received message of the 
+	 * same kind, see {@link #remoteRequest(DelegationReqResp)}. By default the
+	 * message is dropped.
+	 *
+	 * @param destinationID The identifier of the unreachable unit
+	 * @param dr The message that could not be sent
+	 * @return the response to be passed on instead, or null to drop the message
+	 */
+	public LocalPolicyResponse unreachable(String destinationID, DelegationReqResp dr) {
+		return null;
+	}
+
 	/**
 	 * Get identifier.
 	 *
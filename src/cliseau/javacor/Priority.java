@@ -0,0 +1,66 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.javacor;
+
+/**
+ * Priority classes of the messages handled by the coordinator. A stage with several
+ * lanes serves the lane of each class with its own weight, such that messages of a
+ * higher class do not wait behind bursts of a lower class while the lower classes
+ * still make progress.
+ */
+public enum Priority {
+	HIGH(8),
+	NORMAL(4),
+	LOW(1);
+
+	/** The default weight of the class */
+	private final int defaultWeight;
+
+	private Priority(int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+	/**
+	 * Get the default weights of all classes, ordered by class.
+	 * 
+	 * @return the default weights
+	 */
+	public static int[] defaultWeights() {
+		int[] weights = new int[values().length];
+		for (Priority p : values())
+			weights[p.ordinal()] = p.defaultWeight;
+		return weights;
+	}
+
+	/**
+	 * Parse the given priority class name, ignoring the case.
+	 * 
+	 * @param name			the name of the class
+	 * @param defaultValue	the class to be used if the name is unknown
+	 * @return the priority class
+	 */
+	public static Priority parse(String name, Priority defaultValue) {
+		for (Priority p : values())
+			if (p.name().equalsIgnoreCase(name.trim()))
+				return p;
+		return defaultValue;
+	}
+}
@@ -0,0 +1,430 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package cliseau.javacor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import tools.monitor.LatencyHistogram;
+import tools.monitor.Latencies;
+
+/**
+ * A bounded stage of the coordinator pipeline. A stage owns a fixed number of threads
+ * that take tasks from bounded queues one after another. A producer either blocks
+ * while the queue is full ({@link #put(Runnable, int)}), which propagates backpressure
+ * to the previous stage, or gives up immediately ({@link #offer(Runnable, int)}). The
+ * stage keeps gauges of its queue depth and a histogram of the time tasks spend in 
+ * its queues for monitoring. <br>
+ * A stage may have several lanes, each with its own queue and weight. The threads
+ * serve the lanes in weighted round robin: lane i is served up to weight[i] times
+ * per round, lower lanes first, and a round ends as soon as no pending task may be
+ * served anymore. <br>
+ * A stage that is no longer needed can be retired once it has been idle for a while
+ * ({@link #retireIfIdle(long)}). A retired stage accepts no tasks anymore, its
+ * producers then have to use a new stage.
+ */
+public class Stage {
+
+	/** The name of the stage, also used for its threads */
+	private final String name;
+
+	/** The queues of pending tasks, one per lane */
+	private final ArrayDeque<Runnable>[] lanes;
+
+	/** The weights of the lanes */
+	private final int[] weights;
+
+	/** The number of tasks each lane may still be served in the current round */
+	private final int[] credits;
+
+	/** The capacity of the queue of each lane */
+	private final int capacity;
+
+	/** The enqueuing times of the pending tasks, a ring buffer per lane */
+	private final long[][] enqueued;
+
+	/** The position of the oldest pending task in the ring buffer of each lane */
+	private final int[] heads;
+
+	/** The time tasks spend in the queues */
+	private final LatencyHistogram queueing;
+
+	/** The number of pending tasks in all lanes */
+	private int depth;
+
+	/** Lock guarding the lanes */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Signaled when a task is enqueued */
+	private final Condition notEmpty = lock.newCondition();
+
+	/** Signaled when a task is taken */
+	private final Condition notFull = lock.newCondition();
+
+	/** The highest queue depth observed so far */
+	private final AtomicInteger maxDepth = new AtomicInteger();
+
+	/** The number of tasks rejected because the queue was full */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/** The threads of the stage */
+	private final Thread[] workers;
+
+	/** Indicates whether the stage shall continue operating */
+	private volatile boolean canContinue = true;
+
+	/** The number of tasks currently run by the threads */
+	private final AtomicInteger busy = new AtomicInteger();
+
+	/** Time in nanoseconds at which the last task was enqueued */
+	private long lastEnqueued = System.nanoTime();
+
+	/** Indicates whether the stage has been retired, guarded by the lock */
+	private boolean retired;
+
+	/**
+	 * Create and start a stage with a single lane.
+	 * 
+	 * @param name The name of the stage
+	 * @param threads The number of threads of the stage
+	 * @param capacity The maximal number of pending tasks
+	 */
+	public Stage(final String name, final int threads, final int capacity) {
+		this(name, threads, capacity, new int[] { 1 });
+	}
+
+	/**
+	 * Create and start a stage with one lane per given weight.
+	 * 
+	 * @param name The name of the stage
+	 * @param threads The number of threads of the stage
+	 * @param capacity The maximal number of pending tasks per lane
+	 * @param weights The weights of the lanes, each at least 1
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Stage(final String name, final int threads, final int capacity,
+			final int[] weights) {
+		this.name = name;
+		this.capacity = capacity;
+		this.weights = weights.clone();
+		this.credits = weights.clone();
+		this.lanes = new ArrayDeque[weights.length];
+		for (int i = 0; i < lanes.length; i++)
+			lanes[i] = new ArrayDeque<Runnable>();
+		this.enqueued = new long[weights.length][capacity];
+		this.heads = new int[weights.length];
+		this.queueing = Latencies.register("queueing_" + name);
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, threads == 1 ? name : name + "-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Run the tasks of the lanes until the stage is stopped.
+	 */
+	private void work() {
+		while (canContinue) {
+			Runnable task;
+			try {
+				task = take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// A failing task must not stop the stage
+				e.printStackTrace();
+			} finally {
+				busy.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Take the next task according to the weights of the lanes, waiting while all
+	 * lanes are empty.
+	 * 
+	 * @return the next task
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (depth == 0)
+				notEmpty.await();
+			while (true) {
+				for (int i = 0; i < lanes.length; i++) {
+					if (credits[i] > 0 && !lanes[i].isEmpty()) {
+						credits[i]--;
+						depth--;
+						queueing.recordSince(enqueued[i][heads[i]]);
+						heads[i] = (heads[i] + 1) % capacity;
+						notFull.signalAll();
+						busy.incrementAndGet();
+						return lanes[i].poll();
+					}
+				}
+				// No pending task may be served anymore => next round
+				System.arraycopy(weights, 0, credits, 0, weights.length);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Enqueue the given task into the given lane, waiting while the lane is full.
+	 * 
+	 * @param task The task to be run by the stage
+	 * @param lane The lane, lanes beyond the last one are mapped to the last one
+	 * @return true if the task was enqueued, false if the stage has been retired
+	 */
+	public boolean put(final Runnable task, final int lane) {
+		int l = Math.min(lane, lanes.length - 1);
+		ArrayDeque<Runnable> queue = lanes[l];
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			while (queue.size() >= capacity) {
+				try {
+					notFull.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (retired)
+				return false;
+			enqueue(l, task);
+			return true;
+		} finally {
+			lock.unlock();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Enqueue the given task into the first lane, waiting while the lane is full.
+	 * 
+	 * @param task The task to be run by the stage
+	 * @return true if the task was enqueued, false if the stage has been retired
+	 */
+	public boolean put(final Runnable task) {
+		return put(task, 0);
+	}
+
+	/**
+	 * Enqueue the given task into the given lane if the lane is not full.
+	 * 
+	 * @param task The task to be run by the stage
+	 * @param lane The lane, lanes beyond the last one are mapped to the last one
+	 * @return true if the task was enqueued, false if the lane is full or the stage
+	 * 			has been retired
+	 */
+	public boolean offer(final Runnable task, final int lane) {
+		int l = Math.min(lane, lanes.length - 1);
+		ArrayDeque<Runnable> queue = lanes[l];
+		lock.lock();
+		try {
+			if (retired)
+				return false;
+			if (queue.size() >= capacity) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			enqueue(l, task);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Enqueue the given task into the first lane if the lane is not full.
+	 * 
+	 * @param task The task to be run by the stage
+	 * @return true if the task was enqueued, false if the lane is full or the stage
+	 * 			has been retired
+	 */
+	public boolean offer(final Runnable task) {
+		return offer(task, 0);
+	}
+
+	/**
+	 * Enqueue the given task into the queue of the given lane and update the gauges.
+	 * Must be called with the lock held and the queue not full.
+	 * 
+	 * @param lane The lane
+	 * @param task The task
+	 */
+	private void enqueue(int lane, Runnable task) {
+		lastEnqueued = System.nanoTime();
+		enqueued[lane][(heads[lane] + lanes[lane].size()) % capacity] = lastEnqueued;
+		lanes[lane].add(task);
+		depth++;
+		if (depth > maxDepth.get())
+			maxDepth.set(depth);
+		notEmpty.signal();
+	}
+
+	/**
+	 * Stop the threads of the stage after their current task. Pending tasks are
+	 * discarded.
+	 */
+	public void stop() {
+		canContinue = false;
+		for (Thread worker : workers)
+			worker.interrupt();
+	}
+
+	/**
+	 * Retire the stage if no task is pending or running and no task has been enqueued
+	 * for the given time. The threads of a retired stage terminate and its queueing
+	 * histogram is unregistered.
+	 * 
+	 * @param idle The minimal idle time in nanoseconds
+	 * @return true if the stage is retired
+	 */
+	public boolean retireIfIdle(long idle) {
+		lock.lock();
+		try {
+			if (retired)
+				return true;
+			if (depth > 0 || busy.get() > 0 || System.nanoTime() - lastEnqueued < idle)
+				return false;
+			retired = true;
+		} finally {
+			lock.unlock();
+		}
+		stop();
+		Latencies.unregister(queueing);
+		return true;
+	}
+
+	/**
+	 * Check whether the stage has been retired.
+	 * 
+	 * @return true if the stage accepts no tasks anymore
+	 */
+	public boolean isRetired() {
+		lock.lock();
+		try {
+			return retired;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the name of the stage.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the current number of pending tasks in all lanes.
+	 * 
+	 * @return the queue depth
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return depth;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the current number of pending tasks of each lane.
+	 * 
+	 * @return the queue depths of the lanes
+	 */
+	public int[] getLaneDepths() {
+		lock.lock();
+		try {
+			int[] result = new int[lanes.length];
+			for (int i = 0; i < lanes.length; i++)
+				result[i] = lanes[i].size();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the highest number of pending tasks observed so far.
+	 * 
+	 * @return the maximal queue depth
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * Get the maximal number of pending tasks.
+	 * 
+	 * @return the capacity of all lanes together
+	 */
+	public int getCapacity() {
+		return capacity * lanes.length;
+	}
+
+	/**
+	 * Get the histogram of the time tasks spend in the queues of the stage.
+	 * 
+	 * @return the queueing latency
+	 */
+	public LatencyHistogram getQueueingLatency() {
+		return queueing;
+	}
+
+	/**
+	 * Get the number of tasks rejected by {@link #offer(Runnable, int)}.
+	 * 
+	 * @return the number of rejected tasks
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return name + " depth=" + Arrays.toString(getLaneDepths()) + " max=" 
+				+ getMaxQueueDepth() + " rejected=" + getRejected();
+	}
+}
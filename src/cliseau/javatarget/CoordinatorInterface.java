@@ -28,7 +28,14 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import cliseau.central.IcapEnforcementDecision;
 import cliseau.central.delegation.IcapLocalNotification;
 import cliseau.javacor.CriticalEvent;
 import cliseau.javacor.EnforcementDecision;
@@ -48,6 +55,10 @@ import cliseau.javacor.EnforcementDecision;
  *  - an incoming connection from the local coordinator is awaited for receiving
  *    data.
  *
+ * Incoming connections are accepted by a single decision reader thread, which
+ * hands every decision to the thread that has requested it (see request()), so
+ * that several enforcer threads can await decisions at the same time.
+ *
  * This follows the formal model of service automata which uses separate
  * channels for the communication between interceptor and coordinator and,
  * respectively, between enforcer and coordinator. Whether the chosen approach
@@ -68,6 +79,14 @@ public class CoordinatorInterface {
 	private static ServerSocket enforcerSocket;
 	/** Cached address for the local host */
 	private static InetAddress localhost = null;
+	/** The callers awaiting a decision, by the request ID of their event */
+	private static final ConcurrentHashMap<Long, BlockingQueue<EnforcementDecision>> 
+			awaited = new ConcurrentHashMap<Long, BlockingQueue<EnforcementDecision>>();
+	/** The callers awaiting a decision that is not correlated with their event */
+	private static final ConcurrentLinkedQueue<BlockingQueue<EnforcementDecision>> 
+			uncorrelated = new ConcurrentLinkedQueue<BlockingQueue<EnforcementDecision>>();
+	/** The last given request ID */
+	private static final AtomicLong requestIDs = new AtomicLong();
 
 	/**
 	 * Private constructor to disallow instances of this class.
@@ -98,6 +117,9 @@ public class CoordinatorInterface {
 	public static void init(final SocketAddress coordinatorAddress, final ServerSocket enforcerSocket) {
 		CoordinatorInterface.coordinatorAddress = coordinatorAddress;
 		CoordinatorInterface.enforcerSocket = enforcerSocket;
+		Thread reader = new Thread(new DecisionReader(), "Decision reader");
+		reader.setDaemon(true);
+		reader.start();
 	}
 
 	/**
@@ -109,7 +131,7 @@ public class CoordinatorInterface {
 	 *
 	 * @param ev The critical event to be sent to the local coordinator
 	 * @exception IOException Thrown in case of connection and transmission failures
-	 * @see #receive()
+	 * @see #request(CriticalEvent, long, long)
 	 * @todo This method uses Java's serialization mechanism for obtaining and
 	 *       sending a transmissible representation of the critical event. This
 	 *       design decision should be factored out of this method somehow (how?).
@@ -152,13 +174,74 @@ public class CoordinatorInterface {
 		connection.close();
 	}
 
+	/**
+	 * Obtain a fresh request ID for correlating a critical event with its decision.
+	 *
+	 * @return A request ID that is unique within this process, never 0
+	 * @see #request(CriticalEvent, long, long)
+	 */
+	public static long nextRequestID() {
+		return requestIDs.incrementAndGet();
+	}
+
+	/**
+	 * Send a critical event to the local coordinator and wait for its decision.
+	 *
+	 * The decision is received by the decision reader thread and handed over by its
+	 * request ID, such that concurrent callers each obtain the decision about their
+	 * own event. Decisions without a request ID are handed to the callers that have
+	 * passed 0 in the order of their calls.
+	 *
+	 * @param ev The critical event to be sent to the local coordinator
+	 * @param requestID The request ID carried by the event and its decision, or 0 if
+	 *                  the decision is not correlated with the event
+	 * @param timeout The maximal time to wait in milliseconds, 0 for no limit
+	 * @return The received enforcement decision, or null if the time has run out
+	 * @exception IOException Thrown in case of connection and transmission failures
+	 * @exception InterruptedException Thrown if the waiting thread is interrupted
+	 * @see #nextRequestID()
+	 */
+	public static EnforcementDecision request(CriticalEvent ev, long requestID,
+			long timeout) throws IOException, InterruptedException {
+		BlockingQueue<EnforcementDecision> slot = 
+				new ArrayBlockingQueue<EnforcementDecision>(1);
+		if (requestID != 0)
+			awaited.put(requestID, slot);
+		else
+			uncorrelated.add(slot);
+		try {
+			send(ev);
+			return timeout > 0 ? slot.poll(timeout, TimeUnit.MILLISECONDS) 
+					: slot.take();
+		} finally {
+			// A decision arriving from now on is discarded
+			if (requestID != 0)
+				awaited.remove(requestID);
+			else
+				uncorrelated.remove(slot);
+		}
+	}
+
+	/**
+	 * Hand the given decision to the caller of {@link #request(CriticalEvent, long, 
+	 * long)} awaiting it. A decision that is not awaited anymore is discarded.
+	 *
+	 * @param ed The received enforcement decision
+	 */
+	private static void dispatch(EnforcementDecision ed) {
+		long requestID = ed instanceof IcapEnforcementDecision 
+				? ((IcapEnforcementDecision) ed).requestID : 0;
+		BlockingQueue<EnforcementDecision> slot = requestID != 0 
+				? awaited.remove(requestID) : uncorrelated.poll();
+		if (slot != null)
+			slot.offer(ed);
+	}
+
 	/**
 	 * Wait for and receive an enforcement decision from the local coordinator.
 	 *
-	 * This method is supposed to be invoked by the enforcer part of a CliSeAu unit.
-	 * In an aspect-oriented programming approach, this presumably is
-	 * a part of every CliSeAu aspect's advice and follows a call to
-	 * send().
+	 * This method is only invoked by the decision reader thread, which dispatches
+	 * the decisions to the enforcer part of the CliSeAu unit.
 	 *
 	 * @return The received enforcement decision
 	 * @exception IOException Thrown in case of connection errors
@@ -172,17 +255,39 @@ public class CoordinatorInterface {
 	 * @todo Check whether it makes sense to catch and handle IOException here already
 	 * @todo Check whether the used cast can actually throw a ClassCastException
 	 */
-	public static EnforcementDecision receive()
+	private static EnforcementDecision receive()
 			throws IOException,ClassNotFoundException {
 		// Step 1: accept (wait for) connections from the local coordinator
 		Socket connection = enforcerSocket.accept();
 
-		// Step 2: read und deserialize the enforcement decision
-		ObjectInputStream ois = new ObjectInputStream(connection.getInputStream());
-		EnforcementDecision ed = (EnforcementDecision) ois.readObject();
+		try {
+			// Step 2: read und deserialize the enforcement decision
+			ObjectInputStream ois = new ObjectInputStream(connection.getInputStream());
+			return (EnforcementDecision) ois.readObject();
+		} finally {
+			// Step 3: close connection
+			connection.close();
+		}
+	}
 
-		// Step 3: close connection and return the enforcement decision
-		connection.close();
-		return ed;
+	/**
+	 * Thread that receives all enforcement decisions from the local coordinator. It
+	 * is the only one accepting connections on the enforcer socket.
+	 */
+	private static class DecisionReader implements Runnable {
+
+		@Override
+		public void run() {
+			while (!enforcerSocket.isClosed()) {
+				try {
+					dispatch(receive());
+				} catch (IOException e) {
+					if (!enforcerSocket.isClosed())
+						e.printStackTrace();
+				} catch (ClassNotFoundException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 	}
 }
@@ -36,6 +36,8 @@ import java.io.*;
 import java.net.*;
 
 import tools.logger.Log;
+import tools.monitor.FlightEvents;
+import tools.monitor.Latencies;
 import tools.monitor.TrafficStatistics;
 import tools.general.Compressor;
 import tools.general.MimeMagic;
@@ -81,6 +83,9 @@ public abstract class AbstractService extends IcapParser {
 
 	protected int RCODE = 500;
 
+	/** Time in nanoseconds spent by getAllBody() for the current request */
+	protected long bodyreadtime = 0;
+
 	/** ICAP server instantiating this service*/
 	public IcapServer server;
 	
@@ -134,6 +139,21 @@ public abstract class AbstractService extends IcapParser {
 	}
 	//	<------------------------------------------------------------------------->
 
+	//	<------------------------------------------------------------------------->
+	/**
+	 * Attach the streams from which ICAP requests are read and to which responses are written<br />
+	 * Called for the client socket by run(), benchmarks attach in-memory streams instead
+	 * @param in the stream providing ICAP requests
+	 * @param out the stream receiving ICAP responses
+	 * @return the buffered stream to parse ICAP requests from
+	 */
+	public DataInputStream attachStreams(InputStream in, OutputStream out){
+		this.bufferedOutputStream = new BufferedOutputStream(out);
+		this.dis = new DataInputStream(new BufferedInputStream(in, BYTEBUFFERSIZE));
+		return this.dis;
+	}
+	//	<------------------------------------------------------------------------->
+
 	//	<------------------------------------------------------------------------->
 	/**This methods offers possibility to services to flush their configuration on cleanup event*/
 	public static void cleanup(){}
@@ -337,8 +357,7 @@ public abstract class AbstractService extends IcapParser {
 			}
 			try {
 
-				this.bufferedOutputStream = new BufferedOutputStream(this.socket.getOutputStream());
-				this.dis = new DataInputStream(new BufferedInputStream(this.socket.getInputStream(), BYTEBUFFERSIZE));
+				attachStreams(this.socket.getInputStream(), this.socket.getOutputStream());
 				ByteArrayOutputStream response = new ByteArrayOutputStream();
 				do {
 					try {
@@ -358,7 +377,8 @@ public abstract class AbstractService extends IcapParser {
 							break;
 						case REQMOD:
 						case RESPMOD:
-							readPreview();
+							long bodystart = System.nanoTime();
+							if (readPreview()) Latencies.BODY_READ.recordSince(bodystart);
 							this.RCODE = getResponse(response);
 							TrafficStatistics.hit();
 							break;
@@ -366,7 +386,10 @@ public abstract class AbstractService extends IcapParser {
 							this.connection_opened = false;
 							continue;
 						}
+						int status = requesttype==TYPE.INVALID ? 400 : this.RCODE;
+						TrafficStatistics.count(getDescription(), requesttype.name(), status);
 						if (Log.finer()) Log.trace(Log.FINER, "THREAD ["+id+"] RESPONSE:\n---------------------\n"+response.toString()+"---------------------");
+						long writestart = System.nanoTime();
 						response.writeTo(this.bufferedOutputStream); // Write back response to client
 
 						if (this.brand==ClientBrand.NETAPP && this.RCODE==204 && this.preview==0 && requesttype==TYPE.REQMOD) {
@@ -383,6 +406,12 @@ public abstract class AbstractService extends IcapParser {
 							this.bufferedOutputStream.flush();
 							connection_opened = false;
 						}
+						if (requesttype==TYPE.REQMOD || requesttype==TYPE.RESPMOD) Latencies.ICAP_WRITE.recordSince(writestart);
+						if (this.transaction!=null) {
+							long bytesin = this.icapHeader.length() + this.reqHeader.length() 
+									+ this.resHeader.length() + Math.max(0, this.contentLength);
+							FlightEvents.ICAP_TRANSACTION.commit(this.transaction, requesttype.name(), getDescription(), status, bytesin, (long) response.size());
+						}
 					} catch(java.net.SocketException socketex) {
 						if (Log.fine()) Log.trace(Log.FINE,getServerName()+"=>Connection prematurely closed by ICAP client - End user aborted connection or transaction failure.",socketex);
 						this.connection_opened = false;
@@ -580,6 +609,23 @@ public abstract class AbstractService extends IcapParser {
 	public boolean getAllBody() throws Exception {
 		if (bodyreaded) return false;
 		bodyreaded = true;
+		long bodystart = System.nanoTime();
+		try {
+			return readAllBody();
+		} finally {
+			bodyreadtime += System.nanoTime() - bodystart;
+			Latencies.BODY_READ.recordSince(bodystart);
+		}
+	}
+	//	<------------------------------------------------------------------------------------------>
+
+	//	<------------------------------------------------------------------------------------------>
+	/**
+	 * Read all HTTP body, called once by getAllBody()<br>
+	 * @return false if an error has been encountered<br>
+	 * @throws Exception
+	 */
+	private boolean readAllBody() throws Exception {
 		if (this.i_res_body==0 && this.i_req_body==0) return false; //no body => abort
 		if (this.preview>-1 && !previewreaded) readPreview();
 		if (previewstarved) {
@@ -745,6 +791,8 @@ public abstract class AbstractService extends IcapParser {
 	 * Called between each iteration for iCAP keep-alive connections<br>
 	 */
 	private void reset(){
+		this.bodyreadtime = 0;
+		this.transaction = null;
 		this.firstline="";
 		this.req_url="";
 		this.req_url_path="";
@@ -826,6 +874,7 @@ public abstract class AbstractService extends IcapParser {
 		} catch (Exception e) {
 			return TYPE.INVALID;
 		}
+		if (this.type==TYPE.REQMOD || this.type==TYPE.RESPMOD) Latencies.ICAP_PARSE.recordSince(parsestart);
 		return this.type;
 	}
 	//	<------------------------------------------------------------------------------------------>
@@ -35,6 +35,7 @@ import java.util.Hashtable;
 import tools.general.Base64;
 import tools.logger.Log;
 import tools.general.ExtendedByteArrayOutputStream;
+import tools.monitor.FlightEvents;
 ///////////////////////////////////
 
 
@@ -64,6 +65,12 @@ public abstract class IcapParser extends Thread implements Icap {
 	/**timer used to determine processing time*/
 	public long starttime=  0;
 
+	/**time in nanoseconds at which the first line of the request has been read*/
+	protected long parsestart = 0;
+
+	/**flight recorder event of the current ICAP transaction, null if not recorded*/
+	protected Object transaction = null;
+
 	/**HTTP Parsed Informations*/
 	protected String firstline="";
 	/**The complete requested URL: http://<host>:<port>/<path>?<searchpart>*/
@@ -180,6 +187,8 @@ public abstract class IcapParser extends Thread implements Icap {
 					if (Log.finest()) Log.trace(Log.FINEST, "----------CLOSED BUFFER-----------");
 					return TYPE.INVALID;
 				}
+				parsestart = System.nanoTime();
+				transaction = FlightEvents.ICAP_TRANSACTION.begin();
 				if (!readline.startsWith("REQMOD") && !readline.startsWith("RESPMOD") && !readline.startsWith("OPTIONS")) {
 					if (readline.trim().equals("")) continue;
 					return TYPE.INVALID;
@@ -0,0 +1,282 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package icap.services;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cliseau.javacor.Priority;
+
+/**
+ * Adaptive admission control for the enforcement requests of the Cliseau service. The
+ * number of requests waiting for a decision at the same time is limited. The limit is 
+ * adjusted additive-increase/multiplicative-decrease from the observed decision 
+ * latency: every decision within the latency target raises the limit by one per
+ * limit-many decisions, a slower one lowers it by a constant factor. The limit is
+ * lowered at most once per latency target, since the decisions released within that
+ * time were all waiting under the same load. A request over the limit is shed, i.e.
+ * answered at once with the overload fallback of its priority class instead of
+ * queuing up in front of an overloaded coordinator. The priority class of a request
+ * also shifts its threshold: high-priority requests are admitted up to the upper 
+ * bound even if the limit has shrunk, low-priority requests only up to half of the
+ * limit, so the lower classes are shed first. Shed requests and requests whose
+ * decision did not arrive within the budget are counted, the counters are exposed on
+ * the metrics page. While requests are shed, a summary is logged at most once per
+ * {@link #REPORT_INTERVAL}. <br>
+ * The admission control is configured by the following parameters of the service
+ * configuration:
+ * <ul>
+ * <li>maxinflight : upper bound of the limit, 0 disables the admission control
+ * (default 64)</li>
+ * <li>latencytarget : decision latency in milliseconds up to which the limit is 
+ * raised (default half of the budget)</li>
+ * <li>overloadmode : decision for shed requests of the high, normal and low class,
+ * each either "open" or "closed" (default closed,closed,open); a single value 
+ * applies to all classes</li>
+ * </ul>
+ */
+public class AdmissionControl {
+
+	/**
+	 * Factor applied to the limit after a slow decision
+	 */
+	private static final double BACKOFF = 0.9;
+
+	/**
+	 * Minimal time in nanoseconds between two overload reports
+	 */
+	private static final long REPORT_INTERVAL = 10000000000L;
+
+	/**
+	 * Upper bound of the limit
+	 */
+	private final int maxLimit;
+
+	/**
+	 * Decision latency in milliseconds up to which the limit is raised
+	 */
+	private final long latencyTarget;
+
+	/**
+	 * The priority classes whose shed requests are permitted
+	 */
+	private final EnumSet<Priority> overloadOpen;
+
+	/**
+	 * The current limit of requests waiting for a decision
+	 */
+	private double limit;
+
+	/**
+	 * The number of requests currently waiting for a decision
+	 */
+	private int inFlight;
+
+	/**
+	 * Time in nanoseconds of the last decrease of the limit
+	 */
+	private long lastBackoff;
+
+	/**
+	 * The number of admitted requests
+	 */
+	private final AtomicLong admitted = new AtomicLong();
+
+	/**
+	 * The number of shed requests by event type
+	 */
+	private final Map<String, Long> shed = new TreeMap<String, Long>();
+
+	/**
+	 * The number of requests shed since the last overload report
+	 */
+	private long shedSinceReport;
+
+	/**
+	 * Time in nanoseconds of the last overload report
+	 */
+	private long lastReport;
+
+	/**
+	 * The number of admitted requests whose decision did not arrive in time
+	 */
+	private final AtomicLong timedOut = new AtomicLong();
+
+	/**
+	 * Create an admission control.
+	 * 
+	 * @param maxLimit		upper bound of the limit, 0 disables the admission control
+	 * @param latencyTarget	decision latency in milliseconds up to which the limit
+	 * 						is raised
+	 * @param overloadMode	the decisions for shed requests of the high, normal and
+	 * 						low class, separated by commas, each either "open" or
+	 * 						"closed"; a single value applies to all classes
+	 */
+	public AdmissionControl(int maxLimit, long latencyTarget, String overloadMode) {
+		this.maxLimit = maxLimit;
+		this.latencyTarget = latencyTarget;
+		this.overloadOpen = EnumSet.noneOf(Priority.class);
+		this.limit = maxLimit;
+		this.lastBackoff = System.nanoTime() - latencyTarget * 1000000;
+		this.lastReport = System.nanoTime() - REPORT_INTERVAL;
+
+		String[] modes = overloadMode.split(",");
+		for (Priority p : Priority.values()) {
+			String mode = modes[Math.min(p.ordinal(), modes.length - 1)];
+			if (mode.trim().equalsIgnoreCase("open"))
+				overloadOpen.add(p);
+		}
+	}
+
+	/**
+	 * Try to admit a request.
+	 * 
+	 * @param type		the event type of the request, used to account shed requests
+	 * @param priority	the priority class of the request
+	 * @return true if the request is admitted and has to be released after its
+	 * 			decision, false if it has to be answered with the overload fallback
+	 */
+	public synchronized boolean tryAcquire(String type, Priority priority) {
+		if (maxLimit > 0 && inFlight >= threshold(priority)) {
+			Long count = shed.get(type);
+			shed.put(type, count == null ? 1 : count + 1);
+			shedSinceReport++;
+			long now = System.nanoTime();
+			if (now - lastReport >= REPORT_INTERVAL) {
+				System.err.println("» Overload, " + shedSinceReport 
+						+ " request(s) shed since the last report (" + this + ")");
+				shedSinceReport = 0;
+				lastReport = now;
+			}
+			return false;
+		}
+		inFlight++;
+		admitted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Get the number of requests in flight up to which a request of the given 
+	 * priority class is admitted.
+	 * 
+	 * @param priority	the priority class
+	 * @return the threshold
+	 */
+	private int threshold(Priority priority) {
+		switch (priority) {
+		case HIGH:
+			return maxLimit;
+		case LOW:
+			return Math.max(1, (int) limit / 2);
+		default:
+			return (int) limit;
+		}
+	}
+
+	/**
+	 * Release an admitted request and adjust the limit to its decision latency.
+	 * 
+	 * @param latency	the time in milliseconds the request waited for its decision
+	 */
+	public synchronized void release(long latency) {
+		inFlight--;
+		if (maxLimit <= 0)
+			return;
+		if (latency > latencyTarget) {
+			long now = System.nanoTime();
+			if (now - lastBackoff >= latencyTarget * 1000000) {
+				limit = Math.max(1, limit * BACKOFF);
+				lastBackoff = now;
+			}
+		} else
+			limit = Math.min(maxLimit, limit + 1 / limit);
+	}
+
+	/**
+	 * Count an admitted request whose decision did not arrive within the budget.
+	 */
+	public void timedOut() {
+		timedOut.incrementAndGet();
+	}
+
+	/**
+	 * Check whether shed requests of the given priority class are permitted.
+	 * 
+	 * @param priority	the priority class
+	 * @return true if shed requests are permitted, false if they are rejected
+	 */
+	public boolean isOverloadOpen(Priority priority) {
+		return overloadOpen.contains(priority);
+	}
+
+	/**
+	 * Get the current limit.
+	 * 
+	 * @return the maximal number of requests waiting for a decision at the same time
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Get the number of requests currently waiting for a decision.
+	 * 
+	 * @return the number of admitted and not yet released requests
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * Get the number of admitted requests.
+	 * 
+	 * @return the number of admitted requests
+	 */
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	/**
+	 * Get the number of admitted requests whose decision did not arrive in time.
+	 * 
+	 * @return the number of timed out requests
+	 */
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+	/**
+	 * Get the number of shed requests by event type.
+	 * 
+	 * @return a copy of the counters of shed requests
+	 */
+	public synchronized Map<String, Long> getShed() {
+		return new TreeMap<String, Long>(shed);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "limit=" + (int) limit + " inflight=" + inFlight + " admitted=" 
+				+ admitted.get() + " timedout=" + timedOut.get() + " shed=" + getShed();
+	}
+}
@@ -32,10 +32,15 @@ import java.util.Hashtable;
 import javax.imageio.ImageIO;
 
 import tools.general.ExtendedByteArrayOutputStream;
+import tools.monitor.Latencies;
 import cliseau.central.IcapEnforcementDecision;
 import cliseau.central.IcapEventFactory;
+import cliseau.central.event.IcapEvent;
+import cliseau.central.event.IcapEventType;
+import cliseau.central.policy.PriorityClasses;
 import cliseau.central.policy.scaling.LeavingProtocol;
 import cliseau.javacor.CriticalEvent;
+import cliseau.javacor.Priority;
 import cliseau.javatarget.CoordinatorInterface;
 
 /**
@@ -54,8 +59,46 @@ public class Cliseau extends AbstractService{
 	static final String SERVICE_NAME = "USING CLISEAU AS SERVICE"; 
 	String body=null;
 	
+	/**
+	 * Time in milliseconds the service waits for the decision about a security-relevant
+	 * event (service configuration parameter "budget")
+	 */
+	private final long budget;
+	
+	/**
+	 * Whether the request is permitted if the decision does not arrive within the
+	 * budget (service configuration parameter "failmode", either "open" or "closed")
+	 */
+	private final boolean failOpen;
+	
+	/**
+	 * The admission control shared by all connections of the service
+	 */
+	private static AdmissionControl admission;
+	
 	public Cliseau (IcapServer _server, Socket clientsocket) {
 		super(_server, clientsocket);
+		budget = Long.parseLong(_server.serviceconfig.getProperty("budget", "2000").trim());
+		failOpen = _server.serviceconfig.getProperty("failmode", "closed").trim()
+				.equalsIgnoreCase("open");
+		synchronized (Cliseau.class) {
+			if (admission == null)
+				admission = new AdmissionControl(
+						Integer.parseInt(_server.serviceconfig
+								.getProperty("maxinflight", "64").trim()),
+						Long.parseLong(_server.serviceconfig.getProperty(
+								"latencytarget", Long.toString(budget / 2)).trim()),
+						_server.serviceconfig.getProperty("overloadmode", 
+								"closed,closed,open"));
+		}
+	}
+	
+	/**
+	 * Get the admission control of the service.
+	 * @return the admission control, or null if no connection has been handled yet
+	 */
+	public static synchronized AdmissionControl getAdmissionControl() {
+		return admission;
 	}
 	
 	@Override
@@ -105,16 +148,16 @@ public class Cliseau extends AbstractService{
 			throws Exception {
 
 		// ICAP response is based on the generated event
+		long start = System.nanoTime() - bodyreadtime;
 		CriticalEvent ce = getReqModCE();
+		Latencies.EVENT_EXTRACTION.record(System.nanoTime() - start - bodyreadtime);
 		if(ce != null){
 			System.out.println(
 					"                                                             " 
 																		+ ce.toString());
 			// This is a critical event or administrator request
 			// => waiting for decision
-			CoordinatorInterface.send(ce);
-			IcapEnforcementDecision ed = 
-					(IcapEnforcementDecision) CoordinatorInterface.receive();
+			IcapEnforcementDecision ed = decide(ce);
 		
 			if((ed.decision).equals(IcapEnforcementDecision.Decision.PERMIT)){
 
@@ -163,15 +206,15 @@ public class Cliseau extends AbstractService{
 	public synchronized int getRespModResponse(ByteArrayOutputStream bas) 
 			throws Exception {
 		
+		long start = System.nanoTime() - bodyreadtime;
 		CriticalEvent ce = getRespModCE();
+		Latencies.EVENT_EXTRACTION.record(System.nanoTime() - start - bodyreadtime);
 		if(ce != null){
 			System.out.println(
 					"                                                             " 
 																		+ ce.toString());
 			// Critical event => waiting for enforcement decision
-			CoordinatorInterface.send(ce);
-			IcapEnforcementDecision ed = 
-					(IcapEnforcementDecision) CoordinatorInterface.receive();
+			IcapEnforcementDecision ed = decide(ce);
 			
 			if((ed.decision).equals(IcapEnforcementDecision.Decision.PERMIT)){
 				// Let HTTP response pass through the reverse proxy
@@ -188,6 +231,72 @@ public class Cliseau extends AbstractService{
 			return earlyResponse(bas);
 	}
 	
+	/**
+	 * Obtain the decision about the given critical event. Security-relevant events are
+	 * subject to the admission control: if too many of them are already waiting for
+	 * their decision, the overload mode decides at once. The threshold and the
+	 * overload mode depend on the priority class of the event type, by default only
+	 * low-priority requests pass through. Administrator requests are always admitted
+	 * since scaling out is the remedy for overload.
+	 * @param ce	the critical event
+	 * @return	the enforcement decision
+	 * @throws Exception
+	 */
+	private IcapEnforcementDecision decide(CriticalEvent ce) throws Exception {
+
+		if (!(ce instanceof IcapEvent))
+			return awaitDecision(ce);
+
+		IcapEventType type = ((IcapEvent) ce).type;
+		Priority priority = PriorityClasses.of(type);
+		if (!admission.tryAcquire(String.valueOf(type), priority)) {
+			return new IcapEnforcementDecision(admission.isOverloadOpen(priority) 
+					? IcapEnforcementDecision.Decision.PERMIT 
+					: IcapEnforcementDecision.Decision.REJECT,
+					IcapEnforcementDecision.Type.SEC);
+		}
+		long start = System.nanoTime();
+		try {
+			return awaitDecision(ce);
+		} finally {
+			Latencies.DECISION.recordSince(start);
+			admission.release((System.nanoTime() - start) / 1000000);
+		}
+	}
+	
+	/**
+	 * Send the given critical event to the local coordinator and wait for the decision.
+	 * Security-relevant events carry a request ID, by which their decision is handed
+	 * to this thread, and a deadline after which the decision is not awaited anymore,
+	 * the fail mode then decides. Decisions that arrive after their deadline are 
+	 * discarded. Administrator requests are awaited without limit since scaling may 
+	 * take long.
+	 * @param ce	the critical event
+	 * @return	the enforcement decision
+	 * @throws Exception
+	 */
+	private IcapEnforcementDecision awaitDecision(CriticalEvent ce) throws Exception {
+
+		if (!(ce instanceof IcapEvent))
+			// Scaling decisions are made per batch and not correlated with the request
+			return (IcapEnforcementDecision) CoordinatorInterface.request(ce, 0, 0);
+
+		IcapEvent ev = (IcapEvent) ce;
+		ev.requestID = CoordinatorInterface.nextRequestID();
+		if (budget > 0)
+			ev.deadline = System.currentTimeMillis() + budget;
+		IcapEnforcementDecision ed = (IcapEnforcementDecision) CoordinatorInterface
+				.request(ev, ev.requestID, Math.max(budget, 0));
+		if (ed != null)
+			return ed;
+
+		admission.timedOut();
+		return new IcapEnforcementDecision(failOpen 
+				? IcapEnforcementDecision.Decision.PERMIT 
+				: IcapEnforcementDecision.Decision.REJECT,
+				IcapEnforcementDecision.Type.SEC);
+	}
+	
 	//	<-------------------------------------------------------------------------------->
 	//							  Auxiliary Methods for Service Automata
 	//	<-------------------------------------------------------------------------------->
@@ -33,6 +33,7 @@ package icap.services.resources.gs;
 import java.io.*;
 import javax.script.*;
 import tools.logger.Log;
+import tools.monitor.FlightEvents;
 import icap.core.Icap;
 //////////////////////////////////////////
 
@@ -199,8 +200,10 @@ public class Jsr223SpoonScript extends SpoonScript {
 			}
 			String result ="";
 
+			Object execution = FlightEvents.SCRIPT_EXECUTION.begin();
 			ScriptRunner scriptrunner = new ScriptRunner(serverScript, bindings);
 			scriptrunner.join(scriptTimeout);
+			if (execution != null) FlightEvents.SCRIPT_EXECUTION.commit(execution, name, scriptTimeout, scriptrunner.isAlive());
 			String debug = bindings.get(debugstring).toString().trim();
 			if (Log.fine()) if (debug != null && debug.length()>0) Log.service(Log.FINE, String.format("%1$-20s  trace log [%2$s]", name,debug));
 			if (scriptrunner.isAlive()) {
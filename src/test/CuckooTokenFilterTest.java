@@ -0,0 +1,98 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cliseau.central.policy.CuckooTokenFilter;
+import cliseau.central.policy.KeyedTokenSet;
+
+/**
+ * Check the cuckoo token filter: no false negatives, a false-positive rate within
+ * its bound, and handover of keys
+ */
+public class CuckooTokenFilterTest {
+
+	/**
+	 * Maps tokens to 16 keys
+	 */
+	KeyedTokenSet.KeyFunction keyFunction = new KeyedTokenSet.KeyFunction() {
+		@Override
+		public int keyOf(String token) {
+			return Math.abs(token.hashCode() % 16);
+		}
+	};
+
+	/**
+	 * The filter under test
+	 */
+	CuckooTokenFilter filter;
+
+	@Before
+	public void setUp() {
+		filter = new CuckooTokenFilter(keyFunction, 0.001, 256);
+	}
+
+	@Test
+	public void testFingerprintBits() {
+		assertEquals(13, filter.getFingerprintBits());
+		assertTrue(filter.getFalsePositiveRate() <= 0.001);
+	}
+
+	@Test
+	public void testNoFalseNegatives() {
+		for (int i = 0; i < 20000; i++)
+			filter.add("EC-" + i);
+		for (int i = 0; i < 20000; i++)
+			assertTrue(filter.contains("EC-" + i));
+		for (int i = 0; i < 20000; i += 2)
+			assertTrue(filter.remove("EC-" + i));
+		for (int i = 1; i < 20000; i += 2)
+			assertTrue(filter.contains("EC-" + i));
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		for (int i = 0; i < 20000; i++)
+			filter.add("EC-" + i);
+		int falsePositives = 0;
+		for (int i = 0; i < 100000; i++)
+			if (filter.contains("XY-" + i))
+				falsePositives++;
+		assertTrue(falsePositives / 100000.0 
+				<= 2 * filter.getEffectiveFalsePositiveRate());
+	}
+
+	@Test
+	public void testHandover() {
+		for (int i = 0; i < 1000; i++)
+			filter.add("EC-" + i);
+		List<String> handedOver = new ArrayList<String>();
+		Iterator<String> it = filter.iterator();
+		while (it.hasNext()) {
+			String element = it.next();
+			if (filter.keyOf(element) < 8) {
+				handedOver.add(element);
+				it.remove();
+			}
+		}
+
+		CuckooTokenFilter other = new CuckooTokenFilter(keyFunction, 0.001, 256);
+		for (String element : handedOver)
+			other.add(element);
+		for (int i = 0; i < 1000; i++) {
+			String token = "EC-" + i;
+			boolean lower = keyFunction.keyOf(token) < 8;
+			assertTrue((lower ? other : filter).contains(token));
+		}
+		assertEquals(1000, filter.size() + other.size());
+		assertFalse(filter.isEmpty());
+	}
+}
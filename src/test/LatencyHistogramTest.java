@@ -0,0 +1,52 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tools.monitor.LatencyHistogram;
+
+/**
+ * Check the percentiles of the latency histogram
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() {
+		LatencyHistogram h = new LatencyHistogram("empty");
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getPercentile(99));
+		assertEquals(0, h.getMean());
+	}
+
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram h = new LatencyHistogram("uniform");
+		for (long v = 1; v <= 100000; v++)
+			h.record(v * 1000);
+		assertEquals(100000, h.getCount());
+		assertEquals(100000000L, h.getMax());
+		assertPrecise(50000000L, h.getPercentile(50));
+		assertPrecise(99000000L, h.getPercentile(99));
+		assertPrecise(50000500L, h.getMean());
+		assertEquals(h.getMax(), h.getPercentile(100));
+	}
+
+	@Test
+	public void testExtremes() {
+		LatencyHistogram h = new LatencyHistogram("extremes");
+		h.record(-5);
+		h.record(Long.MAX_VALUE);
+		assertEquals(0, h.getPercentile(50));
+		assertEquals(Long.MAX_VALUE, h.getPercentile(100));
+	}
+
+	/**
+	 * Check that the reported value is within the precision of the histogram
+	 */
+	private void assertPrecise(long expected, long actual) {
+		assertTrue("expected " + expected + " but was " + actual,
+				Math.abs(actual - expected) <= expected / 32);
+	}
+}
@@ -0,0 +1,113 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cliseau.central.policy.KeyedTokenSet;
+import cliseau.central.policy.OffHeapTokenSet;
+
+/**
+ * Check the off-heap token set against the contract of a set of tokens
+ */
+public class OffHeapTokenSetTest {
+
+	/**
+	 * The set under test, with small segments to exercise the growing
+	 */
+	OffHeapTokenSet tokens;
+
+	@Before
+	public void setUp() {
+		tokens = new OffHeapTokenSet(new KeyedTokenSet.KeyFunction() {
+			@Override
+			public int keyOf(String token) {
+				return Math.abs(token.hashCode() % 64);
+			}
+		}, 4, 16);
+	}
+
+	@Test
+	public void testAddContainsRemove() {
+		assertTrue(tokens.add("EC-1234567890ABCDEFG"));
+		assertFalse(tokens.add("EC-1234567890ABCDEFG"));
+		assertTrue(tokens.contains("EC-1234567890ABCDEFG"));
+		assertFalse(tokens.contains("EC-0000000000000000"));
+		assertTrue(tokens.remove("EC-1234567890ABCDEFG"));
+		assertFalse(tokens.remove("EC-1234567890ABCDEFG"));
+		assertFalse(tokens.contains("EC-1234567890ABCDEFG"));
+		assertEquals(0, tokens.size());
+	}
+
+	@Test
+	public void testGrowAndRemoveMany() {
+		for (int i = 0; i < 10000; i++)
+			assertTrue(tokens.add("EC-" + i));
+		for (int i = 0; i < 10000; i += 2)
+			assertTrue(tokens.remove("EC-" + i));
+		assertEquals(5000, tokens.size());
+		for (int i = 0; i < 10000; i++)
+			assertEquals(i % 2 == 1, tokens.contains("EC-" + i));
+	}
+
+	@Test
+	public void testDigestsCanBeAddedAgain() {
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 100; i++) {
+			tokens.add("EC-" + i);
+			expected.add("EC-" + i);
+		}
+		Set<String> digests = new HashSet<String>(tokens);
+		assertEquals(100, digests.size());
+
+		OffHeapTokenSet other = new OffHeapTokenSet(null, 1, 16);
+		for (String digest : digests) {
+			assertTrue(OffHeapTokenSet.isDigest(digest));
+			other.add(digest);
+		}
+		for (String token : expected) {
+			assertTrue(other.contains(token));
+			assertEquals(tokens.keyOf(token), other.keyOf(digestOf(token)));
+		}
+	}
+
+	@Test
+	public void testRangeExtraction() {
+		for (int i = 0; i < 1000; i++)
+			tokens.add("EC-" + i);
+		int removed = 0;
+		Iterator<String> it = tokens.iterator();
+		while (it.hasNext()) {
+			if (tokens.keyOf(it.next()) <= 31) {
+				it.remove();
+				removed++;
+			}
+		}
+		assertEquals(1000 - removed, tokens.size());
+		for (int i = 0; i < 1000; i++) {
+			String token = "EC-" + i;
+			assertEquals(Math.abs(token.hashCode() % 64) > 31, tokens.contains(token));
+		}
+	}
+
+	/**
+	 * Find the encoded digest of the given token in the set under test
+	 */
+	private String digestOf(String token) {
+		OffHeapTokenSet single = new OffHeapTokenSet(new KeyedTokenSet.KeyFunction() {
+			@Override
+			public int keyOf(String t) {
+				return Math.abs(t.hashCode() % 64);
+			}
+		}, 1, 16);
+		single.add(token);
+		return single.iterator().next();
+	}
+}
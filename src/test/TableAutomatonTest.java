@@ -0,0 +1,54 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cliseau.central.event.IcapEventType;
+import cliseau.central.policy.PayForLessAutomaton;
+import cliseau.central.policy.TableAutomaton;
+
+/**
+ * Check the compilation of automaton specifications into transition tables
+ */
+public class TableAutomatonTest {
+
+	@Test
+	public void testPayForLess() {
+		TableAutomaton a = PayForLessAutomaton.TABLE;
+		assertEquals(2, a.getStateCount());
+		assertEquals("UNUSED", a.getStateName(0));
+		assertTrue(a.isRelevant(IcapEventType.RECEIVE_PAYER_ID_C));
+		assertFalse(a.isRelevant(IcapEventType.LOG_IN_C));
+		assertEquals(1, a.next(0, IcapEventType.TOKEN_ESTABLISH_S));
+		assertEquals(1, a.next(1, IcapEventType.TOKEN_ESTABLISH_S));
+		assertEquals(0, a.next(1, IcapEventType.RECEIVE_PAYER_ID_C));
+		assertEquals(TableAutomaton.REJECT, a.next(0, IcapEventType.RECEIVE_PAYER_ID_C));
+		assertEquals(1, a.next(1, IcapEventType.LOG_OUT_C));
+	}
+
+	@Test
+	public void testThreeStates() {
+		TableAutomaton a = TableAutomaton.compile(
+				"name=Confirm\n"
+				+ "states=NEW,CONFIRMED,PROCESSED\n"
+				+ "CONFIRM_ORDER_C=NEW>CONFIRMED\n"
+				+ "PROCESS_ORDER_C=CONFIRMED>PROCESSED\n");
+		assertEquals(3, a.getStateCount());
+		assertEquals(2, a.next(1, IcapEventType.PROCESS_ORDER_C));
+		assertEquals(TableAutomaton.REJECT, a.next(0, IcapEventType.PROCESS_ORDER_C));
+		assertEquals(TableAutomaton.REJECT, a.next(2, IcapEventType.CONFIRM_ORDER_C));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownState() {
+		TableAutomaton.compile("states=A,B\nLOG_IN_C=A>C\n");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownEventType() {
+		TableAutomaton.compile("states=A\nLOG_ON=A>A\n");
+	}
+}
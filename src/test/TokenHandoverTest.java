@@ -0,0 +1,92 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cliseau.central.Topology;
+import cliseau.central.policy.IcapPolicy;
+import cliseau.central.policy.KeyedTokenSet;
+import cliseau.central.policy.OffHeapTokenSet;
+
+/**
+ * Check that a handed-over key range holds exactly the tokens with keys in the range
+ */
+public class TokenHandoverTest {
+
+	/**
+	 * The bit length of the identifiers
+	 */
+	static final int BIT_LENGTH = 6;
+
+	/**
+	 * The key function of the tokens, as used by the nodes
+	 */
+	static final KeyedTokenSet.KeyFunction KEYS = new KeyedTokenSet.KeyFunction() {
+		@Override
+		public int keyOf(String token) {
+			return IcapPolicy.tokenKey(token, BIT_LENGTH);
+		}
+	};
+
+	@Test
+	public void testKeysWithinCircle() {
+		for (int i = 0; i < 1000; i++) {
+			int key = IcapPolicy.tokenKey("EC-" + i, BIT_LENGTH);
+			assertTrue(key >= 0 && key < 1 << BIT_LENGTH);
+		}
+	}
+
+	@Test
+	public void testRange() {
+		checkRange(new HashSet<String>(), 10, 37);
+	}
+
+	@Test
+	public void testWrappingRange() {
+		checkRange(new HashSet<String>(), 51, 10);
+	}
+
+	@Test
+	public void testOffHeapRange() {
+		final OffHeapTokenSet store = new OffHeapTokenSet(KEYS, 4, 16);
+		for (int i = 0; i < 1000; i++)
+			store.add("EC-" + i);
+		Set<String> handedOver = IcapPolicy.removeRange(store, 
+				new KeyedTokenSet.KeyFunction() {
+					@Override
+					public int keyOf(String element) {
+						return store.keyOf(element);
+					}
+				}, 51, 10);
+
+		OffHeapTokenSet receiver = new OffHeapTokenSet(null, 1, 16);
+		receiver.addAll(handedOver);
+		for (int i = 0; i < 1000; i++) {
+			String token = "EC-" + i;
+			boolean inRange = Topology.isInRange(KEYS.keyOf(token), 51, 10);
+			assertEquals(inRange, receiver.contains(token));
+			assertEquals(!inRange, store.contains(token));
+		}
+	}
+
+	/**
+	 * Hand over the range (pred, node] of a set of tokens and check both parts
+	 */
+	private void checkRange(Set<String> tokens, int pred, int node) {
+		for (int i = 0; i < 1000; i++)
+			tokens.add("EC-" + i);
+		Set<String> handedOver = IcapPolicy.removeRange(tokens, KEYS, pred, node);
+		assertEquals(1000, handedOver.size() + tokens.size());
+		for (int i = 0; i < 1000; i++) {
+			String token = "EC-" + i;
+			boolean inRange = Topology.isInRange(KEYS.keyOf(token), pred, node);
+			assertEquals(inRange, handedOver.contains(token));
+			assertEquals(!inRange, tokens.contains(token));
+		}
+	}
+}
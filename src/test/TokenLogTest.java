@@ -0,0 +1,161 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cliseau.central.policy.TokenLog;
+
+/**
+ * Check that the token log recovers the appended tokens and states, through its
+ * snapshots and up to a damaged record
+ */
+public class TokenLogTest {
+
+	/**
+	 * The directory of the log and snapshot files
+	 */
+	File dir;
+
+	/**
+	 * The live tokens and states attached to the log under test
+	 */
+	Set<String> tokens;
+	Map<String, Integer> states;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("tokenlog", "");
+		dir.delete();
+		tokens = new HashSet<String>();
+		states = new HashMap<String, Integer>();
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	/**
+	 * Open the log of the test in the given size and attach the live tokens and states.
+	 */
+	TokenLog open(int size) throws IOException {
+		TokenLog log = new TokenLog(dir, "node-1", TokenLog.SyncMode.NONE, size);
+		log.recover(tokens, states);
+		return log;
+	}
+
+	/**
+	 * Recover the log of the test into fresh sets.
+	 */
+	Set<String> recover(Map<String, Integer> recoveredStates) throws IOException {
+		Set<String> recovered = new HashSet<String>();
+		new TokenLog(dir, "node-1", TokenLog.SyncMode.NONE, 4096)
+				.recover(recovered, recoveredStates);
+		return recovered;
+	}
+
+	void add(TokenLog log, String token) {
+		tokens.add(token);
+		log.logAdd(token);
+	}
+
+	@Test
+	public void testAppendAndRecover() throws IOException {
+		TokenLog log = open(4096);
+		add(log, "EC-1");
+		add(log, "EC-2");
+		tokens.remove("EC-1");
+		log.logRemove("EC-1");
+		log.logState("EC-3", 3);
+		log.logState("EC-4", 2);
+		log.logRemoveStates(Arrays.asList("EC-4"));
+
+		Map<String, Integer> recoveredStates = new HashMap<String, Integer>();
+		assertEquals(new HashSet<String>(Arrays.asList("EC-2")),
+				recover(recoveredStates));
+		assertEquals(1, recoveredStates.size());
+		assertEquals(Integer.valueOf(3), recoveredStates.get("EC-3"));
+	}
+
+	@Test
+	public void testSnapshotKeepsLaterRecords() throws IOException {
+		TokenLog log = open(4096);
+		add(log, "EC-1");
+		states.put("EC-1", 2);
+		log.logState("EC-1", 2);
+		log.snapshot();
+		add(log, "EC-2");
+		tokens.remove("EC-1");
+		log.logRemove("EC-1");
+		assertTrue(new File(dir, "node-1.snap").exists());
+
+		Map<String, Integer> recoveredStates = new HashMap<String, Integer>();
+		assertEquals(new HashSet<String>(Arrays.asList("EC-2")),
+				recover(recoveredStates));
+		assertEquals(Integer.valueOf(2), recoveredStates.get("EC-1"));
+	}
+
+	@Test
+	public void testFullLogWritesSnapshot() throws IOException {
+		TokenLog log = open(256);
+		for (int i = 0; i < 1000; i++)
+			add(log, "EC-" + i);
+		assertEquals(tokens, recover(new HashMap<String, Integer>()));
+	}
+
+	@Test
+	public void testReplayStopsAtDamagedRecord() throws IOException {
+		TokenLog log = open(4096);
+		add(log, "EC-1");
+		add(log, "EC-2");
+		// Flip a byte of the token of the second record, which starts after the
+		// 1 + 2 + 4 + 4 bytes of the first one
+		RandomAccessFile file = new RandomAccessFile(new File(dir, "node-1.wal"), "rw");
+		try {
+			file.seek(11 + 3);
+			file.write('X');
+		} finally {
+			file.close();
+		}
+
+		// The damaged record is dropped together with everything after it, and the
+		// log goes on after the last valid record
+		tokens.clear();
+		log = open(4096);
+		assertEquals(new HashSet<String>(Arrays.asList("EC-1")), tokens);
+		add(log, "EC-3");
+		assertEquals(new HashSet<String>(Arrays.asList("EC-1", "EC-3")),
+				recover(new HashMap<String, Integer>()));
+	}
+
+	@Test
+	public void testResetAndDiscard() throws IOException {
+		TokenLog log = open(4096);
+		add(log, "EC-1");
+		log.snapshot();
+		add(log, "EC-2");
+		log.reset();
+		add(log, "EC-3");
+		assertEquals(new HashSet<String>(Arrays.asList("EC-3")),
+				recover(new HashMap<String, Integer>()));
+
+		log.discard();
+		add(log, "EC-4");
+		assertEquals(new HashSet<String>(), recover(new HashMap<String, Integer>()));
+	}
+}
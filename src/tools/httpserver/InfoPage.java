@@ -31,6 +31,8 @@ package tools.httpserver;
 import java.util.Date;
 import tools.httpserver.custom.ProjectSpecifics;
 import java.lang.management.*;
+import java.util.Map;
+import tools.monitor.RateCounter;
 import tools.monitor.TrafficStatistics;
 import java.io.*;
 import java.text.*;
@@ -195,15 +197,46 @@ public class InfoPage {
 		StringBuilder stb = new StringBuilder();
 		stb.append("<div class=\"").append(headclass).append("\">").append("Current Activity").append("</div>\r\n");
 		stb.append("<div class=\"").append(itemclass).append("\">");
-		long loadreqs = TrafficStatistics.getActivityLoad();
-		long currentreqs = TrafficStatistics.fetchActivityCounter();
-		stb.append("Processed Requests since last display:&nbsp;&nbsp;&nbsp;\t").append(currentreqs).append("<br />\r\n");
-		stb.append("Instant load since last display:&nbsp;&nbsp;&nbsp;\t").append(loadreqs).append(" r/s<br />\r\n");
+		stb.append("Load over last 1s / 10s / 1min:&nbsp;&nbsp;&nbsp;\t")
+			.append(formatRate(TrafficStatistics.getActivityRate(1))).append(" / ")
+			.append(formatRate(TrafficStatistics.getActivityRate(10))).append(" / ")
+			.append(formatRate(TrafficStatistics.getActivityRate(60))).append(" r/s<br />\r\n");
+		appendCounters(stb, "Service", TrafficStatistics.getServiceCounters());
+		appendCounters(stb, "Method", TrafficStatistics.getMethodCounters());
+		appendCounters(stb, "Response code", TrafficStatistics.getCodeCounters());
 		stb.append("</div>");
 		return stb.toString();
 	}
 //	-----------------------------------------------------------------------------
 
+	/**
+	 * Append a table of the given request counters with their rates
+	 * @param stb The builder to append to
+	 * @param title The title of the key column
+	 * @param counters The counters by key
+	 */
+	private static void appendCounters(StringBuilder stb, String title, Map<String, RateCounter> counters){
+		if (counters.isEmpty()) return;
+		stb.append("<table><tr><th>").append(title).append("</th><th>Total</th><th>1s</th><th>10s</th><th>1min</th></tr>\r\n");
+		for (Map.Entry<String, RateCounter> e : counters.entrySet()){
+			RateCounter c = e.getValue();
+			stb.append("<tr><td>").append(e.getKey()).append("</td><td>").append(c.sum())
+				.append("</td><td>").append(formatRate(c.getRate(1)))
+				.append("</td><td>").append(formatRate(c.getRate(10)))
+				.append("</td><td>").append(formatRate(c.getRate(60))).append(" r/s</td></tr>\r\n");
+		}
+		stb.append("</table><br />\r\n");
+	}
+
+	/**
+	 * @param rate A rate in requests per second
+	 * @return the rate with one decimal
+	 */
+	private static String formatRate(double rate){
+		return new DecimalFormat("0.0").format(rate);
+	}
+//	-----------------------------------------------------------------------------
+
 	//-----------------------------------------------------------------------------
 	/**
 	 * @return the Cumulative Activity for this server
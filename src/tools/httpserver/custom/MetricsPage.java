@@ -0,0 +1,144 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.httpserver.custom;
+
+import java.util.Map;
+
+import cliseau.Clicap;
+import cliseau.central.delegation.DelegationTrace;
+import cliseau.central.policy.IcapPolicy;
+import cliseau.central.policy.TraceCollector;
+import cliseau.javacor.Coordinator;
+import cliseau.javacor.Stage;
+import icap.services.AdmissionControl;
+import icap.services.Cliseau;
+import tools.monitor.Latencies;
+
+/**
+ * Generate the metrics of this CliCap node: the latency histograms of the 
+ * processing stages, the gauges of the coordinator stages and of the admission 
+ * control and the delegation traces. The metrics are served in text format as metrics.txt and as HTML page
+ * as latencies.html.
+ */
+public class MetricsPage {
+
+	static String headclass = "section";
+	static String itemclass = "item";
+
+	/**
+	 * @return the metrics in the text exposition format
+	 */
+	public static String getText() {
+		StringBuilder sb = new StringBuilder(Latencies.getText());
+		Coordinator coordinator = Clicap.getCoordinator();
+		if (coordinator != null) {
+			for (Stage stage : coordinator.getStages()) {
+				String label = "{stage=\"" + stage.getName() + "\"} ";
+				sb.append("clicap_stage_queue_depth").append(label)
+						.append(stage.getQueueDepth()).append('\n');
+				sb.append("clicap_stage_queue_depth_max").append(label)
+						.append(stage.getMaxQueueDepth()).append('\n');
+				sb.append("clicap_stage_rejected_total").append(label)
+						.append(stage.getRejected()).append('\n');
+			}
+			sb.append("clicap_coordinator_dropped_total ").append(coordinator.getDropped())
+					.append('\n');
+		}
+		IcapPolicy policy = Clicap.getPolicy();
+		if (policy != null) {
+			TraceCollector traces = policy.getTraces();
+			long[] hopCounts = traces.getHopCounts();
+			for (int i = 0; i < hopCounts.length; i++)
+				if (hopCounts[i] > 0)
+					sb.append("clicap_trace_hops_total{hops=\"").append(i).append("\"} ")
+							.append(hopCounts[i]).append('\n');
+		}
+		AdmissionControl admission = Cliseau.getAdmissionControl();
+		if (admission != null) {
+			sb.append("clicap_admission_limit ").append(admission.getLimit()).append('\n');
+			sb.append("clicap_admission_inflight ").append(admission.getInFlight())
+					.append('\n');
+			sb.append("clicap_admission_admitted_total ").append(admission.getAdmitted())
+					.append('\n');
+			sb.append("clicap_admission_timedout_total ").append(admission.getTimedOut())
+					.append('\n');
+			for (Map.Entry<String, Long> e : admission.getShed().entrySet())
+				sb.append("clicap_admission_shed_total{type=\"").append(e.getKey())
+						.append("\"} ").append(e.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return an HTML page with the latencies and the stage gauges
+	 */
+	public static String getHtml() {
+		StringBuilder content = new StringBuilder();
+		content.append("<html><head><title>Latencies</title></head><body>\r\n");
+		content.append("<div class=\"" + headclass + "\">");
+		content.append("Latencies (ms)");
+		content.append("</div>\r\n");
+		content.append("<div class=\"" + itemclass + "\">");
+		content.append(Latencies.getHtml());
+		content.append("</div>\r\n<br /><br />");
+
+		Coordinator coordinator = Clicap.getCoordinator();
+		if (coordinator != null) {
+			content.append("<div class=\"" + headclass + "\">");
+			content.append("Coordinator stages");
+			content.append("</div>\r\n");
+			content.append("<div class=\"" + itemclass + "\">");
+			for (Stage stage : coordinator.getStages())
+				content.append(stage.toString()).append("<br />\r\n");
+			content.append("dropped=").append(coordinator.getDropped())
+					.append("<br />\r\n");
+			content.append("</div>\r\n<br /><br />");
+		}
+		IcapPolicy policy = Clicap.getPolicy();
+		if (policy != null) {
+			TraceCollector traces = policy.getTraces();
+			content.append("<div class=\"" + headclass + "\">");
+			content.append("Delegation traces");
+			content.append("</div>\r\n");
+			content.append("<div class=\"" + itemclass + "\">");
+			long[] hopCounts = traces.getHopCounts();
+			for (int i = 0; i < hopCounts.length; i++)
+				if (hopCounts[i] > 0)
+					content.append(i).append(" hops: ").append(hopCounts[i])
+							.append("<br />\r\n");
+			content.append("Slow requests:<br />\r\n");
+			for (DelegationTrace trace : traces.getSlowTraces())
+				content.append(trace.toString()).append("<br />\r\n");
+			content.append("</div>\r\n<br /><br />");
+		}
+		AdmissionControl admission = Cliseau.getAdmissionControl();
+		if (admission != null) {
+			content.append("<div class=\"" + headclass + "\">");
+			content.append("Admission control");
+			content.append("</div>\r\n");
+			content.append("<div class=\"" + itemclass + "\">");
+			content.append(admission.toString());
+			content.append("</div>\r\n");
+		}
+		content.append("</body></html>\r\n");
+		return content.toString();
+	}
+}
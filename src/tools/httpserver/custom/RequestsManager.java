@@ -144,6 +144,14 @@ public class RequestsManager implements HttpConstants{
 	public static String preProcessGet(HtmlFile page,User user){
 		try{
 		
+		//Metrics: generated without page on disk
+		if (page.getUrlPath().endsWith("/metrics.txt")){
+			return MetricsPage.getText();
+		}
+		if (page.getUrlPath().endsWith("/latencies.html")){
+			return MetricsPage.getHtml();
+		}
+		
 		//TOP frame: modify it depending on user rights
 		if (page.getUrlPath().endsWith("top.html") && user.getRights()==RIGHTS.USER){
 			page.setUrlPath(page.getUrlPath().replace("top.html", "top_user.html"));
@@ -0,0 +1,221 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.monitor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Java Flight Recorder event type defined at runtime. CliCap is built for Java 7, 
+ * so the event types cannot extend jdk.jfr.Event at compile time. Instead, they are 
+ * created with jdk.jfr.EventFactory of the running JVM and accessed through method 
+ * handles. If the JVM has no flight recorder, or no recording has enabled the event 
+ * type, {@link #begin()} only checks a flag and returns null. Callers test for
+ * null before computing the values to commit, so the instrumented code pays nearly
+ * nothing. Usage:
+ * <pre>
+ * Object event = FlightEvents.X.begin();
+ * ... // the timed work
+ * if (event != null)
+ *     FlightEvents.X.commit(event, value1, value2);
+ * </pre>
+ * The values are passed in the order of the fields of the event type.
+ */
+public class FlightEvent {
+
+	/**
+	 * Handles of jdk.jfr.Event.begin(), set(int, Object) and commit(), null if the
+	 * JVM has no flight recorder
+	 */
+	private static final MethodHandle BEGIN, SET, COMMIT;
+
+	static {
+		MethodHandle begin = null, set = null, commit = null;
+		try {
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodType toVoid = MethodType.methodType(void.class);
+			begin = lookup.findVirtual(event, "begin", toVoid)
+					.asType(MethodType.methodType(void.class, Object.class));
+			set = lookup.findVirtual(event, "set", 
+					MethodType.methodType(void.class, int.class, Object.class))
+					.asType(MethodType.methodType(void.class, Object.class, int.class,
+							Object.class));
+			commit = lookup.findVirtual(event, "commit", toVoid)
+					.asType(MethodType.methodType(void.class, Object.class));
+		} catch (Throwable t) {
+			// No flight recorder available, all events stay disabled
+			begin = set = commit = null;
+		}
+		BEGIN = begin;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	/**
+	 * The name of the event type
+	 */
+	private final String name;
+
+	/**
+	 * Handle of EventType.isEnabled() of this event type, null if not defined
+	 */
+	private final MethodHandle enabled;
+
+	/**
+	 * Handle of EventFactory.newEvent() of this event type, null if not defined
+	 */
+	private final MethodHandle newEvent;
+
+	/**
+	 * Define an event type with the given fields. The event type is registered with
+	 * the flight recorder if the JVM has one.
+	 * 
+	 * @param name			the name of the event type, e.g. clicap.IcapTransaction
+	 * @param label			the human readable label of the event type
+	 * @param fieldNames	the names of the fields
+	 * @param fieldTypes	the types of the fields, primitives or String
+	 */
+	public FlightEvent(String name, String label, String[] fieldNames,
+			Class<?>[] fieldTypes) {
+		this.name = name;
+		MethodHandle isEnabled = null, factoryNewEvent = null;
+		if (COMMIT != null) {
+			try {
+				Object factory = createFactory(name, label, fieldNames, fieldTypes);
+				MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+				Object type = factory.getClass().getMethod("getEventType").invoke(factory);
+				isEnabled = lookup.findVirtual(Class.forName("jdk.jfr.EventType"), 
+						"isEnabled", MethodType.methodType(boolean.class)).bindTo(type);
+				factoryNewEvent = lookup.findVirtual(factory.getClass(), "newEvent",
+						MethodType.methodType(Class.forName("jdk.jfr.Event")))
+						.bindTo(factory).asType(MethodType.methodType(Object.class));
+			} catch (Throwable t) {
+				System.err.println("» Flight recorder event " + name 
+						+ " not defined: " + t);
+				isEnabled = factoryNewEvent = null;
+			}
+		}
+		this.enabled = isEnabled;
+		this.newEvent = factoryNewEvent;
+	}
+
+	/**
+	 * Create the jdk.jfr.EventFactory of an event type in the category CliCap.
+	 * 
+	 * @param name			the name of the event type
+	 * @param label			the label of the event type
+	 * @param fieldNames	the names of the fields
+	 * @param fieldTypes	the types of the fields
+	 * @return the event factory
+	 * @throws Exception if the event type cannot be defined
+	 */
+	private static Object createFactory(String name, String label, String[] fieldNames,
+			Class<?>[] fieldTypes) throws Exception {
+		Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+		Constructor<?> annotation = annotationElement.getConstructor(Class.class,
+				Object.class);
+		Constructor<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+				.getConstructor(Class.class, String.class);
+
+		List<Object> annotations = new ArrayList<Object>();
+		annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), name));
+		annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+		annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"),
+				new String[] { "CliCap" }));
+
+		List<Object> fields = new ArrayList<Object>();
+		for (int i = 0; i < fieldNames.length; i++)
+			fields.add(valueDescriptor.newInstance(fieldTypes[i], fieldNames[i]));
+
+		return Class.forName("jdk.jfr.EventFactory")
+				.getMethod("create", List.class, List.class)
+				.invoke(null, annotations, fields);
+	}
+
+	/**
+	 * Check whether a recording has enabled this event type.
+	 * 
+	 * @return True if events of this type are recorded, otherwise false
+	 */
+	public boolean isEnabled() {
+		if (enabled == null)
+			return false;
+		try {
+			return (boolean) enabled.invokeExact();
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	/**
+	 * Start timing an event of this type.
+	 * 
+	 * @return the started event, null if this event type is not recorded
+	 */
+	public Object begin() {
+		if (!isEnabled())
+			return null;
+		try {
+			Object event = (Object) newEvent.invokeExact();
+			BEGIN.invokeExact(event);
+			return event;
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	/**
+	 * Set the fields of the given event and commit it. Nothing happens if the event
+	 * is null.
+	 * 
+	 * @param event		the event returned by {@link #begin()}, or null
+	 * @param values	the values of the fields, in the order of the fields
+	 */
+	public void commit(Object event, Object... values) {
+		if (event == null)
+			return;
+		try {
+			for (int i = 0; i < values.length; i++)
+				SET.invokeExact(event, i, values[i]);
+			COMMIT.invokeExact(event);
+		} catch (Throwable t) {
+			// Recording is best effort only
+		}
+	}
+
+	/**
+	 * @return the name of the event type
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name + (enabled == null ? " (unavailable)" : isEnabled() ? " (enabled)" 
+				: " (disabled)");
+	}
+}
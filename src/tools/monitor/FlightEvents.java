@@ -0,0 +1,67 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.monitor;
+
+/**
+ * The flight recorder event types of CliCap, in the category CliCap of a recording.
+ * The events line up the phases of a request with the garbage collection and lock
+ * events of the JVM. They are only recorded if a recording enables them, e.g. with
+ * -XX:StartFlightRecording on a JVM that has a flight recorder.
+ */
+public class FlightEvents {
+
+	/** An ICAP transaction, from parsing the request to writing the response */
+	public static final FlightEvent ICAP_TRANSACTION = new FlightEvent(
+			"clicap.IcapTransaction", "ICAP Transaction",
+			new String[] { "method", "service", "status", "bytesIn", "bytesOut" },
+			new Class<?>[] { String.class, String.class, int.class, long.class, 
+					long.class });
+
+	/** A message read by the coordinator from the local or the remote socket */
+	public static final FlightEvent MESSAGE_RECEIVED = new FlightEvent(
+			"clicap.MessageReceived", "Coordinator Message Received",
+			new String[] { "socket", "message" },
+			new Class<?>[] { String.class, String.class });
+
+	/** The evaluation of a message with the local policy */
+	public static final FlightEvent POLICY_EVALUATION = new FlightEvent(
+			"clicap.PolicyEvaluation", "Policy Evaluation",
+			new String[] { "message", "response" },
+			new Class<?>[] { String.class, String.class });
+
+	/** Sending a delegation message to another node */
+	public static final FlightEvent MESSAGE_FORWARDED = new FlightEvent(
+			"clicap.MessageForwarded", "Coordinator Message Forwarded",
+			new String[] { "destination", "message" },
+			new Class<?>[] { String.class, String.class });
+
+	/** A step of the joining or the leaving protocol */
+	public static final FlightEvent SCALING_STEP = new FlightEvent(
+			"clicap.ScalingStep", "Scaling Protocol Step",
+			new String[] { "protocol", "step" },
+			new Class<?>[] { String.class, String.class });
+
+	/** The execution of a script of a JSR 223 engine */
+	public static final FlightEvent SCRIPT_EXECUTION = new FlightEvent(
+			"clicap.ScriptExecution", "Script Execution",
+			new String[] { "script", "timeoutMillis", "timedOut" },
+			new Class<?>[] { String.class, int.class, boolean.class });
+}
@@ -0,0 +1,146 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.monitor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The latency histograms of the processing stages of a request, from parsing the
+ * ICAP request to writing the ICAP response. Further histograms, e.g. the queueing
+ * time of each coordinator stage, are registered by name. The histograms are 
+ * cumulative since the start of the process and exposed by the administration 
+ * server as text (metrics.txt) and as a page (latencies.html).
+ */
+public class Latencies {
+
+	/**
+	 * The registered histograms in registration order, by name
+	 */
+	private static final Map<String, LatencyHistogram> histograms = 
+			new LinkedHashMap<String, LatencyHistogram>();
+
+	/** Parsing the ICAP header and the encapsulated HTTP headers */
+	public static final LatencyHistogram ICAP_PARSE = register("icap_parse");
+
+	/** Reading the preview and the body of the encapsulated HTTP message */
+	public static final LatencyHistogram BODY_READ = register("body_read");
+
+	/** Extracting the critical event from the HTTP message, without body reading */
+	public static final LatencyHistogram EVENT_EXTRACTION = register("event_extraction");
+
+	/** Waiting for the decision of the coordinator */
+	public static final LatencyHistogram DECISION = register("decision");
+
+	/** Evaluating a message with the local policy */
+	public static final LatencyHistogram POLICY_EVALUATION = register("policy_evaluation");
+
+	/** Sending a delegation message to the next hop */
+	public static final LatencyHistogram DELEGATION_HOP = register("delegation_hop");
+
+	/** Writing the ICAP response */
+	public static final LatencyHistogram ICAP_WRITE = register("icap_write");
+
+	/**
+	 * Obtain the histogram of the given name, register it if necessary.
+	 * 
+	 * @param name	the name of the histogram
+	 * @return the histogram
+	 */
+	public static synchronized LatencyHistogram register(String name) {
+		LatencyHistogram h = histograms.get(name);
+		if (h == null) {
+			h = new LatencyHistogram(name);
+			histograms.put(name, h);
+		}
+		return h;
+	}
+
+	/**
+	 * Remove the given histogram, e.g. of a stage that has been retired.
+	 * 
+	 * @param histogram	the histogram
+	 */
+	public static synchronized void unregister(LatencyHistogram histogram) {
+		if (histograms.get(histogram.getName()) == histogram)
+			histograms.remove(histogram.getName());
+	}
+
+	/**
+	 * Get all registered histograms.
+	 * 
+	 * @return the histograms in registration order
+	 */
+	public static synchronized List<LatencyHistogram> getHistograms() {
+		return new ArrayList<LatencyHistogram>(histograms.values());
+	}
+
+	/**
+	 * Render the histograms in the text exposition format, one sample per line, in
+	 * microseconds.
+	 * 
+	 * @return the text
+	 */
+	public static String getText() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# TYPE clicap_latency_microseconds summary\n");
+		for (LatencyHistogram h : getHistograms()) {
+			String label = "{stage=\"" + h.getName() + "\"";
+			for (double q : new double[] { 50, 90, 99, 99.9 })
+				sb.append("clicap_latency_microseconds").append(label)
+						.append(",quantile=\"").append(q / 100).append("\"} ")
+						.append(h.getPercentile(q) / 1000).append('\n');
+			sb.append("clicap_latency_microseconds_max").append(label).append("} ")
+					.append(h.getMax() / 1000).append('\n');
+			sb.append("clicap_latency_microseconds_sum").append(label).append("} ")
+					.append(h.getSum() / 1000).append('\n');
+			sb.append("clicap_latency_microseconds_count").append(label).append("} ")
+					.append(h.getCount()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Render the histograms as an HTML table in milliseconds.
+	 * 
+	 * @return the HTML table
+	 */
+	public static String getHtml() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("<table border='1' cellpadding='4'>\n<tr><th>Stage</th><th>Count</th>"
+				+ "<th>Mean</th><th>p50</th><th>p90</th><th>p99</th><th>p99.9</th>"
+				+ "<th>Max</th></tr>\n");
+		for (LatencyHistogram h : getHistograms()) {
+			sb.append("<tr><td>").append(h.getName()).append("</td><td>")
+					.append(h.getCount()).append("</td>");
+			for (long v : new long[] { h.getMean(), h.getPercentile(50), 
+					h.getPercentile(90), h.getPercentile(99), h.getPercentile(99.9),
+					h.getMax() })
+				sb.append("<td align='right'>").append(String.format("%.3f", v / 1e6))
+						.append("</td>");
+			sb.append("</tr>\n");
+		}
+		sb.append("</table>\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear buckets: every
+ * power of two is split into SUB_BUCKETS buckets, so a recorded value is reported 
+ * with a relative error of at most 1/SUB_BUCKETS, over the whole range of long. 
+ * Recording is a few atomic increments and never allocates or blocks. The
+ * statistics are read without stopping the recording threads, so a snapshot may 
+ * miss values recorded concurrently.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of bits of the sub-bucket index
+	 */
+	private static final int SUB_BITS = 5;
+
+	/**
+	 * Number of buckets per power of two
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * Number of buckets covering all non-negative long values
+	 */
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	/**
+	 * The name of the histogram
+	 */
+	private final String name;
+
+	/**
+	 * The number of values per bucket
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * The number of recorded values
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * The sum of the recorded values
+	 */
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * The highest recorded value
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Create an empty histogram.
+	 * 
+	 * @param name	the name of the histogram
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Compute the bucket of the given value.
+	 * 
+	 * @param value	the value, at least 0
+	 * @return the index of the bucket
+	 */
+	static int bucketOf(long value) {
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Compute the highest value of the given bucket.
+	 * 
+	 * @param bucket	the index of the bucket
+	 * @return the highest value that falls into the bucket
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Record the given latency.
+	 * 
+	 * @param nanos	the latency in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))
+			continue;
+	}
+
+	/**
+	 * Record the time elapsed since the given start.
+	 * 
+	 * @param startNanos	the start as returned by System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Get the value below which the given percentage of the recorded values lies.
+	 * 
+	 * @param percentile	the percentile between 0 and 100
+	 * @return the percentile in nanoseconds, 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestValueOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 * 
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the sum of the recorded values.
+	 * 
+	 * @return the sum in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values.
+	 * 
+	 * @return the mean in nanoseconds, 0 if nothing has been recorded
+	 */
+	public long getMean() {
+		long total = count.get();
+		return total == 0 ? 0 : sum.get() / total;
+	}
+
+	/**
+	 * Get the highest recorded value.
+	 * 
+	 * @return the maximum in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the name of the histogram.
+	 * 
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name + " n=" + getCount() + " p50=" + getPercentile(50) / 1000 
+				+ "us p99=" + getPercentile(99) / 1000 + "us max=" + getMax() / 1000 
+				+ "us";
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A striped counter that also provides its rate over sliding windows of up to
+ * {@value #MAX_WINDOW} seconds. Once per second, {@link #tick(long)} records the
+ * count of the current second in a ring buffer; the rate over a window is the 
+ * difference between the current count and the recorded count at the beginning of 
+ * the window. Neither counting nor reading the rate takes a lock.
+ */
+public class RateCounter extends StripedCounter {
+
+	/**
+	 * Longest window in seconds
+	 */
+	public static final int MAX_WINDOW = 60;
+
+	/**
+	 * Number of recorded seconds, a power of two above MAX_WINDOW
+	 */
+	private static final int SLOTS = 64;
+
+	/**
+	 * The recorded counts, by second modulo SLOTS
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+
+	/**
+	 * The seconds of the recorded counts, by second modulo SLOTS
+	 */
+	private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+
+	/**
+	 * Record the current count for the given second. Called once per second by a
+	 * single thread.
+	 * 
+	 * @param second	the current time in seconds
+	 */
+	public void tick(long second) {
+		int slot = (int) (second & (SLOTS - 1));
+		counts.set(slot, sum());
+		seconds.set(slot, second);
+	}
+
+	/**
+	 * Get the rate over the last given number of seconds. If the counter has been
+	 * recording for a shorter time, the rate over the recorded time is returned.
+	 * 
+	 * @param window	the window in seconds, between 1 and MAX_WINDOW
+	 * @return the rate in events per second
+	 */
+	public double getRate(int window) {
+		long now = System.currentTimeMillis() / 1000;
+		long current = sum();
+		window = Math.max(1, Math.min(MAX_WINDOW, window));
+		for (int w = window; w > 0; w--) {
+			int slot = (int) ((now - w) & (SLOTS - 1));
+			if (seconds.get(slot) == now - w)
+				return (double) (current - counts.get(slot)) / w;
+		}
+		return 0;
+	}
+}
@@ -406,7 +406,7 @@ public class ServerStatistics {
 						gctime = getGcTime();
 
 						// Build up RRD statistics
-						transactions = TrafficStatistics.getTransactionsDelta()/SAMPLING_RESOLUTION;
+						transactions = TrafficStatistics.getActivityRate(SAMPLING_RESOLUTION);
 
 						rrdDb = rrdPool.requestRrdDb(RRDPATH+RRD_FILE);
 						// create sample with the current timestamp
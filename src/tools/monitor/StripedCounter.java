@@ -0,0 +1,99 @@
+/*
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package tools.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is incremented by many threads without contention. The count is
+ * striped over several cells, each on its own cache line, and a thread always adds 
+ * to the cell selected by its thread ID. Reading the count sums up the cells; a sum 
+ * read while other threads increment may miss their concurrent increments, but no
+ * increment is ever lost.
+ */
+public class StripedCounter {
+
+	/**
+	 * Distance between two cells in longs, such that each cell has its own cache line
+	 */
+	private static final int PADDING = 16;
+
+	/**
+	 * Number of cells, a power of two
+	 */
+	private static final int STRIPES;
+
+	static {
+		int n = 1;
+		while (n < 2 * Runtime.getRuntime().availableProcessors())
+			n <<= 1;
+		STRIPES = n;
+	}
+
+	/**
+	 * The cells, each followed by unused padding
+	 */
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * Select the cell of the current thread.
+	 * 
+	 * @return the index of the cell
+	 */
+	private static int cell() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & (STRIPES - 1)) * PADDING;
+	}
+
+	/**
+	 * Add one to the count.
+	 */
+	public void increment() {
+		cells.incrementAndGet(cell());
+	}
+
+	/**
+	 * Add the given value to the count.
+	 * 
+	 * @param x	the value
+	 */
+	public void add(long x) {
+		cells.addAndGet(cell(), x);
+	}
+
+	/**
+	 * Get the count.
+	 * 
+	 * @return the sum of all cells
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PADDING);
+		return sum;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(sum());
+	}
+}
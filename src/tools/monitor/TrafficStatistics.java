@@ -27,61 +27,118 @@
  *---------------------------------------------------------------------------*/
 package tools.monitor;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
- * Class used to store traffic statistics
+ * Class used to store traffic statistics<br>
+ * Counters are striped, so ICAP worker threads never lose a hit nor contend on a
+ * single counter. Besides the total of transactions (REQMOD and RESPMOD requests),
+ * requests are counted per ICAP service, per ICAP method and per response code. 
+ * All counters provide sliding-window rates, updated every second by a single 
+ * daemon thread.
  * @author Karel
  */
 public class TrafficStatistics {
 
-	private static long globalRequestCounter = 0;
-	private static long monitorCounter = 0;
-	private static long deltaCounter = 0;
-	private static long timeStamp = System.nanoTime();
-	
+	/** Transactions, i.e. REQMOD and RESPMOD requests */
+	private static final RateCounter transactions = new RateCounter();
+	/** Requests by ICAP service */
+	private static final ConcurrentMap<String, RateCounter> services = new ConcurrentHashMap<String, RateCounter>();
+	/** Requests by ICAP method */
+	private static final ConcurrentMap<String, RateCounter> methods = new ConcurrentHashMap<String, RateCounter>();
+	/** Requests by response code */
+	private static final ConcurrentMap<String, RateCounter> codes = new ConcurrentHashMap<String, RateCounter>();
+
+	static {
+		Thread ticker = new Thread("Traffic statistics"){
+			public void run(){
+				while (true) {
+					long second = System.currentTimeMillis() / 1000;
+					transactions.tick(second);
+					for (RateCounter c : services.values()) c.tick(second);
+					for (RateCounter c : methods.values()) c.tick(second);
+					for (RateCounter c : codes.values()) c.tick(second);
+					try {
+						Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+					} catch (InterruptedException e){
+						return;
+					}
+				}
+			}
+		};
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
 	/**
 	 * Increase transactions counter with a hit
 	 */
 	public static void hit(){
-		globalRequestCounter++;
+		transactions.increment();
 	}
-	
+
 	/**
-	 * Similar to fetchActivityCounter, but protected so it can be used to store result in rrd
-	 * @return Transactions made since last call to this method
+	 * Count a request of the given service and method answered with the given code
+	 * @param service The name of the ICAP service
+	 * @param method The ICAP method (REQMOD, RESPMOD, OPTIONS...)
+	 * @param code The ICAP response code
 	 */
-	protected static long getTransactionsDelta(){
-		long d = globalRequestCounter - deltaCounter;
-		deltaCounter = globalRequestCounter;
-		return d;
+	public static void count(String service, String method, int code){
+		counter(services, service).increment();
+		counter(methods, method).increment();
+		counter(codes, Integer.toString(code)).increment();
 	}
-	
+
 	/**
-	 * @return The average transactions per seconds made since last call to this method
+	 * Get the counter of the given key, create it if necessary
 	 */
-	public static long getActivityLoad(){
-		long timeStamp2 = System.nanoTime();
-		long deltaseconds = (timeStamp2 - timeStamp) / 1000000000;
-		if (deltaseconds == 0) return (globalRequestCounter - monitorCounter);
-		long load = (globalRequestCounter - monitorCounter)/deltaseconds;
-		timeStamp = timeStamp2;
-		return load;
+	private static RateCounter counter(ConcurrentMap<String, RateCounter> counters, String key){
+		RateCounter c = counters.get(key);
+		if (c == null) {
+			RateCounter created = new RateCounter();
+			c = counters.putIfAbsent(key, created);
+			if (c == null) c = created;
+		}
+		return c;
 	}
-	
+
 	/**
-	 * @return Transactions made since last call to this method
+	 * @param window The window in seconds (at most 60)
+	 * @return The average transactions per second over the last window
 	 */
-	public static long fetchActivityCounter(){
-		long d = globalRequestCounter - monitorCounter;
-		monitorCounter = globalRequestCounter;
-		return d;
+	public static double getActivityRate(int window){
+		return transactions.getRate(window);
 	}
 
-	
 	/**
 	 * @return The total transactions recorded by this class
 	 */
 	public static long getRequestsTotal(){
-		return globalRequestCounter;
+		return transactions.sum();
+	}
+
+	/**
+	 * @return The request counters by ICAP service, sorted by name
+	 */
+	public static Map<String, RateCounter> getServiceCounters(){
+		return new TreeMap<String, RateCounter>(services);
+	}
+
+	/**
+	 * @return The request counters by ICAP method, sorted by name
+	 */
+	public static Map<String, RateCounter> getMethodCounters(){
+		return new TreeMap<String, RateCounter>(methods);
 	}
-	
+
+	/**
+	 * @return The request counters by response code, sorted by code
+	 */
+	public static Map<String, RateCounter> getCodeCounters(){
+		return new TreeMap<String, RateCounter>(codes);
+	}
+
 }